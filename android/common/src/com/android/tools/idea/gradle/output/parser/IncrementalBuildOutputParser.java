@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.output.parser;
+
+import com.android.ide.common.blame.Message;
+import com.android.ide.common.blame.parser.PatternAwareOutputParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parses Gradle's build output while the build is running, so that messages can be shown as soon as they are produced.
+ * <p/>
+ * The output is split at the lines that start the output of a task (e.g. ":app:compileDebugJava" or
+ * ":app:mergeDebugResources UP-TO-DATE"), and the output of each task is handed to a {@link BuildOutputParser} as soon as the
+ * next task starts. The messages of the output parsers never span tasks, so this produces the same messages as parsing the
+ * whole output at once, while only holding on to the output of the current task.
+ */
+public class IncrementalBuildOutputParser {
+  private static final Pattern TASK_LINE = Pattern.compile(":\\S+( [A-Z][A-Z-]*)?");
+
+  @NotNull private final BuildOutputParser myParser;
+  /** The complete lines of the output of the current task */
+  @NotNull private final StringBuilder myTaskOutput = new StringBuilder();
+  /** The start of a line whose end has not been received yet */
+  @NotNull private final StringBuilder myPartialLine = new StringBuilder();
+
+  public IncrementalBuildOutputParser(@NotNull Iterable<PatternAwareOutputParser> parsers) {
+    myParser = new BuildOutputParser(parsers);
+  }
+
+  /**
+   * Adds output received from Gradle, and returns the messages of the output of the tasks that have completed since the last
+   * call.
+   */
+  @NotNull
+  public synchronized List<Message> append(@NotNull String text) {
+    List<Message> messages = new ArrayList<Message>();
+    int start = 0;
+    int end;
+    while ((end = text.indexOf('\n', start)) >= 0) {
+      myPartialLine.append(text, start, end + 1);
+      start = end + 1;
+      if (isTaskLine(myPartialLine) && myTaskOutput.length() > 0) {
+        messages.addAll(parseTaskOutput());
+      }
+      myTaskOutput.append(myPartialLine);
+      myPartialLine.setLength(0);
+    }
+    myPartialLine.append(text, start, text.length());
+    return messages;
+  }
+
+  /** Returns the messages of the rest of the output, once Gradle has finished */
+  @NotNull
+  public synchronized List<Message> finish() {
+    myTaskOutput.append(myPartialLine);
+    myPartialLine.setLength(0);
+    return parseTaskOutput();
+  }
+
+  @NotNull
+  private List<Message> parseTaskOutput() {
+    String output = myTaskOutput.toString();
+    myTaskOutput.setLength(0);
+    return output.trim().isEmpty() ? Collections.<Message>emptyList() : myParser.parseGradleOutput(output);
+  }
+
+  private static boolean isTaskLine(@NotNull CharSequence line) {
+    int length = line.length();
+    while (length > 0 && (line.charAt(length - 1) == '\n' || line.charAt(length - 1) == '\r')) {
+      length--;
+    }
+    return TASK_LINE.matcher(line.subSequence(0, length)).matches();
+  }
+}
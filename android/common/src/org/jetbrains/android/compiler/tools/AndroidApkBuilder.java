@@ -57,6 +57,13 @@ public class AndroidApkBuilder {
   @NonNls private static final String UNALIGNED_SUFFIX = ".unaligned";
   @NonNls private static final String EXT_NATIVE_LIB = "so";
 
+  /**
+   * Whether APKs are packaged by {@link IncrementalApkBuilder}, which reuses the unchanged entries of the previous APK, rather than
+   * from scratch
+   */
+  private static final boolean INCREMENTAL_PACKAGING =
+    Boolean.parseBoolean(System.getProperty("android.incremental.apk.packaging", "true"));
+
   private AndroidApkBuilder() {
   }
 
@@ -121,7 +128,8 @@ public class AndroidApkBuilder {
                                                                       @NotNull String sdkPath,
                                                                       @NotNull IAndroidTarget target,
                                                                       @Nullable String customKeystorePath,
-                                                                      @NotNull Condition<File> resourceFilter) throws IOException {
+                                                                      @NotNull Condition<File> resourceFilter,
+                                                                      @Nullable File packagingStateFile) throws IOException {
     final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
 
     if (testingManager != null) {
@@ -161,7 +169,7 @@ public class AndroidApkBuilder {
       if (unsigned) {
         return filterUsingKeystoreMessages(
           finalPackage(dexPath, resourceRoots, externalJars, nativeLibsFolders, finalApk, resPackagePath, customKeystorePath, false,
-                       resourceFilter));
+                       resourceFilter, packagingStateFile));
       }
       final String zipAlignPath = AndroidCommonUtils.getZipAlign(sdkPath, target);
       boolean withAlignment = new File(zipAlignPath).exists();
@@ -169,7 +177,7 @@ public class AndroidApkBuilder {
 
       Map<AndroidCompilerMessageKind, List<String>> map2 = filterUsingKeystoreMessages(
         finalPackage(dexPath, resourceRoots, externalJars, nativeLibsFolders, withAlignment ? unalignedApk : finalApk, resPackagePath,
-                     customKeystorePath, true, resourceFilter));
+                     customKeystorePath, true, resourceFilter, packagingStateFile));
       map.putAll(map2);
 
       if (withAlignment && map.get(ERROR).size() == 0) {
@@ -220,7 +228,8 @@ public class AndroidApkBuilder {
                                                                             @NotNull String apkPath,
                                                                             @Nullable String customKeystorePath,
                                                                             boolean signed,
-                                                                            @NotNull Condition<File> resourceFilter) {
+                                                                            @NotNull Condition<File> resourceFilter,
+                                                                            @Nullable File packagingStateFile) {
     final Map<AndroidCompilerMessageKind, List<String>> result = new HashMap<AndroidCompilerMessageKind, List<String>>();
     result.put(ERROR, new ArrayList<String>());
     result.put(INFORMATION, new ArrayList<String>());
@@ -283,27 +292,6 @@ public class AndroidApkBuilder {
         return result;
       }
 
-      fos = new FileOutputStream(outputApk);
-      builder = new SafeSignedJarBuilder(fos, key, certificate, outputApk);
-
-      FileInputStream fis = new FileInputStream(apkPath);
-      try {
-        builder.writeZip(fis, null);
-      }
-      finally {
-        fis.close();
-      }
-
-      builder.writeFile(dexEntryFile, AndroidCommonUtils.CLASSES_FILE_NAME);
-
-      final HashSet<String> added = new HashSet<String>();
-      for (String resourceRootPath : javaResourceRoots) {
-        final HashSet<File> javaResources = new HashSet<File>();
-        final File resourceRoot = new File(resourceRootPath);
-        collectStandardJavaResources(resourceRoot, javaResources, resourceFilter);
-        writeStandardJavaResources(javaResources, resourceRoot, builder, added);
-      }
-
       Set<String> duplicates = new HashSet<String>();
       Set<String> entries = new HashSet<String>();
       for (String externalJar : externalJars) {
@@ -314,29 +302,32 @@ public class AndroidApkBuilder {
         result.get(WARNING).add("Duplicate entry " + duplicate + ". The file won't be added");
       }
 
-      MyResourceFilter filter = new MyResourceFilter(duplicates);
-
-      for (String externalJar : externalJars) {
-        fis = new FileInputStream(externalJar);
+      if (packagingStateFile != null && INCREMENTAL_PACKAGING) {
+        IncrementalApkBuilder incrementalBuilder = new IncrementalApkBuilder(new File(outputApk), packagingStateFile, key, certificate);
         try {
-          builder.writeZip(fis, filter);
+          writeEntries(incrementalBuilder, apkPath, dexEntryFile, javaResourceRoots, externalJars, nativeLibsFolders, duplicates,
+                       signed, resourceFilter);
+          incrementalBuilder.close();
+          return result;
+        }
+        catch (IOException e) {
+          LOG.info("Cannot package " + outputApk + " incrementally, packaging it from scratch", e);
+        }
+        catch (GeneralSecurityException e) {
+          LOG.info("Cannot package " + outputApk + " incrementally, packaging it from scratch", e);
         }
         finally {
-          fis.close();
+          incrementalBuilder.dispose();
         }
       }
-
-      final HashSet<String> nativeLibs = new HashSet<String>();
-      for (String nativeLibsFolderPath : nativeLibsFolders) {
-        final File nativeLibsFolder = new File(nativeLibsFolderPath);
-        final File[] children = nativeLibsFolder.listFiles();
-
-        if (children != null) {
-          for (File child : children) {
-            writeNativeLibraries(builder, nativeLibsFolder, child, signed, nativeLibs);
-          }
-        }
+      if (packagingStateFile != null) {
+        FileUtil.delete(packagingStateFile);
       }
+
+      fos = new FileOutputStream(outputApk);
+      builder = new SafeSignedJarBuilder(fos, key, certificate, outputApk);
+      writeEntries(new SignedJarEntryWriter(builder), apkPath, dexEntryFile, javaResourceRoots, externalJars, nativeLibsFolders,
+                   duplicates, signed, resourceFilter);
     }
     catch (IOException e) {
       return addExceptionMessage(e, result);
@@ -386,6 +377,45 @@ public class AndroidApkBuilder {
     return result;
   }
 
+  private static void writeEntries(@NotNull ApkEntryWriter writer,
+                                   @NotNull String apkPath,
+                                   @NotNull File dexEntryFile,
+                                   @NotNull String[] javaResourceRoots,
+                                   @NotNull String[] externalJars,
+                                   @NotNull String[] nativeLibsFolders,
+                                   @NotNull Set<String> duplicates,
+                                   boolean signed,
+                                   @NotNull Condition<File> resourceFilter) throws IOException {
+    writer.writeZip(new File(apkPath), null);
+    writer.writeFile(dexEntryFile, AndroidCommonUtils.CLASSES_FILE_NAME);
+
+    final HashSet<String> added = new HashSet<String>();
+    for (String resourceRootPath : javaResourceRoots) {
+      final HashSet<File> javaResources = new HashSet<File>();
+      final File resourceRoot = new File(resourceRootPath);
+      collectStandardJavaResources(resourceRoot, javaResources, resourceFilter);
+      writeStandardJavaResources(javaResources, resourceRoot, writer, added);
+    }
+
+    MyResourceFilter filter = new MyResourceFilter(duplicates);
+
+    for (String externalJar : externalJars) {
+      writer.writeZip(new File(externalJar), filter);
+    }
+
+    final HashSet<String> nativeLibs = new HashSet<String>();
+    for (String nativeLibsFolderPath : nativeLibsFolders) {
+      final File nativeLibsFolder = new File(nativeLibsFolderPath);
+      final File[] children = nativeLibsFolder.listFiles();
+
+      if (children != null) {
+        for (File child : children) {
+          writeNativeLibraries(writer, nativeLibsFolder, child, signed, nativeLibs);
+        }
+      }
+    }
+  }
+
   private static DebugKeyProvider createDebugKeyProvider(final Map<AndroidCompilerMessageKind, List<String>> result, String path) throws
                                                                                                                                KeyStoreException,
                                                                                                                                NoSuchAlgorithmException,
@@ -406,7 +436,7 @@ public class AndroidApkBuilder {
     });
   }
 
-  private static void writeNativeLibraries(SignedJarBuilder builder,
+  private static void writeNativeLibraries(ApkEntryWriter builder,
                                            File nativeLibsFolder,
                                            File child,
                                            boolean debugBuild,
@@ -480,7 +510,7 @@ public class AndroidApkBuilder {
 
   private static void writeStandardJavaResources(Collection<File> resources,
                                                  File sourceRoot,
-                                                 SignedJarBuilder jarBuilder,
+                                                 ApkEntryWriter jarBuilder,
                                                  Set<String> added) throws IOException {
     for (File child : resources) {
       final String relativePath = FileUtil.getRelativePath(sourceRoot, child);
@@ -504,6 +534,37 @@ public class AndroidApkBuilder {
     return false;
   }
 
+  /** Adds files and the entries of zip files to an APK */
+  interface ApkEntryWriter {
+    void writeFile(@NotNull File file, @NotNull String entryPath) throws IOException;
+
+    void writeZip(@NotNull File zip, @Nullable SignedJarBuilder.IZipEntryFilter filter) throws IOException;
+  }
+
+  private static class SignedJarEntryWriter implements ApkEntryWriter {
+    private final SignedJarBuilder myBuilder;
+
+    private SignedJarEntryWriter(@NotNull SignedJarBuilder builder) {
+      myBuilder = builder;
+    }
+
+    @Override
+    public void writeFile(@NotNull File file, @NotNull String entryPath) throws IOException {
+      myBuilder.writeFile(file, entryPath);
+    }
+
+    @Override
+    public void writeZip(@NotNull File zip, @Nullable SignedJarBuilder.IZipEntryFilter filter) throws IOException {
+      FileInputStream fis = new FileInputStream(zip);
+      try {
+        myBuilder.writeZip(fis, filter);
+      }
+      finally {
+        fis.close();
+      }
+    }
+  }
+
   private static class MyResourceFilter extends JavaResourceFilter {
     private final Set<String> myExcludedEntries;
 
@@ -0,0 +1,694 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import com.android.jarutils.SignedJarBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Base64;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.security.pkcs.ContentInfo;
+import sun.security.pkcs.PKCS7;
+import sun.security.pkcs.SignerInfo;
+import sun.security.x509.AlgorithmId;
+import sun.security.x509.X500Name;
+
+import java.io.*;
+import java.security.*;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Packages an APK like {@link SignedJarBuilder} does, but reuses the work done for the previous APK:
+ * <ul>
+ * <li>entries of zip inputs (the resource package and external jars) are copied without being inflated and deflated again;</li>
+ * <li>file inputs (classes.dex, Java resources and native libraries) whose content has not changed since the previous build
+ * are copied compressed from the previous APK. The content is compared by digest rather than by path and timestamp, since
+ * some inputs (such as additional native libraries) are copied to a new temporary directory for every build;</li>
+ * <li>the SHA-1 digests of unchanged entries are reused, so signing only digests the changed entries and the small manifest
+ * and signature files.</li>
+ * </ul>
+ * What was packaged is recorded in a state file kept with the other intermediate build files. Without it, or when the APK was
+ * modified by something else, all the file inputs are compressed again.
+ */
+class IncrementalApkBuilder implements AndroidApkBuilder.ApkEntryWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.compiler.tools.IncrementalApkBuilder");
+
+  private static final int STATE_VERSION = 2;
+
+  @NonNls private static final String META_INF = "META-INF/";
+  @NonNls private static final String DIGEST_ALGORITHM = "SHA1";
+  @NonNls private static final String DIGEST_ATTR = "SHA1-Digest";
+  @NonNls private static final String CREATED_BY = "1.0 (Android)";
+  private static final int MAX_MANIFEST_LINE_LENGTH = 72;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int ENCRYPTED_FLAG = 0x1;
+  private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+  private static final int UTF8_FLAG = 0x800;
+  private static final int ZIP_LIMIT = 0xFFFF;
+  private static final long ZIP_SIZE_LIMIT = 0xFFFFFFFFL;
+
+  @NotNull private final File myOutputApk;
+  @NotNull private final File myStateFile;
+  @NotNull private final File myTempFile;
+  @Nullable private final PrivateKey myKey;
+  @Nullable private final X509Certificate myCertificate;
+
+  /** What was packaged into the previous APK, by entry name */
+  @NotNull private final Map<String, PackagedEntry> myPreviousEntries;
+  /** The previous APK, if its entries can be reused */
+  @Nullable private final ZipIndex myPreviousApk;
+
+  @NotNull private final CountingOutputStream myOut;
+  /** What has been packaged so far, in the order of the entries */
+  @NotNull private final Map<String, PackagedEntry> myEntries = new LinkedHashMap<String, PackagedEntry>();
+  @NotNull private final List<ZipEntryInfo> myCentralDirectory = new ArrayList<ZipEntryInfo>();
+  @NotNull private final byte[] myBuffer = new byte[64 * 1024];
+  private boolean myDone;
+
+  IncrementalApkBuilder(@NotNull File outputApk,
+                        @NotNull File stateFile,
+                        @Nullable PrivateKey key,
+                        @Nullable X509Certificate certificate) throws IOException {
+    myOutputApk = outputApk;
+    myStateFile = stateFile;
+    myKey = key;
+    myCertificate = certificate;
+
+    myPreviousEntries = readState(stateFile, outputApk);
+    ZipIndex previousApk = null;
+    if (!myPreviousEntries.isEmpty()) {
+      try {
+        previousApk = ZipIndex.read(outputApk);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot reuse the entries of " + outputApk, e);
+      }
+    }
+    myPreviousApk = previousApk;
+
+    // The previous APK is read while the new one is written, so it is only replaced at the end
+    myTempFile = FileUtil.createTempFile(outputApk.getParentFile(), outputApk.getName(), ".tmp", true);
+    myOut = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(myTempFile)));
+  }
+
+  @Override
+  public void writeZip(@NotNull File zip, @Nullable SignedJarBuilder.IZipEntryFilter filter) throws IOException {
+    ZipIndex index = ZipIndex.read(zip);
+    ZipFile zipFile = null;
+    try {
+      for (ZipEntryInfo entry : index.getEntries()) {
+        String name = entry.myName;
+        if (name.endsWith("/") || name.startsWith(META_INF) || (filter != null && !filter.checkEntry(name))) {
+          continue;
+        }
+        String fingerprint = "zip:" + entry.myCrc + ":" + entry.mySize;
+        PackagedEntry previous = myPreviousEntries.get(name);
+        String digest;
+
+        if (previous != null && previous.myFingerprint.equals(fingerprint)) {
+          digest = previous.myDigest;
+        }
+        else {
+          if (zipFile == null) {
+            zipFile = new ZipFile(zip);
+          }
+          ZipEntry zipEntry = zipFile.getEntry(name);
+          if (zipEntry == null) {
+            throw new ZipException("Cannot read " + name + " from " + zip);
+          }
+          digest = computeDigest(zipFile.getInputStream(zipEntry));
+        }
+        ZipEntryInfo written = startEntry(name, 0, entry.myMethod, entry.myDosTime, entry.myCrc, entry.myCompressedSize, entry.mySize);
+        index.copyData(entry, myOut, myBuffer);
+        finishEntry(written, new PackagedEntry(fingerprint, digest, entry.myCrc));
+      }
+    }
+    finally {
+      index.close();
+      if (zipFile != null) {
+        zipFile.close();
+      }
+    }
+  }
+
+  @Override
+  public void writeFile(@NotNull File file, @NotNull String entryPath) throws IOException {
+    if (FileUtil.filesEqual(file, myOutputApk)) {
+      throw new IOException("Cannot pack file " + myOutputApk.getPath() + " into itself");
+    }
+    // Digesting the file is much cheaper than compressing it again
+    String fingerprint = "file:" + file.length() + ":" + computeDigest(new FileInputStream(file));
+    PackagedEntry previous = myPreviousEntries.get(entryPath);
+    ZipEntryInfo previousData = null;
+
+    if (previous != null && previous.myFingerprint.equals(fingerprint) && myPreviousApk != null) {
+      previousData = myPreviousApk.getEntry(entryPath);
+    }
+    if (previousData != null && previousData.myCrc == previous.myCrc) {
+      ZipEntryInfo written = startEntry(entryPath, 0, previousData.myMethod, previousData.myDosTime, previousData.myCrc,
+                                        previousData.myCompressedSize, previousData.mySize);
+      myPreviousApk.copyData(previousData, myOut, myBuffer);
+      finishEntry(written, previous);
+      return;
+    }
+    InputStream in = new FileInputStream(file);
+    try {
+      writeDeflated(entryPath, toDosTime(file.lastModified()), in, fingerprint);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /** Signs the APK, and replaces the previous one with it */
+  void close() throws IOException, GeneralSecurityException {
+    if (myKey != null && myCertificate != null) {
+      writeSignature(myKey, myCertificate);
+    }
+    writeCentralDirectory();
+    myOut.close();
+    closePreviousApk();
+
+    FileUtil.delete(myStateFile);
+    FileUtil.delete(myOutputApk);
+    FileUtil.rename(myTempFile, myOutputApk);
+    myDone = true;
+
+    try {
+      writeState();
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save the packaging state of " + myOutputApk, e);
+      FileUtil.delete(myStateFile);
+    }
+  }
+
+  /** Releases the files held by the builder, and deletes the partially written APK if it has not been closed */
+  void dispose() {
+    if (myDone) {
+      return;
+    }
+    myDone = true;
+    try {
+      myOut.close();
+    }
+    catch (IOException ignored) {
+    }
+    closePreviousApk();
+    FileUtil.delete(myTempFile);
+  }
+
+  private void closePreviousApk() {
+    if (myPreviousApk != null) {
+      try {
+        myPreviousApk.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
+  private void writeDeflated(@NotNull String name, int dosTime, @NotNull InputStream in, @NotNull String fingerprint)
+    throws IOException {
+    ZipEntryInfo written = startEntry(name, DATA_DESCRIPTOR_FLAG, ZipEntry.DEFLATED, dosTime, 0, 0, 0);
+    MessageDigest digest = createDigest();
+    CRC32 crc = new CRC32();
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      DeflaterOutputStream deflaterOut = new DeflaterOutputStream(myOut, deflater, myBuffer.length);
+      int read;
+      while ((read = in.read(myBuffer)) > 0) {
+        digest.update(myBuffer, 0, read);
+        crc.update(myBuffer, 0, read);
+        deflaterOut.write(myBuffer, 0, read);
+      }
+      // Only finish the deflater, as closing the stream would close the APK
+      deflaterOut.finish();
+      written.myCrc = crc.getValue();
+      written.myCompressedSize = deflater.getBytesWritten();
+      written.mySize = deflater.getBytesRead();
+    }
+    finally {
+      deflater.end();
+    }
+    writeInt(myOut, DATA_DESCRIPTOR_SIGNATURE);
+    writeInt(myOut, written.myCrc);
+    writeInt(myOut, written.myCompressedSize);
+    writeInt(myOut, written.mySize);
+    finishEntry(written, new PackagedEntry(fingerprint, Base64.encode(digest.digest()), written.myCrc));
+  }
+
+  /** Writes the local header of an entry, and returns its central directory record */
+  @NotNull
+  private ZipEntryInfo startEntry(@NotNull String name, int flags, int method, int dosTime, long crc, long compressedSize, long size)
+    throws IOException {
+    if (myEntries.containsKey(name)) {
+      throw new ZipException("duplicate entry: " + name);
+    }
+    ZipEntryInfo entry = new ZipEntryInfo(name, flags, method, dosTime, crc, compressedSize, size, myOut.getCount());
+    byte[] nameBytes = name.getBytes("UTF-8");
+    if (nameBytes.length != name.length()) {
+      entry.myFlags |= UTF8_FLAG;
+    }
+    boolean dataDescriptor = (entry.myFlags & DATA_DESCRIPTOR_FLAG) != 0;
+
+    writeInt(myOut, LOCAL_HEADER_SIGNATURE);
+    writeShort(myOut, getVersionNeeded(method));
+    writeShort(myOut, entry.myFlags);
+    writeShort(myOut, method);
+    writeInt(myOut, dosTime);
+    writeInt(myOut, dataDescriptor ? 0 : crc);
+    writeInt(myOut, dataDescriptor ? 0 : compressedSize);
+    writeInt(myOut, dataDescriptor ? 0 : size);
+    writeShort(myOut, nameBytes.length);
+    writeShort(myOut, 0);
+    myOut.write(nameBytes);
+    return entry;
+  }
+
+  private void finishEntry(@NotNull ZipEntryInfo written, @NotNull PackagedEntry packaged) throws IOException {
+    if (written.myCompressedSize > ZIP_SIZE_LIMIT || written.mySize > ZIP_SIZE_LIMIT || myOut.getCount() > ZIP_SIZE_LIMIT) {
+      throw new ZipException("Zip64 is not supported, " + written.myName + " is too large");
+    }
+    myCentralDirectory.add(written);
+    myEntries.put(written.myName, packaged);
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    if (myCentralDirectory.size() > ZIP_LIMIT) {
+      throw new ZipException("Zip64 is not supported, there are too many entries");
+    }
+    long offset = myOut.getCount();
+    for (ZipEntryInfo entry : myCentralDirectory) {
+      byte[] nameBytes = entry.myName.getBytes("UTF-8");
+      writeInt(myOut, CENTRAL_HEADER_SIGNATURE);
+      writeShort(myOut, getVersionNeeded(ZipEntry.DEFLATED));
+      writeShort(myOut, getVersionNeeded(entry.myMethod));
+      writeShort(myOut, entry.myFlags);
+      writeShort(myOut, entry.myMethod);
+      writeInt(myOut, entry.myDosTime);
+      writeInt(myOut, entry.myCrc);
+      writeInt(myOut, entry.myCompressedSize);
+      writeInt(myOut, entry.mySize);
+      writeShort(myOut, nameBytes.length);
+      writeShort(myOut, 0); // extra field length
+      writeShort(myOut, 0); // comment length
+      writeShort(myOut, 0); // disk number
+      writeShort(myOut, 0); // internal attributes
+      writeInt(myOut, 0);   // external attributes
+      writeInt(myOut, entry.myLocalHeaderOffset);
+      myOut.write(nameBytes);
+    }
+    long size = myOut.getCount() - offset;
+    writeInt(myOut, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    writeShort(myOut, 0);
+    writeShort(myOut, 0);
+    writeShort(myOut, myCentralDirectory.size());
+    writeShort(myOut, myCentralDirectory.size());
+    writeInt(myOut, size);
+    writeInt(myOut, offset);
+    writeShort(myOut, 0);
+  }
+
+  /** Writes the manifest, signature file and signature block, from the digests of the entries */
+  private void writeSignature(@NotNull PrivateKey key, @NotNull X509Certificate certificate)
+    throws IOException, GeneralSecurityException {
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeManifestLine(manifest, "Manifest-Version", "1.0");
+    writeManifestLine(manifest, "Created-By", CREATED_BY);
+    writeManifestLine(manifest, null, null);
+
+    // Each entry of the signature file holds the digest of the section of the entry in the manifest
+    ByteArrayOutputStream signatureEntries = new ByteArrayOutputStream();
+    ByteArrayOutputStream section = new ByteArrayOutputStream();
+    for (Map.Entry<String, PackagedEntry> entry : myEntries.entrySet()) {
+      section.reset();
+      writeManifestLine(section, "Name", entry.getKey());
+      writeManifestLine(section, DIGEST_ATTR, entry.getValue().myDigest);
+      writeManifestLine(section, null, null);
+      section.writeTo(manifest);
+
+      writeManifestLine(signatureEntries, "Name", entry.getKey());
+      writeManifestLine(signatureEntries, DIGEST_ATTR, Base64.encode(createDigest().digest(section.toByteArray())));
+      writeManifestLine(signatureEntries, null, null);
+    }
+    byte[] manifestBytes = manifest.toByteArray();
+
+    ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+    writeManifestLine(signatureFile, "Signature-Version", "1.0");
+    writeManifestLine(signatureFile, "Created-By", CREATED_BY);
+    writeManifestLine(signatureFile, DIGEST_ATTR + "-Manifest", Base64.encode(createDigest().digest(manifestBytes)));
+    writeManifestLine(signatureFile, null, null);
+    signatureEntries.writeTo(signatureFile);
+    byte[] signatureFileBytes = signatureFile.toByteArray();
+
+    int dosTime = toDosTime(System.currentTimeMillis());
+    writeDeflated(META_INF + "MANIFEST.MF", dosTime, new ByteArrayInputStream(manifestBytes), "");
+    writeDeflated(META_INF + "CERT.SF", dosTime, new ByteArrayInputStream(signatureFileBytes), "");
+    writeDeflated(META_INF + "CERT." + key.getAlgorithm(), dosTime,
+                  new ByteArrayInputStream(createSignatureBlock(signatureFileBytes, key, certificate)), "");
+  }
+
+  /** Returns the PKCS#7 signature of the signature file, encoded the same way as {@link SignedJarBuilder} does */
+  @SuppressWarnings("UseOfSunClasses")
+  @NotNull
+  private static byte[] createSignatureBlock(@NotNull byte[] signatureFile, @NotNull PrivateKey key, @NotNull X509Certificate certificate)
+    throws IOException, GeneralSecurityException {
+    Signature signature = Signature.getInstance(DIGEST_ALGORITHM + "with" + key.getAlgorithm());
+    signature.initSign(key);
+    signature.update(signatureFile);
+
+    SignerInfo signerInfo = new SignerInfo(new X500Name(certificate.getIssuerX500Principal().getName()), certificate.getSerialNumber(),
+                                           AlgorithmId.get(DIGEST_ALGORITHM), AlgorithmId.get(key.getAlgorithm()), signature.sign());
+    PKCS7 pkcs7 = new PKCS7(new AlgorithmId[]{AlgorithmId.get(DIGEST_ALGORITHM)}, new ContentInfo(ContentInfo.DATA_OID, null),
+                            new X509Certificate[]{certificate}, new SignerInfo[]{signerInfo});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pkcs7.encodeSignedData(out);
+    return out.toByteArray();
+  }
+
+  /** Writes a "name: value" manifest line, split into continuation lines of at most 72 bytes, or an empty line if name is null */
+  private static void writeManifestLine(@NotNull ByteArrayOutputStream out, @Nullable String name, @Nullable String value)
+    throws IOException {
+    if (name != null) {
+      byte[] line = (name + ": " + value).getBytes("UTF-8");
+      int lineStart = 0;
+      int lineLength = MAX_MANIFEST_LINE_LENGTH;
+      while (line.length - lineStart > lineLength) {
+        out.write(line, lineStart, lineLength);
+        out.write('\r');
+        out.write('\n');
+        out.write(' ');
+        lineStart += lineLength;
+        lineLength = MAX_MANIFEST_LINE_LENGTH - 1;
+      }
+      out.write(line, lineStart, line.length - lineStart);
+    }
+    out.write('\r');
+    out.write('\n');
+  }
+
+  @NotNull
+  private String computeDigest(@NotNull InputStream in) throws IOException {
+    MessageDigest digest = createDigest();
+    try {
+      int read;
+      while ((read = in.read(myBuffer)) > 0) {
+        digest.update(myBuffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return Base64.encode(digest.digest());
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static int getVersionNeeded(int method) {
+    return method == ZipEntry.DEFLATED ? 20 : 10;
+  }
+
+  /** Converts a Java timestamp to the MS-DOS date (high 16 bits) and time (low 16 bits) used in zip headers */
+  private static int toDosTime(long time) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  private static void writeShort(@NotNull OutputStream out, int value) throws IOException {
+    out.write(value & 0xFF);
+    out.write((value >> 8) & 0xFF);
+  }
+
+  private static void writeInt(@NotNull OutputStream out, long value) throws IOException {
+    writeShort(out, (int)(value & 0xFFFF));
+    writeShort(out, (int)((value >> 16) & 0xFFFF));
+  }
+
+  private static int getShort(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+  }
+
+  private static long getInt(@NotNull byte[] bytes, int offset) {
+    return getShort(bytes, offset) | (long)getShort(bytes, offset + 2) << 16;
+  }
+
+  @NotNull
+  private static Map<String, PackagedEntry> readState(@NotNull File stateFile, @NotNull File apk) {
+    if (!stateFile.isFile() || !apk.isFile()) {
+      return Collections.emptyMap();
+    }
+    Map<String, PackagedEntry> entries = new HashMap<String, PackagedEntry>();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+      try {
+        // Only trust the state if it describes the APK as it is now
+        if (in.readInt() != STATE_VERSION || !in.readUTF().equals(apk.getPath()) || in.readLong() != apk.length() ||
+            in.readLong() != apk.lastModified()) {
+          return Collections.emptyMap();
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String name = in.readUTF();
+          entries.put(name, new PackagedEntry(in.readUTF(), in.readUTF(), in.readLong()));
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read the packaging state of " + apk, e);
+      return Collections.emptyMap();
+    }
+    return entries;
+  }
+
+  private void writeState() throws IOException {
+    FileUtil.createParentDirs(myStateFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myStateFile)));
+    try {
+      out.writeInt(STATE_VERSION);
+      out.writeUTF(myOutputApk.getPath());
+      out.writeLong(myOutputApk.length());
+      out.writeLong(myOutputApk.lastModified());
+      out.writeInt(myEntries.size());
+      for (Map.Entry<String, PackagedEntry> entry : myEntries.entrySet()) {
+        PackagedEntry packaged = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeUTF(packaged.myFingerprint);
+        out.writeUTF(packaged.myDigest);
+        out.writeLong(packaged.myCrc);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /** What an entry was packaged from, and the digest of its contents */
+  private static class PackagedEntry {
+    @NotNull final String myFingerprint;
+    @NotNull final String myDigest;
+    final long myCrc;
+
+    PackagedEntry(@NotNull String fingerprint, @NotNull String digest, long crc) {
+      myFingerprint = fingerprint;
+      myDigest = digest;
+      myCrc = crc;
+    }
+  }
+
+  /** A record of the central directory of a zip file */
+  private static class ZipEntryInfo {
+    @NotNull final String myName;
+    int myFlags;
+    final int myMethod;
+    final int myDosTime;
+    long myCrc;
+    long myCompressedSize;
+    long mySize;
+    final long myLocalHeaderOffset;
+
+    ZipEntryInfo(@NotNull String name, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+                 long localHeaderOffset) {
+      myName = name;
+      myFlags = flags;
+      myMethod = method;
+      myDosTime = dosTime;
+      myCrc = crc;
+      myCompressedSize = compressedSize;
+      mySize = size;
+      myLocalHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  /** The entries of a zip file, read from its central directory, whose compressed data can be copied as is */
+  private static class ZipIndex implements Closeable {
+    @NotNull private final File myFile;
+    @NotNull private final RandomAccessFile myRandomAccessFile;
+    @NotNull private final Map<String, ZipEntryInfo> myEntries = new LinkedHashMap<String, ZipEntryInfo>();
+
+    private ZipIndex(@NotNull File file) throws FileNotFoundException {
+      myFile = file;
+      myRandomAccessFile = new RandomAccessFile(file, "r");
+    }
+
+    @NotNull
+    static ZipIndex read(@NotNull File file) throws IOException {
+      ZipIndex index = new ZipIndex(file);
+      boolean success = false;
+      try {
+        index.readCentralDirectory();
+        success = true;
+        return index;
+      }
+      finally {
+        if (!success) {
+          index.close();
+        }
+      }
+    }
+
+    private void readCentralDirectory() throws IOException {
+      long length = myRandomAccessFile.length();
+      int tailLength = (int)Math.min(length, ZIP_LIMIT + END_OF_CENTRAL_DIRECTORY_SIZE);
+      byte[] tail = new byte[tailLength];
+      myRandomAccessFile.seek(length - tailLength);
+      myRandomAccessFile.readFully(tail);
+
+      int end = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE;
+      while (end >= 0 && getInt(tail, end) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        end--;
+      }
+      if (end < 0) {
+        throw new ZipException("Cannot find the central directory of " + myFile);
+      }
+      int count = getShort(tail, end + 10);
+      long size = getInt(tail, end + 12);
+      long offset = getInt(tail, end + 16);
+      if (count == ZIP_LIMIT || offset == ZIP_SIZE_LIMIT) {
+        throw new ZipException("Zip64 is not supported, cannot read " + myFile);
+      }
+
+      byte[] directory = new byte[(int)size];
+      myRandomAccessFile.seek(offset);
+      myRandomAccessFile.readFully(directory);
+      int position = 0;
+      for (int i = 0; i < count; i++) {
+        if (position + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, position) != CENTRAL_HEADER_SIGNATURE) {
+          throw new ZipException("Invalid central directory in " + myFile);
+        }
+        int flags = getShort(directory, position + 8);
+        int method = getShort(directory, position + 10);
+        int nameLength = getShort(directory, position + 28);
+        String name = new String(directory, position + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+        if ((flags & ENCRYPTED_FLAG) != 0 || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)) {
+          throw new ZipException("Unsupported entry " + name + " in " + myFile);
+        }
+        myEntries.put(name, new ZipEntryInfo(name, flags, method, (int)getInt(directory, position + 12), getInt(directory, position + 16),
+                                             getInt(directory, position + 20), getInt(directory, position + 24),
+                                             getInt(directory, position + 42)));
+        position += CENTRAL_HEADER_SIZE + nameLength + getShort(directory, position + 30) + getShort(directory, position + 32);
+      }
+    }
+
+    @NotNull
+    Collection<ZipEntryInfo> getEntries() {
+      return myEntries.values();
+    }
+
+    @Nullable
+    ZipEntryInfo getEntry(@NotNull String name) {
+      return myEntries.get(name);
+    }
+
+    /** Copies the compressed data of the entry, without its local header and data descriptor */
+    void copyData(@NotNull ZipEntryInfo entry, @NotNull OutputStream out, @NotNull byte[] buffer) throws IOException {
+      byte[] header = new byte[LOCAL_HEADER_SIZE];
+      myRandomAccessFile.seek(entry.myLocalHeaderOffset);
+      myRandomAccessFile.readFully(header);
+      if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid local header of " + entry.myName + " in " + myFile);
+      }
+      myRandomAccessFile.seek(entry.myLocalHeaderOffset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28));
+
+      long remaining = entry.myCompressedSize;
+      while (remaining > 0) {
+        int read = myRandomAccessFile.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+        if (read < 0) {
+          throw new EOFException("Unexpected end of " + myFile);
+        }
+        out.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      myRandomAccessFile.close();
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long myCount;
+
+    CountingOutputStream(@NotNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    long getCount() {
+      return myCount;
+    }
+  }
+}
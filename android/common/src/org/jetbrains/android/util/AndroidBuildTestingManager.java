@@ -14,6 +14,8 @@ public class AndroidBuildTestingManager {
 
   private final MyCommandExecutor myCommandExecutor;
 
+  private volatile int mySourceGenerationThreadCount = 1;
+
   private AndroidBuildTestingManager(@NotNull MyCommandExecutor executor) {
     myCommandExecutor = executor;
   }
@@ -46,6 +48,18 @@ public class AndroidBuildTestingManager {
     return myCommandExecutor;
   }
 
+  /**
+   * Returns the number of threads the source generation tools of a chunk run on. Tools run one at a time unless a test
+   * changes it, so that they are invoked in a predictable order.
+   */
+  public int getSourceGenerationThreadCount() {
+    return mySourceGenerationThreadCount;
+  }
+
+  public void setSourceGenerationThreadCount(int threadCount) {
+    mySourceGenerationThreadCount = threadCount;
+  }
+
   public interface MyCommandExecutor {
     @NotNull
     Process createProcess(@NotNull String[] args, @NotNull Map<? extends String, ? extends String> environment);
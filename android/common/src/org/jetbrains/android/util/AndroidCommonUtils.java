@@ -165,31 +165,12 @@ public class AndroidCommonUtils {
                                                 @NotNull String outputFilePath,
                                                 @NotNull final Map<AndroidCompilerMessageKind, List<String>> messages) {
     final BaseOSProcessHandler handler = new BaseOSProcessHandler(process, null, null);
+    final DexOutputProcessor outputProcessor = new DexOutputProcessor(messages);
     handler.addProcessListener(new ProcessAdapter() {
-      private AndroidCompilerMessageKind myCategory = null;
-
       @Override
       public void onTextAvailable(ProcessEvent event, Key outputType) {
-        String[] msgs = event.getText().split("\\n");
-        for (String msg : msgs) {
-          msg = msg.trim();
-          String msglc = msg.toLowerCase();
-          if (outputType == ProcessOutputTypes.STDERR) {
-            if (WARNING_PATTERN.matcher(msglc).matches()) {
-              myCategory = AndroidCompilerMessageKind.WARNING;
-            }
-            if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
-              myCategory = AndroidCompilerMessageKind.ERROR;
-            }
-            messages.get(myCategory).add(msg);
-          }
-          else if (outputType == ProcessOutputTypes.STDOUT) {
-            if (!msglc.startsWith("processing")) {
-              messages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
-            }
-          }
-
-          LOG.debug(msg);
+        if (outputType == ProcessOutputTypes.STDERR || outputType == ProcessOutputTypes.STDOUT) {
+          outputProcessor.onTextAvailable(event.getText(), outputType == ProcessOutputTypes.STDERR);
         }
       }
     });
@@ -197,15 +178,56 @@ public class AndroidCommonUtils {
     handler.startNotify();
     handler.waitFor();
 
-    final List<String> errors = messages.get(AndroidCompilerMessageKind.ERROR);
+    outputProcessor.finish(outputFilePath);
+  }
+
+  /**
+   * Sorts the output of dx into errors, warnings and information messages.
+   */
+  public static class DexOutputProcessor {
+    @NotNull private final Map<AndroidCompilerMessageKind, List<String>> myMessages;
+    private AndroidCompilerMessageKind myCategory = null;
 
-    if (new File(outputFilePath).isFile()) {
-      // if compilation finished correctly, show all errors as warnings
-      messages.get(AndroidCompilerMessageKind.WARNING).addAll(errors);
-      errors.clear();
+    public DexOutputProcessor(@NotNull Map<AndroidCompilerMessageKind, List<String>> messages) {
+      myMessages = messages;
     }
-    else if (errors.size() == 0) {
-      errors.add("Cannot create classes.dex file");
+
+    public synchronized void onTextAvailable(@NotNull String text, boolean stderr) {
+      String[] msgs = text.split("\\n");
+      for (String msg : msgs) {
+        msg = msg.trim();
+        String msglc = msg.toLowerCase();
+        if (stderr) {
+          if (WARNING_PATTERN.matcher(msglc).matches()) {
+            myCategory = AndroidCompilerMessageKind.WARNING;
+          }
+          if (ERROR_PATTERN.matcher(msglc).matches() || EXCEPTION_PATTERN.matcher(msglc).matches() || myCategory == null) {
+            myCategory = AndroidCompilerMessageKind.ERROR;
+          }
+          myMessages.get(myCategory).add(msg);
+        }
+        else {
+          if (!msglc.startsWith("processing")) {
+            myMessages.get(AndroidCompilerMessageKind.INFORMATION).add(msg);
+          }
+        }
+
+        LOG.debug(msg);
+      }
+    }
+
+    /** Must be called once dx has finished */
+    public synchronized void finish(@NotNull String outputFilePath) {
+      final List<String> errors = myMessages.get(AndroidCompilerMessageKind.ERROR);
+
+      if (new File(outputFilePath).isFile()) {
+        // if compilation finished correctly, show all errors as warnings
+        myMessages.get(AndroidCompilerMessageKind.WARNING).addAll(errors);
+        errors.clear();
+      }
+      else if (errors.size() == 0) {
+        errors.add("Cannot create classes.dex file");
+      }
     }
   }
 
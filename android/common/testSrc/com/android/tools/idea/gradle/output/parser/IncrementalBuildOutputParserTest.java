@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.output.parser;
+
+import com.android.ide.common.blame.Message;
+import com.android.ide.common.blame.parser.PatternAwareOutputParser;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Tests for {@link IncrementalBuildOutputParser}.
+ */
+public class IncrementalBuildOutputParserTest extends TestCase {
+  private static final String OUTPUT =
+    ":MyApp:compileReleaseRenderscript UP-TO-DATE\n" +
+    ":MyApp:compileReleaseJava\n" +
+    "warning: [options] bootstrap class path not set in conjunction with -source 1.6\n" +
+    ":MyApp:mergeReleaseResources FAILED\n" +
+    "\n" +
+    "FAILURE: Build failed with an exception.\n" +
+    "\n" +
+    "* What went wrong:\n" +
+    "Execution failed for task ':MyApp:mergeReleaseResources'.\n" +
+    "> Some problem\n" +
+    "\n" +
+    "* Try:\n" +
+    "Run with --stacktrace option to get the stack trace. Run with --info or --debug option to get more log output.\n" +
+    "\n" +
+    "BUILD FAILED\n" +
+    "\n" +
+    "Total time: 15.612 secs";
+
+  private Iterable<PatternAwareOutputParser> myParsers;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myParsers = ServiceLoader.load(PatternAwareOutputParser.class);
+  }
+
+  public void testSameMessagesAsWholeOutput() {
+    List<Message> expected = new BuildOutputParser(myParsers).parseGradleOutput(OUTPUT);
+    // Feed the output in chunks that end in the middle of lines
+    for (int chunkSize : new int[]{1, 7, 64, OUTPUT.length()}) {
+      IncrementalBuildOutputParser parser = new IncrementalBuildOutputParser(myParsers);
+      List<Message> messages = Lists.newArrayList();
+      for (int i = 0; i < OUTPUT.length(); i += chunkSize) {
+        messages.addAll(parser.append(OUTPUT.substring(i, Math.min(OUTPUT.length(), i + chunkSize))));
+      }
+      messages.addAll(parser.finish());
+      assertEquals("Chunk size " + chunkSize, expected, messages);
+    }
+  }
+
+  public void testMessagesOfCompletedTasksAreReturnedRightAway() {
+    IncrementalBuildOutputParser parser = new IncrementalBuildOutputParser(myParsers);
+    assertTrue(parser.append(":MyApp:compileReleaseRenderscript UP-TO-DATE\n").isEmpty());
+    // The first task is complete once the next one starts
+    assertEquals(1, parser.append(":MyApp:compileReleaseJava\n").size());
+    assertTrue(parser.append("Some output\n").isEmpty());
+    assertEquals(2, parser.finish().size());
+  }
+}
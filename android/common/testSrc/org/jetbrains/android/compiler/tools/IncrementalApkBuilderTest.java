@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.compiler.tools;
+
+import com.android.jarutils.DebugKeyProvider;
+import com.android.jarutils.SignedJarBuilder;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.StreamUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class IncrementalApkBuilderTest extends TestCase {
+  private File myTempDir;
+  private PrivateKey myKey;
+  private X509Certificate myCertificate;
+
+  private File myResources;
+  private File myDex;
+  private File myJavaResource;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("incremental_apk_builder_test", null);
+    DebugKeyProvider provider = new DebugKeyProvider(new File(myTempDir, "debug.keystore").getPath(), null,
+                                                     new DebugKeyProvider.IKeyGenOutput() {
+                                                       @Override
+                                                       public void err(String message) {
+                                                       }
+
+                                                       @Override
+                                                       public void out(String message) {
+                                                       }
+                                                     });
+    myKey = provider.getDebugKey();
+    myCertificate = (X509Certificate)provider.getCertificate();
+
+    myResources = new File(myTempDir, "resources.ap_");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(myResources));
+    try {
+      addZipEntry(out, "AndroidManifest.xml", ZipEntry.DEFLATED, "<manifest/>");
+      addZipEntry(out, "res/layout/main.xml", ZipEntry.DEFLATED, "<LinearLayout/>");
+      addZipEntry(out, "resources.arsc", ZipEntry.STORED, "resource table");
+    }
+    finally {
+      out.close();
+    }
+    myDex = createFile("classes.dex", "dex 1");
+    myJavaResource = createFile("src/com/example/resource.txt", "java resource");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myTempDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIncrementalPackaging() throws Exception {
+    File apk = new File(myTempDir, "out/app.apk");
+    File stateFile = new File(myTempDir, "state/app.apk.state");
+
+    File nativeLib = createFile("libs1/armeabi/libfoo.so", "native library");
+    packageIncrementally(apk, stateFile, nativeLib);
+    assertTrue(stateFile.isFile());
+    Map<String, byte[]> contents = readContents(apk, true);
+    assertEquals(readContents(packageFromScratch(nativeLib), false).keySet(), contents.keySet());
+    assertEquals("dex 1", new String(contents.get("classes.dex"), "UTF-8"));
+    long nativeLibTime = getEntryTime(apk, "lib/armeabi/libfoo.so");
+
+    // Change classes.dex, and copy the native library to another directory, as is done for additional native libraries
+    FileUtil.writeToFile(myDex, "dex 2, which is longer");
+    File copiedNativeLib = createFile("libs2/armeabi/libfoo.so", "native library");
+    assertTrue(copiedNativeLib.setLastModified(nativeLib.lastModified() + 60 * 1000));
+    packageIncrementally(apk, stateFile, copiedNativeLib);
+
+    contents = readContents(apk, true);
+    assertContentsEqual(readContents(packageFromScratch(copiedNativeLib), false), contents);
+    assertEquals("dex 2, which is longer", new String(contents.get("classes.dex"), "UTF-8"));
+    // The native library has the same content, so its entry was copied from the previous APK
+    assertEquals(nativeLibTime, getEntryTime(apk, "lib/armeabi/libfoo.so"));
+  }
+
+  public void testPackagingWithoutStateFile() throws Exception {
+    File apk = new File(myTempDir, "out/app.apk");
+    File stateFile = new File(myTempDir, "state/app.apk.state");
+    File nativeLib = createFile("libs/armeabi/libfoo.so", "native library");
+
+    packageIncrementally(apk, stateFile, nativeLib);
+    FileUtil.delete(stateFile);
+    FileUtil.writeToFile(myDex, "dex 2");
+    packageIncrementally(apk, stateFile, nativeLib);
+    assertContentsEqual(readContents(packageFromScratch(nativeLib), false), readContents(apk, true));
+  }
+
+  private void packageIncrementally(@NotNull File apk, @NotNull File stateFile, @NotNull File nativeLib) throws Exception {
+    FileUtil.createParentDirs(apk);
+    IncrementalApkBuilder builder = new IncrementalApkBuilder(apk, stateFile, myKey, myCertificate);
+    try {
+      builder.writeZip(myResources, null);
+      builder.writeFile(myDex, "classes.dex");
+      builder.writeFile(myJavaResource, "com/example/resource.txt");
+      builder.writeFile(nativeLib, "lib/armeabi/libfoo.so");
+      builder.close();
+    }
+    finally {
+      builder.dispose();
+    }
+  }
+
+  @NotNull
+  private File packageFromScratch(@NotNull File nativeLib) throws Exception {
+    File apk = new File(myTempDir, "reference.apk");
+    FileOutputStream out = new FileOutputStream(apk);
+    try {
+      SignedJarBuilder builder = new SignedJarBuilder(out, myKey, myCertificate);
+      InputStream resources = new FileInputStream(myResources);
+      try {
+        builder.writeZip(resources, null);
+      }
+      finally {
+        resources.close();
+      }
+      builder.writeFile(myDex, "classes.dex");
+      builder.writeFile(myJavaResource, "com/example/resource.txt");
+      builder.writeFile(nativeLib, "lib/armeabi/libfoo.so");
+      builder.close();
+    }
+    finally {
+      out.close();
+    }
+    return apk;
+  }
+
+  /**
+   * Reads the entries of a signed APK, other than the signature files. If {@code verify} is set, checks that they are signed.
+   * The reference APK isn't verified: SignedJarBuilder's signature block doesn't verify on all JDKs, and only its content matters.
+   */
+  @NotNull
+  private static Map<String, byte[]> readContents(@NotNull File apk, boolean verify) throws IOException {
+    Map<String, byte[]> contents = new TreeMap<String, byte[]>();
+    JarFile jarFile = new JarFile(apk, verify);
+    try {
+      for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements(); ) {
+        JarEntry entry = entries.nextElement();
+        // Reading an entry verifies its digest, and throws a SecurityException if it doesn't match
+        InputStream in = jarFile.getInputStream(entry);
+        byte[] bytes;
+        try {
+          bytes = StreamUtil.loadFromStream(in);
+        }
+        finally {
+          in.close();
+        }
+        if (!entry.getName().startsWith("META-INF/")) {
+          if (verify) {
+            assertNotNull("Not signed: " + entry.getName(), entry.getCodeSigners());
+          }
+          contents.put(entry.getName(), bytes);
+        }
+      }
+    }
+    finally {
+      jarFile.close();
+    }
+    return contents;
+  }
+
+  private static void assertContentsEqual(@NotNull Map<String, byte[]> expected, @NotNull Map<String, byte[]> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+    }
+  }
+
+  private static long getEntryTime(@NotNull File apk, @NotNull String name) throws IOException {
+    JarFile jarFile = new JarFile(apk, false);
+    try {
+      JarEntry entry = jarFile.getJarEntry(name);
+      assertNotNull(name, entry);
+      return entry.getTime();
+    }
+    finally {
+      jarFile.close();
+    }
+  }
+
+  @NotNull
+  private File createFile(@NotNull String path, @NotNull String content) throws IOException {
+    File file = new File(myTempDir, path);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+
+  private static void addZipEntry(@NotNull ZipOutputStream out, @NotNull String name, int method, @NotNull String content)
+    throws IOException {
+    byte[] bytes = content.getBytes("UTF-8");
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      entry.setSize(bytes.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(bytes);
+    out.closeEntry();
+  }
+}
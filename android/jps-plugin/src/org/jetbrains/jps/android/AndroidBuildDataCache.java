@@ -32,19 +32,19 @@ public class AndroidBuildDataCache {
   private final Map<String, List<ResourceEntry>> myParsedValueResourceFiles = new HashMap<String, List<ResourceEntry>>();
 
   @NotNull
-  public static AndroidBuildDataCache getInstance() {
+  public static synchronized AndroidBuildDataCache getInstance() {
     if (ourInstance == null) {
       ourInstance = new AndroidBuildDataCache();
     }
     return ourInstance;
   }
 
-  public static void clean() {
+  public static synchronized void clean() {
     ourInstance = null;
   }
 
   // If parsing throws IOException, the result it is not cached, so invoker should catch it and stop the build
-  public List<ResourceEntry> getParsedValueResourceFile(@NotNull File file) throws IOException {
+  public synchronized List<ResourceEntry> getParsedValueResourceFile(@NotNull File file) throws IOException {
     final String path = FileUtil.toCanonicalPath(file.getPath());
     List<ResourceEntry> entries = myParsedValueResourceFiles.get(path);
 
@@ -81,7 +81,7 @@ public class AndroidBuildDataCache {
   }
 
   @NotNull
-  public List<JpsAndroidModuleExtension> getAllAndroidDependencies(@NotNull JpsModule module, boolean librariesOnly) {
+  public synchronized List<JpsAndroidModuleExtension> getAllAndroidDependencies(@NotNull JpsModule module, boolean librariesOnly) {
     MyAndroidDeps deps = myModule2AndroidDeps.get(module);
 
     if (deps == null) {
@@ -135,7 +135,7 @@ public class AndroidBuildDataCache {
   }
 
   @NotNull
-  public LocalSdk getSdk(@NotNull File androidSdkHomePath) {
+  public synchronized LocalSdk getSdk(@NotNull File androidSdkHomePath) {
     for (LocalSdk sdk : myLocalSdks) {
       if (FileUtil.filesEqual(sdk.getLocation(), androidSdkHomePath)) {
         return sdk;
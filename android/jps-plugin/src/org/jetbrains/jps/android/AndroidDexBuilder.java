@@ -250,11 +250,29 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
                                @NotNull JpsProject project, @NotNull BuildOutputConsumer outputConsumer,
                                @NotNull String builderName,
                                @NotNull String srcTargetName) throws IOException {
+    final Map<AndroidCompilerMessageKind, List<String>> messages =
+      dex(platform, outFilePath, compileTargets, context, project, builderName, srcTargetName);
+    return messages != null &&
+           processDexResult(messages, outFilePath, compileTargets, context, outputConsumer, builderName, srcTargetName);
+  }
+
+  /**
+   * Runs dx, in a worker process if possible. May be called from several threads at once.
+   *
+   * @return the messages produced by dx, or null if it could not be run
+   */
+  @Nullable
+  static Map<AndroidCompilerMessageKind, List<String>> dex(@NotNull AndroidPlatform platform,
+                                                          @NotNull String outFilePath,
+                                                          @NotNull String[] compileTargets,
+                                                          @NotNull CompileContext context,
+                                                          @NotNull JpsProject project,
+                                                          @NotNull String builderName,
+                                                          @NotNull String srcTargetName) throws IOException {
     BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
     if (buildToolInfo == null) {
-      return false;
+      return null;
     }
-
     final String dxJarPath = FileUtil.toSystemDependentName(buildToolInfo.getPath(BuildToolInfo.PathId.DX_JAR));
     final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
 
@@ -262,7 +280,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     if (testingManager == null && !dxJar.isFile()) {
       context.processMessage(
         new CompilerMessage(builderName, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.cannot.find.file", dxJarPath)));
-      return false;
+      return null;
     }
 
     final List<String> programParamList = new ArrayList<String>();
@@ -280,19 +298,11 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
       if (!AndroidCommonUtils.hasXmxParam(vmOptions)) {
         vmOptions.add("-Xmx" + configuration.getMaxHeapSize() + "M");
       }
-      programParamList.addAll(Arrays.asList("--optimize", Boolean.toString(configuration.isOptimize())));
-
-      if (configuration.isForceJumbo()) {
-        programParamList.addAll(Arrays.asList("--forceJumbo", Boolean.TRUE.toString()));
-      }
-
-      if (configuration.isCoreLibrary()) {
-        programParamList.add("--coreLibrary");
-      }
     }
     else {
       vmOptions = Collections.singletonList("-Xmx1024M");
     }
+    programParamList.addAll(getDexOptions(project));
     programParamList.addAll(Arrays.asList(compileTargets));
     programParamList.add("--exclude");
 
@@ -308,7 +318,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
     final String javaExecutable = getJavaExecutable(platform, context, builderName);
 
     if (javaExecutable == null) {
-      return false;
+      return null;
     }
     final List<String> commandLine = ExternalProcessUtil
       .buildJavaCommandLine(javaExecutable, AndroidDxRunner.class.getName(),
@@ -316,23 +326,71 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
 
     LOG.info(AndroidCommonUtils.command2string(commandLine));
 
-    final String[] commands = ArrayUtil.toStringArray(commandLine);
-    final Process process;
-
-    if (testingManager != null) {
-      process = testingManager.getCommandExecutor().createProcess(
-        commands, Collections.<String, String>emptyMap());
+    final Map<AndroidCompilerMessageKind, List<String>> messages = createMessageMap();
+    final long start = System.currentTimeMillis();
+    if (testingManager == null && AndroidDexWorkerPool.isEnabled()) {
+      final AndroidCommonUtils.DexOutputProcessor outputProcessor = new AndroidCommonUtils.DexOutputProcessor(messages);
+      AndroidDexWorkerPool.dex(javaExecutable, classPath, vmOptions, programParamList, outputProcessor);
+      outputProcessor.finish(outFilePath);
     }
     else {
-      process = Runtime.getRuntime().exec(commands);
+      final String[] commands = ArrayUtil.toStringArray(commandLine);
+      final Process process;
+
+      if (testingManager != null) {
+        process = testingManager.getCommandExecutor().createProcess(
+          commands, Collections.<String, String>emptyMap());
+      }
+      else {
+        process = Runtime.getRuntime().exec(commands);
+      }
+      AndroidCommonUtils.handleDexCompilationResult(process, outFilePath, messages);
     }
+    context.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.INFO, "Dex [" + srcTargetName + "] took " +
+                                                                                   (System.currentTimeMillis() - start) + " ms"));
+    return messages;
+  }
+
+  /** Returns the options passed to dx for the given project, other than the input and output files */
+  @NotNull
+  static List<String> getDexOptions(@NotNull JpsProject project) {
+    final JpsAndroidDexCompilerConfiguration configuration =
+      JpsAndroidExtensionService.getInstance().getDexCompilerConfiguration(project);
+    final List<String> options = new ArrayList<String>();
+
+    if (configuration != null) {
+      options.addAll(Arrays.asList("--optimize", Boolean.toString(configuration.isOptimize())));
+
+      if (configuration.isForceJumbo()) {
+        options.addAll(Arrays.asList("--forceJumbo", Boolean.TRUE.toString()));
+      }
+
+      if (configuration.isCoreLibrary()) {
+        options.add("--coreLibrary");
+      }
+    }
+    return options;
+  }
+
+  @NotNull
+  static Map<AndroidCompilerMessageKind, List<String>> createMessageMap() {
     final HashMap<AndroidCompilerMessageKind, List<String>> messages = new HashMap<AndroidCompilerMessageKind, List<String>>(3);
     messages.put(AndroidCompilerMessageKind.ERROR, new ArrayList<String>());
     messages.put(AndroidCompilerMessageKind.WARNING, new ArrayList<String>());
     messages.put(AndroidCompilerMessageKind.INFORMATION, new ArrayList<String>());
+    return messages;
+  }
 
-    AndroidCommonUtils.handleDexCompilationResult(process, outFilePath, messages);
-
+  /**
+   * Reports the messages of a dx run, and registers its output if it succeeded. Must not be called from several threads at once.
+   */
+  static boolean processDexResult(@NotNull Map<AndroidCompilerMessageKind, List<String>> messages,
+                                  @NotNull String outFilePath,
+                                  @NotNull String[] compileTargets,
+                                  @NotNull CompileContext context,
+                                  @NotNull BuildOutputConsumer outputConsumer,
+                                  @NotNull String builderName,
+                                  @NotNull String srcTargetName) throws IOException {
     AndroidJpsUtil.addMessages(context, messages, builderName, srcTargetName);
     final boolean success = messages.get(AndroidCompilerMessageKind.ERROR).size() == 0;
 
@@ -357,7 +415,7 @@ public class AndroidDexBuilder extends AndroidTargetBuilder<BuildRootDescriptor,
           });
         }
       }
-      outputConsumer.registerOutputFile(outFile, srcFiles);
+      outputConsumer.registerOutputFile(new File(outFilePath), srcFiles);
     }
     return success;
   }
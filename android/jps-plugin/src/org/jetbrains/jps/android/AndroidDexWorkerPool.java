@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.android.compiler.tools.AndroidDxRunner;
+import org.jetbrains.android.util.AndroidCommonUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.ExternalProcessUtil;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs dx in worker processes that are kept alive between dex invocations, so that starting a JVM, loading dx and warming up
+ * the JIT is paid once per worker rather than once per dexed jar.
+ * <p/>
+ * Each worker runs {@link AndroidDxRunner} in {@link AndroidDxRunner#WORKER_MODE}, and dexes one request at a time. Workers
+ * are reused by invocations that need the same java executable, VM options and dx jar. At most {@link #getMaxWorkers()}
+ * requests run at the same time, and as many idle workers are kept until the build process exits.
+ * <p/>
+ * dx keeps some state of every dexed class in static tables. The worker clears them where dx allows it, and a worker is
+ * replaced by a new one after {@link #MAX_REQUESTS_PER_WORKER} requests, after dx failed unexpectedly, and after a request
+ * that took longer than {@link #REQUEST_TIMEOUT_MINUTES}.
+ */
+class AndroidDexWorkerPool {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidDexWorkerPool");
+
+  /**
+   * The maximum number of dx workers. Each worker is a JVM with the dex heap size, so this is kept low by default. Setting it
+   * to 0 makes dx run in a new process for every invocation.
+   */
+  private static final int MAX_WORKERS =
+    Integer.getInteger("android.dex.max.workers", Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+
+  /** The number of requests after which a worker is replaced, so that whatever dx leaks between requests is bounded */
+  private static final int MAX_REQUESTS_PER_WORKER = Integer.getInteger("android.dex.worker.max.requests", 100);
+
+  /** How long to wait for a worker to handle a request before giving up on it */
+  private static final int REQUEST_TIMEOUT_MINUTES = Integer.getInteger("android.dex.worker.timeout.minutes", 30);
+
+  private static final Semaphore ourPermits = new Semaphore(Math.max(1, MAX_WORKERS));
+  /** Idle workers, least recently used first */
+  private static final LinkedList<Worker> ourIdleWorkers = new LinkedList<Worker>();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread("Android dex worker shutdown") {
+      @Override
+      public void run() {
+        synchronized (ourIdleWorkers) {
+          for (Worker worker : ourIdleWorkers) {
+            worker.destroy();
+          }
+          ourIdleWorkers.clear();
+        }
+      }
+    });
+  }
+
+  private AndroidDexWorkerPool() {
+  }
+
+  static boolean isEnabled() {
+    return MAX_WORKERS > 0;
+  }
+
+  static int getMaxWorkers() {
+    return Math.max(1, MAX_WORKERS);
+  }
+
+  /**
+   * Runs dx with the given {@link AndroidDxRunner} arguments in a worker, and passes its output to the given processor. Blocks
+   * while all the workers are busy.
+   */
+  static void dex(@NotNull String javaExecutable,
+                  @NotNull List<String> classPath,
+                  @NotNull List<String> vmOptions,
+                  @NotNull List<String> programParams,
+                  @NotNull AndroidCommonUtils.DexOutputProcessor outputProcessor) throws IOException {
+    final List<String> commandLine = ExternalProcessUtil.buildJavaCommandLine(
+      javaExecutable, AndroidDxRunner.class.getName(), Collections.<String>emptyList(), classPath, vmOptions,
+      Collections.singletonList(AndroidDxRunner.WORKER_MODE));
+
+    try {
+      ourPermits.acquire();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a dex worker");
+    }
+    try {
+      Worker worker = takeIdleWorker(commandLine);
+      if (worker == null) {
+        LOG.info("Starting dex worker: " + AndroidCommonUtils.command2string(commandLine));
+        worker = new Worker(commandLine);
+      }
+      boolean reusable = false;
+      try {
+        reusable = worker.dex(programParams, outputProcessor);
+      }
+      finally {
+        if (reusable) {
+          releaseWorker(worker);
+        }
+        else {
+          worker.destroy();
+        }
+      }
+    }
+    finally {
+      ourPermits.release();
+    }
+  }
+
+  @Nullable
+  private static Worker takeIdleWorker(@NotNull List<String> commandLine) {
+    synchronized (ourIdleWorkers) {
+      for (Iterator<Worker> iterator = ourIdleWorkers.descendingIterator(); iterator.hasNext(); ) {
+        Worker worker = iterator.next();
+        if (worker.myCommandLine.equals(commandLine)) {
+          iterator.remove();
+          return worker;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static void releaseWorker(@NotNull Worker worker) {
+    synchronized (ourIdleWorkers) {
+      ourIdleWorkers.addLast(worker);
+      while (ourIdleWorkers.size() > getMaxWorkers()) {
+        ourIdleWorkers.removeFirst().destroy();
+      }
+    }
+  }
+
+  private static class Worker {
+    @NotNull private final List<String> myCommandLine;
+    @NotNull private final Process myProcess;
+    @NotNull private final Writer myInput;
+
+    private volatile AndroidCommonUtils.DexOutputProcessor myOutputProcessor;
+    /** Counted down when the output of the current request has been read from stdout and from stderr */
+    private volatile CountDownLatch myRequestDone = new CountDownLatch(0);
+    private volatile boolean myAlive = true;
+    private int myRequestCount;
+
+    Worker(@NotNull List<String> commandLine) throws IOException {
+      myCommandLine = commandLine;
+      myProcess = Runtime.getRuntime().exec(ArrayUtil.toStringArray(commandLine));
+      myInput = new BufferedWriter(new OutputStreamWriter(myProcess.getOutputStream(), "UTF-8"));
+      startReading(myProcess.getInputStream(), false);
+      startReading(myProcess.getErrorStream(), true);
+    }
+
+    /** Returns whether the worker can run more requests */
+    boolean dex(@NotNull List<String> programParams, @NotNull AndroidCommonUtils.DexOutputProcessor outputProcessor)
+      throws IOException {
+      CountDownLatch requestDone = new CountDownLatch(2);
+      myOutputProcessor = outputProcessor;
+      myRequestDone = requestDone;
+
+      myInput.write(Integer.toString(programParams.size()));
+      myInput.write('\n');
+      for (String param : programParams) {
+        myInput.write(param);
+        myInput.write('\n');
+      }
+      myInput.flush();
+
+      try {
+        if (!requestDone.await(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+          myAlive = false;
+          throw new IOException("dx worker did not finish the request within " + REQUEST_TIMEOUT_MINUTES + " minutes");
+        }
+      }
+      catch (InterruptedException e) {
+        myAlive = false;
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for dx");
+      }
+      finally {
+        myOutputProcessor = null;
+      }
+      return myAlive && ++myRequestCount < MAX_REQUESTS_PER_WORKER;
+    }
+
+    private void startReading(@NotNull final InputStream stream, final boolean stderr) {
+      Thread thread = new Thread("Android dex worker " + (stderr ? "stderr" : "stdout")) {
+        @Override
+        public void run() {
+          try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+            String line;
+            while ((line = reader.readLine()) != null) {
+              boolean lastRequest = line.endsWith(AndroidDxRunner.END_OF_LAST_REQUEST);
+              boolean endOfRequest = lastRequest || line.endsWith(AndroidDxRunner.END_OF_REQUEST);
+              if (endOfRequest) {
+                // The worker puts the marker on a line of its own, but don't lose the output if it didn't
+                line = line.substring(0, line.length() -
+                                         (lastRequest ? AndroidDxRunner.END_OF_LAST_REQUEST : AndroidDxRunner.END_OF_REQUEST).length());
+              }
+              AndroidCommonUtils.DexOutputProcessor outputProcessor = myOutputProcessor;
+              if (outputProcessor != null && (!endOfRequest || line.length() > 0)) {
+                outputProcessor.onTextAvailable(line, stderr);
+              }
+              if (endOfRequest) {
+                if (lastRequest) {
+                  // The worker exits after this request
+                  myAlive = false;
+                }
+                myRequestDone.countDown();
+              }
+            }
+          }
+          catch (IOException e) {
+            LOG.info(e);
+          }
+          finally {
+            // The worker has exited, so don't wait for the rest of the output
+            myAlive = false;
+            CountDownLatch requestDone = myRequestDone;
+            while (requestDone.getCount() > 0) {
+              requestDone.countDown();
+            }
+          }
+        }
+      };
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void destroy() {
+      myProcess.destroy();
+    }
+  }
+}
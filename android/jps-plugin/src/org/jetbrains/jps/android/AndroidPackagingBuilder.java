@@ -43,6 +43,7 @@ import java.util.*;
 public class AndroidPackagingBuilder extends AndroidTargetBuilder<BuildRootDescriptor, AndroidPackagingBuildTarget> {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPackagingBuilder");
   private static final String BUILDER_NAME = "Android Packager";
+  private static final String PACKAGING_STATE_FILE_NAME = "apk_packaging_state";
 
 
   public AndroidPackagingBuilder() {
@@ -183,7 +184,8 @@ public class AndroidPackagingBuilder extends AndroidTargetBuilder<BuildRootDescr
     final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidApkBuilder
       .execute(resPackagePath, classesDexFilePath, resourceRoots, externalJars,
                nativeLibDirs, additionalNativeLibs, outputPath, release, sdkPath, platform.getTarget(),
-               customKeyStorePath, new MyExcludedSourcesFilter(context.getProjectDescriptor().getProject()));
+               customKeyStorePath, new MyExcludedSourcesFilter(context.getProjectDescriptor().getProject()),
+               new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module), PACKAGING_STATE_FILE_NAME));
 
     if (messages.get(AndroidCompilerMessageKind.ERROR).size() == 0) {
       final List<String> srcFiles = new ArrayList<String>();
@@ -1,10 +1,13 @@
 package org.jetbrains.jps.android;
 
+import com.android.sdklib.BuildToolInfo;
 import com.android.tools.idea.jps.AndroidTargetBuilder;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.android.util.AndroidCompilerMessageKind;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -26,12 +29,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * @author Eugene.Kudelevsky
  */
 public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> {
 
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPreDexBuilder");
   @NonNls private static final String BUILDER_NAME = "Android Pre Dex";
 
   protected AndroidPreDexBuilder() {
@@ -66,7 +72,7 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
   private static boolean doBuild(@NotNull AndroidPreDexBuildTarget target,
                                  @NotNull DirtyFilesHolder<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget> holder,
                                  @NotNull BuildOutputConsumer outputConsumer,
-                                 @NotNull CompileContext context) throws IOException, ProjectBuildException {
+                                 @NotNull final CompileContext context) throws IOException, ProjectBuildException {
     final List<Pair<File, String>> filesToPreDex = new ArrayList<Pair<File, String>>();
 
     holder.processDirtyFiles(new FileProcessor<AndroidPreDexBuildTarget.MyRootDescriptor, AndroidPreDexBuildTarget>() {
@@ -91,44 +97,154 @@ public class AndroidPreDexBuilder extends AndroidTargetBuilder<AndroidPreDexBuil
     if (platform == null) {
       return false;
     }
-    if (!filesToPreDex.isEmpty()) {
-      final File outputDir = target.getOutputFile(context);
+    if (filesToPreDex.isEmpty()) {
+      return true;
+    }
+    final File outputDir = target.getOutputFile(context);
+    final List<Pair<String, File>> jobs = new ArrayList<Pair<String, File>>();
+    final List<String> progressTexts = new ArrayList<String>();
 
-      for (Pair<File, String> pair : filesToPreDex) {
-        context.checkCanceled();
+    for (Pair<File, String> pair : filesToPreDex) {
+      final File srcFile = pair.getFirst();
+      final String moduleName = pair.getSecond();
+      final String srcFilePath = srcFile.getAbsolutePath();
+      final File outputFile;
 
-        final File srcFile = pair.getFirst();
-        final String moduleName = pair.getSecond();
-        final String srcFilePath = srcFile.getAbsolutePath();
-        final File outputFile;
+      if (moduleName != null) {
+        progressTexts.add("Pre-dex [" + moduleName + "]");
+        outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+      }
+      else {
+        progressTexts.add("Pre-dex: " + srcFile.getName());
+        final String outputFileName = getOutputFileNameForExternalJar(srcFile);
 
-        if (moduleName != null) {
-          context.processMessage(new ProgressMessage("Pre-dex [" + moduleName + "]"));
-          outputFile = new File(new File(outputDir, moduleName), srcFile.getName());
+        if (outputFileName == null) {
+          context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
+                                                     "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
+          return false;
         }
-        else {
-          context.processMessage(new ProgressMessage("Pre-dex: " + srcFile.getName()));
-          final String outputFileName = getOutputFileNameForExternalJar(srcFile);
-
-          if (outputFileName == null) {
-            context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.ERROR,
-                                                       "Cannot pre-dex file " + srcFilePath + ": incorrect path", srcFilePath));
-            return false;
+        outputFile = new File(outputDir, outputFileName);
+      }
+
+      if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
+        return false;
+      }
+      jobs.add(Pair.create(srcFilePath, outputFile));
+    }
+
+    // The jars are dexed in parallel, in as many dx workers as are allowed. Messages are reported and outputs registered in order
+    // afterwards, on this thread. Tests expect the dx command lines in a stable order.
+    final int threadCount = AndroidBuildTestingManager.getTestingManager() != null ? 1 : AndroidDexWorkerPool.getMaxWorkers();
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs.size(), threadCount));
+    final AndroidPlatform finalPlatform = platform;
+    final PreDexCacheContext cacheContext = PreDexCacheContext.create(platform, project);
+    try {
+      final List<Future<Map<AndroidCompilerMessageKind, List<String>>>> futures =
+        new ArrayList<Future<Map<AndroidCompilerMessageKind, List<String>>>>(jobs.size());
+
+      for (int i = 0; i < jobs.size(); i++) {
+        final Pair<String, File> job = jobs.get(i);
+        final String progressText = progressTexts.get(i);
+        futures.add(executor.submit(new Callable<Map<AndroidCompilerMessageKind, List<String>>>() {
+          @Override
+          public Map<AndroidCompilerMessageKind, List<String>> call() throws Exception {
+            context.checkCanceled();
+            final File srcFile = new File(job.getFirst());
+            final File outputFile = job.getSecond();
+            context.processMessage(new ProgressMessage(progressText));
+
+            final AndroidPreDexCache.Dexer dexer = new AndroidPreDexCache.Dexer() {
+              @Nullable
+              @Override
+              public Map<AndroidCompilerMessageKind, List<String>> dex(@NotNull File outputFile) throws IOException {
+                return AndroidDexBuilder.dex(finalPlatform, outputFile.getPath(), new String[]{job.getFirst()}, context, project,
+                                             BUILDER_NAME, srcFile.getName());
+              }
+            };
+            final String cacheKey = cacheContext != null ? cacheContext.computeKey(srcFile) : null;
+            if (cacheKey != null) {
+              return cacheContext.myCache.dex(cacheKey, outputFile, dexer);
+            }
+            // dx reports its errors as warnings if the output file exists, so don't leave the output of an earlier build around
+            FileUtil.delete(outputFile);
+            return dexer.dex(outputFile);
           }
-          outputFile = new File(outputDir, outputFileName);
-        }
+        }));
+      }
+      boolean success = true;
 
-        if (AndroidJpsUtil.createDirIfNotExist(outputFile.getParentFile(), context, BUILDER_NAME) == null) {
-          return false;
-        }
+      for (int i = 0; i < jobs.size(); i++) {
+        final Pair<String, File> job = jobs.get(i);
+        final Map<AndroidCompilerMessageKind, List<String>> messages = getResult(futures.get(i));
 
-        if (!AndroidDexBuilder.runDex(platform, outputFile.getPath(), new String[]{srcFilePath}, context,
-          project, outputConsumer, BUILDER_NAME, srcFile.getName())) {
-          return false;
+        if (messages == null ||
+            !AndroidDexBuilder.processDexResult(messages, job.getSecond().getPath(), new String[]{job.getFirst()}, context,
+                                                outputConsumer, BUILDER_NAME, new File(job.getFirst()).getName())) {
+          success = false;
         }
       }
+      return success;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Nullable
+  private static <T> T getResult(@NotNull Future<T> future) throws IOException, ProjectBuildException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProjectBuildException(e);
+    }
+    catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if (cause instanceof ProjectBuildException) {
+        throw (ProjectBuildException)cause;
+      }
+      throw new ProjectBuildException(cause);
+    }
+  }
+
+  /** What is needed to look up pre-dexed jars in the {@link AndroidPreDexCache} */
+  private static class PreDexCacheContext {
+    @NotNull final AndroidPreDexCache myCache;
+    @NotNull final String myDxVersion;
+    @NotNull final List<String> myDxOptions;
+
+    private PreDexCacheContext(@NotNull AndroidPreDexCache cache, @NotNull String dxVersion, @NotNull List<String> dxOptions) {
+      myCache = cache;
+      myDxVersion = dxVersion;
+      myDxOptions = dxOptions;
+    }
+
+    @Nullable
+    static PreDexCacheContext create(@NotNull AndroidPlatform platform, @NotNull JpsProject project) {
+      final AndroidPreDexCache cache = AndroidPreDexCache.getInstance();
+      final BuildToolInfo buildToolInfo = platform.getTarget().getBuildToolInfo();
+
+      // Tests check the dx command lines, so don't skip any
+      if (cache == null || buildToolInfo == null || AndroidBuildTestingManager.getTestingManager() != null) {
+        return null;
+      }
+      return new PreDexCacheContext(cache, buildToolInfo.getRevision().toString(), AndroidDexBuilder.getDexOptions(project));
+    }
+
+    @Nullable
+    String computeKey(@NotNull File srcFile) {
+      try {
+        return AndroidPreDexCache.computeKey(srcFile, myDxVersion, myDxOptions);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot compute the pre-dex cache key of " + srcFile, e);
+        return null;
+      }
     }
-    return true;
   }
 
   public static boolean canBePreDexed(@NotNull File file) {
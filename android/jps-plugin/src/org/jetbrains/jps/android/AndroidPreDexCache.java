@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.android;
+
+import com.android.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.android.util.AndroidCompilerMessageKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.Utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of pre-dexed jars that is shared by all projects, so that libraries such as the support library are only dexed once
+ * rather than once per project, checkout and clean build.
+ * <p/>
+ * Entries are keyed by the SHA-1 of the contents of the input jar, the version of dx and the dx options. The cache is kept below
+ * a maximum size by evicting the least recently used entries; the timestamp of an entry is updated whenever it is used.
+ */
+class AndroidPreDexCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.android.AndroidPreDexCache");
+
+  /** Maximum size of the cache in megabytes, 0 to disable it */
+  private static final long MAX_SIZE_MB = Long.getLong("android.pre.dex.cache.size.mb", 1024);
+  private static final String ENTRY_EXTENSION = ".jar";
+
+  private static AndroidPreDexCache ourInstance;
+
+  @NotNull private final File myDir;
+  private final long myMaxSize;
+
+  @VisibleForTesting
+  AndroidPreDexCache(@NotNull File dir, long maxSize) {
+    myDir = dir;
+    myMaxSize = maxSize;
+  }
+
+  /** Returns the cache shared by the projects built by this installation, or null if it is disabled */
+  @Nullable
+  static synchronized AndroidPreDexCache getInstance() {
+    if (ourInstance == null && MAX_SIZE_MB > 0) {
+      ourInstance = new AndroidPreDexCache(new File(Utils.getSystemRoot(), "android/pre-dex-cache"), MAX_SIZE_MB * 1024 * 1024);
+    }
+    return ourInstance;
+  }
+
+  /** Returns the key of the cache entry for the given jar, dexed by the given version of dx with the given options */
+  @NotNull
+  static String computeKey(@NotNull File jar, @NotNull String dxVersion, @NotNull List<String> dxOptions) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+    byte[] buffer = new byte[64 * 1024];
+    InputStream in = new FileInputStream(jar);
+    try {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+    digest.update(dxVersion.getBytes("UTF-8"));
+    for (String option : dxOptions) {
+      digest.update((byte)0);
+      digest.update(option.getBytes("UTF-8"));
+    }
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Copies the cached output for the key to the output file if there is one, and otherwise runs dx and adds its output to the
+   * cache if dx succeeded. Returns the messages of dx, or no messages if the output was restored from the cache.
+   */
+  @Nullable
+  Map<AndroidCompilerMessageKind, List<String>> dex(@NotNull String key, @NotNull File outputFile, @NotNull Dexer dexer)
+    throws IOException {
+    if (restore(key, outputFile)) {
+      LOG.info("Pre-dexed file " + outputFile.getName() + " restored from the cache");
+      return AndroidDexBuilder.createMessageMap();
+    }
+    // dx reports its errors as warnings if the output file exists, and the output of an earlier build must never be stored
+    // under the key of this one
+    FileUtil.delete(outputFile);
+    final Map<AndroidCompilerMessageKind, List<String>> messages = dexer.dex(outputFile);
+
+    if (messages != null && messages.get(AndroidCompilerMessageKind.ERROR).isEmpty() && outputFile.isFile()) {
+      store(key, outputFile);
+    }
+    return messages;
+  }
+
+  /** Copies the cached output for the key to the given file, and returns whether there was one */
+  boolean restore(@NotNull String key, @NotNull File outputFile) {
+    File entry = getEntry(key);
+    if (!entry.isFile()) {
+      return false;
+    }
+    try {
+      FileUtil.copy(entry, outputFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot restore pre-dexed file " + outputFile + " from the cache", e);
+      return false;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    entry.setLastModified(System.currentTimeMillis());
+    return true;
+  }
+
+  /** Adds the output of dx for the key to the cache, evicting old entries if needed */
+  void store(@NotNull String key, @NotNull File outputFile) {
+    if (outputFile.length() > myMaxSize) {
+      return;
+    }
+    File tempFile = null;
+    try {
+      FileUtil.createDirectory(myDir);
+      // Copy to a temporary file first and rename it, so that other builds never see a partial entry
+      tempFile = FileUtil.createTempFile(myDir, key, ".tmp", true);
+      FileUtil.copy(outputFile, tempFile);
+      final File entry = getEntry(key);
+
+      // Entries are keyed by content, so if another build added the entry in the meantime, it is the same as this one
+      if (!tempFile.renameTo(entry) && !entry.isFile()) {
+        LOG.info("Cannot add pre-dexed file " + outputFile + " to the cache: cannot rename " + tempFile + " to " + entry);
+        return;
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot add pre-dexed file " + outputFile + " to the cache", e);
+      return;
+    }
+    finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+    evict();
+  }
+
+  /** Runs dx on a jar, see {@link #dex(String, File, Dexer)} */
+  interface Dexer {
+    @Nullable
+    Map<AndroidCompilerMessageKind, List<String>> dex(@NotNull File outputFile) throws IOException;
+  }
+
+  @NotNull
+  private File getEntry(@NotNull String key) {
+    return new File(myDir, key + ENTRY_EXTENSION);
+  }
+
+  private synchronized void evict() {
+    File[] entries = myDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(ENTRY_EXTENSION);
+      }
+    });
+    if (entries == null) {
+      return;
+    }
+    long size = 0;
+    for (File entry : entries) {
+      size += entry.length();
+    }
+    if (size <= myMaxSize) {
+      return;
+    }
+
+    final long[] lastModified = new long[entries.length];
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      lastModified[i] = entries[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return lastModified[a] < lastModified[b] ? -1 : lastModified[a] == lastModified[b] ? 0 : 1;
+      }
+    });
+    for (int i = 0; i < order.length && size > myMaxSize; i++) {
+      File entry = entries[order[i]];
+      long length = entry.length();
+      if (FileUtil.delete(entry)) {
+        size -= length;
+      }
+    }
+  }
+}
@@ -56,6 +56,7 @@ import org.jetbrains.jps.service.JpsServiceManager;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Eugene.Kudelevsky
@@ -110,6 +111,9 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     try {
       return doBuild(context, chunk, dirtyFilesHolder);
     }
+    catch (ProjectBuildException e) {
+      throw e;
+    }
     catch (Exception e) {
       return AndroidJpsUtil.handleException(context, e, BUILDER_NAME, LOG);
     }
@@ -123,7 +127,7 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   private static ModuleLevelBuilder.ExitCode doBuild(CompileContext context,
                                                      ModuleChunk chunk,
                                                      DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder)
-    throws IOException {
+    throws IOException, ProjectBuildException {
     final Map<JpsModule, MyModuleData> moduleDataMap = computeModuleDatas(chunk.getModules(), context);
     if (moduleDataMap == null || moduleDataMap.size() == 0) {
       return ExitCode.ABORT;
@@ -189,41 +193,24 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     if (!success) {
       return ExitCode.ABORT;
     }
-    boolean didSomething = false;
-
-    if (idlFilesToCompile.size() > 0) {
-      if (!runAidlCompiler(context, idlFilesToCompile, moduleDataMap)) {
-        success = false;
-      }
-      didSomething = true;
+    final AndroidSourceGenerationRunner runner = AndroidSourceGenerationRunner.create();
+    MyExitStatus status;
+    try {
+      status = runGenerators(context, runner, idlFilesToCompile, rsFilesToCompile, moduleDataMap);
     }
-
-    if (rsFilesToCompile.size() > 0) {
-      if (!runRenderscriptCompiler(context, rsFilesToCompile, moduleDataMap)) {
-        success = false;
+    finally {
+      runner.finish();
+      final String times = runner.getTimes();
+      if (times != null) {
+        context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.INFO,
+                                                   "Source generation for " + chunk.getPresentableShortName() + ": " + times));
       }
-      didSomething = true;
-    }
-    MyExitStatus status = runAaptCompiler(context, moduleDataMap);
-
-    if (status == MyExitStatus.FAIL) {
-      success = false;
-    }
-    else if (status == MyExitStatus.OK) {
-      didSomething = true;
     }
-    status = runBuildConfigGeneration(context, moduleDataMap);
-
     if (status == MyExitStatus.FAIL) {
-      success = false;
-    }
-    else if (status == MyExitStatus.OK) {
-      didSomething = true;
-    }
-
-    if (!success) {
       return ExitCode.ABORT;
     }
+    boolean didSomething = status == MyExitStatus.OK;
+
     status = copyGeneratedSources(moduleDataMap, dataManager, context);
     if (status == MyExitStatus.FAIL) {
       return ExitCode.ABORT;
@@ -238,6 +225,147 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
     return ExitCode.NOTHING_DONE;
   }
 
+  /**
+   * Runs aidl, renderscript, aapt and the BuildConfig generator of a chunk on the runner's threads. The generators are
+   * independent of each other, except that aapt needs the R.txt files of the libraries of an application, so within the chunk,
+   * aapt runs for the applications once it is done for the libraries. Libraries in other chunks were built before this chunk.
+   */
+  @NotNull
+  private static MyExitStatus runGenerators(@NotNull final CompileContext context,
+                                            @NotNull AndroidSourceGenerationRunner runner,
+                                            @NotNull Map<File, ModuleBuildTarget> idlFilesToCompile,
+                                            @NotNull Map<File, ModuleBuildTarget> rsFilesToCompile,
+                                            @NotNull final Map<JpsModule, MyModuleData> moduleDataMap)
+    throws IOException, ProjectBuildException {
+    final List<Future<MyExitStatus>> futures = new ArrayList<Future<MyExitStatus>>();
+
+    if (idlFilesToCompile.size() > 0) {
+      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
+    }
+    for (Map.Entry<File, ModuleBuildTarget> entry : idlFilesToCompile.entrySet()) {
+      final File file = entry.getKey();
+      final ModuleBuildTarget buildTarget = entry.getValue();
+
+      futures.add(submit(context, runner, ANDROID_IDL_COMPILER, new Callable<MyExitStatus>() {
+        @Override
+        public MyExitStatus call() throws Exception {
+          return runAidlCompiler(context, file, buildTarget, moduleDataMap) ? MyExitStatus.OK : MyExitStatus.FAIL;
+        }
+      }));
+    }
+
+    if (rsFilesToCompile.size() > 0) {
+      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.renderscript")));
+    }
+    for (Map.Entry<File, ModuleBuildTarget> entry : rsFilesToCompile.entrySet()) {
+      final File file = entry.getKey();
+      final ModuleBuildTarget buildTarget = entry.getValue();
+
+      futures.add(submit(context, runner, ANDROID_RENDERSCRIPT_COMPILER, new Callable<MyExitStatus>() {
+        @Override
+        public MyExitStatus call() throws Exception {
+          return runRenderscriptCompiler(context, file, buildTarget, moduleDataMap) ? MyExitStatus.OK : MyExitStatus.FAIL;
+        }
+      }));
+    }
+    final List<Future<MyExitStatus>> libraryAaptFutures = new ArrayList<Future<MyExitStatus>>();
+    final List<JpsModule> applications = new ArrayList<JpsModule>();
+
+    for (final Map.Entry<JpsModule, MyModuleData> entry : moduleDataMap.entrySet()) {
+      futures.add(submit(context, runner, ANDROID_BUILD_CONFIG_GENERATOR, new Callable<MyExitStatus>() {
+        @Override
+        public MyExitStatus call() throws Exception {
+          return runBuildConfigGeneration(context, entry.getKey(), entry.getValue());
+        }
+      }));
+
+      if (entry.getValue().getAndroidExtension().isLibrary()) {
+        libraryAaptFutures.add(submitAaptCompiler(context, runner, entry.getKey(), entry.getValue()));
+      }
+      else {
+        applications.add(entry.getKey());
+      }
+    }
+    MyExitStatus status = waitFor(libraryAaptFutures);
+
+    for (JpsModule module : applications) {
+      futures.add(submitAaptCompiler(context, runner, module, moduleDataMap.get(module)));
+    }
+    return combine(status, waitFor(futures));
+  }
+
+  @NotNull
+  private static Future<MyExitStatus> submitAaptCompiler(@NotNull final CompileContext context,
+                                                         @NotNull AndroidSourceGenerationRunner runner,
+                                                         @NotNull final JpsModule module,
+                                                         @NotNull final MyModuleData moduleData) {
+    return submit(context, runner, ANDROID_APT_COMPILER, new Callable<MyExitStatus>() {
+      @Override
+      public MyExitStatus call() throws Exception {
+        return runAaptCompiler(context, module, moduleData);
+      }
+    });
+  }
+
+  /** Submits a generator, which doesn't run if the build has been canceled by the time it gets a thread */
+  @NotNull
+  private static Future<MyExitStatus> submit(@NotNull final CompileContext context,
+                                             @NotNull AndroidSourceGenerationRunner runner,
+                                             @NotNull String toolName,
+                                             @NotNull final Callable<MyExitStatus> task) {
+    return runner.submit(toolName, new Callable<MyExitStatus>() {
+      @Override
+      public MyExitStatus call() throws Exception {
+        context.checkCanceled();
+        return task.call();
+      }
+    });
+  }
+
+  /** Waits for the given generators, and returns FAIL if any of them failed, or OK if any of them generated something */
+  @NotNull
+  private static MyExitStatus waitFor(@NotNull List<Future<MyExitStatus>> futures) throws IOException, ProjectBuildException {
+    MyExitStatus result = MyExitStatus.NOTHING_CHANGED;
+
+    for (Future<MyExitStatus> future : futures) {
+      try {
+        result = combine(result, future.get());
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while generating sources");
+      }
+      catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        }
+        if (cause instanceof ProjectBuildException) {
+          throw (ProjectBuildException)cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error)cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static MyExitStatus combine(@NotNull MyExitStatus status1, @NotNull MyExitStatus status2) {
+    if (status1 == MyExitStatus.FAIL || status2 == MyExitStatus.FAIL) {
+      return MyExitStatus.FAIL;
+    }
+    if (status1 == MyExitStatus.OK || status2 == MyExitStatus.OK) {
+      return MyExitStatus.OK;
+    }
+    return MyExitStatus.NOTHING_CHANGED;
+  }
+
   @NotNull
   private static List<String> filterExcludedByOtherProviders(@NotNull JpsModule module, @NotNull Collection<String> genRoots) {
     final Set<String> genRootPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
@@ -578,72 +706,55 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   }
 
   private static MyExitStatus runBuildConfigGeneration(@NotNull CompileContext context,
-                                                       @NotNull Map<JpsModule, MyModuleData> moduleDataMap) throws IOException {
-    boolean success = true;
-    boolean didSomething = false;
-
-    for (Map.Entry<JpsModule, MyModuleData> entry : moduleDataMap.entrySet()) {
-      final JpsModule module = entry.getKey();
-      final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
-      final AndroidBuildConfigStateStorage storage =
-        context.getProjectDescriptor().dataManager.getStorage(
-          moduleTarget, AndroidBuildConfigStateStorage.PROVIDER);
+                                                       @NotNull JpsModule module,
+                                                       @NotNull MyModuleData moduleData) throws IOException {
+    final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    final AndroidBuildConfigStateStorage storage =
+      context.getProjectDescriptor().dataManager.getStorage(
+        moduleTarget, AndroidBuildConfigStateStorage.PROVIDER);
 
-      final MyModuleData moduleData = entry.getValue();
-      final JpsAndroidModuleExtension extension = AndroidJpsUtil.getExtension(module);
+    final JpsAndroidModuleExtension extension = AndroidJpsUtil.getExtension(module);
 
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
-      final File outputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.BUILD_CONFIG_GENERATED_SOURCE_ROOT_NAME);
+    final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
+    final File outputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.BUILD_CONFIG_GENERATED_SOURCE_ROOT_NAME);
 
-      try {
-        if (extension == null || isLibraryWithBadCircularDependency(extension)) {
-          if (!clearDirectoryIfNotEmpty(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR)) {
-            success = false;
-          }
-          continue;
-        }
-        final String packageName = moduleData.getPackage();
-        final boolean debug = !AndroidJpsUtil.isReleaseBuild(context);
-        final Set<String> libPackages = new HashSet<String>(getDepLibPackages(module).values());
-        libPackages.remove(packageName);
-
-        final AndroidBuildConfigState newState = new AndroidBuildConfigState(packageName, libPackages, debug);
-
-        final AndroidBuildConfigState oldState = storage.getState(module.getName());
-        if (newState.equalsTo(oldState)) {
-          continue;
+    try {
+      if (extension == null || isLibraryWithBadCircularDependency(extension)) {
+        if (!clearDirectoryIfNotEmpty(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR)) {
+          return MyExitStatus.FAIL;
         }
-        didSomething = true;
-        context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.build.config", module.getName())));
+        return MyExitStatus.NOTHING_CHANGED;
+      }
+      final String packageName = moduleData.getPackage();
+      final boolean debug = !AndroidJpsUtil.isReleaseBuild(context);
+      final Set<String> libPackages = new HashSet<String>(getDepLibPackages(module).values());
+      libPackages.remove(packageName);
 
-        // clear directory, because it may contain obsolete files (ex. if package name was changed)
-        if (!clearDirectory(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR)) {
-          success = false;
-          continue;
-        }
+      final AndroidBuildConfigState newState = new AndroidBuildConfigState(packageName, libPackages, debug);
 
-        if (doBuildConfigGeneration(packageName, libPackages, debug, outputDirectory, context)) {
-          storage.update(module.getName(), newState);
-          markDirtyRecursively(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR, true);
-        }
-        else {
-          storage.update(module.getName(), null);
-          success = false;
-        }
+      final AndroidBuildConfigState oldState = storage.getState(module.getName());
+      if (newState.equalsTo(oldState)) {
+        return MyExitStatus.NOTHING_CHANGED;
       }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_BUILD_CONFIG_GENERATOR);
-        success = false;
+      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.build.config", module.getName())));
+
+      // clear directory, because it may contain obsolete files (ex. if package name was changed)
+      if (!clearDirectory(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR)) {
+        return MyExitStatus.FAIL;
       }
-    }
 
-    if (!success) {
+      if (doBuildConfigGeneration(packageName, libPackages, debug, outputDirectory, context)) {
+        storage.update(module.getName(), newState);
+        markDirtyRecursively(outputDirectory, context, ANDROID_BUILD_CONFIG_GENERATOR, true);
+        return MyExitStatus.OK;
+      }
+      storage.update(module.getName(), null);
       return MyExitStatus.FAIL;
     }
-    else if (didSomething) {
-      return MyExitStatus.OK;
+    catch (IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_BUILD_CONFIG_GENERATOR);
+      return MyExitStatus.FAIL;
     }
-    return MyExitStatus.NOTHING_CHANGED;
   }
 
   private static boolean doBuildConfigGeneration(@NotNull String packageName,
@@ -679,346 +790,304 @@ public class AndroidSourceGeneratingBuilder extends ModuleLevelBuilder {
   }
 
   private static boolean runAidlCompiler(@NotNull final CompileContext context,
-                                         @NotNull Map<File, ModuleBuildTarget> files,
+                                         @NotNull File file,
+                                         @NotNull ModuleBuildTarget buildTarget,
                                          @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
-    if (files.size() > 0) {
-      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aidl")));
-    }
-
-    boolean success = true;
-
-    for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
-      final File file = entry.getKey();
-      final ModuleBuildTarget buildTarget = entry.getValue();
-      final String filePath = file.getPath();
+    final String filePath = file.getPath();
 
-      final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
+    final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
 
-      if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(
-          new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
-        continue;
-      }
-      final File generatedSourcesDir =
-        AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), context.getProjectDescriptor().dataManager);
-      final File aidlOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AIDL_GENERATED_SOURCE_ROOT_NAME);
+    if (!LOG.assertTrue(moduleData != null)) {
+      context.processMessage(
+        new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message("android.jps.internal.error")));
+      return false;
+    }
+    final File generatedSourcesDir =
+      AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), context.getProjectDescriptor().dataManager);
+    final File aidlOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AIDL_GENERATED_SOURCE_ROOT_NAME);
 
-      if (!aidlOutputDirectory.exists() && !aidlOutputDirectory.mkdirs()) {
-        context.processMessage(
-          new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
-                              AndroidJpsBundle.message("android.jps.cannot.create.directory", aidlOutputDirectory.getPath())));
-        success = false;
-        continue;
-      }
+    if (!aidlOutputDirectory.exists() && !aidlOutputDirectory.mkdirs()) {
+      context.processMessage(
+        new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
+                            AndroidJpsBundle.message("android.jps.cannot.create.directory", aidlOutputDirectory.getPath())));
+      return false;
+    }
 
-      final IAndroidTarget target = moduleData.getPlatform().getTarget();
+    final IAndroidTarget target = moduleData.getPlatform().getTarget();
 
-      try {
-        final File[] sourceRoots = AndroidJpsUtil.getSourceRootsForModuleAndDependencies(buildTarget.getModule());
-        final String[] sourceRootPaths = AndroidJpsUtil.toPaths(sourceRoots);
-        final String packageName = computePackageForFile(context, file);
+    try {
+      final File[] sourceRoots = AndroidJpsUtil.getSourceRootsForModuleAndDependencies(buildTarget.getModule());
+      final String[] sourceRootPaths = AndroidJpsUtil.toPaths(sourceRoots);
+      final String packageName = computePackageForFile(context, file);
 
-        if (packageName == null) {
-          context.processMessage(new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
-                                                     AndroidJpsBundle.message("android.jps.errors.cannot.compute.package", filePath)));
-          success = false;
-          continue;
-        }
+      if (packageName == null) {
+        context.processMessage(new CompilerMessage(ANDROID_IDL_COMPILER, BuildMessage.Kind.ERROR,
+                                                   AndroidJpsBundle.message("android.jps.errors.cannot.compute.package", filePath)));
+        return false;
+      }
 
-        final File outputFile = new File(aidlOutputDirectory, packageName.replace('.', File.separatorChar) +
-                                                              File.separator + FileUtil.getNameWithoutExtension(file) + ".java");
-        final String outputFilePath = outputFile.getPath();
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
+      final File outputFile = new File(aidlOutputDirectory, packageName.replace('.', File.separatorChar) +
+                                                            File.separator + FileUtil.getNameWithoutExtension(file) + ".java");
+      final String outputFilePath = outputFile.getPath();
+      final Map<AndroidCompilerMessageKind, List<String>> messages =
+        AndroidIdl.execute(target, filePath, outputFilePath, sourceRootPaths);
 
-        addMessages(context, messages, filePath, ANDROID_IDL_COMPILER);
+      addMessages(context, messages, filePath, ANDROID_IDL_COMPILER);
 
-        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
-          success = false;
-        }
-        else if (outputFile.exists()) {
-          final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutput(filePath, outputFilePath);
-          FSOperations.markDirty(context, CompilationRound.CURRENT, outputFile);
-        }
+      if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+        return false;
       }
-      catch (final IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_IDL_COMPILER);
-        success = false;
+      if (outputFile.exists()) {
+        final SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(buildTarget);
+        sourceToOutputMap.setOutput(filePath, outputFilePath);
+        FSOperations.markDirty(context, CompilationRound.CURRENT, outputFile);
       }
     }
-    return success;
+    catch (final IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_IDL_COMPILER);
+      return false;
+    }
+    return true;
   }
 
   private static boolean runRenderscriptCompiler(@NotNull final CompileContext context,
-                                                 @NotNull Map<File, ModuleBuildTarget> files,
+                                                 @NotNull File file,
+                                                 @NotNull ModuleBuildTarget buildTarget,
                                                  @NotNull Map<JpsModule, MyModuleData> moduleDataMap) {
-    if (files.size() > 0) {
-      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.renderscript")));
+    final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
+    if (!LOG.assertTrue(moduleData != null)) {
+      context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                 AndroidJpsBundle.message("android.jps.internal.error")));
+      return false;
     }
 
-    boolean success = true;
-
-    for (Map.Entry<File, ModuleBuildTarget> entry : files.entrySet()) {
-      final File file = entry.getKey();
-      final ModuleBuildTarget buildTarget = entry.getValue();
-
-      final MyModuleData moduleData = moduleDataMap.get(buildTarget.getModule());
-      if (!LOG.assertTrue(moduleData != null)) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.internal.error")));
-        success = false;
-        continue;
-      }
+    final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
+    final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
+    final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
+    if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
+      context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
+        .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
+      return false;
+    }
 
-      final BuildDataManager dataManager = context.getProjectDescriptor().dataManager;
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(buildTarget.getModule(), dataManager);
-      final File rsOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.RENDERSCRIPT_GENERATED_SOURCE_ROOT_NAME);
-      if (!rsOutputDirectory.exists() && !rsOutputDirectory.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle
-          .message("android.jps.cannot.create.directory", rsOutputDirectory.getPath())));
-        success = false;
-        continue;
-      }
+    final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
+    final File rawDir = new File(generatedResourcesDir, "raw");
 
-      final File generatedResourcesDir = AndroidJpsUtil.getGeneratedResourcesStorage(buildTarget.getModule(), dataManager);
-      final File rawDir = new File(generatedResourcesDir, "raw");
+    if (!rawDir.exists() && !rawDir.mkdirs()) {
+      context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
+                                                 AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
+      return false;
+    }
 
-      if (!rawDir.exists() && !rawDir.mkdirs()) {
-        context.processMessage(new CompilerMessage(ANDROID_RENDERSCRIPT_COMPILER, BuildMessage.Kind.ERROR,
-                                                   AndroidJpsBundle.message("android.jps.cannot.create.directory", rawDir.getPath())));
-        success = false;
-        continue;
-      }
+    final AndroidPlatform platform = moduleData.getPlatform();
+    final IAndroidTarget target = platform.getTarget();
+    final String sdkLocation = platform.getSdk().getHomePath();
+    final String filePath = file.getPath();
 
-      final AndroidPlatform platform = moduleData.getPlatform();
-      final IAndroidTarget target = platform.getTarget();
-      final String sdkLocation = platform.getSdk().getHomePath();
-      final String filePath = file.getPath();
+    File tmpOutputDirectory = null;
 
-      File tmpOutputDirectory = null;
+    try {
+      tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
+      final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
 
-      try {
-        tmpOutputDirectory = FileUtil.createTempDirectory("generated-rs-temp", null);
-        final String depFolderPath = getDependencyFolder(context, file, tmpOutputDirectory);
+      final Map<AndroidCompilerMessageKind, List<String>> messages =
+        AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
 
-        final Map<AndroidCompilerMessageKind, List<String>> messages =
-          AndroidRenderscript.execute(sdkLocation, target, filePath, tmpOutputDirectory.getPath(), depFolderPath, rawDir.getPath());
+      addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
 
-        addMessages(context, messages, filePath, ANDROID_RENDERSCRIPT_COMPILER);
+      if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+        return false;
+      }
+      else {
+        final List<File> newFiles = new ArrayList<File>();
+        AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
 
-        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
-          success = false;
+        final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
+        if (bcFile.exists()) {
+          newFiles.add(bcFile);
         }
-        else {
-          final List<File> newFiles = new ArrayList<File>();
-          AndroidCommonUtils.moveAllFiles(tmpOutputDirectory, rsOutputDirectory, newFiles);
+        final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
 
-          final File bcFile = new File(rawDir, FileUtil.getNameWithoutExtension(file) + ".bc");
-          if (bcFile.exists()) {
-            newFiles.add(bcFile);
-          }
-          final List<String> newFilePaths = Arrays.asList(AndroidJpsUtil.toPaths(newFiles.toArray(new File[newFiles.size()])));
+        final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
+        sourceToOutputMap.setOutputs(filePath, newFilePaths);
 
-          final SourceToOutputMapping sourceToOutputMap = dataManager.getSourceToOutputMap(buildTarget);
-          sourceToOutputMap.setOutputs(filePath, newFilePaths);
-
-          for (File newFile : newFiles) {
-            FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
-          }
+        for (File newFile : newFiles) {
+          FSOperations.markDirty(context, CompilationRound.CURRENT, newFile);
         }
       }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
-        success = false;
-      }
-      finally {
-        if (tmpOutputDirectory != null) {
-          FileUtil.delete(tmpOutputDirectory);
-        }
+    }
+    catch (IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, filePath, e, ANDROID_RENDERSCRIPT_COMPILER);
+      return false;
+    }
+    finally {
+      if (tmpOutputDirectory != null) {
+        FileUtil.delete(tmpOutputDirectory);
       }
     }
-    return success;
+    return true;
   }
 
   private static MyExitStatus runAaptCompiler(@NotNull final CompileContext context,
-                                              @NotNull Map<JpsModule, MyModuleData> moduleDataMap)
+                                              @NotNull JpsModule module,
+                                              @NotNull MyModuleData moduleData)
     throws IOException {
-    boolean success = true;
-    boolean didSomething = false;
+    final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
+    final AndroidAptStateStorage storage =
+      context.getProjectDescriptor().dataManager.getStorage(
+        moduleTarget, AndroidAptStateStorage.PROVIDER);
 
-    for (Map.Entry<JpsModule, MyModuleData> entry : moduleDataMap.entrySet()) {
-      final JpsModule module = entry.getKey();
-      final ModuleBuildTarget moduleTarget = new ModuleBuildTarget(module, JavaModuleBuildTargetType.PRODUCTION);
-      final AndroidAptStateStorage storage =
-        context.getProjectDescriptor().dataManager.getStorage(
-          moduleTarget, AndroidAptStateStorage.PROVIDER);
+    final JpsAndroidModuleExtension extension = moduleData.getAndroidExtension();
 
-      final MyModuleData moduleData = entry.getValue();
-      final JpsAndroidModuleExtension extension = moduleData.getAndroidExtension();
-
-      final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
-      final File aptOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AAPT_GENERATED_SOURCE_ROOT_NAME);
-      final IAndroidTarget target = moduleData.getPlatform().getTarget();
+    final File generatedSourcesDir = AndroidJpsUtil.getGeneratedSourcesStorage(module, context.getProjectDescriptor().dataManager);
+    final File aptOutputDirectory = new File(generatedSourcesDir, AndroidJpsUtil.AAPT_GENERATED_SOURCE_ROOT_NAME);
+    final IAndroidTarget target = moduleData.getPlatform().getTarget();
 
-      try {
-        final String[] resPaths = AndroidJpsUtil.collectResourceDirsForCompilation(extension, false, context, true);
-        if (resPaths.length == 0) {
-          // there is no resources in the module
-          if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-            success = false;
-          }
-          continue;
+    try {
+      final String[] resPaths = AndroidJpsUtil.collectResourceDirsForCompilation(extension, false, context, true);
+      if (resPaths.length == 0) {
+        // there is no resources in the module
+        if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
+          return MyExitStatus.FAIL;
         }
-        final String packageName = moduleData.getPackage();
-        final File manifestFile;
+        return MyExitStatus.NOTHING_CHANGED;
+      }
+      final String packageName = moduleData.getPackage();
+      final File manifestFile;
 
-        if (extension.isLibrary() || !extension.isManifestMergingEnabled()) {
-          manifestFile = moduleData.getManifestFileForCompiler();
-        }
-        else {
-          manifestFile = new File(AndroidJpsUtil.getPreprocessedManifestDirectory(module, context.
-            getProjectDescriptor().dataManager.getDataPaths()), SdkConstants.FN_ANDROID_MANIFEST_XML);
-        }
+      if (extension.isLibrary() || !extension.isManifestMergingEnabled()) {
+        manifestFile = moduleData.getManifestFileForCompiler();
+      }
+      else {
+        manifestFile = new File(AndroidJpsUtil.getPreprocessedManifestDirectory(module, context.
+          getProjectDescriptor().dataManager.getDataPaths()), SdkConstants.FN_ANDROID_MANIFEST_XML);
+      }
 
-        if (isLibraryWithBadCircularDependency(extension)) {
-          if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-            success = false;
-          }
-          continue;
-        }
-        final Map<JpsModule, String> packageMap = getDepLibPackages(module);
-        packageMap.put(module, packageName);
-
-        final JpsModule circularDepLibWithSamePackage = findCircularDependencyOnLibraryWithSamePackage(extension, packageMap);
-        if (circularDepLibWithSamePackage != null && !extension.isLibrary()) {
-          final String message = "Generated fields in " +
-                                 packageName +
-                                 ".R class in module '" +
-                                 module.getName() +
-                                 "' won't be final, because of circular dependency on module '" +
-                                 circularDepLibWithSamePackage.getName() +
-                                 "'";
-          context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.WARNING, message));
+      if (isLibraryWithBadCircularDependency(extension)) {
+        if (!clearDirectoryIfNotEmpty(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
+          return MyExitStatus.FAIL;
         }
-        final boolean generateNonFinalFields = extension.isLibrary() || circularDepLibWithSamePackage != null;
+        return MyExitStatus.NOTHING_CHANGED;
+      }
+      final Map<JpsModule, String> packageMap = getDepLibPackages(module);
+      packageMap.put(module, packageName);
 
-        AndroidAptValidityState oldState;
+      final JpsModule circularDepLibWithSamePackage = findCircularDependencyOnLibraryWithSamePackage(extension, packageMap);
+      if (circularDepLibWithSamePackage != null && !extension.isLibrary()) {
+        final String message = "Generated fields in " +
+                               packageName +
+                               ".R class in module '" +
+                               module.getName() +
+                               "' won't be final, because of circular dependency on module '" +
+                               circularDepLibWithSamePackage.getName() +
+                               "'";
+        context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.WARNING, message));
+      }
+      final boolean generateNonFinalFields = extension.isLibrary() || circularDepLibWithSamePackage != null;
 
-        try {
-          oldState = storage.getState(module.getName());
-        }
-        catch (IOException e) {
-          LOG.info(e);
-          oldState = null;
-        }
-        final Map<String, ResourceFileData> resources = new HashMap<String, ResourceFileData>();
-        final TObjectLongHashMap<String> valueResFilesTimestamps = new TObjectLongHashMap<String>();
-        collectResources(resPaths, resources, valueResFilesTimestamps, oldState);
+      AndroidAptValidityState oldState;
 
-        final List<ResourceEntry> manifestElements = collectManifestElements(manifestFile);
-        final List<Pair<String, String>> libRTextFilesAndPackages = new ArrayList<Pair<String, String>>(packageMap.size());
+      try {
+        oldState = storage.getState(module.getName());
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        oldState = null;
+      }
+      final Map<String, ResourceFileData> resources = new HashMap<String, ResourceFileData>();
+      final TObjectLongHashMap<String> valueResFilesTimestamps = new TObjectLongHashMap<String>();
+      collectResources(resPaths, resources, valueResFilesTimestamps, oldState);
 
-        for (Map.Entry<JpsModule, String> entry1 : packageMap.entrySet()) {
-          final String libPackage = entry1.getValue();
+      final List<ResourceEntry> manifestElements = collectManifestElements(manifestFile);
+      final List<Pair<String, String>> libRTextFilesAndPackages = new ArrayList<Pair<String, String>>(packageMap.size());
 
-          if (!packageName.equals(libPackage)) {
-            final String libRTxtFilePath = new File(new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(
-              context, entry1.getKey()), R_TXT_OUTPUT_DIR_NAME), SdkConstants.FN_RESOURCE_TEXT).getPath();
-            libRTextFilesAndPackages.add(Pair.create(libRTxtFilePath, libPackage));
-          }
+      for (Map.Entry<JpsModule, String> entry1 : packageMap.entrySet()) {
+        final String libPackage = entry1.getValue();
+
+        if (!packageName.equals(libPackage)) {
+          final String libRTxtFilePath = new File(new File(AndroidJpsUtil.getDirectoryForIntermediateArtifacts(
+            context, entry1.getKey()), R_TXT_OUTPUT_DIR_NAME), SdkConstants.FN_RESOURCE_TEXT).getPath();
+          libRTextFilesAndPackages.add(Pair.create(libRTxtFilePath, libPackage));
         }
-        AndroidJpsUtil.collectRTextFilesFromAarDeps(module, libRTextFilesAndPackages);
+      }
+      AndroidJpsUtil.collectRTextFilesFromAarDeps(module, libRTextFilesAndPackages);
 
-        final File outputDirForArtifacts = AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module);
-        final String proguardOutputCfgFilePath;
+      final File outputDirForArtifacts = AndroidJpsUtil.getDirectoryForIntermediateArtifacts(context, module);
+      final String proguardOutputCfgFilePath;
 
-        if (AndroidJpsUtil.getProGuardConfigIfShouldRun(context, extension) != null) {
-          if (AndroidJpsUtil.createDirIfNotExist(outputDirForArtifacts, context, BUILDER_NAME) == null) {
-            success = false;
-            continue;
-          }
-          proguardOutputCfgFilePath = new File(outputDirForArtifacts, AndroidCommonUtils.PROGUARD_CFG_OUTPUT_FILE_NAME).getPath();
-        }
-        else {
-          proguardOutputCfgFilePath = null;
+      if (AndroidJpsUtil.getProGuardConfigIfShouldRun(context, extension) != null) {
+        if (AndroidJpsUtil.createDirIfNotExist(outputDirForArtifacts, context, BUILDER_NAME) == null) {
+          return MyExitStatus.FAIL;
         }
-        String rTxtOutDirOsPath = null;
+        proguardOutputCfgFilePath = new File(outputDirForArtifacts, AndroidCommonUtils.PROGUARD_CFG_OUTPUT_FILE_NAME).getPath();
+      }
+      else {
+        proguardOutputCfgFilePath = null;
+      }
+      String rTxtOutDirOsPath = null;
 
-        if (extension.isLibrary() || libRTextFilesAndPackages.size() > 0) {
-          final File rTxtOutDir = new File(outputDirForArtifacts, R_TXT_OUTPUT_DIR_NAME);
+      if (extension.isLibrary() || libRTextFilesAndPackages.size() > 0) {
+        final File rTxtOutDir = new File(outputDirForArtifacts, R_TXT_OUTPUT_DIR_NAME);
 
-          if (AndroidJpsUtil.createDirIfNotExist(rTxtOutDir, context, BUILDER_NAME) == null) {
-            success = false;
-            continue;
-          }
-          rTxtOutDirOsPath = rTxtOutDir.getPath();
+        if (AndroidJpsUtil.createDirIfNotExist(rTxtOutDir, context, BUILDER_NAME) == null) {
+          return MyExitStatus.FAIL;
         }
-        final AndroidAptValidityState newState =
-          new AndroidAptValidityState(resources, valueResFilesTimestamps, manifestElements, libRTextFilesAndPackages,
-                                      packageName, proguardOutputCfgFilePath, rTxtOutDirOsPath, extension.isLibrary());
+        rTxtOutDirOsPath = rTxtOutDir.getPath();
+      }
+      final AndroidAptValidityState newState =
+        new AndroidAptValidityState(resources, valueResFilesTimestamps, manifestElements, libRTextFilesAndPackages,
+                                    packageName, proguardOutputCfgFilePath, rTxtOutDirOsPath, extension.isLibrary());
 
-        if (newState.equalsTo(oldState)) {
-          // we need to update state, because it also contains myValueResFilesTimestamps not taking into account by equalsTo()
-          storage.update(module.getName(), newState);
-          continue;
-        }
-        didSomething = true;
-        context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aapt", module.getName())));
+      if (newState.equalsTo(oldState)) {
+        // we need to update state, because it also contains myValueResFilesTimestamps not taking into account by equalsTo()
+        storage.update(module.getName(), newState);
+        return MyExitStatus.NOTHING_CHANGED;
+      }
+      context.processMessage(new ProgressMessage(AndroidJpsBundle.message("android.jps.progress.aapt", module.getName())));
 
-        File tmpOutputDir = null;
-        try {
-          tmpOutputDir = FileUtil.createTempDirectory("android_apt_output", "tmp");
-          final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidApt.compile(
-            target, -1, manifestFile.getPath(), packageName, tmpOutputDir.getPath(), resPaths, libRTextFilesAndPackages,
-            generateNonFinalFields, proguardOutputCfgFilePath, rTxtOutDirOsPath, !extension.isLibrary());
+      File tmpOutputDir = null;
+      try {
+        tmpOutputDir = FileUtil.createTempDirectory("android_apt_output", "tmp");
+        final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidApt.compile(
+          target, -1, manifestFile.getPath(), packageName, tmpOutputDir.getPath(), resPaths, libRTextFilesAndPackages,
+          generateNonFinalFields, proguardOutputCfgFilePath, rTxtOutDirOsPath, !extension.isLibrary());
 
-          AndroidJpsUtil.addMessages(context, messages, ANDROID_APT_COMPILER, module.getName());
+        AndroidJpsUtil.addMessages(context, messages, ANDROID_APT_COMPILER, module.getName());
 
-          if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
-            success = false;
-            storage.update(module.getName(), null);
-          }
-          else {
-            if (!AndroidCommonUtils.directoriesContainSameContent(tmpOutputDir, aptOutputDirectory, JavaFilesFilter.INSTANCE)) {
-              if (!deleteAndMarkRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
-                success = false;
-                continue;
-              }
-              final File parent = aptOutputDirectory.getParentFile();
-              if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message(
-                  "android.jps.cannot.create.directory", parent.getPath())));
-                success = false;
-                continue;
-              }
-              // we use copyDir instead of moveDirWithContent here, because tmp directory may be located on other disk and
-              // moveDirWithContent doesn't work for such case
-              FileUtil.copyDir(tmpOutputDir, aptOutputDirectory);
-              markDirtyRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER, true);
-            }
-            storage.update(module.getName(), newState);
-          }
+        if (messages.get(AndroidCompilerMessageKind.ERROR).size() > 0) {
+          storage.update(module.getName(), null);
+          return MyExitStatus.FAIL;
         }
-        finally {
-          if (tmpOutputDir != null) {
-            FileUtil.delete(tmpOutputDir);
+        else {
+          if (!AndroidCommonUtils.directoriesContainSameContent(tmpOutputDir, aptOutputDirectory, JavaFilesFilter.INSTANCE)) {
+            if (!deleteAndMarkRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER)) {
+              return MyExitStatus.FAIL;
+            }
+            final File parent = aptOutputDirectory.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+              context.processMessage(new CompilerMessage(ANDROID_APT_COMPILER, BuildMessage.Kind.ERROR, AndroidJpsBundle.message(
+                "android.jps.cannot.create.directory", parent.getPath())));
+              return MyExitStatus.FAIL;
+            }
+            // we use copyDir instead of moveDirWithContent here, because tmp directory may be located on other disk and
+            // moveDirWithContent doesn't work for such case
+            FileUtil.copyDir(tmpOutputDir, aptOutputDirectory);
+            markDirtyRecursively(aptOutputDirectory, context, ANDROID_APT_COMPILER, true);
           }
+          storage.update(module.getName(), newState);
+          return MyExitStatus.OK;
         }
       }
-      catch (IOException e) {
-        AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_APT_COMPILER);
-        success = false;
+      finally {
+        if (tmpOutputDir != null) {
+          FileUtil.delete(tmpOutputDir);
+        }
       }
     }
-    if (!success) {
+    catch (IOException e) {
+      AndroidJpsUtil.reportExceptionError(context, null, e, ANDROID_APT_COMPILER);
       return MyExitStatus.FAIL;
     }
-    else if (didSomething) {
-      return MyExitStatus.OK;
-    }
-    return MyExitStatus.NOTHING_CHANGED;
   }
 
   private static boolean clearDirectory(File dir, CompileContext context, String compilerName) throws IOException {
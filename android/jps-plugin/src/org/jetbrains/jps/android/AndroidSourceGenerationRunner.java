@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.android;
+
+import com.android.annotations.VisibleForTesting;
+import org.jetbrains.android.util.AndroidBuildTestingManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the source generation tools of a module chunk, such as aidl and aapt, and sums up the time spent in each tool.
+ * <p/>
+ * JPS builds one chunk at a time, or independent chunks in parallel if parallel compilation is enabled, and a chunk is
+ * usually a single module. So the tools of a chunk are run concurrently here, and modules are built concurrently only as far
+ * as JPS builds their chunks concurrently. The runners of all the chunks share one pool of {@link #MAX_THREADS} threads, so
+ * that the number of tools run at the same time by the build process stays bounded whatever the parallelism of JPS.
+ */
+class AndroidSourceGenerationRunner {
+  /** The maximum number of source generation tools run at the same time by the build process */
+  private static final int MAX_THREADS =
+    Math.max(1, Integer.getInteger("android.source.generation.max.threads", Runtime.getRuntime().availableProcessors()));
+
+  private static final ExecutorService ourSharedExecutor = createExecutor(MAX_THREADS);
+
+  @NotNull private final ExecutorService myExecutor;
+  /** Set if the executor was created for this runner only, and has to be shut down with it */
+  private final boolean myOwnsExecutor;
+  private final List<Future<?>> myFutures = new ArrayList<Future<?>>();
+  /** Tool name -> {number of tasks, total nanoseconds} */
+  private final Map<String, long[]> myTimes = new LinkedHashMap<String, long[]>();
+
+  @VisibleForTesting
+  AndroidSourceGenerationRunner(@NotNull ExecutorService executor, boolean ownsExecutor) {
+    myExecutor = executor;
+    myOwnsExecutor = ownsExecutor;
+  }
+
+  /**
+   * Returns a runner on the shared threads. In tests, the runner gets its own threads, as many as the
+   * {@link AndroidBuildTestingManager} says, so that the expected logs don't depend on the machine.
+   */
+  @NotNull
+  static AndroidSourceGenerationRunner create() {
+    final AndroidBuildTestingManager testingManager = AndroidBuildTestingManager.getTestingManager();
+    if (testingManager != null) {
+      return new AndroidSourceGenerationRunner(createExecutor(testingManager.getSourceGenerationThreadCount()), true);
+    }
+    return new AndroidSourceGenerationRunner(ourSharedExecutor, false);
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static ExecutorService createExecutor(int threadCount) {
+    final AtomicInteger threadNumber = new AtomicInteger();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      threadCount, threadCount, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(@NotNull Runnable r) {
+        final Thread thread = new Thread(r, "Android source generation " + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    // Don't keep idle threads around between builds
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @NotNull
+  <T> Future<T> submit(@NotNull final String toolName, @NotNull final Callable<T> task) {
+    final Future<T> future = myExecutor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        final long start = System.nanoTime();
+        try {
+          return task.call();
+        }
+        finally {
+          addTime(toolName, System.nanoTime() - start);
+        }
+      }
+    });
+    synchronized (myFutures) {
+      myFutures.add(future);
+    }
+    return future;
+  }
+
+  private synchronized void addTime(@NotNull String toolName, long nanos) {
+    long[] times = myTimes.get(toolName);
+    if (times == null) {
+      times = new long[2];
+      myTimes.put(toolName, times);
+    }
+    times[0]++;
+    times[1] += nanos;
+  }
+
+  /** Returns the time spent in each tool, such as "aapt 120 ms (2 tasks)", or null if no task was run */
+  @Nullable
+  synchronized String getTimes() {
+    if (myTimes.isEmpty()) {
+      return null;
+    }
+    final StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, long[]> entry : myTimes.entrySet()) {
+      final long[] times = entry.getValue();
+      if (builder.length() > 0) {
+        builder.append(", ");
+      }
+      builder.append(entry.getKey()).append(' ').append(times[1] / 1000000).append(" ms (").append(times[0])
+        .append(times[0] == 1 ? " task)" : " tasks)");
+    }
+    return builder.toString();
+  }
+
+  /** Cancels the tasks of this runner that have not finished, for instance once one of them failed */
+  void finish() {
+    synchronized (myFutures) {
+      for (Future<?> future : myFutures) {
+        future.cancel(true);
+      }
+      myFutures.clear();
+    }
+    if (myOwnsExecutor) {
+      myExecutor.shutdownNow();
+    }
+  }
+}
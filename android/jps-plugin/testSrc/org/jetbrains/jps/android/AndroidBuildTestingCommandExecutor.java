@@ -45,9 +45,8 @@ abstract class AndroidBuildTestingCommandExecutor implements AndroidBuildTesting
   @NotNull
   @Override
   public Process createProcess(@NotNull String[] args, @NotNull Map<? extends String, ? extends String> environment) {
-    startNewEntry();
     final String[] argsToLog = processArgs(args);
-    logString(StringUtil.join(argsToLog, "\n"));
+    final StringBuilder entryBuilder = new StringBuilder(StringUtil.join(argsToLog, "\n"));
 
     if (environment.size() > 0) {
       final StringBuilder envBuilder = new StringBuilder();
@@ -59,9 +58,9 @@ abstract class AndroidBuildTestingCommandExecutor implements AndroidBuildTesting
         final String value = progessArg(entry.getValue());
         envBuilder.append(entry.getKey()).append("=").append(value);
       }
-      logString("\nenv: " + envBuilder.toString());
+      entryBuilder.append("\nenv: ").append(envBuilder);
     }
-    logString("\n\n");
+    logEntry(entryBuilder.toString());
     try {
       return doCreateProcess(args, environment);
     }
@@ -75,10 +74,8 @@ abstract class AndroidBuildTestingCommandExecutor implements AndroidBuildTesting
 
   @Override
   public void log(@NotNull String s) {
-    startNewEntry();
     final String[] args = s.split("\\n");
-    logString(StringUtil.join(processArgs(args), "\n"));
-    logString("\n\n");
+    logEntry(StringUtil.join(processArgs(args), "\n"));
   }
 
   @Override
@@ -90,12 +87,11 @@ abstract class AndroidBuildTestingCommandExecutor implements AndroidBuildTesting
   protected void doCheckJar(@NotNull String jarId, @NotNull String jarPath) {
   }
 
-  private synchronized void startNewEntry() {
-    logString(ENTRY_HEADER + "\n");
-  }
-
-  private synchronized void logString(String s) {
-    myStringWriter.write(s);
+  /**
+   * Writes a whole entry at once, as the tools may be run from several threads
+   */
+  private synchronized void logEntry(String s) {
+    myStringWriter.write(ENTRY_HEADER + "\n" + s + "\n\n");
   }
 
   private String[] processArgs(String[] args) {
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.android;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.android.util.AndroidCompilerMessageKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class AndroidPreDexCacheTest extends TestCase {
+  private File myTempDir;
+  private AndroidPreDexCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("pre_dex_cache_test", null);
+    myCache = new AndroidPreDexCache(new File(myTempDir, "cache"), 1024 * 1024);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myTempDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testCacheMissAndHit() throws Exception {
+    final File jar = createFile("lib.jar", "classes");
+    final String key = AndroidPreDexCache.computeKey(jar, "23.0.1", Collections.<String>emptyList());
+
+    final MyDexer dexer = new MyDexer("dexed", false);
+    final File output1 = new File(myTempDir, "project1/lib.jar");
+    assertTrue(myCache.dex(key, output1, dexer).get(AndroidCompilerMessageKind.ERROR).isEmpty());
+    assertEquals(1, dexer.myRuns);
+    assertEquals("dexed", FileUtil.loadFile(output1));
+
+    // Another project dexing the same jar gets the cached output
+    final File output2 = new File(myTempDir, "project2/lib.jar");
+    assertTrue(myCache.dex(key, output2, dexer).get(AndroidCompilerMessageKind.ERROR).isEmpty());
+    assertEquals(1, dexer.myRuns);
+    assertEquals("dexed", FileUtil.loadFile(output2));
+
+    // Other dx options make another key
+    final String otherKey = AndroidPreDexCache.computeKey(jar, "23.0.1", Arrays.asList("--no-optimize"));
+    assertFalse(key.equals(otherKey));
+    myCache.dex(otherKey, output2, dexer);
+    assertEquals(2, dexer.myRuns);
+  }
+
+  public void testFailedDexIsNotCached() throws Exception {
+    final File jar = createFile("lib.jar", "classes");
+    final String key = AndroidPreDexCache.computeKey(jar, "23.0.1", Collections.<String>emptyList());
+    final File output = createFile("project/lib.jar", "stale output of an earlier build");
+
+    // dx fails without writing its output, and its errors are reported as warnings as if the output had been written
+    final MyDexer failingDexer = new MyDexer(null, false);
+    myCache.dex(key, output, failingDexer);
+    assertFalse(output.exists());
+    assertFalse(myCache.restore(key, new File(myTempDir, "restored.jar")));
+
+    // dx writes some output but reports errors
+    myCache.dex(key, output, new MyDexer("partial", true));
+    assertFalse(myCache.restore(key, new File(myTempDir, "restored.jar")));
+
+    final MyDexer dexer = new MyDexer("dexed", false);
+    myCache.dex(key, output, dexer);
+    assertEquals(1, dexer.myRuns);
+    final File restored = new File(myTempDir, "restored.jar");
+    assertTrue(myCache.restore(key, restored));
+    assertEquals("dexed", FileUtil.loadFile(restored));
+  }
+
+  @NotNull
+  private File createFile(@NotNull String path, @NotNull String content) throws IOException {
+    final File file = new File(myTempDir, path);
+    FileUtil.writeToFile(file, content);
+    return file;
+  }
+
+  private static class MyDexer implements AndroidPreDexCache.Dexer {
+    @Nullable private final String myOutput;
+    private final boolean myFail;
+    int myRuns;
+
+    MyDexer(@Nullable String output, boolean fail) {
+      myOutput = output;
+      myFail = fail;
+    }
+
+    @Nullable
+    @Override
+    public Map<AndroidCompilerMessageKind, List<String>> dex(@NotNull File outputFile) throws IOException {
+      myRuns++;
+      if (myOutput != null) {
+        FileUtil.writeToFile(outputFile, myOutput);
+      }
+      final Map<AndroidCompilerMessageKind, List<String>> messages = AndroidDexBuilder.createMessageMap();
+      if (myFail) {
+        messages.get(AndroidCompilerMessageKind.ERROR).add("error");
+      }
+      return messages;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.android;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AndroidSourceGenerationRunnerTest extends TestCase {
+  private static final int TIMEOUT_SECONDS = 10;
+
+  public void testTasksRunConcurrently() throws Exception {
+    final AndroidSourceGenerationRunner runner =
+      new AndroidSourceGenerationRunner(AndroidSourceGenerationRunner.createExecutor(3), true);
+    // Each task only finishes once all of them are running
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    final List<Future<String>> futures = new ArrayList<Future<String>>();
+    try {
+      for (int i = 0; i < 3; i++) {
+        futures.add(runner.submit("aapt", new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            barrier.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return Thread.currentThread().getName();
+          }
+        }));
+      }
+      final Set<String> threadNames = new HashSet<String>();
+      for (Future<String> future : futures) {
+        threadNames.add(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      }
+      assertEquals(3, threadNames.size());
+    }
+    finally {
+      runner.finish();
+    }
+    final String times = runner.getTimes();
+    assertNotNull(times);
+    assertTrue(times, times.startsWith("aapt ") && times.endsWith(" ms (3 tasks)"));
+  }
+
+  public void testRunnersShareThreads() throws Exception {
+    final ExecutorService executor = AndroidSourceGenerationRunner.createExecutor(2);
+    // Two chunks built at the same time by JPS
+    final AndroidSourceGenerationRunner runner1 = new AndroidSourceGenerationRunner(executor, false);
+    final AndroidSourceGenerationRunner runner2 = new AndroidSourceGenerationRunner(executor, false);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Callable<Boolean> task = new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        final int count = running.incrementAndGet();
+        synchronized (maxRunning) {
+          maxRunning.set(Math.max(maxRunning.get(), count));
+        }
+        Thread.sleep(20);
+        running.decrementAndGet();
+        return true;
+      }
+    };
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(runner1.submit("aidl", task));
+        futures.add(runner2.submit("aapt", task));
+      }
+      for (Future<Boolean> future : futures) {
+        assertTrue(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      }
+      runner1.finish();
+      runner2.finish();
+      assertTrue(maxRunning.get() <= 2);
+      // The shared threads outlive the runners
+      assertFalse(executor.isShutdown());
+      assertTrue(runner1.getTimes().startsWith("aidl "));
+      assertTrue(runner2.getTimes().startsWith("aapt "));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testFinishCancelsPendingTasks() throws Exception {
+    final AndroidSourceGenerationRunner runner =
+      new AndroidSourceGenerationRunner(AndroidSourceGenerationRunner.createExecutor(1), true);
+    final CountDownLatch started = new CountDownLatch(1);
+    final Future<Boolean> blocking = runner.submit("aapt", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        started.countDown();
+        new CountDownLatch(1).await();
+        return true;
+      }
+    });
+    final Future<Boolean> pending = runner.submit("aidl", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return true;
+      }
+    });
+    assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    runner.finish();
+    assertTrue(blocking.isCancelled());
+    assertTrue(pending.isCancelled());
+    // The pending task never ran
+    final String times = runner.getTimes();
+    assertTrue(times, times == null || !times.contains("aidl"));
+  }
+}
@@ -19,8 +19,13 @@ import com.intellij.openapi.util.io.FileUtilRt;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -44,7 +49,25 @@ public class AndroidDxRunner {
 
   @NonNls private final static String MAIN_RUN = "run";
 
+  /**
+   * When passed as the only argument, the runner reads dex requests from stdin until it is closed, so that one JVM can run dx many
+   * times. A request is the number of arguments on a line, followed by one argument per line, as passed to {@link #main}. Once a
+   * request has been handled, {@link #END_OF_REQUEST} is printed on a line of its own to both stdout and stderr, or
+   * {@link #END_OF_LAST_REQUEST} if the worker exits after the request because dx failed unexpectedly (e.g. ran out of memory).
+   */
+  @NonNls public final static String WORKER_MODE = "--worker";
+  @NonNls public final static String END_OF_REQUEST = "\u0000end of dx request";
+  @NonNls public final static String END_OF_LAST_REQUEST = "\u0000end of last dx request";
+
+  /** Classes of dx which intern the types and constants of all the classes they have seen in static tables */
+  @NonNls private final static String[] INTERN_TABLE_CLASSES = {"com.android.dx.rop.type.Type", "com.android.dx.rop.cst.CstType"};
+  @NonNls private final static String CLEAR_INTERN_TABLE = "clearInternTable";
+
+  private static String myDxPath;
+  private static ClassLoader myLoader;
   private static Method myMethod;
+  /** Set when dx failed with an exception, after which its static state can't be trusted by later requests */
+  private static boolean myFailed;
 
   private static Constructor<?> myConstructor;
   private static Field myOutNameField;
@@ -62,6 +85,10 @@ public class AndroidDxRunner {
   private AndroidDxRunner() { }
 
   private static void loadDex(String dxPath) {
+    if (dxPath.equals(myDxPath) && myMethod != null) {
+      // Keep the classes loaded (and compiled by the JIT) by earlier requests
+      return;
+    }
     try {
       File f = new File(dxPath);
       if (!f.isFile()) {
@@ -91,6 +118,8 @@ public class AndroidDxRunner {
 
       myConsoleOut = consoleClass.getField("out");
       myConsoleErr = consoleClass.getField("err");
+      myLoader = loader;
+      myDxPath = dxPath;
     }
     catch (SecurityException e) {
       reportError("Unable to find API for dex.jar", e);
@@ -171,12 +200,34 @@ public class AndroidDxRunner {
       reportError("Unable to execute DX", e);
     }
     catch (InvocationTargetException e) {
+      myFailed = true;
       Throwable targetException = e.getTargetException();
       reportError("Unable to execute DX", targetException != null ? targetException : e);
     }
     return -1;
   }
 
+  /**
+   * Clears the static intern tables of dx, which otherwise keep the types of every class dexed by a worker. Older versions of
+   * dx have no way to clear them, see AndroidDexWorkerPool for how the workers are recycled anyway.
+   */
+  private static void clearInternTables() {
+    if (myLoader == null) {
+      return;
+    }
+    for (String className : INTERN_TABLE_CLASSES) {
+      try {
+        Class<?> aClass = myLoader.loadClass(className);
+        aClass.getMethod(CLEAR_INTERN_TABLE).invoke(null);
+      }
+      catch (NoSuchMethodException ignored) {
+      }
+      catch (Exception e) {
+        reportWarning("Cannot clear the intern table of " + className + ": " + e);
+      }
+    }
+  }
+
   private static void reportError(String message, Throwable t) {
     System.err.println(message);
     t.printStackTrace();
@@ -230,6 +281,89 @@ public class AndroidDxRunner {
   }
 
   public static void main(String[] args) {
+    if (args.length == 1 && WORKER_MODE.equals(args[0])) {
+      try {
+        runWorker();
+      }
+      catch (IOException e) {
+        reportError("I/O error", e);
+      }
+      return;
+    }
+    run(args);
+  }
+
+  private static void runWorker() throws IOException {
+    // dx output doesn't necessarily end with a line separator, but the end of a request must be on a line of its own
+    LineStartTracker out = new LineStartTracker(System.out);
+    LineStartTracker err = new LineStartTracker(System.err);
+    System.setOut(new PrintStream(out, true));
+    System.setErr(new PrintStream(err, true));
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] args = new String[Integer.parseInt(line.trim())];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = in.readLine();
+        if (args[i] == null) {
+          return;
+        }
+      }
+      try {
+        run(args);
+        clearInternTables();
+      }
+      catch (Throwable t) {
+        myFailed = true;
+        reportError("Unable to execute DX", t);
+      }
+      String endOfRequest = myFailed ? END_OF_LAST_REQUEST : END_OF_REQUEST;
+      endRequest(System.err, err, endOfRequest);
+      endRequest(System.out, out, endOfRequest);
+      if (myFailed) {
+        return;
+      }
+    }
+  }
+
+  private static void endRequest(PrintStream stream, LineStartTracker tracker, String endOfRequest) {
+    stream.flush();
+    if (!tracker.isAtLineStart()) {
+      stream.println();
+    }
+    stream.println(endOfRequest);
+    stream.flush();
+  }
+
+  /** Remembers whether the last byte written to a stream was a line separator */
+  private static class LineStartTracker extends FilterOutputStream {
+    private boolean myAtLineStart = true;
+
+    LineStartTracker(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myAtLineStart = b == '\n';
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > 0) {
+        out.write(b, off, len);
+        myAtLineStart = b[off + len - 1] == '\n';
+      }
+    }
+
+    boolean isAtLineStart() {
+      return myAtLineStart;
+    }
+  }
+
+  private static void run(String[] args) {
     if (args.length == 0) {
       System.err.println("Error: dx path must be passed as first argument");
     }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.allocations;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Draws an {@link AllocationTrie} as a flame graph: the outermost frames at the bottom, each frame as wide as the size (or
+ * count) of the allocations made under it. Clicking a frame zooms into it, and clicking the bottom row zooms back out.
+ * Frames narrower than a pixel are not drawn, so drawing takes time proportional to the width rather than to the size of
+ * the capture.
+ */
+public class AllocationFlameGraph extends JComponent {
+  private static final int ROW_HEIGHT = 18;
+  private static final int TEXT_INSET = 3;
+  private static final Color[] COLORS = {
+    new JBColor(new Color(0xF2A65A), new Color(0x8C5A2B)),
+    new JBColor(new Color(0xF5C16C), new Color(0x8F6E36)),
+    new JBColor(new Color(0xE8845A), new Color(0x874A30)),
+  };
+
+  @Nullable private AllocationTrie myTrie;
+  private int myZoomRoot = AllocationTrie.ROOT;
+  private boolean myUseCount;
+
+  public AllocationFlameGraph() {
+    setBackground(UIUtil.getTreeBackground());
+    setOpaque(true);
+    ToolTipManager.sharedInstance().registerComponent(this);
+    addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        if (myTrie == null) {
+          return;
+        }
+        int node = findNode(e.getX(), e.getY());
+        if (node == myZoomRoot && node != AllocationTrie.ROOT) {
+          myZoomRoot = myTrie.getParent(node);
+        }
+        else if (node != AllocationTrie.NO_NODE) {
+          myZoomRoot = node;
+        }
+        repaint();
+      }
+    });
+  }
+
+  public void setTrie(@Nullable AllocationTrie trie) {
+    myTrie = trie;
+    myZoomRoot = AllocationTrie.ROOT;
+    revalidate();
+    repaint();
+  }
+
+  public void setUseCount(boolean useCount) {
+    myUseCount = useCount;
+    repaint();
+  }
+
+  @Override
+  public Dimension getPreferredSize() {
+    int rows = myTrie == null ? 1 : myTrie.getMaxDepth() + 1;
+    return new Dimension(super.getPreferredSize().width, rows * ROW_HEIGHT);
+  }
+
+  private double getWeight(int node) {
+    assert myTrie != null;
+    return myUseCount ? myTrie.getCount(node) : myTrie.getValue(node);
+  }
+
+  /** Returns the vertical position of the top of the nodes of the given depth, counting from the zoom root */
+  private int getRowY(int relativeDepth) {
+    return getHeight() - (relativeDepth + 1) * ROW_HEIGHT;
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    g.setColor(getBackground());
+    g.fillRect(0, 0, getWidth(), getHeight());
+    if (myTrie == null || getWeight(myZoomRoot) == 0) {
+      g.setColor(UIUtil.getLabelDisabledForeground());
+      g.drawString("No allocations", TEXT_INSET, ROW_HEIGHT);
+      return;
+    }
+    g.setFont(UIUtil.getLabelFont(UIUtil.FontSize.SMALL));
+    paintNode(g, myZoomRoot, 0, 0, getWidth() / getWeight(myZoomRoot));
+  }
+
+  private void paintNode(@NotNull Graphics g, int node, int relativeDepth, double x, double scale) {
+    assert myTrie != null;
+    int width = (int)(getWeight(node) * scale);
+    if (width < 1) {
+      return;
+    }
+    int y = getRowY(relativeDepth);
+    g.setColor(COLORS[myTrie.getDepth(node) % COLORS.length]);
+    g.fillRect((int)x, y, Math.max(1, width - 1), ROW_HEIGHT - 1);
+
+    FontMetrics metrics = g.getFontMetrics();
+    if (width > 2 * TEXT_INSET + metrics.charWidth('m')) {
+      String label = StringUtil.trimMiddle(getLabel(node), Math.max(1, (width - 2 * TEXT_INSET) / metrics.charWidth('m')));
+      g.setColor(JBColor.BLACK);
+      g.drawString(label, (int)x + TEXT_INSET, y + (ROW_HEIGHT + metrics.getAscent()) / 2 - 2);
+    }
+
+    double childX = x;
+    for (int child = myTrie.getFirstChild(node); child != AllocationTrie.NO_NODE; child = myTrie.getNextSibling(child)) {
+      paintNode(g, child, relativeDepth + 1, childX, scale);
+      childX += getWeight(child) * scale;
+    }
+  }
+
+  @NotNull
+  private String getLabel(int node) {
+    assert myTrie != null;
+    StackTraceElement frame = myTrie.getFrame(node);
+    if (frame == null) {
+      return "All allocations";
+    }
+    String className = frame.getClassName();
+    return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName() + "()";
+  }
+
+  /** Returns the node drawn at the given point, or {@link AllocationTrie#NO_NODE} */
+  private int findNode(int x, int y) {
+    if (myTrie == null || getWeight(myZoomRoot) == 0) {
+      return AllocationTrie.NO_NODE;
+    }
+    int relativeDepth = (getHeight() - y) / ROW_HEIGHT;
+    double scale = getWidth() / getWeight(myZoomRoot);
+    int node = myZoomRoot;
+    double nodeX = 0;
+    for (int depth = 0; depth < relativeDepth; depth++) {
+      int found = AllocationTrie.NO_NODE;
+      double childX = nodeX;
+      for (int child = myTrie.getFirstChild(node); child != AllocationTrie.NO_NODE; child = myTrie.getNextSibling(child)) {
+        double childWidth = getWeight(child) * scale;
+        if (x >= childX && x < childX + childWidth) {
+          found = child;
+          break;
+        }
+        childX += childWidth;
+      }
+      if (found == AllocationTrie.NO_NODE) {
+        return AllocationTrie.NO_NODE;
+      }
+      node = found;
+      nodeX = childX;
+    }
+    return node;
+  }
+
+  @Override
+  public String getToolTipText(MouseEvent e) {
+    int node = findNode(e.getX(), e.getY());
+    if (node == AllocationTrie.NO_NODE || myTrie == null) {
+      return null;
+    }
+    StackTraceElement frame = myTrie.getFrame(node);
+    String name = frame == null ? "All allocations" : frame.toString();
+    return String.format("<html>%1$s<br>%2$d allocations (%3$d in this method), %4$s</html>", StringUtil.escapeXml(name),
+                         myTrie.getCount(node), myTrie.getSelfCount(node), StringUtil.formatFileSize(myTrie.getValue(node)));
+  }
+}
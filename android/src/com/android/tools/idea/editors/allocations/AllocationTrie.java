@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.allocations;
+
+import com.android.ddmlib.AllocationInfo;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The allocations of a capture, aggregated by call stack into a trie whose nodes are stored in primitive arrays.
+ * <p/>
+ * Stack frames are interned to integers, and every node holds the number and total size of the allocations made in its
+ * call path, including its children, so any subtree can be drawn or summed up without going back to the allocations.
+ * Node 0 is the root, which stands for all the allocations added. Stacks are added outermost frame first, so the children
+ * of a node are the methods it called.
+ */
+public class AllocationTrie {
+  public static final int ROOT = 0;
+  public static final int NO_NODE = -1;
+  public static final int ALL_THREADS = -1;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Interned stack frames */
+  @NotNull private final List<StackTraceElement> myFrames = new ArrayList<StackTraceElement>();
+  @NotNull private final TObjectIntHashMap<StackTraceElement> myFrameIds = new TObjectIntHashMap<StackTraceElement>();
+  /** Child node by (parent node << 32 | frame) */
+  @NotNull private final TLongIntHashMap myChildren = new TLongIntHashMap();
+
+  private int mySize;
+  private int myMaxDepth;
+  @NotNull private int[] myParents = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myFrameOfNode = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myDepths = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myFirstChildren = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myNextSiblings = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myCounts = new int[INITIAL_CAPACITY];
+  @NotNull private long[] myValues = new long[INITIAL_CAPACITY];
+
+  public AllocationTrie() {
+    newNode(NO_NODE, -1);
+  }
+
+  /** Aggregates the allocations made by the given thread, or by all threads if it is {@link #ALL_THREADS} */
+  @NotNull
+  public static AllocationTrie build(@NotNull AllocationInfo[] allocations, int threadId) {
+    AllocationTrie trie = new AllocationTrie();
+    for (AllocationInfo allocation : allocations) {
+      if (threadId == ALL_THREADS || allocation.getThreadId() == threadId) {
+        trie.add(allocation.getStackTrace(), allocation.getSize());
+      }
+    }
+    return trie;
+  }
+
+  /** Adds an allocation of the given size, whose stack trace starts with the innermost frame */
+  public void add(@NotNull StackTraceElement[] stack, int size) {
+    int node = ROOT;
+    myCounts[ROOT]++;
+    myValues[ROOT] += size;
+    for (int i = stack.length - 1; i >= 0; i--) {
+      node = getOrCreateChild(node, intern(stack[i]));
+      myCounts[node]++;
+      myValues[node] += size;
+    }
+  }
+
+  private int intern(@NotNull StackTraceElement frame) {
+    if (myFrameIds.containsKey(frame)) {
+      return myFrameIds.get(frame);
+    }
+    int id = myFrames.size();
+    myFrames.add(frame);
+    myFrameIds.put(frame, id);
+    return id;
+  }
+
+  private int getOrCreateChild(int parent, int frame) {
+    long key = ((long)parent << 32) | frame;
+    if (myChildren.containsKey(key)) {
+      return myChildren.get(key);
+    }
+    int child = newNode(parent, frame);
+    myChildren.put(key, child);
+    return child;
+  }
+
+  private int newNode(int parent, int frame) {
+    if (mySize == myParents.length) {
+      int capacity = mySize * 2;
+      myParents = Arrays.copyOf(myParents, capacity);
+      myFrameOfNode = Arrays.copyOf(myFrameOfNode, capacity);
+      myDepths = Arrays.copyOf(myDepths, capacity);
+      myFirstChildren = Arrays.copyOf(myFirstChildren, capacity);
+      myNextSiblings = Arrays.copyOf(myNextSiblings, capacity);
+      myCounts = Arrays.copyOf(myCounts, capacity);
+      myValues = Arrays.copyOf(myValues, capacity);
+    }
+    int node = mySize++;
+    myParents[node] = parent;
+    myFrameOfNode[node] = frame;
+    myFirstChildren[node] = NO_NODE;
+    myNextSiblings[node] = NO_NODE;
+    if (parent == NO_NODE) {
+      myDepths[node] = 0;
+    }
+    else {
+      myDepths[node] = myDepths[parent] + 1;
+      myMaxDepth = Math.max(myMaxDepth, myDepths[node]);
+      myNextSiblings[node] = myFirstChildren[parent];
+      myFirstChildren[parent] = node;
+    }
+    return node;
+  }
+
+  public int getNodeCount() {
+    return mySize;
+  }
+
+  /** Returns the depth of the deepest node, where the root is at depth 0 */
+  public int getMaxDepth() {
+    return myMaxDepth;
+  }
+
+  public int getParent(int node) {
+    return myParents[node];
+  }
+
+  public int getDepth(int node) {
+    return myDepths[node];
+  }
+
+  public int getFirstChild(int node) {
+    return myFirstChildren[node];
+  }
+
+  public int getNextSibling(int node) {
+    return myNextSiblings[node];
+  }
+
+  /** Returns the frame of the node, or null for the root */
+  @Nullable
+  public StackTraceElement getFrame(int node) {
+    int frame = myFrameOfNode[node];
+    return frame < 0 ? null : myFrames.get(frame);
+  }
+
+  /** Returns the number of allocations in the call path of the node */
+  public int getCount(int node) {
+    return myCounts[node];
+  }
+
+  /** Returns the total size of the allocations in the call path of the node */
+  public long getValue(int node) {
+    return myValues[node];
+  }
+
+  /** Returns the number of allocations made in the method of the node itself, rather than in the methods it called */
+  public int getSelfCount(int node) {
+    int count = myCounts[node];
+    for (int child = myFirstChildren[node]; child != NO_NODE; child = myNextSiblings[child]) {
+      count -= myCounts[child];
+    }
+    return count;
+  }
+}
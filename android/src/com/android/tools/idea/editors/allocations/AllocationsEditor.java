@@ -18,6 +18,7 @@ package com.android.tools.idea.editors.allocations;
 import com.android.ddmlib.AllocationInfo;
 import com.android.ddmlib.AllocationsParser;
 import com.android.ddmlib.ByteBufferUtil;
+import com.android.tools.idea.editors.allocations.nodes.MainTreeNode;
 import com.google.common.base.Throwables;
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.ide.structureView.StructureViewBuilder;
@@ -56,6 +57,7 @@ public class AllocationsEditor implements FileEditor {
   private void parseAllocationsFileInBackground(final Project project, final VirtualFile file) {
     final Task.Modal parseTask = new Task.Modal(project, "Parsing allocations file", false) {
       private AllocationInfo[] myAllocations;
+      private MainTreeNode myTree;
       private String myErrorMessage;
 
       @Override
@@ -73,6 +75,7 @@ public class AllocationsEditor implements FileEditor {
 
         try {
           myAllocations = AllocationsParser.parse(data);
+          myTree = AllocationsView.createDefaultTree(myAllocations);
         }
         catch (final Throwable throwable) {
           //noinspection ThrowableResultOfMethodCallIgnored
@@ -83,7 +86,7 @@ public class AllocationsEditor implements FileEditor {
 
       @Override
       public void onSuccess() {
-        AllocationsView view = new AllocationsView(project, myAllocations);
+        AllocationsView view = new AllocationsView(project, myAllocations, myTree);
         myPanel.add(view.getComponent(), BorderLayout.CENTER);
       }
 
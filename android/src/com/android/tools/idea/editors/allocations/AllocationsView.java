@@ -26,6 +26,7 @@ import com.intellij.icons.AllIcons;
 import com.intellij.ide.DataManager;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.actionSystem.ex.ComboBoxAction;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.*;
@@ -36,6 +37,7 @@ import com.intellij.util.Alarm;
 import com.intellij.util.PlatformIcons;
 import com.intellij.util.containers.Convertor;
 import com.intellij.util.ui.UIUtil;
+import gnu.trove.TIntHashSet;
 import icons.AndroidIcons;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -49,6 +51,7 @@ import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import java.util.Comparator;
 
 public class AllocationsView implements SunburstComponent.SliceSelectionListener {
@@ -77,12 +80,29 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
   private final JLabel myInfoLabel;
   private Alarm myAlarm;
   private final JBTable myInfoTable;
+  @NotNull private final JBSplitter myChartSplitter;
+  @NotNull private final AllocationFlameGraph myFlameGraph;
+  @NotNull private final JComponent myFlameGraphPane;
+  /** Ids of the threads which made allocations, in ascending order */
+  @NotNull private final int[] myThreadIds;
+  private int myFlameGraphThread = AllocationTrie.ALL_THREADS;
+  private boolean myFlameGraphStale = true;
+  /** Incremented whenever a tree or flame graph starts being built, so that only the latest one is shown */
+  private int myTreeGeneration;
+  private int myFlameGraphGeneration;
 
   public AllocationsView(@NotNull Project project, @NotNull final AllocationInfo[] allocations) {
+    this(project, allocations, createDefaultTree(allocations));
+  }
+
+  /**
+   * Creates a view whose tree, as built by {@link #createDefaultTree}, has been built ahead, off the UI thread.
+   */
+  public AllocationsView(@NotNull Project project, @NotNull final AllocationInfo[] allocations, @NotNull MainTreeNode defaultTree) {
     myProject = project;
     myAllocations = allocations;
     myGroupBy = new GroupByMethod();
-    myTreeNode = generateTree();
+    myTreeNode = defaultTree;
     myTreeModel = new DefaultTreeModel(myTreeNode);
     myAlarm = new Alarm(project);
 
@@ -244,8 +264,14 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
     myChartOrientation = "Sunburst";
     myChartUnit = "Size";
 
+    myThreadIds = getThreadIds(allocations);
+    myFlameGraph = new AllocationFlameGraph();
+    myFlameGraph.setBorder(IdeBorderFactory.createBorder());
+    myFlameGraphPane = new JBScrollPane(myFlameGraph);
+
     myChartPane.add(toolbar.getComponent(), BorderLayout.NORTH);
     JBSplitter chartSplitter = new JBSplitter();
+    myChartSplitter = chartSplitter;
     myChartPane.add(chartSplitter, BorderLayout.CENTER);
     chartSplitter.setFirstComponent(myLayout);
 
@@ -306,12 +332,64 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
 
   private void setGroupBy(@NotNull GroupBy groupBy) {
     myGroupBy = groupBy;
-    myTreeNode = generateTree();
+    myPackageFilter.setVisible(groupBy instanceof GroupByAllocator);
+    final MainTreeNode root = groupBy.create();
+    final int generation = ++myTreeGeneration;
+    // Inserting every allocation takes a while for large captures, so it is done off the UI thread
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        insertAll(root);
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (generation == myTreeGeneration) {
+              showTree(root);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  private void showTree(@NotNull MainTreeNode root) {
+    myTreeNode = root;
     myTreeModel.setRoot(myTreeNode);
     myLayout.setData(myTreeNode);
     myLayout.resetZoom();
     myTreeModel.nodeStructureChanged(myTreeNode);
-    myPackageFilter.setVisible(groupBy instanceof GroupByAllocator);
+  }
+
+  /** Rebuilds the flame graph from the allocations of the selected thread, off the UI thread */
+  private void updateFlameGraph() {
+    final int threadId = myFlameGraphThread;
+    final int generation = ++myFlameGraphGeneration;
+    myFlameGraphStale = false;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        final AllocationTrie trie = AllocationTrie.build(myAllocations, threadId);
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (generation == myFlameGraphGeneration) {
+              myFlameGraph.setTrie(trie);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @NotNull
+  private static int[] getThreadIds(@NotNull AllocationInfo[] allocations) {
+    TIntHashSet ids = new TIntHashSet();
+    for (AllocationInfo allocation : allocations) {
+      ids.add(allocation.getThreadId());
+    }
+    int[] result = ids.toArray();
+    Arrays.sort(result);
+    return result;
   }
 
   private ActionGroup getMainActions() {
@@ -363,6 +441,7 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
           public void actionPerformed(AnActionEvent e) {
             myChartOrientation = "Sunburst";
             myLayout.setAngle(360.0f);
+            myChartSplitter.setFirstComponent(myLayout);
           }
         });
         group.add(new AnAction("Layout") {
@@ -370,6 +449,17 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
           public void actionPerformed(AnActionEvent e) {
             myChartOrientation = "Layout";
             myLayout.setAngle(0.0f);
+            myChartSplitter.setFirstComponent(myLayout);
+          }
+        });
+        group.add(new AnAction("Flame Graph") {
+          @Override
+          public void actionPerformed(AnActionEvent e) {
+            myChartOrientation = "Flame Graph";
+            myChartSplitter.setFirstComponent(myFlameGraphPane);
+            if (myFlameGraphStale) {
+              updateFlameGraph();
+            }
           }
         });
         return group;
@@ -392,6 +482,7 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
           public void actionPerformed(AnActionEvent e) {
             myChartUnit = "Size";
             myLayout.setUseCount(false);
+            myFlameGraph.setUseCount(false);
           }
         });
         group.add(new AnAction("Count") {
@@ -399,6 +490,7 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
           public void actionPerformed(AnActionEvent e) {
             myChartUnit = "Count";
             myLayout.setUseCount(true);
+            myFlameGraph.setUseCount(true);
           }
         });
         return group;
@@ -411,16 +503,52 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
         e.getPresentation().setText(myChartUnit);
       }
     });
+    group.add(new ComboBoxAction() {
+      @NotNull
+      @Override
+      protected DefaultActionGroup createPopupActionGroup(JComponent button) {
+        DefaultActionGroup group = new DefaultActionGroup();
+        group.add(new ChangeFlameGraphThreadAction(AllocationTrie.ALL_THREADS));
+        for (int threadId : myThreadIds) {
+          group.add(new ChangeFlameGraphThreadAction(threadId));
+        }
+        return group;
+      }
+
+      @Override
+      public void update(AnActionEvent e) {
+        super.update(e);
+        String text = getThreadText(myFlameGraphThread);
+        getTemplatePresentation().setText(text);
+        e.getPresentation().setText(text);
+        // Only the flame graph is built from scratch for each thread
+        e.getPresentation().setVisible(myChartSplitter.getFirstComponent() == myFlameGraphPane);
+      }
+    });
     return group;
   }
 
   @NotNull
-  private MainTreeNode generateTree() {
-    MainTreeNode tree = myGroupBy.create();
-    for (AllocationInfo alloc : myAllocations) {
+  private static String getThreadText(int threadId) {
+    return threadId == AllocationTrie.ALL_THREADS ? "All Threads" : "Thread " + threadId;
+  }
+
+  /** Builds the tree the view starts with, which groups the allocations by method */
+  @NotNull
+  public static MainTreeNode createDefaultTree(@NotNull AllocationInfo[] allocations) {
+    MainTreeNode tree = new GroupByMethod().create();
+    insertAll(tree, allocations);
+    return tree;
+  }
+
+  private void insertAll(@NotNull MainTreeNode tree) {
+    insertAll(tree, myAllocations);
+  }
+
+  private static void insertAll(@NotNull MainTreeNode tree, @NotNull AllocationInfo[] allocations) {
+    for (AllocationInfo alloc : allocations) {
       tree.insert(alloc);
     }
-    return tree;
   }
 
   @Override
@@ -600,6 +728,23 @@ public class AllocationsView implements SunburstComponent.SliceSelectionListener
     }
   }
 
+  class ChangeFlameGraphThreadAction extends AnAction {
+    private final int myThreadId;
+
+    public ChangeFlameGraphThreadAction(int threadId) {
+      super(getThreadText(threadId));
+      myThreadId = threadId;
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+      if (myFlameGraphThread != myThreadId) {
+        myFlameGraphThread = myThreadId;
+        updateFlameGraph();
+      }
+    }
+  }
+
   class ShowChartAction extends ToggleAction {
     public ShowChartAction() {
       super("", "", AndroidIcons.Sunburst);
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.Snapshot;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Condition;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The differences between the classes of a heap dump and those of an earlier, baseline dump.
+ * <p/>
+ * Classes are matched by name, so classes loaded more than once are compared as a whole. An instance is considered to be in
+ * both dumps if an instance of a class with the same name and the same id is in the baseline. Heap dumps have no stable
+ * identity for objects, and ids are object addresses, which the garbage collector moves instances away from and reuses for
+ * other instances between dumps. The new instances are therefore an estimate, unlike the count and size deltas.
+ * <p/>
+ * The baseline is first reduced to a {@link Baseline}, which only keeps the totals and the sorted instance ids of each class,
+ * so its snapshot can be dropped before the comparison. Both steps work on the classes in parallel.
+ */
+public class HeapDiff implements Condition<Instance> {
+  public static final class ClassDiff {
+    @NotNull private final String myClassName;
+    @Nullable private final ClassObj myClassObj;
+    private final int myCountDelta;
+    private final int myNewInstanceCount;
+    private final long myShallowSizeDelta;
+    private final long myRetainedSizeDelta;
+
+    ClassDiff(@NotNull String className,
+              @Nullable ClassObj classObj,
+              int countDelta,
+              int newInstanceCount,
+              long shallowSizeDelta,
+              long retainedSizeDelta) {
+      myClassName = className;
+      myClassObj = classObj;
+      myCountDelta = countDelta;
+      myNewInstanceCount = newInstanceCount;
+      myShallowSizeDelta = shallowSizeDelta;
+      myRetainedSizeDelta = retainedSizeDelta;
+    }
+
+    @NotNull
+    public String getClassName() {
+      return myClassName;
+    }
+
+    /** Returns a class of this name in the compared snapshot, or null if the class is only in the baseline */
+    @Nullable
+    public ClassObj getClassObj() {
+      return myClassObj;
+    }
+
+    public int getCountDelta() {
+      return myCountDelta;
+    }
+
+    public int getNewInstanceCount() {
+      return myNewInstanceCount;
+    }
+
+    public long getShallowSizeDelta() {
+      return myShallowSizeDelta;
+    }
+
+    public long getRetainedSizeDelta() {
+      return myRetainedSizeDelta;
+    }
+  }
+
+  /** The totals and instance ids of the classes of a baseline snapshot */
+  public static final class Baseline {
+    @NotNull private final String myName;
+    @NotNull private final Map<String, ClassTotals> myClasses;
+
+    @VisibleForTesting
+    Baseline(@NotNull String name, @NotNull Map<String, ClassTotals> classes) {
+      myName = name;
+      myClasses = classes;
+    }
+
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+  }
+
+  @VisibleForTesting
+  static final class ClassTotals {
+    @Nullable ClassObj myClassObj;
+    int myCount;
+    long myShallowSize;
+    long myRetainedSize;
+    /** Ids of the instances, sorted once all the instances are added */
+    @NotNull long[] myIds;
+
+    ClassTotals(int capacity) {
+      myIds = new long[capacity];
+    }
+
+    boolean isFull() {
+      return myCount == myIds.length;
+    }
+
+    void add(long id, long shallowSize, long retainedSize) {
+      myIds[myCount++] = id;
+      myShallowSize += shallowSize;
+      myRetainedSize += retainedSize;
+    }
+
+    void sortIds() {
+      if (myCount < myIds.length) {
+        myIds = Arrays.copyOf(myIds, myCount);
+      }
+      Arrays.sort(myIds);
+    }
+  }
+
+  @NotNull private final Baseline myBaseline;
+  @NotNull private final List<ClassDiff> myClassDiffs;
+
+  private HeapDiff(@NotNull Baseline baseline, @NotNull List<ClassDiff> classDiffs) {
+    myBaseline = baseline;
+    myClassDiffs = classDiffs;
+  }
+
+  /** Reduces a snapshot, whose dominators have been computed, to what is needed to compare other snapshots with it */
+  @NotNull
+  public static Baseline createBaseline(@NotNull String name, @NotNull Snapshot snapshot) {
+    Map<String, ClassTotals> classes = summarize(snapshot);
+    for (ClassTotals totals : classes.values()) {
+      // Don't keep the baseline snapshot alive
+      totals.myClassObj = null;
+    }
+    return new Baseline(name, classes);
+  }
+
+  /** Compares a snapshot, whose dominators have been computed, with a baseline */
+  @NotNull
+  public static HeapDiff compare(@NotNull Baseline baseline, @NotNull Snapshot snapshot) {
+    return compare(baseline, summarize(snapshot));
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static HeapDiff compare(@NotNull Baseline baseline, @NotNull Map<String, ClassTotals> current) {
+    List<ClassDiff> classDiffs = new ArrayList<ClassDiff>(current.size());
+    for (Map.Entry<String, ClassTotals> entry : current.entrySet()) {
+      ClassTotals after = entry.getValue();
+      ClassTotals before = baseline.myClasses.get(entry.getKey());
+      if (before == null) {
+        classDiffs.add(new ClassDiff(entry.getKey(), after.myClassObj, after.myCount, after.myCount, after.myShallowSize,
+                                     after.myRetainedSize));
+      }
+      else {
+        classDiffs.add(new ClassDiff(entry.getKey(), after.myClassObj, after.myCount - before.myCount,
+                                     countMissing(after.myIds, before.myIds), after.myShallowSize - before.myShallowSize,
+                                     after.myRetainedSize - before.myRetainedSize));
+      }
+    }
+    for (Map.Entry<String, ClassTotals> entry : baseline.myClasses.entrySet()) {
+      if (!current.containsKey(entry.getKey())) {
+        ClassTotals before = entry.getValue();
+        classDiffs.add(new ClassDiff(entry.getKey(), null, -before.myCount, 0, -before.myShallowSize, -before.myRetainedSize));
+      }
+    }
+    return new HeapDiff(baseline, classDiffs);
+  }
+
+  @NotNull
+  public String getBaselineName() {
+    return myBaseline.getName();
+  }
+
+  @NotNull
+  public List<ClassDiff> getClassDiffs() {
+    return myClassDiffs;
+  }
+
+  /** Returns whether no instance of the same class had the address of the instance in the baseline */
+  public boolean isNew(@NotNull Instance instance) {
+    ClassObj classObj = instance.getClassObj();
+    return classObj != null && isNew(classObj.getClassName(), instance.getId());
+  }
+
+  @VisibleForTesting
+  boolean isNew(@NotNull String className, long id) {
+    ClassTotals before = myBaseline.myClasses.get(className);
+    return before == null || Arrays.binarySearch(before.myIds, id) < 0;
+  }
+
+  @Override
+  public boolean value(Instance instance) {
+    return isNew(instance);
+  }
+
+  /** Returns how many of the sorted ids are not in the other sorted ids */
+  @VisibleForTesting
+  static int countMissing(@NotNull long[] ids, @NotNull long[] otherIds) {
+    int missing = 0;
+    int j = 0;
+    for (long id : ids) {
+      while (j < otherIds.length && otherIds[j] < id) {
+        j++;
+      }
+      if (j == otherIds.length || otherIds[j] != id) {
+        missing++;
+      }
+    }
+    return missing;
+  }
+
+  @NotNull
+  private static Map<String, ClassTotals> summarize(@NotNull Snapshot snapshot) {
+    final Map<String, List<ClassObj>> classesByName = new HashMap<String, List<ClassObj>>();
+    for (Heap heap : snapshot.getHeaps()) {
+      for (ClassObj classObj : heap.getClasses()) {
+        List<ClassObj> classes = classesByName.get(classObj.getClassName());
+        if (classes == null) {
+          classes = new ArrayList<ClassObj>(1);
+          classesByName.put(classObj.getClassName(), classes);
+        }
+        if (!classes.contains(classObj)) {
+          classes.add(classObj);
+        }
+      }
+    }
+
+    final List<String> names = new ArrayList<String>(classesByName.keySet());
+    int workers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), names.size()));
+    List<Future<Map<String, ClassTotals>>> futures = new ArrayList<Future<Map<String, ClassTotals>>>(workers);
+    for (int i = 0; i < workers; i++) {
+      final int first = names.size() * i / workers;
+      final int last = names.size() * (i + 1) / workers;
+      futures.add(ApplicationManager.getApplication().executeOnPooledThread(new Callable<Map<String, ClassTotals>>() {
+        @Override
+        public Map<String, ClassTotals> call() {
+          Map<String, ClassTotals> result = new HashMap<String, ClassTotals>();
+          for (String name : names.subList(first, last)) {
+            result.put(name, summarize(classesByName.get(name)));
+          }
+          return result;
+        }
+      }));
+    }
+
+    Map<String, ClassTotals> totals = new HashMap<String, ClassTotals>(names.size());
+    try {
+      for (Future<Map<String, ClassTotals>> future : futures) {
+        totals.putAll(future.get());
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return totals;
+  }
+
+  @NotNull
+  private static ClassTotals summarize(@NotNull List<ClassObj> classes) {
+    int count = 0;
+    for (ClassObj classObj : classes) {
+      count += classObj.getInstanceCount();
+    }
+    ClassTotals totals = new ClassTotals(count);
+    totals.myClassObj = classes.get(0);
+    for (ClassObj classObj : classes) {
+      for (Instance instance : classObj.getInstancesList()) {
+        if (totals.isFull()) {
+          break;
+        }
+        totals.add(instance.getId(), instance.getSize(), instance.getTotalRetainedSize());
+      }
+    }
+    totals.sortIds();
+    return totals;
+  }
+}
@@ -27,6 +27,9 @@ import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
 import com.intellij.openapi.fileEditor.FileEditorStateLevel;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.progress.TaskInfo;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
@@ -41,11 +44,19 @@ import javax.swing.*;
 import java.awt.*;
 import java.beans.PropertyChangeListener;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class HprofEditor extends UserDataHolderBase implements FileEditor {
   @NotNull private static final Logger LOG = Logger.getInstance(HprofEditor.class);
+  private static final long CANCEL_CHECK_INTERVAL_MS = 100;
   private final JPanel myPanel;
   private boolean myIsValid = true;
+  private volatile boolean myDisposed;
+  @Nullable private volatile ProgressIndicator myDominatorsIndicator;
 
   public HprofEditor(@NotNull final Project project, @NotNull final VirtualFile file) {
     myPanel = new JPanel();
@@ -100,6 +111,7 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
 
     ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
       private Snapshot mySnapshot;
+      private boolean myIndexLoaded;
 
       @Override
       public void run() {
@@ -109,9 +121,10 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
           indicator.setText("Parsing hprof file...");
           mySnapshot = new HprofParser(new MemoryMappedFileBuffer(hprofFile)).parse();
 
-          indicator.setFraction(0.5);
-          indicator.setText("Computing dominators...");
-          mySnapshot.computeDominators();
+          indicator.setFraction(0.9);
+          indicator.setText("Reading heap dump index...");
+          // Otherwise the dominators are computed once the classes are shown, see computeDominatorsInBackground
+          myIndexLoaded = HprofIndex.load(hprofFile, mySnapshot);
         }
         catch (Throwable throwable) {
           LOG.info(throwable);
@@ -131,8 +144,15 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
             public void run() {
               myPanel.removeAll();
               myPanel.setLayout(new BorderLayout());
-              if (mySnapshot != null) {
-                myPanel.add(new HprofViewPanel(project, HprofEditor.this, mySnapshot).getComponent(), BorderLayout.CENTER);
+              if (mySnapshot != null && !myDisposed) {
+                HprofViewPanel viewPanel = new HprofViewPanel(project, HprofEditor.this, mySnapshot);
+                myPanel.add(viewPanel.getComponent(), BorderLayout.CENTER);
+                if (myIndexLoaded) {
+                  viewPanel.onDominatorsComputed();
+                }
+                else {
+                  computeDominatorsInBackground(project, hprofFile, mySnapshot, viewPanel);
+                }
               }
             }
           });
@@ -141,6 +161,67 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
     });
   }
 
+  /**
+   * Computes the dominators and retained sizes of the snapshot, which takes longer than parsing it for large heaps, while
+   * the classes and instances are already shown. The panel fills in the retained sizes when done, and the results are saved
+   * as the {@link HprofIndex} of the dump.
+   * <p/>
+   * The computation writes the depths, dominators and retained sizes into the instances of the snapshot, so the panel must not
+   * read them (or sort by them) before {@link HprofViewPanel#onDominatorsComputed()} is called.
+   */
+  private void computeDominatorsInBackground(@NotNull Project project,
+                                             @NotNull final File hprofFile,
+                                             @NotNull final Snapshot snapshot,
+                                             @NotNull final HprofViewPanel viewPanel) {
+    new Task.Backgroundable(project, "Computing dominators", true) {
+      @Override
+      public void run(@NotNull final ProgressIndicator indicator) {
+        myDominatorsIndicator = indicator;
+        indicator.setIndeterminate(true);
+        indicator.setText("Computing dominators and retained sizes...");
+        // Snapshot.computeDominators cannot be interrupted, so it runs on its own thread while this one waits for either it
+        // or a cancellation. Cancelling only hides the progress: the computation runs to the end and its result is still shown.
+        Future<?> computation = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            snapshot.computeDominators();
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                if (!myDisposed) {
+                  viewPanel.onDominatorsComputed();
+                }
+              }
+            });
+
+            indicator.setText("Saving heap dump index...");
+            try {
+              HprofIndex.save(hprofFile, snapshot);
+            }
+            catch (IOException e) {
+              LOG.info("Cannot save heap dump index for " + hprofFile, e);
+            }
+          }
+        });
+        while (true) {
+          indicator.checkCanceled();
+          try {
+            computation.get(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            return;
+          }
+          catch (TimeoutException ignored) {
+          }
+          catch (InterruptedException e) {
+            throw new ProcessCanceledException();
+          }
+          catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+          }
+        }
+      }
+    }.queue();
+  }
+
   @NotNull
   @Override
   public JComponent getComponent() {
@@ -220,5 +301,10 @@ public class HprofEditor extends UserDataHolderBase implements FileEditor {
 
   @Override
   public void dispose() {
+    myDisposed = true;
+    ProgressIndicator indicator = myDominatorsIndicator;
+    if (indicator != null) {
+      indicator.cancel();
+    }
   }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.Snapshot;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The results of computing the dominators of a heap dump, saved next to the dump so that reopening it does not compute
+ * them again.
+ * <p/>
+ * For every instance and class object, the index holds its id, its distance to a GC root, the id of its immediate dominator
+ * and its total retained size, each as a column of primitives which is memory mapped when read. The index records the size
+ * and modification time of the dump it was computed from, and is ignored once the dump changes.
+ */
+public class HprofIndex {
+  private static final Logger LOG = Logger.getInstance(HprofIndex.class);
+
+  public static final String EXTENSION = ".index";
+
+  private static final int MAGIC = 0x48504958; // "HPIX"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+  /** Dominator id of instances which are not reachable */
+  private static final long NO_DOMINATOR = -1;
+  /** Dominator id of instances which are dominated by the GC roots as a whole */
+  private static final long ROOT_DOMINATOR = -2;
+
+  @NotNull
+  public static File getIndexFile(@NotNull File hprofFile) {
+    return new File(hprofFile.getPath() + EXTENSION);
+  }
+
+  /**
+   * Restores the dominators and retained sizes of the snapshot from the index of the given dump.
+   *
+   * @return false if there is no up to date index for the dump, in which case the dominators have to be computed
+   */
+  public static boolean load(@NotNull File hprofFile, @NotNull Snapshot snapshot) {
+    File indexFile = getIndexFile(hprofFile);
+    if (!indexFile.isFile()) {
+      return false;
+    }
+    try {
+      Columns columns = Columns.read(indexFile, hprofFile.length(), hprofFile.lastModified());
+      if (columns == null) {
+        return false;
+      }
+      columns.apply(snapshot);
+      return true;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read heap dump index " + indexFile, e);
+      return false;
+    }
+  }
+
+  /** Saves the dominators and retained sizes of the snapshot, which must have been computed, as the index of the given dump */
+  public static void save(@NotNull File hprofFile, @NotNull Snapshot snapshot) throws IOException {
+    Columns.of(snapshot).write(getIndexFile(hprofFile), hprofFile.length(), hprofFile.lastModified());
+  }
+
+  @VisibleForTesting
+  static final class Columns {
+    @NotNull final LongBuffer myIds;
+    @NotNull final IntBuffer myDistances;
+    @NotNull final LongBuffer myDominators;
+    @NotNull final LongBuffer myRetainedSizes;
+
+    Columns(@NotNull LongBuffer ids, @NotNull IntBuffer distances, @NotNull LongBuffer dominators, @NotNull LongBuffer retainedSizes) {
+      myIds = ids;
+      myDistances = distances;
+      myDominators = dominators;
+      myRetainedSizes = retainedSizes;
+    }
+
+    int size() {
+      return myIds.limit();
+    }
+
+    @NotNull
+    static Columns of(@NotNull Snapshot snapshot) {
+      int count = 0;
+      for (Heap heap : snapshot.getHeaps()) {
+        count += heap.getClasses().size() + heap.getInstancesCount();
+      }
+      Columns columns = new Columns(LongBuffer.allocate(count), IntBuffer.allocate(count), LongBuffer.allocate(count),
+                                    LongBuffer.allocate(count));
+      for (Heap heap : snapshot.getHeaps()) {
+        for (ClassObj classObj : heap.getClasses()) {
+          columns.put(classObj);
+        }
+        for (Instance instance : heap.getInstances()) {
+          columns.put(instance);
+        }
+      }
+      columns.myIds.flip();
+      columns.myDistances.flip();
+      columns.myDominators.flip();
+      columns.myRetainedSizes.flip();
+      return columns;
+    }
+
+    private void put(@NotNull Instance instance) {
+      Instance dominator = instance.getImmediateDominator();
+      myIds.put(instance.getId());
+      myDistances.put(instance.getDistanceToGcRoot());
+      myDominators.put(dominator == null ? NO_DOMINATOR : dominator == Snapshot.SENTINEL_ROOT ? ROOT_DOMINATOR : dominator.getId());
+      myRetainedSizes.put(instance.getTotalRetainedSize());
+    }
+
+    void apply(@NotNull Snapshot snapshot) {
+      for (int i = 0; i < size(); i++) {
+        Instance instance = snapshot.findInstance(myIds.get(i));
+        if (instance == null) {
+          continue;
+        }
+        instance.setDistanceToGcRoot(myDistances.get(i));
+        long dominatorId = myDominators.get(i);
+        Instance dominator = dominatorId == ROOT_DOMINATOR ? Snapshot.SENTINEL_ROOT
+                                                           : dominatorId == NO_DOMINATOR ? null : snapshot.findInstance(dominatorId);
+        if (dominator != null) {
+          instance.setImmediateDominator(dominator);
+        }
+        // Only the total retained size is shown, so it is all accounted to the heap of the instance
+        instance.resetRetainedSize();
+        instance.addRetainedSize(snapshot.getHeapIndex(instance.getHeap()), myRetainedSizes.get(i));
+      }
+    }
+
+    void write(@NotNull File file, long sourceLength, long sourceModified) throws IOException {
+      File temp = new File(file.getPath() + ".tmp");
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        int size = size();
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(sourceLength);
+        output.writeLong(sourceModified);
+        output.writeInt(size);
+        for (int i = 0; i < size; i++) {
+          output.writeLong(myIds.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+          output.writeInt(myDistances.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+          output.writeLong(myDominators.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+          output.writeLong(myRetainedSizes.get(i));
+        }
+      }
+      finally {
+        output.close();
+      }
+      // Readers must never see a partially written index
+      FileUtil.rename(temp, file);
+    }
+
+    /** Maps the columns of an index, or returns null if it was computed from another version of the dump */
+    @Nullable
+    static Columns read(@NotNull File file, long sourceLength, long sourceModified) throws IOException {
+      RandomAccessFile input = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = input.getChannel();
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+          return null;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != sourceLength ||
+            buffer.getLong() != sourceModified) {
+          return null;
+        }
+        int size = buffer.getInt();
+        if (size < 0 || fileSize != HEADER_SIZE + (long)size * (8 + 4 + 8 + 8)) {
+          return null;
+        }
+        LongBuffer ids = slice(buffer, size * 8).asLongBuffer();
+        IntBuffer distances = slice(buffer, size * 4).asIntBuffer();
+        LongBuffer dominators = slice(buffer, size * 8).asLongBuffer();
+        LongBuffer retainedSizes = slice(buffer, size * 8).asLongBuffer();
+        return new Columns(ids, distances, dominators, retainedSizes);
+      }
+      finally {
+        // The mapping stays valid after the file is closed
+        input.close();
+      }
+    }
+
+    @NotNull
+    private static ByteBuffer slice(@NotNull ByteBuffer buffer, int length) {
+      ByteBuffer slice = buffer.slice();
+      slice.limit(length);
+      buffer.position(buffer.position() + length);
+      return slice;
+    }
+  }
+}
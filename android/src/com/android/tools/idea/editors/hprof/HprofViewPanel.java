@@ -15,29 +15,57 @@
  */
 package com.android.tools.idea.editors.hprof;
 
+import com.android.SdkConstants;
 import com.android.tools.idea.editors.hprof.views.ClassesTreeView;
+import com.android.tools.idea.editors.hprof.views.HeapDiffView;
 import com.android.tools.idea.editors.hprof.views.InstanceReferenceTreeView;
 import com.android.tools.idea.editors.hprof.views.InstancesTreeView;
 import com.android.tools.idea.editors.hprof.views.SelectionModel;
 import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.HprofParser;
 import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer;
+import com.google.common.base.Throwables;
+import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.actionSystem.ex.ComboBoxAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.JBColor;
 import com.intellij.ui.JBSplitter;
+import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBPanel;
+import com.intellij.ui.components.JBTabbedPane;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 
 public class HprofViewPanel implements Disposable {
+  private static final Logger LOG = Logger.getInstance(HprofViewPanel.class);
   private static final int DIVIDER_WIDTH = 4;
+  private static final String HPROF_EXTENSION = SdkConstants.DOT_HPROF.substring(1);
   @SuppressWarnings("NullableProblems") @NotNull private JPanel myContainer;
   @SuppressWarnings("NullableProblems") @NotNull private SelectionModel mySelectionModel;
+  @Nullable private ClassesTreeView myClassesTreeView;
+  @Nullable private InstancesTreeView myInstancesTreeView;
+  @Nullable private JBSplitter myMainSplitter;
+  @Nullable private JComponent myReferencePanel;
+  @Nullable private Project myProject;
+  @Nullable private JBTabbedPane myBottomTabs;
+  private boolean myDominatorsComputed;
 
   public HprofViewPanel(@NotNull final Project project, @NotNull HprofEditor editor, @NotNull final Snapshot snapshot) {
     JBPanel treePanel = new JBPanel(new BorderLayout());
@@ -88,11 +116,30 @@ public class HprofViewPanel implements Disposable {
       }
     });
 
-    final InstanceReferenceTreeView referenceTree = new InstanceReferenceTreeView(project, mySelectionModel);
-    treePanel.add(referenceTree.getComponent(), BorderLayout.CENTER);
+    // The references are shown by distance to the GC roots and with their dominators, so they're only shown once computed
+    myProject = project;
+    treePanel.add(new JBLabel("Computing dominators...", SwingConstants.CENTER), BorderLayout.CENTER);
 
     final InstancesTreeView instancesTreeView = new InstancesTreeView(project, mySelectionModel);
     final ClassesTreeView classesTreeView = new ClassesTreeView(project, group, mySelectionModel);
+    myClassesTreeView = classesTreeView;
+    myInstancesTreeView = instancesTreeView;
+    group.add(new AnAction("Compare with Heap Dump...", "Shows the changes since an earlier heap dump", AllIcons.Actions.Diff) {
+      @Override
+      public void update(AnActionEvent e) {
+        // Retained sizes are compared too
+        e.getPresentation().setEnabled(myDominatorsComputed);
+      }
+
+      @Override
+      public void actionPerformed(AnActionEvent e) {
+        VirtualFile baselineFile =
+          FileChooser.chooseFile(FileChooserDescriptorFactory.createSingleFileDescriptor(HPROF_EXTENSION), project, null);
+        if (baselineFile != null) {
+          compareWith(project, snapshot, baselineFile);
+        }
+      }
+    });
     JBSplitter splitter = createNavigationSplitter(classesTreeView.getComponent(), instancesTreeView.getComponent());
 
     JBPanel classPanel = new JBPanel(new BorderLayout());
@@ -106,6 +153,8 @@ public class HprofViewPanel implements Disposable {
     mainSplitter.setFirstComponent(classPanel);
     mainSplitter.setSecondComponent(treePanel);
     mainSplitter.setDividerWidth(DIVIDER_WIDTH);
+    myMainSplitter = mainSplitter;
+    myReferencePanel = treePanel;
 
     myContainer = new JPanel(new BorderLayout());
     myContainer.add(mainSplitter);
@@ -138,6 +187,110 @@ public class HprofViewPanel implements Disposable {
     return myContainer;
   }
 
+  /**
+   * Called once the dominators of the snapshot have been computed, after the panel was shown without them.
+   */
+  public void onDominatorsComputed() {
+    myDominatorsComputed = true;
+    if (myClassesTreeView != null) {
+      myClassesTreeView.onDominatorsComputed();
+    }
+    if (myInstancesTreeView != null) {
+      myInstancesTreeView.onDominatorsComputed();
+    }
+    if (myReferencePanel != null && myProject != null) {
+      InstanceReferenceTreeView referenceTree = new InstanceReferenceTreeView(myProject, mySelectionModel);
+      myReferencePanel.removeAll();
+      myReferencePanel.add(referenceTree.getComponent(), BorderLayout.CENTER);
+      myReferencePanel.revalidate();
+      myReferencePanel.repaint();
+    }
+  }
+
+  /**
+   * Loads another heap dump and compares the snapshot shown with it. Only a summary of the other dump is kept once it is
+   * loaded, and its file is unmapped right away.
+   */
+  private void compareWith(@NotNull final Project project, @NotNull final Snapshot snapshot, @NotNull final VirtualFile baselineFile) {
+    new Task.Backgroundable(project, "Comparing heap dumps", true) {
+      @Nullable private HeapDiff myDiff;
+      @Nullable private String myError;
+
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        File file = VfsUtilCore.virtualToIoFile(baselineFile);
+        try {
+          indicator.setText("Parsing " + baselineFile.getName() + "...");
+          HeapDiff.Baseline summary;
+          MemoryMappedFileBuffer buffer = new MemoryMappedFileBuffer(file);
+          try {
+            Snapshot baseline = new HprofParser(buffer).parse();
+            indicator.checkCanceled();
+            if (!HprofIndex.load(file, baseline)) {
+              indicator.setText("Computing dominators of " + baselineFile.getName() + "...");
+              baseline.computeDominators();
+              try {
+                HprofIndex.save(file, baseline);
+              }
+              catch (IOException e) {
+                LOG.info("Cannot save heap dump index for " + file, e);
+              }
+            }
+            indicator.checkCanceled();
+
+            indicator.setText("Comparing heap dumps...");
+            summary = HeapDiff.createBaseline(baselineFile.getName(), baseline);
+          }
+          finally {
+            // The summary doesn't refer to the baseline snapshot, so unmap its file rather than waiting for it to be collected
+            buffer.dispose();
+          }
+          myDiff = HeapDiff.compare(summary, snapshot);
+        }
+        catch (IOException e) {
+          LOG.info(e);
+          myError = e.getMessage();
+        }
+        catch (ProcessCanceledException e) {
+          throw e;
+        }
+        catch (RuntimeException e) {
+          LOG.info(e);
+          myError = Throwables.getRootCause(e).getMessage();
+        }
+      }
+
+      @Override
+      public void onSuccess() {
+        if (myDiff != null) {
+          showDiff(myDiff);
+        }
+        else if (myError != null) {
+          Messages.showErrorDialog(project, "Unexpected error while comparing with " + baselineFile.getName() + ": " + myError,
+                                   "Compare with Heap Dump");
+        }
+      }
+    }.queue();
+  }
+
+  private void showDiff(@NotNull HeapDiff diff) {
+    if (myMainSplitter == null || myReferencePanel == null || myInstancesTreeView == null) {
+      return;
+    }
+    myInstancesTreeView.setInstanceFilter(null);
+    HeapDiffView diffView = new HeapDiffView(diff, mySelectionModel, myInstancesTreeView);
+    if (myBottomTabs == null) {
+      myBottomTabs = new JBTabbedPane();
+      myBottomTabs.addTab("References", myReferencePanel);
+      myMainSplitter.setSecondComponent(myBottomTabs);
+    }
+    else if (myBottomTabs.getTabCount() > 1) {
+      myBottomTabs.removeTabAt(1);
+    }
+    myBottomTabs.addTab("Compared to " + diff.getBaselineName(), diffView.getComponent());
+    myBottomTabs.setSelectedIndex(1);
+  }
+
   @Override
   public void dispose() {
 
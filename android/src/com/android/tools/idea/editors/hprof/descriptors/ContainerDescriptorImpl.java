@@ -30,8 +30,12 @@ public class ContainerDescriptorImpl extends NodeDescriptorImpl {
   @NotNull private List<Instance> myInstancesCache;
 
   public ContainerDescriptorImpl(@NotNull ClassObj classObj, int heapId) {
+    this(classObj, classObj.getHeapInstances(heapId));
+  }
+
+  public ContainerDescriptorImpl(@NotNull ClassObj classObj, @NotNull List<Instance> instances) {
     myClassObj = classObj;
-    myInstancesCache = myClassObj.getHeapInstances(heapId);
+    myInstancesCache = instances;
   }
 
   @NotNull
@@ -65,7 +65,9 @@ public class ClassesTreeView implements DataProvider {
   @NotNull private JComponent myColumnTree;
   @Nullable private Comparator<HeapNode> myComparator;
 
+  @NotNull private SelectionModel mySelectionModel;
   private int mySelectedHeapId;
+  private boolean myRetainedSizesComputed;
 
   @NotNull private ListIndex myListIndex;
   @NotNull private TreeIndex myTreeIndex;
@@ -75,6 +77,7 @@ public class ClassesTreeView implements DataProvider {
                          @NotNull DefaultActionGroup editorActionGroup,
                          @NotNull final SelectionModel selectionModel) {
     myProject = project;
+    mySelectionModel = selectionModel;
 
     myRoot = new HeapPackageNode(null, "");
     myTreeModel = new DefaultTreeModel(myRoot);
@@ -383,7 +386,12 @@ public class ClassesTreeView implements DataProvider {
                                             int row,
                                             boolean hasFocus) {
             if (value instanceof HeapNode) {
-              append(Long.toString(((HeapNode)value).getRetainedSize()));
+              if (myRetainedSizesComputed) {
+                append(Long.toString(((HeapNode)value).getRetainedSize()));
+              }
+              else {
+                append("...", SimpleTextAttributes.GRAY_ATTRIBUTES);
+              }
             }
             setTextAlign(SwingConstants.RIGHT);
           }
@@ -417,6 +425,23 @@ public class ClassesTreeView implements DataProvider {
     return myColumnTree;
   }
 
+  /**
+   * Fills in the retained sizes, which are shown as pending until the dominators of the snapshot have been computed.
+   */
+  public void onDominatorsComputed() {
+    myRetainedSizesComputed = true;
+    myListIndex.myRetainedSizesComputed = true;
+    for (HeapClassObjNode heapClassObjNode : myListIndex.myClasses) {
+      heapClassObjNode.updateRetainedSize();
+    }
+    // The package nodes only add up their retained sizes when they are classified
+    myTreeIndex.invalidate();
+    if (myDisplayMode == DisplayMode.TREE) {
+      myTreeIndex.buildTree(mySelectedHeapId);
+    }
+    restoreViewState(mySelectionModel);
+  }
+
   private void installTreeSpeedSearch() {
     new TreeSpeedSearch(myTree, new Convertor<TreePath, String>() {
       @Override
@@ -574,6 +599,7 @@ public class ClassesTreeView implements DataProvider {
   private static class ListIndex implements SelectionModel.SelectionListener {
     ArrayList<HeapClassObjNode> myClasses = new ArrayList<HeapClassObjNode>();
     private int myHeapId = -1;
+    private boolean myRetainedSizesComputed;
 
     @Override
     public void onHeapChanged(@NotNull Heap heap) {
@@ -591,7 +617,7 @@ public class ClassesTreeView implements DataProvider {
         }
 
         for (ClassObj classObj : entriesSet) {
-          myClasses.add(new HeapClassObjNode(classObj, myHeapId));
+          myClasses.add(new HeapClassObjNode(classObj, myHeapId, myRetainedSizesComputed));
         }
       }
     }
@@ -637,6 +663,10 @@ public class ClassesTreeView implements DataProvider {
 
     }
 
+    public void invalidate() {
+      myHeapId = -1;
+    }
+
     public void buildTree(int heapId) {
       if (myHeapId != heapId) {
         myHeapId = heapId;
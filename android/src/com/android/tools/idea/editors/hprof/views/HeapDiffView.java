@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof.views;
+
+import com.android.tools.idea.editors.hprof.HeapDiff;
+import com.android.tools.perflib.heap.ClassObj;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the classes whose instances changed between a baseline heap dump and the one being viewed. Selecting a class selects
+ * it in the other views, which can be limited to the instances that are not in the baseline.
+ */
+public class HeapDiffView {
+  private static final String ADDRESS_MATCHING_TOOLTIP =
+    "<html>Instances are matched by class and address, since heap dumps have no stable identity for objects.<br>" +
+    "The garbage collector moves instances and reuses addresses between dumps, so this is an estimate.</html>";
+
+  @NotNull private final JPanel myPanel;
+
+  public HeapDiffView(@NotNull final HeapDiff diff,
+                      @NotNull final SelectionModel selectionModel,
+                      @NotNull final InstancesTreeView instancesTreeView) {
+    final DiffTableModel model = new DiffTableModel(diff.getClassDiffs());
+    final JBTable table = new JBTable(model);
+    table.setAutoCreateRowSorter(true);
+    table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    // Largest growth first
+    table.getRowSorter().setSortKeys(Collections.singletonList(new RowSorter.SortKey(4, SortOrder.DESCENDING)));
+    table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+      @Override
+      public void valueChanged(ListSelectionEvent e) {
+        int row = table.getSelectedRow();
+        if (e.getValueIsAdjusting() || row < 0) {
+          return;
+        }
+        ClassObj classObj = model.getClassDiff(table.convertRowIndexToModel(row)).getClassObj();
+        if (classObj != null) {
+          selectionModel.setClassObj(classObj);
+        }
+      }
+    });
+
+    final JBCheckBox newInstancesOnly = new JBCheckBox("Only show instances whose address is not in " + diff.getBaselineName());
+    newInstancesOnly.setToolTipText(ADDRESS_MATCHING_TOOLTIP);
+    newInstancesOnly.addItemListener(new ItemListener() {
+      @Override
+      public void itemStateChanged(ItemEvent e) {
+        instancesTreeView.setInstanceFilter(newInstancesOnly.isSelected() ? diff : null);
+      }
+    });
+
+    myPanel = new JPanel(new BorderLayout());
+    myPanel.add(newInstancesOnly, BorderLayout.NORTH);
+    myPanel.add(new JBScrollPane(table), BorderLayout.CENTER);
+  }
+
+  @NotNull
+  public JComponent getComponent() {
+    return myPanel;
+  }
+
+  private static class DiffTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Class Name", "Count Delta", "New Addresses", "Shallow Size Delta", "Retained Size Delta"};
+
+    @NotNull private final List<HeapDiff.ClassDiff> myClassDiffs;
+
+    DiffTableModel(@NotNull List<HeapDiff.ClassDiff> classDiffs) {
+      myClassDiffs = classDiffs;
+    }
+
+    @NotNull
+    HeapDiff.ClassDiff getClassDiff(int row) {
+      return myClassDiffs.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+      return myClassDiffs.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      switch (column) {
+        case 0:
+          return String.class;
+        case 1:
+        case 2:
+          return Integer.class;
+        default:
+          return Long.class;
+      }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      HeapDiff.ClassDiff classDiff = myClassDiffs.get(row);
+      switch (column) {
+        case 0:
+          return classDiff.getClassName();
+        case 1:
+          return classDiff.getCountDelta();
+        case 2:
+          return classDiff.getNewInstanceCount();
+        case 3:
+          return classDiff.getShallowSizeDelta();
+        default:
+          return classDiff.getRetainedSizeDelta();
+      }
+    }
+  }
+}
@@ -38,10 +38,12 @@ import com.intellij.ide.DataManager;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.Condition;
 import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.PopupHandler;
 import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.components.JBList;
+import com.intellij.util.containers.ContainerUtil;
 import com.sun.jdi.request.EventRequest;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -68,8 +70,12 @@ public class InstancesTreeView implements DataProvider {
 
   @NotNull private Heap myHeap;
   @Nullable private ClassObj myClassObj;
+  @NotNull private SelectionModel mySelectionModel;
+  @Nullable private Condition<Instance> myInstanceFilter;
   @Nullable private Comparator<DebuggerTreeNodeImpl> myComparator;
   @NotNull private SortOrder mySortOrder = SortOrder.UNSORTED;
+  /** The depths and retained sizes of instances are written by the dominator computation, so they're only read once it's done */
+  private boolean myDominatorsComputed;
 
   public InstancesTreeView(@NotNull Project project, @NotNull final SelectionModel selectionModel) {
     myProject = project;
@@ -90,6 +96,7 @@ public class InstancesTreeView implements DataProvider {
     myDebuggerTree.getComponent().setName(TREE_NAME);
 
     myHeap = selectionModel.getHeap();
+    mySelectionModel = selectionModel;
     myDebugProcess = new DebugProcessEvents(project);
     final SuspendManagerImpl suspendManager = new SuspendManagerImpl(myDebugProcess);
     myDebugProcess.getManagerThread().invokeAndWait(new DebuggerCommandImpl() {
@@ -183,32 +190,6 @@ public class InstancesTreeView implements DataProvider {
       public void onInstanceChanged(@Nullable Instance instance) {
 
       }
-
-      private void onSelectionChanged() {
-        DebuggerTreeNodeImpl newRoot;
-        Instance singleChild = null;
-        if (myClassObj != null) {
-          ContainerDescriptorImpl containerDescriptor = new ContainerDescriptorImpl(myClassObj, myHeap.getId());
-          newRoot = DebuggerTreeNodeImpl.createNodeNoUpdate(myDebuggerTree, containerDescriptor);
-          if (containerDescriptor.getInstances().size() == 1) {
-            singleChild = containerDescriptor.getInstances().get(0);
-          }
-        }
-        else {
-          newRoot = myDebuggerTree.getNodeFactory().getDefaultNode();
-        }
-
-        myDebuggerTree.getMutableModel().setRoot(newRoot);
-        myDebuggerTree.treeChanged();
-        if (myDebuggerTree.getRowCount() > 0) {
-          myDebuggerTree.scrollRowToVisible(0);
-        }
-
-        if (singleChild != null) {
-          myDebuggerTree.setSelectionInterval(0 , 0);
-          selectionModel.setInstance(singleChild);
-        }
-      }
     });
 
     myDebuggerTree.addTreeSelectionListener(new TreeSelectionListener() {
@@ -277,13 +258,13 @@ public class InstancesTreeView implements DataProvider {
               int depthB = 0;
               if (a.getDescriptor() instanceof InstanceFieldDescriptorImpl) {
                 Instance instanceA = (Instance)((InstanceFieldDescriptorImpl)a.getDescriptor()).getValueData();
-                if (instanceA != null) {
+                if (instanceA != null && myDominatorsComputed) {
                   depthA = instanceA.getDistanceToGcRoot();
                 }
               }
               if (b.getDescriptor() instanceof InstanceFieldDescriptorImpl) {
                 Instance instanceB = (Instance)((InstanceFieldDescriptorImpl)b.getDescriptor()).getValueData();
-                if (instanceB != null) {
+                if (instanceB != null && myDominatorsComputed) {
                   depthB = instanceB.getDistanceToGcRoot();
                 }
               }
@@ -309,7 +290,10 @@ public class InstancesTreeView implements DataProvider {
                 InstanceFieldDescriptorImpl descriptor = (InstanceFieldDescriptorImpl)nodeDescriptor;
                 assert !descriptor.isPrimitive();
                 Instance instance = (Instance)descriptor.getValueData();
-                if (instance != null && instance.getDistanceToGcRoot() != Integer.MAX_VALUE) {
+                if (instance != null && !myDominatorsComputed) {
+                  append("...", SimpleTextAttributes.GRAY_ATTRIBUTES);
+                }
+                else if (instance != null && instance.getDistanceToGcRoot() != Integer.MAX_VALUE) {
                   append(String.valueOf(instance.getDistanceToGcRoot()), SimpleTextAttributes.REGULAR_ATTRIBUTES);
                 }
               }
@@ -381,13 +365,13 @@ public class InstancesTreeView implements DataProvider {
               long sizeB = 0;
               if (a.getDescriptor() instanceof InstanceFieldDescriptorImpl) {
                 Instance instanceA = (Instance)((InstanceFieldDescriptorImpl)a.getDescriptor()).getValueData();
-                if (instanceA != null && instanceA.getDistanceToGcRoot() != Integer.MAX_VALUE) {
+                if (instanceA != null && myDominatorsComputed && instanceA.getDistanceToGcRoot() != Integer.MAX_VALUE) {
                   sizeA = instanceA.getTotalRetainedSize();
                 }
               }
               if (b.getDescriptor() instanceof InstanceFieldDescriptorImpl) {
                 Instance instanceB = (Instance)((InstanceFieldDescriptorImpl)b.getDescriptor()).getValueData();
-                if (instanceB != null && instanceB.getDistanceToGcRoot() != Integer.MAX_VALUE) {
+                if (instanceB != null && myDominatorsComputed && instanceB.getDistanceToGcRoot() != Integer.MAX_VALUE) {
                   sizeB = instanceB.getTotalRetainedSize();
                 }
               }
@@ -413,7 +397,10 @@ public class InstancesTreeView implements DataProvider {
                 InstanceFieldDescriptorImpl descriptor = (InstanceFieldDescriptorImpl)nodeDescriptor;
                 assert !descriptor.isPrimitive();
                 Instance instance = (Instance)descriptor.getValueData();
-                if (instance != null && instance.getDistanceToGcRoot() != Integer.MAX_VALUE) {
+                if (instance != null && !myDominatorsComputed) {
+                  append("...", SimpleTextAttributes.GRAY_ATTRIBUTES);
+                }
+                else if (instance != null && instance.getDistanceToGcRoot() != Integer.MAX_VALUE) {
                   append(String.valueOf(instance.getTotalRetainedSize()), SimpleTextAttributes.REGULAR_ATTRIBUTES);
                 }
               }
@@ -429,17 +416,7 @@ public class InstancesTreeView implements DataProvider {
         if (myComparator != comparator && mySortOrder != sortOrder) {
           myComparator = comparator;
           mySortOrder = sortOrder;
-          TreeBuilder mutableModel = myDebuggerTree.getMutableModel();
-          DebuggerTreeNodeImpl root = (DebuggerTreeNodeImpl)mutableModel.getRoot();
-
-          sortTree(root);
-
-          selectionModel.setSelectionLocked(true);
-          TreePath selectionPath = myDebuggerTree.getSelectionPath();
-          mutableModel.nodeStructureChanged(root);
-          myDebuggerTree.setSelectionPath(selectionPath);
-          myDebuggerTree.scrollPathToVisible(selectionPath);
-          selectionModel.setSelectionLocked(false);
+          resortTree();
         }
       }
     });
@@ -452,6 +429,71 @@ public class InstancesTreeView implements DataProvider {
     return myColumnTree;
   }
 
+  /**
+   * Shows the depths and retained sizes of the instances, which are shown as pending until the dominators of the snapshot
+   * have been computed, and sorts by them if requested meanwhile.
+   */
+  public void onDominatorsComputed() {
+    myDominatorsComputed = true;
+    if (myComparator != null) {
+      resortTree();
+    }
+    myColumnTree.repaint();
+  }
+
+  /**
+   * Only shows the instances of the selected class which match the filter, or all of them if the filter is null.
+   */
+  public void setInstanceFilter(@Nullable Condition<Instance> filter) {
+    if (filter != myInstanceFilter) {
+      myInstanceFilter = filter;
+      onSelectionChanged();
+    }
+  }
+
+  private void onSelectionChanged() {
+    DebuggerTreeNodeImpl newRoot;
+    Instance singleChild = null;
+    if (myClassObj != null) {
+      ContainerDescriptorImpl containerDescriptor = myInstanceFilter == null
+                                                    ? new ContainerDescriptorImpl(myClassObj, myHeap.getId())
+                                                    : new ContainerDescriptorImpl(myClassObj, ContainerUtil.filter(
+                                                      myClassObj.getHeapInstances(myHeap.getId()), myInstanceFilter));
+      newRoot = DebuggerTreeNodeImpl.createNodeNoUpdate(myDebuggerTree, containerDescriptor);
+      if (containerDescriptor.getInstances().size() == 1) {
+        singleChild = containerDescriptor.getInstances().get(0);
+      }
+    }
+    else {
+      newRoot = myDebuggerTree.getNodeFactory().getDefaultNode();
+    }
+
+    myDebuggerTree.getMutableModel().setRoot(newRoot);
+    myDebuggerTree.treeChanged();
+    if (myDebuggerTree.getRowCount() > 0) {
+      myDebuggerTree.scrollRowToVisible(0);
+    }
+
+    if (singleChild != null) {
+      myDebuggerTree.setSelectionInterval(0 , 0);
+      mySelectionModel.setInstance(singleChild);
+    }
+  }
+
+  private void resortTree() {
+    TreeBuilder mutableModel = myDebuggerTree.getMutableModel();
+    DebuggerTreeNodeImpl root = (DebuggerTreeNodeImpl)mutableModel.getRoot();
+
+    sortTree(root);
+
+    mySelectionModel.setSelectionLocked(true);
+    TreePath selectionPath = myDebuggerTree.getSelectionPath();
+    mutableModel.nodeStructureChanged(root);
+    myDebuggerTree.setSelectionPath(selectionPath);
+    myDebuggerTree.scrollPathToVisible(selectionPath);
+    mySelectionModel.setSelectionLocked(false);
+  }
+
   private void sortTree(@NotNull DebuggerTreeNodeImpl node) {
     if (myComparator == null) {
       return;
@@ -27,13 +27,19 @@ import java.util.List;
 public class HeapClassObjNode implements HeapNode {
   @Nullable private HeapNode myParent;
   @NotNull private ClassObj myClassObj;
+  private final int myHeapId;
   private long myRetainedSize;
   private String mySimpleName;
 
-  public HeapClassObjNode(@NotNull ClassObj classObj, int heapId) {
+  /**
+   * @param retainedSizesComputed whether the dominators of the snapshot have been computed; the retained sizes of the instances
+   *                              are not read otherwise, see {@link #updateRetainedSize()}
+   */
+  public HeapClassObjNode(@NotNull ClassObj classObj, int heapId, boolean retainedSizesComputed) {
     myClassObj = classObj;
-    for (Instance instance : myClassObj.getHeapInstances(heapId)) {
-      myRetainedSize += instance.getTotalRetainedSize();
+    myHeapId = heapId;
+    if (retainedSizesComputed) {
+      updateRetainedSize();
     }
 
     mySimpleName = myClassObj.getClassName();
@@ -43,6 +49,16 @@ public class HeapClassObjNode implements HeapNode {
     }
   }
 
+  /**
+   * Sums up the retained sizes of the instances again, for nodes created before the dominators of the snapshot were computed.
+   */
+  public void updateRetainedSize() {
+    myRetainedSize = 0;
+    for (Instance instance : myClassObj.getHeapInstances(myHeapId)) {
+      myRetainedSize += instance.getTotalRetainedSize();
+    }
+  }
+
   @NotNull
   public ClassObj getClassObj() {
     return myClassObj;
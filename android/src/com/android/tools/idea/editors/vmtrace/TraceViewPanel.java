@@ -16,6 +16,7 @@
 
 package com.android.tools.idea.editors.vmtrace;
 
+import com.android.tools.idea.editors.vmtrace.treemodel.ThreadStats;
 import com.android.tools.idea.editors.vmtrace.treemodel.VmStatsTreeTableModel;
 import com.android.tools.idea.editors.vmtrace.treemodel.VmStatsTreeUtils;
 import com.android.tools.perflib.vmtrace.ClockType;
@@ -53,7 +54,9 @@ import javax.swing.table.TableRowSorter;
 import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class TraceViewPanel {
   @NonNls public static DataKey<TraceViewPanel> KEY = DataKey.create("android.traceview.panel");
@@ -185,6 +188,11 @@ public class TraceViewPanel {
   }
 
   public void setTrace(@NotNull VmTraceData trace) {
+    setTrace(trace, Collections.<ThreadInfo, ThreadStats>emptyMap());
+  }
+
+  /** Shows a trace, with the statistics of its threads if they have already been computed */
+  public void setTrace(@NotNull VmTraceData trace, @NotNull Map<ThreadInfo, ThreadStats> threadStats) {
     myTraceData = trace;
 
     List<ThreadInfo> threads = trace.getThreads(true);
@@ -213,7 +221,7 @@ public class TraceViewPanel {
     myThreadCombo.setEnabled(true);
     myRenderClockSelectorCombo.setEnabled(true);
 
-    myVmStatsTreeTableModel.setTraceData(trace, defaultThread);
+    myVmStatsTreeTableModel.setTraceData(trace, defaultThread, threadStats);
     myVmStatsTreeTableModel.setClockType(getCurrentRenderClock());
     myTreeTable.setModel(myVmStatsTreeTableModel);
 
@@ -16,6 +16,8 @@
 
 package com.android.tools.idea.editors.vmtrace;
 
+import com.android.tools.idea.editors.vmtrace.treemodel.ThreadStats;
+import com.android.tools.perflib.vmtrace.ThreadInfo;
 import com.android.tools.perflib.vmtrace.VmTraceData;
 import com.android.tools.perflib.vmtrace.VmTraceParser;
 import com.google.common.base.Throwables;
@@ -43,6 +45,7 @@ import javax.swing.*;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 public class VmTraceEditor implements FileEditor {
   private final TraceViewPanel myTraceViewPanel;
@@ -53,7 +56,7 @@ public class VmTraceEditor implements FileEditor {
   }
 
   private void parseTraceFileInBackground(@NotNull final Project project, @NotNull final VirtualFile file) {
-    final Task.Modal parseTask = new Task.Modal(project, "Parsing trace file", false) {
+    final Task.Backgroundable parseTask = new Task.Backgroundable(project, "Parsing trace file", false) {
       @Override
       public void run(@NotNull ProgressIndicator indicator) {
         indicator.setIndeterminate(true);
@@ -76,10 +79,13 @@ public class VmTraceEditor implements FileEditor {
         }
 
         final VmTraceData vmTraceData = parser.getTraceData();
+        // Gather the statistics of all threads at once, so that switching threads does not go through the whole trace again
+        indicator.setText("Computing method statistics...");
+        final Map<ThreadInfo, ThreadStats> threadStats = ThreadStats.computeAll(vmTraceData, vmTraceData.getThreads(true));
         ApplicationManager.getApplication().invokeLater(new Runnable() {
           @Override
           public void run() {
-            myTraceViewPanel.setTrace(vmTraceData);
+            myTraceViewPanel.setTrace(vmTraceData, threadStats);
           }
         });
       }
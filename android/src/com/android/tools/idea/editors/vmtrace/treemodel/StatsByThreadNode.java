@@ -17,50 +17,42 @@
 package com.android.tools.idea.editors.vmtrace.treemodel;
 
 import com.android.tools.perflib.vmtrace.*;
-import com.google.common.collect.Lists;
-import com.google.common.primitives.Ints;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
-
 public class StatsByThreadNode extends AbstractProfileDataNode implements StatsNode {
   private final VmTraceData myTraceData;
   private final ThreadInfo myThread;
-  private final List<MethodInfo> myMethods;
+  private final ThreadStats myStats;
+  /** The method nodes, created when first shown, by index in {@link #myStats} */
+  private final StatsByMethodNode[] myChildren;
+  /** Indices of the children in display order */
+  private Integer[] myOrder;
 
   public StatsByThreadNode(@NotNull VmTraceData traceData, @NotNull ThreadInfo thread) {
+    this(traceData, ThreadStats.compute(traceData, thread));
+  }
+
+  public StatsByThreadNode(@NotNull VmTraceData traceData, @NotNull ThreadStats stats) {
     myTraceData = traceData;
-    myThread = thread;
-    myMethods = getMethodsInThread(traceData, myThread);
+    myThread = stats.getThread();
+    myStats = stats;
+    myChildren = new StatsByMethodNode[stats.getMethodCount()];
     setSortColumn(StatsTableColumn.INCLUSIVE_TIME, false);
   }
 
   @Override
   public synchronized int getChildCount() {
-    return myMethods.size();
-  }
-
-  @NotNull
-  private static List<MethodInfo> getMethodsInThread(final VmTraceData traceData, final ThreadInfo thread) {
-    List<MethodInfo> results = Lists.newArrayList();
-
-    for (MethodInfo info : traceData.getMethods().values()) {
-        if (info.getProfileData().getInvocationCount(thread) > 0) {
-          results.add(info);
-        }
-    }
-
-    return results;
+    return myOrder.length;
   }
 
   @Override
-  public Object getChild(int index) {
-    MethodInfo method = myMethods.get(index);
-    return new StatsByMethodNode(method);
+  public synchronized Object getChild(int index) {
+    int method = myOrder[index];
+    if (myChildren[method] == null) {
+      myChildren[method] = new StatsByMethodNode(myStats.getMethod(method));
+    }
+    return myChildren[method];
   }
 
   @Override
@@ -94,33 +86,8 @@ public class StatsByThreadNode extends AbstractProfileDataNode implements StatsN
   }
 
   @Override
-  public void setSortColumn(final StatsTableColumn sortByColumn, final boolean sortAscending) {
-    Collections.sort(myMethods, new Comparator<MethodInfo>() {
-      @Override
-      public int compare(MethodInfo m1, MethodInfo m2) {
-        int diff;
-        switch (sortByColumn) {
-          case NAME:
-            diff = m1.getFullName().compareTo(m2.getFullName());
-            break;
-          case INVOCATION_COUNT:
-            diff = Ints.saturatedCast(m1.getProfileData().getInvocationCount(myThread) - m2.getProfileData().getInvocationCount(myThread));
-            break;
-          case INCLUSIVE_TIME:
-            diff = Ints.saturatedCast(m1.getProfileData().getInclusiveTime(myThread, ClockType.GLOBAL, TimeUnit.MICROSECONDS) -
-                   m2.getProfileData().getInclusiveTime(myThread, ClockType.GLOBAL, TimeUnit.MICROSECONDS));
-            break;
-          case EXCLUSIVE_TIME:
-            diff = Ints.saturatedCast(m1.getProfileData().getExclusiveTime(myThread, ClockType.GLOBAL, TimeUnit.MICROSECONDS) -
-                                      m2.getProfileData().getExclusiveTime(myThread, ClockType.GLOBAL, TimeUnit.MICROSECONDS));
-            break;
-          default:
-            diff = 0;
-        }
-
-        return sortAscending ? diff : -diff;
-      }
-    });
+  public synchronized void setSortColumn(final StatsTableColumn sortByColumn, final boolean sortAscending) {
+    myOrder = myStats.getSortedIndices(sortByColumn, sortAscending);
   }
 
   @Override
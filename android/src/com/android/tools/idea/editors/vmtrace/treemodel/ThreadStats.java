@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.vmtrace.treemodel;
+
+import com.android.tools.perflib.vmtrace.*;
+import com.intellij.openapi.application.ApplicationManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per method statistics of one thread of a trace, gathered once into primitive arrays so that sorting and rendering
+ * them does not go through the profile data maps of every method again.
+ */
+public class ThreadStats {
+  @NotNull private final ThreadInfo myThread;
+  @NotNull private final MethodInfo[] myMethods;
+  @NotNull private final long[] myInvocationCounts;
+  /** Inclusive and exclusive times in nanoseconds, indexed by clock type ordinal and then by method */
+  @NotNull private final long[][] myInclusiveTimes;
+  @NotNull private final long[][] myExclusiveTimes;
+
+  private ThreadStats(@NotNull ThreadInfo thread,
+                      @NotNull MethodInfo[] methods,
+                      @NotNull long[] invocationCounts,
+                      @NotNull long[][] inclusiveTimes,
+                      @NotNull long[][] exclusiveTimes) {
+    myThread = thread;
+    myMethods = methods;
+    myInvocationCounts = invocationCounts;
+    myInclusiveTimes = inclusiveTimes;
+    myExclusiveTimes = exclusiveTimes;
+  }
+
+  @NotNull
+  public static ThreadStats compute(@NotNull VmTraceData traceData, @NotNull ThreadInfo thread) {
+    List<MethodInfo> methods = new ArrayList<MethodInfo>();
+    for (MethodInfo info : traceData.getMethods().values()) {
+      if (info.getProfileData().getInvocationCount(thread) > 0) {
+        methods.add(info);
+      }
+    }
+
+    int size = methods.size();
+    ClockType[] clocks = ClockType.values();
+    long[] invocationCounts = new long[size];
+    long[][] inclusiveTimes = new long[clocks.length][size];
+    long[][] exclusiveTimes = new long[clocks.length][size];
+    for (int i = 0; i < size; i++) {
+      MethodProfileData profileData = methods.get(i).getProfileData();
+      invocationCounts[i] = profileData.getInvocationCount(thread);
+      for (ClockType clock : clocks) {
+        inclusiveTimes[clock.ordinal()][i] = profileData.getInclusiveTime(thread, clock, TimeUnit.NANOSECONDS);
+        exclusiveTimes[clock.ordinal()][i] = profileData.getExclusiveTime(thread, clock, TimeUnit.NANOSECONDS);
+      }
+    }
+    return new ThreadStats(thread, methods.toArray(new MethodInfo[size]), invocationCounts, inclusiveTimes, exclusiveTimes);
+  }
+
+  /** Computes the statistics of the given threads, in parallel */
+  @NotNull
+  public static Map<ThreadInfo, ThreadStats> computeAll(@NotNull final VmTraceData traceData, @NotNull List<ThreadInfo> threads) {
+    Map<ThreadInfo, Future<ThreadStats>> futures = new LinkedHashMap<ThreadInfo, Future<ThreadStats>>();
+    for (final ThreadInfo thread : threads) {
+      futures.put(thread, ApplicationManager.getApplication().executeOnPooledThread(new Callable<ThreadStats>() {
+        @Override
+        public ThreadStats call() {
+          return compute(traceData, thread);
+        }
+      }));
+    }
+
+    Map<ThreadInfo, ThreadStats> result = new HashMap<ThreadInfo, ThreadStats>();
+    try {
+      for (Map.Entry<ThreadInfo, Future<ThreadStats>> entry : futures.entrySet()) {
+        result.put(entry.getKey(), entry.getValue().get());
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return result;
+  }
+
+  @NotNull
+  public ThreadInfo getThread() {
+    return myThread;
+  }
+
+  public int getMethodCount() {
+    return myMethods.length;
+  }
+
+  @NotNull
+  public MethodInfo getMethod(int index) {
+    return myMethods[index];
+  }
+
+  public long getInvocationCount(int index) {
+    return myInvocationCounts[index];
+  }
+
+  public long getInclusiveTime(int index, @NotNull ClockType clock) {
+    return myInclusiveTimes[clock.ordinal()][index];
+  }
+
+  public long getExclusiveTime(int index, @NotNull ClockType clock) {
+    return myExclusiveTimes[clock.ordinal()][index];
+  }
+
+  /** Returns the method indices, ordered by the given column using the global clock */
+  @NotNull
+  public Integer[] getSortedIndices(@NotNull final StatsTableColumn column, final boolean ascending) {
+    Integer[] indices = new Integer[myMethods.length];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = i;
+    }
+    final int global = ClockType.GLOBAL.ordinal();
+    Arrays.sort(indices, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int diff;
+        switch (column) {
+          case NAME:
+            diff = myMethods[a].getFullName().compareTo(myMethods[b].getFullName());
+            break;
+          case INVOCATION_COUNT:
+            diff = compareLongs(myInvocationCounts[a], myInvocationCounts[b]);
+            break;
+          case INCLUSIVE_TIME:
+            diff = compareLongs(myInclusiveTimes[global][a], myInclusiveTimes[global][b]);
+            break;
+          case EXCLUSIVE_TIME:
+            diff = compareLongs(myExclusiveTimes[global][a], myExclusiveTimes[global][b]);
+            break;
+          default:
+            diff = 0;
+        }
+        return ascending ? diff : -diff;
+      }
+    });
+    return indices;
+  }
+
+  private static int compareLongs(long a, long b) {
+    return a < b ? -1 : (a == b ? 0 : 1);
+  }
+}
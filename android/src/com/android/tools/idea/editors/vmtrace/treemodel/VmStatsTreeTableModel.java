@@ -30,6 +30,9 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A {@link TreeTableModel} for viewing method statistics from a VM Trace.
@@ -38,6 +41,8 @@ import javax.swing.event.TreeModelListener;
  */
 public class VmStatsTreeTableModel extends AbstractTreeTableModel implements TreeTableModel {
   private VmTraceData myVmTraceData;
+  /** Statistics of the threads of the trace which have been shown or computed ahead */
+  private final Map<ThreadInfo, ThreadStats> myThreadStats = new HashMap<ThreadInfo, ThreadStats>();
   private StatsNode myRootNode;
   private ThreadInfo myThread;
   private ClockType myClockType = ClockType.GLOBAL;
@@ -50,7 +55,17 @@ public class VmStatsTreeTableModel extends AbstractTreeTableModel implements Tre
   }
 
   public void setTraceData(@NotNull VmTraceData traceData, @NotNull ThreadInfo thread) {
+    setTraceData(traceData, thread, Collections.<ThreadInfo, ThreadStats>emptyMap());
+  }
+
+  /**
+   * Sets the trace to show, along with the statistics of those of its threads which were computed ahead, see
+   * {@link ThreadStats#computeAll}. The statistics of the other threads are computed when they are first shown.
+   */
+  public void setTraceData(@NotNull VmTraceData traceData, @NotNull ThreadInfo thread, @NotNull Map<ThreadInfo, ThreadStats> threadStats) {
     myVmTraceData = traceData;
+    myThreadStats.clear();
+    myThreadStats.putAll(threadStats);
     setThread(thread);
   }
 
@@ -62,7 +77,12 @@ public class VmStatsTreeTableModel extends AbstractTreeTableModel implements Tre
   public void setThread(@NotNull ThreadInfo thread) {
     myThread = thread;
     if (myVmTraceData != null) {
-      myRootNode = new StatsByThreadNode(myVmTraceData, thread);
+      ThreadStats stats = myThreadStats.get(thread);
+      if (stats == null) {
+        stats = ThreadStats.compute(myVmTraceData, thread);
+        myThreadStats.put(thread, stats);
+      }
+      myRootNode = new StatsByThreadNode(myVmTraceData, stats);
     } else {
       myRootNode = new NullStatsNode();
     }
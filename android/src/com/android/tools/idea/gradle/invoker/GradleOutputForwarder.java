@@ -19,6 +19,7 @@ import com.android.tools.idea.gradle.invoker.console.view.GradleConsoleView;
 import com.android.utils.SdkUtils;
 import com.google.common.io.Closeables;
 import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.util.Consumer;
 import org.gradle.tooling.BuildLauncher;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -31,21 +32,22 @@ import static com.intellij.execution.ui.ConsoleViewContentType.ERROR_OUTPUT;
 import static com.intellij.execution.ui.ConsoleViewContentType.NORMAL_OUTPUT;
 
 /**
- * Collects and redirects the output to the "Gradle Console" view.
+ * Redirects the output to the "Gradle Console" view, and hands it to an optional consumer as it arrives. Only the output to stderr
+ * is collected.
  */
 class GradleOutputForwarder {
   private static final int SIZE = 2048;
 
   @NotNull private final ByteArrayOutputStream myStdErr;
-  @NotNull private final ByteArrayOutputStream myOutput;
   @NotNull private final GradleConsoleView myConsoleView;
+  @Nullable private final Consumer<String> myOutputConsumer;
 
   private ConsoleViewContentType myPreviousContentType;
 
-  GradleOutputForwarder(@NotNull GradleConsoleView consoleView) {
+  GradleOutputForwarder(@NotNull GradleConsoleView consoleView, @Nullable Consumer<String> outputConsumer) {
     myConsoleView = consoleView;
+    myOutputConsumer = outputConsumer;
     myStdErr = new ByteArrayOutputStream(SIZE);
-    myOutput = new ByteArrayOutputStream(SIZE * 2);
   }
 
   void attachTo(@NotNull BuildLauncher launcher, @Nullable Listener listener) {
@@ -58,7 +60,6 @@ class GradleOutputForwarder {
 
   void close() {
     try {
-      Closeables.close(myOutput, true /* swallowIOException */);
       Closeables.close(myStdErr, true /* swallowIOException */);
     } catch (IOException e) {
       // Cannot happen
@@ -81,25 +82,24 @@ class GradleOutputForwarder {
     String lineSeparator = SdkUtils.getLineSeparator();
     boolean newLineAdded = false;
     if (addNewLine) {
-      byte[] bytes = lineSeparator.getBytes();
-      myOutput.write(bytes, 0, bytes.length);
-      myConsoleView.print(lineSeparator, contentType);
+      print(lineSeparator, contentType);
       newLineAdded = true;
     }
     String text = new String(b, off, len);
     if (lineSeparator.equals(text) && newLineAdded) {
       return;
     }
-    myOutput.write(b, off, len);
     if (contentType == ERROR_OUTPUT) {
       myStdErr.write(b, off, len);
     }
-    myConsoleView.print(text, contentType);
+    print(text, contentType);
   }
 
-  @Override
-  public String toString() {
-    return myOutput.toString();
+  private void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+    myConsoleView.print(text, contentType);
+    if (myOutputConsumer != null) {
+      myOutputConsumer.consume(text);
+    }
   }
 
   interface Listener {
@@ -26,7 +26,7 @@ import com.android.tools.idea.gradle.facet.AndroidGradleFacet;
 import com.android.tools.idea.gradle.invoker.console.view.GradleConsoleToolWindowFactory;
 import com.android.tools.idea.gradle.invoker.console.view.GradleConsoleView;
 import com.android.tools.idea.gradle.invoker.messages.GradleBuildTreeViewPanel;
-import com.android.tools.idea.gradle.output.parser.BuildOutputParser;
+import com.android.tools.idea.gradle.output.parser.IncrementalBuildOutputParser;
 import com.android.tools.idea.gradle.service.notification.errors.AbstractSyncErrorHandler;
 import com.android.tools.idea.gradle.util.AndroidGradleSettings;
 import com.android.tools.idea.sdk.IdeSdks;
@@ -279,7 +279,20 @@ class GradleTasksExecutor extends Task.Backgroundable {
         consoleView.print(executingTasksText + SystemProperties.getLineSeparator() + SystemProperties.getLineSeparator(), NORMAL_OUTPUT);
         addToEventLog(executingTasksText, INFO);
 
-        GradleOutputForwarder output = new GradleOutputForwarder(consoleView);
+        // Messages are shown as soon as the output of each task has been parsed, rather than once the build is finished
+        final IncrementalBuildOutputParser outputParser = new IncrementalBuildOutputParser(getOutputParsers());
+        final List<Message> buildMessages = Collections.synchronizedList(Lists.<Message>newArrayList());
+        String testOutput = getGuiTestBuildOutput();
+        Consumer<String> outputConsumer = null;
+        if (testOutput == null) {
+          outputConsumer = new Consumer<String>() {
+            @Override
+            public void consume(String text) {
+              showMessages(outputParser.append(text), buildMessages);
+            }
+          };
+        }
+        GradleOutputForwarder output = new GradleOutputForwarder(consoleView, outputConsumer);
 
         BuildException buildError = null;
         final ExternalSystemTaskId id = myContext.getTaskId();
@@ -339,16 +352,11 @@ class GradleTasksExecutor extends Task.Backgroundable {
         }
         finally {
           myContext.dropCancellationInfoFor(id);
-          String gradleOutput = output.toString();
           Application application = ApplicationManager.getApplication();
-          if (isGuiTestingMode()) {
-            String testOutput = application.getUserData(GRADLE_BUILD_OUTPUT_IN_GUI_TEST_KEY);
-            if (isNotEmpty(testOutput)) {
-              gradleOutput = testOutput;
-              application.putUserData(GRADLE_BUILD_OUTPUT_IN_GUI_TEST_KEY, null);
-            }
+          if (testOutput != null) {
+            showMessages(outputParser.append(testOutput), buildMessages);
           }
-          List<Message> buildMessages = Lists.newArrayList(showMessages(gradleOutput));
+          showMessages(outputParser.finish(), buildMessages);
           if (myErrorCount == 0 && buildError != null && !hasCause(buildError, BuildCancelledException.class)) {
             // Gradle throws BuildCancelledException when we cancel task execution. We don't want to force showing 'Messages' tool
             // window for that situation though.
@@ -454,13 +462,29 @@ class GradleTasksExecutor extends Task.Backgroundable {
   }
 
   @NotNull
-  private List<Message> showMessages(@NotNull String gradleOutput) {
-    Iterable<PatternAwareOutputParser> parsers = JpsServiceManager.getInstance().getExtensions(PatternAwareOutputParser.class);
-    List<Message> compilerMessages = new BuildOutputParser(parsers).parseGradleOutput(gradleOutput);
-    for (Message msg : compilerMessages) {
+  private static Iterable<PatternAwareOutputParser> getOutputParsers() {
+    return JpsServiceManager.getInstance().getExtensions(PatternAwareOutputParser.class);
+  }
+
+  /** Returns the output that GUI tests want the build to be considered to have produced, instead of its actual output */
+  @Nullable
+  private static String getGuiTestBuildOutput() {
+    if (isGuiTestingMode()) {
+      Application application = ApplicationManager.getApplication();
+      String testOutput = application.getUserData(GRADLE_BUILD_OUTPUT_IN_GUI_TEST_KEY);
+      if (isNotEmpty(testOutput)) {
+        application.putUserData(GRADLE_BUILD_OUTPUT_IN_GUI_TEST_KEY, null);
+        return testOutput;
+      }
+    }
+    return null;
+  }
+
+  private void showMessages(@NotNull List<Message> messages, @NotNull List<Message> buildMessages) {
+    for (Message msg : messages) {
       addMessage(msg, null);
     }
-    return compilerMessages;
+    buildMessages.addAll(messages);
   }
 
   /**
@@ -16,21 +16,46 @@
 package com.android.tools.idea.monitor;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.HierarchyEvent;
 import java.awt.event.HierarchyListener;
 
 public abstract class BaseMonitorView implements HierarchyListener, TimelineEventListener {
+  private static final int REFRESH_MS = 1000;
+
   @NotNull protected Project myProject;
   @NotNull protected JPanel myContentPane;
+  @NotNull private final JBLabel myLatencyLabel;
+  @NotNull private final Timer myRefreshTimer;
+  @Nullable private JComponent myTimelineComponent;
+  @Nullable private TimelineHistoryComponent myHistoryComponent;
+  private boolean myHistoryShown;
 
   protected BaseMonitorView(@NotNull Project project) {
     myProject = project;
     myContentPane = new JPanel(new BorderLayout());
     myContentPane.addHierarchyListener(this);
+
+    myLatencyLabel = new JBLabel();
+    myLatencyLabel.setForeground(UIUtil.getLabelDisabledForeground());
+    myLatencyLabel.setVisible(false);
+    myRefreshTimer = new Timer(REFRESH_MS, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        updateLatency();
+        if (myHistoryShown && myHistoryComponent != null) {
+          myHistoryComponent.repaint();
+        }
+      }
+    });
   }
 
   @Override
@@ -39,6 +64,20 @@ public abstract class BaseMonitorView implements HierarchyListener, TimelineEven
       if (!getSampler().isRunning()) {
         getSampler().start();
       }
+      if (isShowing()) {
+        myRefreshTimer.start();
+      }
+      else {
+        myRefreshTimer.stop();
+      }
+    }
+  }
+
+  private void updateLatency() {
+    long latency = getSampler().getLastLatencyMs();
+    myLatencyLabel.setVisible(latency >= 0);
+    if (latency >= 0) {
+      myLatencyLabel.setText("Device round trip: " + latency + " ms");
     }
   }
 
@@ -59,7 +98,36 @@ public abstract class BaseMonitorView implements HierarchyListener, TimelineEven
   }
 
   protected void setComponent(@NotNull JComponent component) {
+    myTimelineComponent = component;
+    updateContent();
+  }
+
+  /** Sets the component showing the long term history of the sampler, which can be shown instead of the timeline */
+  protected void setHistoryComponent(@NotNull TimelineHistoryComponent component) {
+    myHistoryComponent = component;
+  }
+
+  public boolean hasHistory() {
+    return myHistoryComponent != null;
+  }
+
+  public boolean isHistoryShown() {
+    return myHistoryShown;
+  }
+
+  public void setHistoryShown(boolean shown) {
+    myHistoryShown = shown && myHistoryComponent != null;
+    updateContent();
+  }
+
+  private void updateContent() {
     myContentPane.removeAll();
-    myContentPane.add(component, BorderLayout.CENTER);
+    JComponent component = myHistoryShown ? myHistoryComponent : myTimelineComponent;
+    if (component != null) {
+      myContentPane.add(component, BorderLayout.CENTER);
+    }
+    myContentPane.add(myLatencyLabel, BorderLayout.SOUTH);
+    myContentPane.revalidate();
+    myContentPane.repaint();
   }
 }
@@ -15,20 +15,26 @@
  */
 package com.android.tools.idea.monitor;
 
-import com.android.ddmlib.Client;
+import com.android.ddmlib.*;
 import com.android.tools.chartlib.TimelineData;
 import com.google.common.collect.Lists;
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Consumer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
-public abstract class DeviceSampler implements Runnable {
+/**
+ * Periodically samples some aspect of a client and adds the samples to a {@link TimelineData}. Samples are taken on the ticks
+ * of the {@link SamplerScheduler}. They are also added to a {@link TimelineHistory}, which keeps them at decreasing
+ * resolutions for as long as the client is monitored, and can optionally be recorded to a {@link MonitorCapture} file.
+ */
+public abstract class DeviceSampler {
   /**
    * Sample type when the device cannot be seen.
    */
@@ -46,29 +52,40 @@ public abstract class DeviceSampler implements Runnable {
    */
   public static final int INHERITED_TYPE_START = 3;
 
+  private static final Logger LOG = Logger.getInstance(DeviceSampler.class);
+
   @NotNull protected TimelineData myData;
+  @NotNull private final TimelineHistory myHistory = new TimelineHistory();
   @NotNull protected final List<TimelineEventListener> myListeners = Lists.newLinkedList();
   protected int mySampleFrequencyMs;
   /**
-   * The future representing the task being executed, which will return null upon successful completion.
-   * If null, no current task is being executed.
+   * The registration of this sampler with the {@link SamplerScheduler}, which is cancelled when the sampler stops.
+   * If null, the sampler is not running.
    */
-  @Nullable protected volatile Future<?> myExecutingTask;
+  @Nullable protected volatile SamplerScheduler.Registration myExecutingTask;
   @Nullable protected volatile Client myClient;
-  @NotNull private final Semaphore myDataSemaphore;
   protected volatile boolean myRunning;
+  private volatile long myLastLatencyMs = -1;
+  private volatile boolean myTimedOut;
+  private volatile long myTickTimeMs;
+
+  /** The time of the latest sample added to the history */
+  private long myLastSampleTime = Long.MIN_VALUE;
+  private final Object myRecordingLock = new Object();
+  @Nullable private MonitorCapture.Writer myRecorder; // guarded by myRecordingLock
+  @Nullable private File myRecordingFile; // guarded by myRecordingLock
+  @Nullable private Consumer<File> myRecordingConsumer; // guarded by myRecordingLock
 
   public DeviceSampler(@NotNull TimelineData data, int sampleFrequencyMs) {
     myData = data;
     mySampleFrequencyMs = sampleFrequencyMs;
-    myDataSemaphore = new Semaphore(0, true);
   }
 
   @SuppressWarnings("ConstantConditions")
   public void start() {
     if (myExecutingTask == null && myClient != null) {
       myRunning = true;
-      myExecutingTask = ApplicationManager.getApplication().executeOnPooledThread(this);
+      myExecutingTask = SamplerScheduler.getInstance().schedule(this, mySampleFrequencyMs);
       myClient.setHeapInfoUpdateEnabled(true);
 
       for (TimelineEventListener listener : myListeners) {
@@ -81,20 +98,15 @@ public abstract class DeviceSampler implements Runnable {
   public void stop() {
     if (myExecutingTask != null) {
       myRunning = false;
-      myDataSemaphore.release();
       myData.clear();
 
       try {
-        // Wait for the task to finish.
-        myExecutingTask.get();
+        // Wait for the running sample to finish.
+        myExecutingTask.cancel();
       }
       catch (InterruptedException e) {
         // Ignore
       }
-      catch (ExecutionException e) {
-        // Rethrow the original cause of the exception on this thread.
-        throw new RuntimeException(e.getCause());
-      }
 
       if (myClient != null) {
         myClient.setHeapInfoUpdateEnabled(false);
@@ -104,6 +116,14 @@ public abstract class DeviceSampler implements Runnable {
         listener.onStop();
       }
     }
+
+    // No more samples will be taken, so an active recording is complete
+    try {
+      stopRecording();
+    }
+    catch (IOException e) {
+      LOG.warn("Cannot record " + getDescription(), e);
+    }
   }
 
   public void setClient(@Nullable Client client) {
@@ -111,6 +131,7 @@ public abstract class DeviceSampler implements Runnable {
       stop();
       myClient = client;
       myData.clear();
+      myHistory.clear();
       start();
     }
   }
@@ -132,28 +153,172 @@ public abstract class DeviceSampler implements Runnable {
   }
 
   protected void forceSample() {
-    myDataSemaphore.release();
+    SamplerScheduler.Registration registration = myExecutingTask;
+    if (registration != null) {
+      registration.force();
+    }
   }
 
-  @Override
-  public void run() {
-    long timeToWait = mySampleFrequencyMs;
-    while (myRunning) {
-      try {
-        long start = System.currentTimeMillis();
-        boolean acquired = myDataSemaphore.tryAcquire(timeToWait, TimeUnit.MILLISECONDS);
-        if (myRunning) {
-          sample(acquired);
+  /**
+   * Returns the time of the tick the current sample is taken for. Samples taken for the same tick by different samplers get
+   * the same time.
+   */
+  protected long getSampleTime() {
+    return myTickTimeMs;
+  }
+
+  /**
+   * Runs a shell command on the device through its {@link DeviceShellAgent}, which batches the commands of all the samplers
+   * of the device into a single adb shell round trip, and records the round trip time of the batch.
+   */
+  protected void executeShellCommand(@NotNull IDevice device, @NotNull String command, @NotNull IShellOutputReceiver receiver,
+                                     long timeout, @NotNull TimeUnit unit)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
+    executeShellCommands(device, new String[]{command}, new IShellOutputReceiver[]{receiver}, timeout, unit);
+  }
+
+  /** Runs several shell commands in the same batch, see {@link #executeShellCommand} */
+  protected void executeShellCommands(@NotNull IDevice device, @NotNull String[] commands, @NotNull IShellOutputReceiver[] receivers,
+                                      long timeout, @NotNull TimeUnit unit)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
+    DeviceShellAgent agent = DeviceShellAgent.getInstance(device);
+    try {
+      agent.execute(device, commands, receivers, timeout, unit);
+    }
+    catch (TimeoutException e) {
+      myTimedOut = true;
+      throw e;
+    }
+    catch (ShellCommandUnresponsiveException e) {
+      myTimedOut = true;
+      throw e;
+    }
+    myLastLatencyMs = agent.getLastLatencyMs();
+  }
+
+  /**
+   * Returns the round trip time in milliseconds of the last shell commands run by this sampler, or -1 if the sampler does
+   * not run shell commands
+   */
+  public long getLastLatencyMs() {
+    return myLastLatencyMs;
+  }
+
+  /**
+   * Takes a sample for the tick at the given time, and returns whether the device did not respond in time. Called by the
+   * {@link SamplerScheduler}, never concurrently.
+   */
+  boolean tick(boolean forced, long timeMs) throws InterruptedException {
+    myTickTimeMs = timeMs;
+    myTimedOut = false;
+    if (myRunning) {
+      sample(forced);
+      addNewSamples();
+    }
+    return myTimedOut;
+  }
+
+  /**
+   * Starts writing the samples taken from now on to the given file, with the given names for the streams of the data. When the
+   * recording stops, either through {@link #stopRecording} or because the sampler is stopped, the complete file is passed to the
+   * given consumer, on the thread which stopped it.
+   */
+  public void startRecording(@NotNull File file, @NotNull Consumer<File> consumer, @NotNull String... streamNames)
+    throws IOException {
+    stopRecording();
+    synchronized (myRecordingLock) {
+      myRecorder = new MonitorCapture.Writer(file, getName(), streamNames, SamplerScheduler.getInstance().currentTimeMs());
+      myRecordingFile = file;
+      myRecordingConsumer = consumer;
+    }
+  }
+
+  /**
+   * Stops recording, if the sampler is recording, and passes the file the samples were written to to the consumer given to
+   * {@link #startRecording}. If the file cannot be completed, it is deleted instead.
+   */
+  public void stopRecording() throws IOException {
+    MonitorCapture.Writer recorder;
+    File file;
+    Consumer<File> consumer;
+    synchronized (myRecordingLock) {
+      recorder = myRecorder;
+      file = myRecordingFile;
+      consumer = myRecordingConsumer;
+      myRecorder = null;
+      myRecordingFile = null;
+      myRecordingConsumer = null;
+    }
+    if (recorder == null || file == null || consumer == null) {
+      return;
+    }
+    try {
+      recorder.close();
+    }
+    catch (IOException e) {
+      FileUtil.delete(file);
+      throw e;
+    }
+    consumer.consume(file);
+  }
+
+  /** Ends the recording without passing its file on, since the file could not be written */
+  private void discardRecording() {
+    synchronized (myRecordingLock) {
+      if (myRecorder != null) {
+        try {
+          myRecorder.close();
         }
-        timeToWait -= System.currentTimeMillis() - start;
-        if (timeToWait <= 0) {
-          timeToWait = mySampleFrequencyMs;
+        catch (IOException ignored) {
         }
       }
-      catch (InterruptedException e) {
-        myRunning = false;
+      if (myRecordingFile != null) {
+        FileUtil.delete(myRecordingFile);
+      }
+      myRecorder = null;
+      myRecordingFile = null;
+      myRecordingConsumer = null;
+    }
+  }
+
+  public boolean isRecording() {
+    synchronized (myRecordingLock) {
+      return myRecorder != null;
+    }
+  }
+
+  /** Returns the samples taken since the client was selected, kept for much longer than the timeline's data */
+  @NotNull
+  public TimelineHistory getHistory() {
+    return myHistory;
+  }
+
+  /** Adds the samples added to the timeline data by the last call to {@link #sample} to the history and the recording */
+  private void addNewSamples() {
+    int size = myData.size();
+    int first = size;
+    while (first > 0 && myData.get(first - 1).time > myLastSampleTime) {
+      first--;
+    }
+    if (first == size) {
+      return;
+    }
+    synchronized (myRecordingLock) {
+      for (int i = first; i < size; i++) {
+        TimelineData.Sample sample = myData.get(i);
+        myHistory.add(sample.time, sample.values);
+        if (myRecorder != null) {
+          try {
+            myRecorder.add(sample.time, sample.type, sample.values);
+          }
+          catch (IOException e) {
+            LOG.warn("Cannot record " + getDescription(), e);
+            discardRecording();
+          }
+        }
       }
     }
+    myLastSampleTime = myData.get(size - 1).time;
   }
 
   @NotNull
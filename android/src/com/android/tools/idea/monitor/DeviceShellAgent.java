@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.ddmlib.*;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the shell commands of all the samplers monitoring a device over as few adb connections as possible.
+ * <p/>
+ * Every shell command run through ddmlib opens a new adb connection, and each monitor used to run one or two commands per
+ * tick. The agent instead collects the commands issued by the samplers of a device within a short window, runs them as a
+ * single shell command separated by marker lines, and hands each sampler's receiver only its own part of the output. At most
+ * one batch runs per device at a time; commands issued while a batch is running are collected into the next batch.
+ * <p/>
+ * Each command keeps its own timeout within a batch. A command which times out fails on its own, and the commands after it
+ * are run again in a new batch.
+ */
+public class DeviceShellAgent {
+  /**
+   * How long the first command of a batch waits for the commands of other samplers. The window ends as soon as as many
+   * samplers joined the batch as issued commands on the previous tick, so a device with a single sampler never waits.
+   */
+  private static final long BATCH_WINDOW_MS = 20;
+
+  @VisibleForTesting
+  static final String END_MARKER = "__adt_monitor_end__";
+
+  private static final Map<IDevice, DeviceShellAgent> ourAgents =
+    Collections.synchronizedMap(new WeakHashMap<IDevice, DeviceShellAgent>());
+
+  private final Object myLock = new Object();
+  @Nullable private Batch myPendingBatch; // guarded by myLock
+  private boolean myBatchRunning; // guarded by myLock
+  /** Start of the current tick, i.e. the arrival of the first caller after a pause of at least the batch window */
+  private long myTickStartNs; // guarded by myLock
+  private int myTickCallers; // guarded by myLock
+  private int myLastTickCallers; // guarded by myLock
+  private volatile long myLastLatencyMs = -1;
+
+  @NotNull
+  public static DeviceShellAgent getInstance(@NotNull IDevice device) {
+    synchronized (ourAgents) {
+      DeviceShellAgent agent = ourAgents.get(device);
+      if (agent == null) {
+        // The agent does not reference the device, such that the device can be collected once disconnected
+        agent = new DeviceShellAgent();
+        ourAgents.put(device, agent);
+      }
+      return agent;
+    }
+  }
+
+  /**
+   * Runs the given command as part of the next batch of commands for the device, and waits for the batch to finish. This
+   * is a drop-in replacement for {@link IDevice#executeShellCommand(String, IShellOutputReceiver, long, TimeUnit)}.
+   */
+  public void execute(@NotNull IDevice device, @NotNull String command, @NotNull IShellOutputReceiver receiver, long timeout,
+                      @NotNull TimeUnit unit)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
+    execute(device, new String[]{command}, new IShellOutputReceiver[]{receiver}, timeout, unit);
+  }
+
+  /** Runs the given commands, each with the receiver at the same index, as part of the same batch */
+  public void execute(@NotNull IDevice device, @NotNull String[] commands, @NotNull IShellOutputReceiver[] receivers, long timeout,
+                      @NotNull TimeUnit unit)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException, InterruptedException {
+    assert commands.length == receivers.length;
+    long timeoutMs = unit.toMillis(timeout);
+    // The batch before this one may still be running, so allow for two timeouts before giving up on the batch
+    long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS + 2 * timeoutMs);
+    List<Request> requests = Lists.newArrayListWithCapacity(commands.length);
+    for (int i = 0; i < commands.length; i++) {
+      requests.add(new Request(commands[i], receivers[i], timeoutMs));
+    }
+
+    Batch batch;
+    boolean leader;
+    int expectedCallers;
+    synchronized (myLock) {
+      long now = System.nanoTime();
+      if (myTickCallers == 0 || now - myTickStartNs > TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS)) {
+        myLastTickCallers = myTickCallers;
+        myTickCallers = 0;
+        myTickStartNs = now;
+      }
+      myTickCallers++;
+      expectedCallers = myLastTickCallers;
+
+      leader = myPendingBatch == null;
+      if (leader) {
+        myPendingBatch = new Batch();
+      }
+      batch = myPendingBatch;
+      batch.myRequests.addAll(requests);
+      batch.myCallers++;
+      myLock.notifyAll();
+    }
+
+    if (!leader) {
+      long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime());
+      if (!batch.myDone.await(Math.max(0, remainingMs), TimeUnit.MILLISECONDS)) {
+        for (Request request : requests) {
+          request.myAbandoned = true;
+        }
+        throw new TimeoutException("The shell commands of the device did not complete in time");
+      }
+      rethrow(requests);
+      return;
+    }
+
+    boolean interrupted = false;
+    boolean stuck = false;
+    synchronized (myLock) {
+      long windowEndNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+      while (!interrupted) {
+        long now = System.nanoTime();
+        long waitNs;
+        if (myBatchRunning) {
+          // Commands keep joining this batch while the previous batch runs
+          waitNs = deadlineNs - now;
+          if (waitNs <= 0) {
+            stuck = true;
+            break;
+          }
+        }
+        else {
+          waitNs = windowEndNs - now;
+          if (batch.myCallers >= expectedCallers || waitNs <= 0) {
+            break;
+          }
+        }
+        try {
+          myLock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNs)));
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      myPendingBatch = null;
+      if (!stuck) {
+        myBatchRunning = true;
+      }
+    }
+    try {
+      if (stuck) {
+        batch.fail(new TimeoutException("The previous shell commands of the device did not complete in time"));
+      }
+      else {
+        long start = System.nanoTime();
+        batch.run(device);
+        myLastLatencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      }
+    }
+    finally {
+      if (!stuck) {
+        synchronized (myLock) {
+          myBatchRunning = false;
+          myLock.notifyAll();
+        }
+      }
+      batch.myDone.countDown();
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    rethrow(requests);
+  }
+
+  /** Returns the round trip time of the last batch run on the device, or -1 if no batch has been run yet */
+  public long getLastLatencyMs() {
+    return myLastLatencyMs;
+  }
+
+  /** Throws the error of the first of the given requests which failed */
+  private static void rethrow(@NotNull List<Request> requests)
+    throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+    for (Request request : requests) {
+      Exception error = request.myError;
+      if (error instanceof TimeoutException) {
+        throw (TimeoutException)error;
+      }
+      if (error instanceof AdbCommandRejectedException) {
+        throw (AdbCommandRejectedException)error;
+      }
+      if (error instanceof ShellCommandUnresponsiveException) {
+        throw (ShellCommandUnresponsiveException)error;
+      }
+      if (error instanceof IOException) {
+        throw (IOException)error;
+      }
+      if (error != null) {
+        throw new RuntimeException(error);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static final class Request {
+    @NotNull final String myCommand;
+    @NotNull final IShellOutputReceiver myReceiver;
+    final long myTimeoutMs;
+    @Nullable volatile Exception myError;
+    /** Set when the caller stopped waiting for the request, after which its output is dropped */
+    volatile boolean myAbandoned;
+
+    Request(@NotNull String command, @NotNull IShellOutputReceiver receiver, long timeoutMs) {
+      myCommand = command;
+      myReceiver = receiver;
+      myTimeoutMs = timeoutMs;
+    }
+  }
+
+  private static final class Batch {
+    final List<Request> myRequests = Lists.newArrayList();
+    final CountDownLatch myDone = new CountDownLatch(1);
+    int myCallers;
+
+    void run(@NotNull IDevice device) {
+      List<Request> requests = Lists.newArrayListWithCapacity(myRequests.size());
+      for (Request request : myRequests) {
+        if (!request.myAbandoned) {
+          requests.add(request);
+        }
+      }
+      while (!requests.isEmpty()) {
+        int completed = runOnce(device, requests);
+        requests = requests.subList(completed, requests.size());
+      }
+    }
+
+    void fail(@NotNull Exception error) {
+      for (Request request : myRequests) {
+        request.myError = error;
+      }
+    }
+  }
+
+  /**
+   * Runs the given requests as one shell command, and returns the number of requests which completed or failed. The requests
+   * after those need to be run again.
+   */
+  @VisibleForTesting
+  static int runOnce(@NotNull IDevice device, @NotNull List<Request> requests) {
+    if (requests.size() == 1) {
+      Request request = requests.get(0);
+      try {
+        device.executeShellCommand(request.myCommand, request.myReceiver, request.myTimeoutMs, TimeUnit.MILLISECONDS);
+      }
+      catch (Exception e) {
+        request.myError = e;
+      }
+      return 1;
+    }
+
+    long timeoutMs = 0;
+    for (Request request : requests) {
+      timeoutMs = Math.max(timeoutMs, request.myTimeoutMs);
+    }
+    DemultiplexingReceiver receiver = new DemultiplexingReceiver(requests);
+    Exception error = null;
+    try {
+      // The receiver enforces the timeout of each request; this is only the timeout of the slowest one
+      device.executeShellCommand(getCommand(requests), receiver, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    catch (Exception e) {
+      error = e;
+    }
+    int index = receiver.getIndex();
+    if (receiver.isTimedOut()) {
+      requests.get(index).myError = new ShellCommandUnresponsiveException();
+      return index + 1;
+    }
+    if (error == null || index >= requests.size()) {
+      return requests.size();
+    }
+    if (error instanceof ShellCommandUnresponsiveException || error instanceof TimeoutException) {
+      // Only the request which was running timed out
+      requests.get(index).myError = error;
+      return index + 1;
+    }
+    // The connection to the device failed, which would also fail the requests which did not run yet
+    for (int i = index; i < requests.size(); i++) {
+      requests.get(i).myError = error;
+    }
+    return requests.size();
+  }
+
+  @VisibleForTesting
+  @NotNull
+  static String getCommand(@NotNull List<Request> requests) {
+    StringBuilder sb = new StringBuilder();
+    for (Request request : requests) {
+      if (sb.length() > 0) {
+        sb.append(" ; ");
+      }
+      sb.append(request.myCommand).append(" ; echo ").append(END_MARKER);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Splits the output of a batch at the end markers, and passes each part to the receiver of the corresponding request. Cancels
+   * the batch when a request produces no output for longer than its timeout.
+   */
+  @VisibleForTesting
+  static final class DemultiplexingReceiver extends MultiLineReceiver {
+    private final List<Request> myRequests;
+    private volatile int myIndex;
+    private volatile long myLastOutputNs = System.nanoTime();
+    private volatile boolean myTimedOut;
+
+    DemultiplexingReceiver(@NotNull List<Request> requests) {
+      myRequests = requests;
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+      myLastOutputNs = System.nanoTime();
+      super.addOutput(data, offset, length);
+    }
+
+    @Override
+    public void processNewLines(String[] lines) {
+      for (String line : lines) {
+        int marker = line.indexOf(END_MARKER);
+        if (marker == -1) {
+          forward(line);
+          continue;
+        }
+        // Output without a trailing newline ends up in front of the marker
+        if (marker > 0) {
+          forward(line.substring(0, marker));
+        }
+        if (myIndex < myRequests.size()) {
+          myRequests.get(myIndex).myReceiver.flush();
+          myIndex++;
+        }
+      }
+    }
+
+    private void forward(@NotNull String line) {
+      if (myIndex < myRequests.size()) {
+        Request request = myRequests.get(myIndex);
+        IShellOutputReceiver receiver = request.myReceiver;
+        if (!request.myAbandoned && !receiver.isCancelled()) {
+          byte[] bytes = (line + '\n').getBytes(Charsets.UTF_8);
+          receiver.addOutput(bytes, 0, bytes.length);
+        }
+      }
+    }
+
+    @Override
+    public void done() {
+      if (myTimedOut) {
+        // The remaining requests are run again
+        return;
+      }
+      // Flush the receivers whose markers never arrived
+      for (; myIndex < myRequests.size(); myIndex++) {
+        myRequests.get(myIndex).myReceiver.flush();
+      }
+    }
+
+    @Override
+    public boolean isCancelled() {
+      int index = myIndex;
+      if (!myTimedOut && index < myRequests.size() &&
+          System.nanoTime() - myLastOutputNs > TimeUnit.MILLISECONDS.toNanos(myRequests.get(index).myTimeoutMs)) {
+        myTimedOut = true;
+      }
+      return myTimedOut;
+    }
+
+    /** Returns the index of the request whose output is being received */
+    int getIndex() {
+      return myIndex;
+    }
+
+    boolean isTimedOut() {
+      return myTimedOut;
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import gnu.trove.TFloatArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+
+/**
+ * The samples of a monitor recorded to a file.
+ * <p/>
+ * The file stores samples in blocks of up to {@link #BLOCK_SIZE} samples. Within a block each field is stored as a column:
+ * first the timestamps as variable length deltas (which take one or two bytes for samples taken at aligned ticks), then the
+ * sample types as variable length integers, and then the values of each stream as floats.
+ */
+public class MonitorCapture {
+  public static final String EXTENSION = ".mcap";
+
+  private static final int MAGIC = 0x4d434150; // MCAP
+  private static final int VERSION = 1;
+  private static final int BLOCK_SIZE = 256;
+
+  @NotNull private final String myName;
+  @NotNull private final String[] myStreamNames;
+  @NotNull private final TLongArrayList myTimes = new TLongArrayList();
+  @NotNull private final TIntArrayList myTypes = new TIntArrayList();
+  @NotNull private final TFloatArrayList[] myValues;
+
+  private MonitorCapture(@NotNull String name, @NotNull String[] streamNames) {
+    myName = name;
+    myStreamNames = streamNames;
+    myValues = new TFloatArrayList[streamNames.length];
+    for (int i = 0; i < myValues.length; i++) {
+      myValues[i] = new TFloatArrayList();
+    }
+  }
+
+  /** Returns the name of the sampler which recorded the capture */
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  @NotNull
+  public String[] getStreamNames() {
+    return myStreamNames;
+  }
+
+  public int size() {
+    return myTimes.size();
+  }
+
+  public long getTime(int sample) {
+    return myTimes.get(sample);
+  }
+
+  public int getType(int sample) {
+    return myTypes.get(sample);
+  }
+
+  public float getValue(int stream, int sample) {
+    return myValues[stream].get(sample);
+  }
+
+  @NotNull
+  public static MonitorCapture read(@NotNull InputStream input) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a monitor capture");
+    }
+    int version = in.readUnsignedShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported monitor capture version " + version);
+    }
+    String name = in.readUTF();
+    String[] streamNames = new String[in.readUnsignedByte()];
+    for (int i = 0; i < streamNames.length; i++) {
+      streamNames[i] = in.readUTF();
+    }
+    MonitorCapture capture = new MonitorCapture(name, streamNames);
+
+    long time = in.readLong();
+    while (true) {
+      int count = in.read();
+      if (count == -1) {
+        break;
+      }
+      count = count << 8 | in.readUnsignedByte();
+      for (int i = 0; i < count; i++) {
+        time += readVarLong(in);
+        capture.myTimes.add(time);
+      }
+      for (int i = 0; i < count; i++) {
+        capture.myTypes.add((int)readVarLong(in));
+      }
+      for (TFloatArrayList values : capture.myValues) {
+        for (int i = 0; i < count; i++) {
+          values.add(in.readFloat());
+        }
+      }
+    }
+    return capture;
+  }
+
+  private static long readVarLong(@NotNull DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long)(b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length value");
+  }
+
+  private static void writeVarLong(@NotNull DataOutput out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int)(value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int)value);
+  }
+
+  /** Writes samples to a capture file as they are taken. Samples have to be added in time order. */
+  public static class Writer implements Closeable {
+    @NotNull private final DataOutputStream myOut;
+    private final int myStreamCount;
+    private final long[] myTimes = new long[BLOCK_SIZE];
+    private final int[] myTypes = new int[BLOCK_SIZE];
+    private final float[][] myValues;
+    private int myCount;
+    private long myLastTime;
+
+    public Writer(@NotNull File file, @NotNull String name, @NotNull String[] streamNames, long startTime) throws IOException {
+      assert streamNames.length < 256;
+      myOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      myStreamCount = streamNames.length;
+      myValues = new float[myStreamCount][BLOCK_SIZE];
+      myLastTime = startTime;
+
+      myOut.writeInt(MAGIC);
+      myOut.writeShort(VERSION);
+      myOut.writeUTF(name);
+      myOut.writeByte(streamNames.length);
+      for (String streamName : streamNames) {
+        myOut.writeUTF(streamName);
+      }
+      myOut.writeLong(startTime);
+    }
+
+    public void add(long time, int type, @NotNull float[] values) throws IOException {
+      myTimes[myCount] = time;
+      myTypes[myCount] = type;
+      for (int i = 0; i < myStreamCount; i++) {
+        myValues[i][myCount] = i < values.length ? values[i] : 0;
+      }
+      if (++myCount == BLOCK_SIZE) {
+        flushBlock();
+      }
+    }
+
+    private void flushBlock() throws IOException {
+      if (myCount == 0) {
+        return;
+      }
+      myOut.writeShort(myCount);
+      for (int i = 0; i < myCount; i++) {
+        writeVarLong(myOut, Math.max(0, myTimes[i] - myLastTime));
+        myLastTime = Math.max(myLastTime, myTimes[i]);
+      }
+      for (int i = 0; i < myCount; i++) {
+        writeVarLong(myOut, myTypes[i] & 0xffffffffL);
+      }
+      for (float[] values : myValues) {
+        for (int i = 0; i < myCount; i++) {
+          myOut.writeFloat(values[i]);
+        }
+      }
+      myCount = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flushBlock();
+      }
+      finally {
+        myOut.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
+import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.FileEditorLocation;
+import com.intellij.openapi.fileEditor.FileEditorState;
+import com.intellij.openapi.fileEditor.FileEditorStateLevel;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Shows the samples of a {@link MonitorCapture}, one row per sample.
+ */
+public class MonitorCaptureEditor implements FileEditor {
+  private static final Logger LOG = Logger.getInstance(MonitorCaptureEditor.class);
+
+  private final JPanel myPanel;
+
+  public MonitorCaptureEditor(@NotNull VirtualFile file) {
+    myPanel = new JPanel(new BorderLayout());
+    try {
+      InputStream input = file.getInputStream();
+      MonitorCapture capture;
+      try {
+        capture = MonitorCapture.read(input);
+      }
+      finally {
+        input.close();
+      }
+      myPanel.add(new JBScrollPane(new JBTable(new SampleTableModel(capture))), BorderLayout.CENTER);
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      JLabel label = new JLabel("Cannot read monitor recording " + file.getPresentableUrl() + ": " + e.getMessage());
+      label.setHorizontalAlignment(SwingConstants.CENTER);
+      myPanel.add(label, BorderLayout.CENTER);
+    }
+  }
+
+  private static class SampleTableModel extends AbstractTableModel {
+    private static final int FIXED_COLUMNS = 2;
+
+    @NotNull private final MonitorCapture myCapture;
+
+    SampleTableModel(@NotNull MonitorCapture capture) {
+      myCapture = capture;
+    }
+
+    @Override
+    public int getRowCount() {
+      return myCapture.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return FIXED_COLUMNS + myCapture.getStreamNames().length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      switch (column) {
+        case 0:
+          return "Time (ms)";
+        case 1:
+          return "Type";
+        default:
+          return myCapture.getStreamNames()[column - FIXED_COLUMNS];
+      }
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      switch (column) {
+        case 0:
+          return Long.class;
+        case 1:
+          return Integer.class;
+        default:
+          return Float.class;
+      }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+      switch (column) {
+        case 0:
+          return myCapture.getTime(row) - myCapture.getTime(0);
+        case 1:
+          return myCapture.getType(row);
+        default:
+          return myCapture.getValue(column - FIXED_COLUMNS, row);
+      }
+    }
+  }
+
+  @NotNull
+  @Override
+  public JComponent getComponent() {
+    return myPanel;
+  }
+
+  @Nullable
+  @Override
+  public JComponent getPreferredFocusedComponent() {
+    return null;
+  }
+
+  @NotNull
+  @Override
+  public String getName() {
+    return "MonitorCaptureView";
+  }
+
+  @NotNull
+  @Override
+  public FileEditorState getState(@NotNull FileEditorStateLevel level) {
+    return FileEditorState.INSTANCE;
+  }
+
+  @Override
+  public void setState(@NotNull FileEditorState state) {
+  }
+
+  @Override
+  public boolean isModified() {
+    return false;
+  }
+
+  @Override
+  public boolean isValid() {
+    return true;
+  }
+
+  @Override
+  public void selectNotify() {
+  }
+
+  @Override
+  public void deselectNotify() {
+  }
+
+  @Override
+  public void addPropertyChangeListener(@NotNull PropertyChangeListener listener) {
+  }
+
+  @Override
+  public void removePropertyChangeListener(@NotNull PropertyChangeListener listener) {
+  }
+
+  @Nullable
+  @Override
+  public BackgroundEditorHighlighter getBackgroundHighlighter() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public FileEditorLocation getCurrentLocation() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public StructureViewBuilder getStructureViewBuilder() {
+    return null;
+  }
+
+  @Override
+  public void dispose() {
+  }
+
+  @Nullable
+  @Override
+  public <T> T getUserData(@NotNull Key<T> key) {
+    return null;
+  }
+
+  @Override
+  public <T> void putUserData(@NotNull Key<T> key, @Nullable T value) {
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.ddmlib.Client;
+import com.android.ddmlib.IDevice;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives all the {@link DeviceSampler}s from a single clock.
+ * <p/>
+ * Ticks are aligned to multiples of each sampler's period on a monotonic clock, so samplers with the same period sample at
+ * the same instants and their shell commands share a {@link DeviceShellAgent} batch. The clock thread only hands samples
+ * to pooled threads, so a sampler costs no thread between samples.
+ * <p/>
+ * A sampler which times out, or takes longer than its period, has its period doubled up to {@link #MAX_BACKOFF} times, and
+ * recovers step by step after successful samples. At most {@link #MAX_IN_FLIGHT_PER_DEVICE} samples of a device run at the
+ * same time; ticks are skipped while the device is saturated or while the previous sample of the sampler is still running.
+ */
+public class SamplerScheduler {
+  private static final Logger LOG = Logger.getInstance(SamplerScheduler.class);
+
+  @VisibleForTesting
+  static final int MAX_BACKOFF = 8;
+  @VisibleForTesting
+  static final int MAX_IN_FLIGHT_PER_DEVICE = 2;
+
+  private static final SamplerScheduler ourInstance = new SamplerScheduler();
+
+  @NotNull private final ScheduledExecutorService myClock = ConcurrencyUtil.newSingleScheduledThreadExecutor("Device Monitor Clock");
+  private final long myEpochNs = System.nanoTime();
+  private final long myEpochMs = System.currentTimeMillis();
+  /** Number of samples currently running per device */
+  private final Map<IDevice, Integer> myInFlight = new WeakHashMap<IDevice, Integer>(); // guarded by itself
+
+  @NotNull
+  public static SamplerScheduler getInstance() {
+    return ourInstance;
+  }
+
+  /** Returns the current time in milliseconds since the epoch, advancing with the monotonic clock the ticks are based on */
+  public long currentTimeMs() {
+    return toTimeMs(System.nanoTime() - myEpochNs);
+  }
+
+  private long toTimeMs(long clockNs) {
+    return myEpochMs + TimeUnit.NANOSECONDS.toMillis(clockNs);
+  }
+
+  /** Starts calling the sampler on every tick of the given period, until the returned registration is cancelled */
+  @NotNull
+  public Registration schedule(@NotNull DeviceSampler sampler, int periodMs) {
+    Registration registration = new Registration(sampler, TimeUnit.MILLISECONDS.toNanos(Math.max(1, periodMs)));
+    registration.scheduleNextTick();
+    return registration;
+  }
+
+  /** Returns the first tick of the given period after the given time, both relative to the clock's epoch */
+  @VisibleForTesting
+  static long getNextTick(long clockNs, long periodNs) {
+    return (clockNs / periodNs + 1) * periodNs;
+  }
+
+  @VisibleForTesting
+  static int getBackoff(int backoff, boolean timedOut) {
+    return timedOut ? Math.min(backoff * 2, MAX_BACKOFF) : Math.max(1, backoff / 2);
+  }
+
+  private boolean acquireDevice(@Nullable IDevice device) {
+    if (device == null) {
+      return true;
+    }
+    synchronized (myInFlight) {
+      Integer count = myInFlight.get(device);
+      int inFlight = count != null ? count : 0;
+      if (inFlight >= MAX_IN_FLIGHT_PER_DEVICE) {
+        return false;
+      }
+      myInFlight.put(device, inFlight + 1);
+      return true;
+    }
+  }
+
+  private void releaseDevice(@Nullable IDevice device) {
+    if (device == null) {
+      return;
+    }
+    synchronized (myInFlight) {
+      Integer count = myInFlight.get(device);
+      if (count == null || count <= 1) {
+        myInFlight.remove(device);
+      }
+      else {
+        myInFlight.put(device, count - 1);
+      }
+    }
+  }
+
+  public final class Registration {
+    @NotNull private final DeviceSampler mySampler;
+    private final long myPeriodNs;
+
+    // All guarded by this
+    private int myBackoff = 1;
+    private boolean myBusy;
+    private boolean myForcePending;
+    private boolean myCancelled;
+    @Nullable private ScheduledFuture<?> myNextTick;
+
+    private Registration(@NotNull DeviceSampler sampler, long periodNs) {
+      mySampler = sampler;
+      myPeriodNs = periodNs;
+    }
+
+    /** Runs a forced sample as soon as possible, after the running sample if there is one */
+    public void force() {
+      synchronized (this) {
+        if (myCancelled) {
+          return;
+        }
+        if (myBusy) {
+          myForcePending = true;
+          return;
+        }
+        myBusy = true;
+      }
+      dispatch(true, System.nanoTime() - myEpochNs, null);
+    }
+
+    /** Stops the ticks, and waits for the running sample to finish */
+    public void cancel() throws InterruptedException {
+      synchronized (this) {
+        myCancelled = true;
+        if (myNextTick != null) {
+          myNextTick.cancel(false);
+          myNextTick = null;
+        }
+        while (myBusy) {
+          wait();
+        }
+      }
+    }
+
+    private synchronized void scheduleNextTick() {
+      if (myCancelled) {
+        return;
+      }
+      long now = System.nanoTime() - myEpochNs;
+      final long tick = getNextTick(now, myPeriodNs * myBackoff);
+      myNextTick = myClock.schedule(new Runnable() {
+        @Override
+        public void run() {
+          tick(tick);
+        }
+      }, tick - now, TimeUnit.NANOSECONDS);
+    }
+
+    private void tick(long tickNs) {
+      Client client = mySampler.getClient();
+      IDevice device = client != null ? client.getDevice() : null;
+      synchronized (this) {
+        if (myCancelled) {
+          return;
+        }
+        if (!myBusy && acquireDevice(device)) {
+          myBusy = true;
+          dispatch(false, tickNs, device);
+        }
+      }
+      scheduleNextTick();
+    }
+
+    /** Runs a sample on a pooled thread, releasing the device slot acquired for it, if any, when done */
+    private void dispatch(final boolean forced, final long tickNs, @Nullable final IDevice device) {
+      ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          long start = System.nanoTime();
+          boolean timedOut = false;
+          try {
+            timedOut = mySampler.tick(forced, toTimeMs(tickNs));
+          }
+          catch (InterruptedException ignored) {
+          }
+          catch (RuntimeException e) {
+            LOG.warn("Error while sampling " + mySampler.getDescription(), e);
+          }
+          finally {
+            releaseDevice(device);
+            finished(timedOut, System.nanoTime() - start);
+          }
+        }
+      });
+    }
+
+    private void finished(boolean timedOut, long durationNs) {
+      synchronized (this) {
+        myBackoff = getBackoff(myBackoff, timedOut || durationNs > myPeriodNs * myBackoff);
+        boolean force = myForcePending && !myCancelled;
+        myForcePending = false;
+        if (!force) {
+          myBusy = false;
+          notifyAll();
+          return;
+        }
+      }
+      dispatch(true, System.nanoTime() - myEpochNs, null);
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.android.annotations.VisibleForTesting;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The long term history of a monitor, kept at decreasing resolutions in fixed size primitive arrays.
+ * <p/>
+ * The most recent samples are kept as they are. All samples are also rolled up into buckets of a second, ten seconds,
+ * a minute and ten minutes, each keeping the minimum, maximum and average of every stream. Each level is a ring of
+ * {@link #CAPACITY} entries, so the memory used is fixed no matter how long a monitor runs: with the default capacity the
+ * coarsest level covers four weeks. Queries pick the finest level which covers the requested time range with at most a
+ * couple of entries per pixel, so drawing the history takes the same time at any zoom level.
+ */
+public class TimelineHistory {
+  @VisibleForTesting
+  static final int CAPACITY = 4096;
+  @VisibleForTesting
+  static final long[] RESOLUTIONS_MS = {1000, 10 * 1000, 60 * 1000, 10 * 60 * 1000};
+
+  /** Receives the entries of a query in time order. The arrays are reused between calls. */
+  public interface Visitor {
+    void visit(long time, long duration, @NotNull float[] min, @NotNull float[] max, @NotNull float[] avg);
+  }
+
+  private final int myCapacity;
+  private int myStreamCount = -1;
+  // Raw samples, guarded by this
+  private long[] myTimes;
+  private float[][] myValues;
+  private int mySize;
+  private int myFirst;
+  private Level[] myLevels;
+  private float myMaxValue;
+
+  public TimelineHistory() {
+    this(CAPACITY);
+  }
+
+  @VisibleForTesting
+  TimelineHistory(int capacity) {
+    myCapacity = capacity;
+  }
+
+  public synchronized void add(long time, @NotNull float[] values) {
+    if (myStreamCount == -1) {
+      init(values.length);
+    }
+    int index = (myFirst + mySize) % myCapacity;
+    if (mySize == myCapacity) {
+      myFirst = (myFirst + 1) % myCapacity;
+    }
+    else {
+      mySize++;
+    }
+    myTimes[index] = time;
+    for (int i = 0; i < myStreamCount; i++) {
+      float value = i < values.length ? values[i] : 0;
+      myValues[i][index] = value;
+      myMaxValue = Math.max(myMaxValue, value);
+    }
+    for (Level level : myLevels) {
+      level.add(time, values);
+    }
+  }
+
+  public synchronized void clear() {
+    myStreamCount = -1;
+    myTimes = null;
+    myValues = null;
+    myLevels = null;
+    mySize = 0;
+    myFirst = 0;
+    myMaxValue = 0;
+  }
+
+  private void init(int streamCount) {
+    myStreamCount = streamCount;
+    myTimes = new long[myCapacity];
+    myValues = new float[streamCount][myCapacity];
+    myLevels = new Level[RESOLUTIONS_MS.length];
+    for (int i = 0; i < myLevels.length; i++) {
+      myLevels[i] = new Level(RESOLUTIONS_MS[i], streamCount, myCapacity);
+    }
+  }
+
+  public synchronized boolean isEmpty() {
+    return mySize == 0;
+  }
+
+  public synchronized int getStreamCount() {
+    return Math.max(0, myStreamCount);
+  }
+
+  /** Returns the time of the oldest sample still covered by the history */
+  public synchronized long getStartTime() {
+    if (mySize == 0) {
+      return 0;
+    }
+    return Math.min(myTimes[myFirst], myLevels[myLevels.length - 1].getStartTime());
+  }
+
+  public synchronized long getEndTime() {
+    return mySize == 0 ? 0 : myTimes[(myFirst + mySize - 1) % myCapacity];
+  }
+
+  /** Returns the largest value ever added to any stream */
+  public synchronized float getMaxValue() {
+    return myMaxValue;
+  }
+
+  /**
+   * Returns the level a query for the given time range would use, where -1 stands for the raw samples and other values are
+   * indices into {@link #RESOLUTIONS_MS}.
+   */
+  public synchronized int getLevel(long from, long to, int pixels) {
+    if (mySize == 0) {
+      return -1;
+    }
+    int maxEntries = 2 * Math.max(1, pixels);
+    // A level covers the range if it starts before it, or if it has not dropped anything yet
+    if ((mySize < myCapacity || myTimes[myFirst] <= from) && countRaw(from, to) <= maxEntries) {
+      return -1;
+    }
+    for (int i = 0; i < myLevels.length - 1; i++) {
+      Level level = myLevels[i];
+      if (level.covers(from) && (to - from) / level.myResolution <= maxEntries) {
+        return i;
+      }
+    }
+    return myLevels.length - 1;
+  }
+
+  /** Visits the entries of the level matching the given time range and width in pixels, see {@link #getLevel} */
+  public synchronized void query(long from, long to, int pixels, @NotNull Visitor visitor) {
+    if (mySize == 0) {
+      return;
+    }
+    int level = getLevel(from, to, pixels);
+    if (level >= 0) {
+      myLevels[level].query(from, to, visitor);
+      return;
+    }
+    float[] values = new float[myStreamCount];
+    for (int i = findRaw(from); i < mySize; i++) {
+      int index = (myFirst + i) % myCapacity;
+      if (myTimes[index] > to) {
+        break;
+      }
+      for (int stream = 0; stream < myStreamCount; stream++) {
+        values[stream] = myValues[stream][index];
+      }
+      visitor.visit(myTimes[index], 0, values, values, values);
+    }
+  }
+
+  private int countRaw(long from, long to) {
+    return findRaw(to + 1) - findRaw(from);
+  }
+
+  /** Returns the position (relative to the oldest raw sample) of the first raw sample at or after the given time */
+  private int findRaw(long time) {
+    int low = 0;
+    int high = mySize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (myTimes[(myFirst + mid) % myCapacity] < time) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** A ring of buckets of a fixed duration */
+  private static final class Level {
+    private final long myResolution;
+    private final int myCapacity;
+    private final long[] myStarts;
+    private final int[] myCounts;
+    private final float[][] myMin;
+    private final float[][] myMax;
+    private final double[][] mySum;
+    private int mySize;
+    private int myFirst;
+
+    Level(long resolution, int streamCount, int capacity) {
+      myResolution = resolution;
+      myCapacity = capacity;
+      myStarts = new long[capacity];
+      myCounts = new int[capacity];
+      myMin = new float[streamCount][capacity];
+      myMax = new float[streamCount][capacity];
+      mySum = new double[streamCount][capacity];
+    }
+
+    long getStartTime() {
+      return mySize == 0 ? Long.MAX_VALUE : myStarts[myFirst];
+    }
+
+    boolean covers(long time) {
+      return mySize < myCapacity || myStarts[myFirst] <= time;
+    }
+
+    void add(long time, @NotNull float[] values) {
+      long start = time - time % myResolution;
+      int last = (myFirst + mySize - 1) % myCapacity;
+      // Samples which arrive late are merged into the latest bucket
+      if (mySize == 0 || start > myStarts[last]) {
+        last = (myFirst + mySize) % myCapacity;
+        if (mySize == myCapacity) {
+          myFirst = (myFirst + 1) % myCapacity;
+        }
+        else {
+          mySize++;
+        }
+        myStarts[last] = start;
+        myCounts[last] = 0;
+        for (int i = 0; i < myMin.length; i++) {
+          myMin[i][last] = Float.MAX_VALUE;
+          myMax[i][last] = -Float.MAX_VALUE;
+          mySum[i][last] = 0;
+        }
+      }
+      myCounts[last]++;
+      for (int i = 0; i < myMin.length; i++) {
+        float value = i < values.length ? values[i] : 0;
+        myMin[i][last] = Math.min(myMin[i][last], value);
+        myMax[i][last] = Math.max(myMax[i][last], value);
+        mySum[i][last] += value;
+      }
+    }
+
+    void query(long from, long to, @NotNull Visitor visitor) {
+      float[] min = new float[myMin.length];
+      float[] max = new float[myMin.length];
+      float[] avg = new float[myMin.length];
+      for (int i = find(from - myResolution + 1); i < mySize; i++) {
+        int index = (myFirst + i) % myCapacity;
+        if (myStarts[index] > to) {
+          break;
+        }
+        for (int stream = 0; stream < myMin.length; stream++) {
+          min[stream] = myMin[stream][index];
+          max[stream] = myMax[stream][index];
+          avg[stream] = (float)(mySum[stream][index] / myCounts[index]);
+        }
+        visitor.visit(myStarts[index], myResolution, min, max, avg);
+      }
+    }
+
+    private int find(long time) {
+      int low = 0;
+      int high = mySize;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (myStarts[(myFirst + mid) % myCapacity] < time) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.ui.JBColor;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+
+/**
+ * Draws the whole {@link TimelineHistory} of a monitor. The mouse wheel zooms in and out, and dragging scrolls back in
+ * time. Each stream is drawn as its average, over a band from its minimum to its maximum, using the level of the history
+ * which matches the zoom.
+ */
+public class TimelineHistoryComponent extends JComponent {
+  private static final long MIN_SPAN_MS = 10 * 1000;
+  private static final int INSET = 4;
+
+  @NotNull private final TimelineHistory myHistory;
+  @NotNull private final String myUnits;
+  @NotNull private String[] myStreamNames = new String[0];
+  @NotNull private Color[] myStreamColors = new Color[0];
+  /** The time span shown, or -1 to show the whole history */
+  private long mySpanMs = -1;
+  /** How far before the latest sample the view ends */
+  private long myEndOffsetMs;
+  private int myDragX;
+
+  public TimelineHistoryComponent(@NotNull TimelineHistory history, @NotNull String units) {
+    myHistory = history;
+    myUnits = units;
+    setBackground(UIUtil.getTextFieldBackground());
+    setOpaque(true);
+
+    MouseAdapter mouseAdapter = new MouseAdapter() {
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        zoom(e.getWheelRotation());
+      }
+
+      @Override
+      public void mousePressed(MouseEvent e) {
+        myDragX = e.getX();
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        long span = getSpan();
+        if (getWidth() > 0 && span > 0) {
+          myEndOffsetMs += (e.getX() - myDragX) * span / getWidth();
+          myEndOffsetMs = Math.max(0, Math.min(myEndOffsetMs, myHistory.getEndTime() - myHistory.getStartTime() - span));
+          myDragX = e.getX();
+          repaint();
+        }
+      }
+    };
+    addMouseWheelListener(mouseAdapter);
+    addMouseListener(mouseAdapter);
+    addMouseMotionListener(mouseAdapter);
+  }
+
+  public void configureStream(int stream, @NotNull String name, @NotNull Color color) {
+    if (stream >= myStreamNames.length) {
+      String[] names = new String[stream + 1];
+      Color[] colors = new Color[stream + 1];
+      System.arraycopy(myStreamNames, 0, names, 0, myStreamNames.length);
+      System.arraycopy(myStreamColors, 0, colors, 0, myStreamColors.length);
+      myStreamNames = names;
+      myStreamColors = colors;
+    }
+    myStreamNames[stream] = name;
+    myStreamColors[stream] = color;
+  }
+
+  private void zoom(int steps) {
+    long total = myHistory.getEndTime() - myHistory.getStartTime();
+    long span = getSpan();
+    for (int i = 0; i < Math.abs(steps); i++) {
+      span = steps > 0 ? span * 2 : span / 2;
+    }
+    if (span >= total) {
+      mySpanMs = -1;
+      myEndOffsetMs = 0;
+    }
+    else {
+      mySpanMs = Math.max(MIN_SPAN_MS, span);
+    }
+    repaint();
+  }
+
+  private long getSpan() {
+    long total = myHistory.getEndTime() - myHistory.getStartTime();
+    return mySpanMs < 0 ? Math.max(total, MIN_SPAN_MS) : mySpanMs;
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    Graphics2D g2d = (Graphics2D)g.create();
+    try {
+      g2d.setColor(getBackground());
+      g2d.fillRect(0, 0, getWidth(), getHeight());
+      g2d.setFont(UIUtil.getLabelFont(UIUtil.FontSize.SMALL));
+      g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      if (myHistory.isEmpty()) {
+        g2d.setColor(UIUtil.getLabelDisabledForeground());
+        g2d.drawString("No samples yet", INSET, getHeight() / 2);
+        return;
+      }
+      paintHistory(g2d);
+    }
+    finally {
+      g2d.dispose();
+    }
+  }
+
+  private void paintHistory(@NotNull final Graphics2D g) {
+    final long span = getSpan();
+    final long to = myHistory.getEndTime() - myEndOffsetMs;
+    final long from = to - span;
+    final int width = Math.max(1, getWidth());
+    final int height = Math.max(1, getHeight() - 2 * INSET);
+    final float scale = Math.max(myHistory.getMaxValue(), 1.0f) * 1.1f;
+    final int streams = myHistory.getStreamCount();
+    final int[] lastX = new int[streams];
+    final int[] lastY = new int[streams];
+    final boolean[] started = new boolean[streams];
+
+    final int level = myHistory.getLevel(from, to, width);
+    myHistory.query(from, to, width, new TimelineHistory.Visitor() {
+      @Override
+      public void visit(long time, long duration, @NotNull float[] min, @NotNull float[] max, @NotNull float[] avg) {
+        int x0 = (int)((time - from) * width / span);
+        int x1 = Math.max(x0 + 1, (int)((time + duration - from) * width / span));
+        for (int i = 0; i < streams; i++) {
+          Color color = getStreamColor(i);
+          int yMin = toY(min[i]);
+          int yMax = toY(max[i]);
+          if (yMax < yMin) {
+            g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), 64));
+            g.fillRect(x0, yMax, x1 - x0, yMin - yMax);
+          }
+          int x = (x0 + x1) / 2;
+          int y = toY(avg[i]);
+          g.setColor(color);
+          if (started[i]) {
+            g.drawLine(lastX[i], lastY[i], x, y);
+          }
+          started[i] = true;
+          lastX[i] = x;
+          lastY[i] = y;
+        }
+      }
+
+      private int toY(float value) {
+        return INSET + height - (int)(value / scale * height);
+      }
+    });
+
+    g.setColor(UIUtil.getLabelDisabledForeground());
+    FontMetrics metrics = g.getFontMetrics();
+    g.drawString(String.format("%.1f %s", scale, myUnits), INSET, INSET + metrics.getAscent());
+    String range = StringUtil.formatDuration(span);
+    if (myEndOffsetMs > 0) {
+      range += ", ending " + StringUtil.formatDuration(myEndOffsetMs) + " ago";
+    }
+    g.drawString(range, INSET, getHeight() - INSET);
+    String resolution = level < 0 ? "all samples" : StringUtil.formatDuration(TimelineHistory.RESOLUTIONS_MS[level]) + " buckets";
+    g.drawString(resolution, width - INSET - metrics.stringWidth(resolution), getHeight() - INSET);
+
+    int x = INSET;
+    int y = INSET + 2 * metrics.getHeight();
+    for (int i = 0; i < Math.min(streams, myStreamNames.length); i++) {
+      g.setColor(getStreamColor(i));
+      g.fillRect(x, y - metrics.getAscent() + 2, 8, 8);
+      g.setColor(UIUtil.getLabelForeground());
+      g.drawString(myStreamNames[i], x + 12, y);
+      x += 12 + metrics.stringWidth(myStreamNames[i]) + 2 * INSET;
+    }
+  }
+
+  @NotNull
+  private Color getStreamColor(int stream) {
+    return stream < myStreamColors.length && myStreamColors[stream] != null ? myStreamColors[stream] : JBColor.GRAY;
+  }
+}
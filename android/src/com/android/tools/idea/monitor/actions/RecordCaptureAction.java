@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor.actions;
+
+import com.android.tools.idea.monitor.DeviceSampler;
+import com.android.tools.idea.monitor.MonitorCapture;
+import com.android.tools.idea.monitor.MonitorCaptureType;
+import com.android.tools.idea.profiling.capture.CaptureService;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.Presentation;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Consumer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records the samples of a monitor to a {@link MonitorCapture}, which is added to the project's captures when the recording
+ * is stopped, either by this action or because the monitor stops.
+ */
+public class RecordCaptureAction extends ToggleAction {
+  @NotNull private final Project myProject;
+  @NotNull private final DeviceSampler myDeviceSampler;
+  @NotNull private final String[] myStreamNames;
+
+  public RecordCaptureAction(@NotNull Project project, @NotNull DeviceSampler deviceSampler, @NotNull String... streamNames) {
+    super(null, null, AllIcons.Actions.Menu_saveall);
+    myProject = project;
+    myDeviceSampler = deviceSampler;
+    myStreamNames = streamNames;
+  }
+
+  @Override
+  public boolean isSelected(AnActionEvent e) {
+    return myDeviceSampler.isRecording();
+  }
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    super.update(e);
+    Presentation presentation = e.getPresentation();
+    if (isSelected(e)) {
+      presentation.setText("Stop Recording");
+      presentation.setDescription("Stops recording " + myDeviceSampler.getDescription() + " and saves it as a capture.");
+    }
+    else {
+      presentation.setText("Record");
+      presentation.setDescription("Records " + myDeviceSampler.getDescription() + " to a capture.");
+    }
+  }
+
+  @Override
+  public void setSelected(AnActionEvent e, boolean state) {
+    try {
+      if (state) {
+        myDeviceSampler.startRecording(FileUtil.createTempFile("monitor", MonitorCapture.EXTENSION, true), new Consumer<File>() {
+          @Override
+          public void consume(File file) {
+            saveCapture(file);
+          }
+        }, myStreamNames);
+      }
+      else {
+        myDeviceSampler.stopRecording();
+      }
+    }
+    catch (IOException exception) {
+      Messages.showErrorDialog(myProject, "Unexpected error while recording " + myDeviceSampler.getDescription() + ": " +
+                                          exception.getMessage(), "Record");
+    }
+  }
+
+  /** Adds a finished recording to the project's captures. The sampler may stop the recording on any thread. */
+  private void saveCapture(@NotNull final File file) {
+    ApplicationManager.getApplication().invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          createCapture(file);
+        }
+        catch (IOException exception) {
+          Messages.showErrorDialog(myProject, "Unexpected error while saving the recording: " + exception.getMessage(), "Record");
+        }
+      }
+    }, myProject.getDisposed());
+  }
+
+  private void createCapture(@NotNull File file) throws IOException {
+    final byte[] data;
+    try {
+      data = FileUtil.loadFileBytes(file);
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+    // Dialogs must not be shown inside the write action, so the error is rethrown after it
+    IOException error = ApplicationManager.getApplication().runWriteAction(new Computable<IOException>() {
+      @Override
+      public IOException compute() {
+        try {
+          CaptureService.getInstance(myProject).createCapture(MonitorCaptureType.class, data);
+          return null;
+        }
+        catch (IOException exception) {
+          return exception;
+        }
+      }
+    });
+    if (error != null) {
+      throw error;
+    }
+  }
+}
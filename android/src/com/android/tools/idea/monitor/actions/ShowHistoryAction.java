@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor.actions;
+
+import com.android.tools.idea.monitor.BaseMonitorView;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.ToggleAction;
+import org.jetbrains.annotations.NotNull;
+
+public class ShowHistoryAction extends ToggleAction {
+  @NotNull private final BaseMonitorView myView;
+
+  public ShowHistoryAction(@NotNull BaseMonitorView view) {
+    super("Show History", "Shows everything sampled since the client was selected, zoomable with the mouse wheel",
+          AllIcons.Vcs.History);
+    myView = view;
+  }
+
+  @Override
+  public boolean isSelected(AnActionEvent e) {
+    return myView.isHistoryShown();
+  }
+
+  @Override
+  public void setSelected(AnActionEvent e, boolean state) {
+    myView.setHistoryShown(state);
+  }
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    super.update(e);
+    e.getPresentation().setEnabled(myView.hasHistory());
+  }
+}
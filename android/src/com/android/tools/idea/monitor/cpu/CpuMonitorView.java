@@ -21,7 +21,9 @@ import com.android.tools.chartlib.EventData;
 import com.android.tools.idea.ddms.DeviceContext;
 import com.android.tools.idea.ddms.actions.ToggleMethodProfilingAction;
 import com.android.tools.idea.monitor.*;
+import com.android.tools.idea.monitor.actions.RecordCaptureAction;
 import com.android.tools.idea.monitor.actions.RecordingAction;
+import com.android.tools.idea.monitor.actions.ShowHistoryAction;
 import com.android.tools.chartlib.TimelineComponent;
 import com.android.tools.chartlib.TimelineData;
 import com.intellij.openapi.actionSystem.ActionGroup;
@@ -61,8 +63,10 @@ public class CpuMonitorView extends BaseMonitorView implements DeviceContext.Dev
     TimelineComponent timelineComponent = new TimelineComponent(data, events, bufferTimeInSeconds, initialMax, 100, initialMarker);
 
     timelineComponent.configureUnits("%");
-    timelineComponent.configureStream(0, "Kernel", new JBColor(0xd73f3f, 0xd73f3f));
-    timelineComponent.configureStream(1, "User", new JBColor(0xeb9f9f, 0x9d4c4c));
+    JBColor kernelColor = new JBColor(0xd73f3f, 0xd73f3f);
+    JBColor userColor = new JBColor(0xeb9f9f, 0x9d4c4c);
+    timelineComponent.configureStream(0, "Kernel", kernelColor);
+    timelineComponent.configureStream(1, "User", userColor);
     timelineComponent.setBackground(BACKGROUND_COLOR);
 
     setComponent(timelineComponent);
@@ -70,6 +74,11 @@ public class CpuMonitorView extends BaseMonitorView implements DeviceContext.Dev
     myCpuSampler = new CpuSampler(data, SAMPLE_FREQUENCY_MS);
     myCpuSampler.addListener(this);
 
+    TimelineHistoryComponent historyComponent = new TimelineHistoryComponent(myCpuSampler.getHistory(), "%");
+    historyComponent.configureStream(0, "Kernel", kernelColor);
+    historyComponent.configureStream(1, "User", userColor);
+    setHistoryComponent(historyComponent);
+
     myDeviceContext = deviceContext;
     myDeviceContext.addListener(this, project);
   }
@@ -80,6 +89,8 @@ public class CpuMonitorView extends BaseMonitorView implements DeviceContext.Dev
     if (Boolean.getBoolean(ENABLE_EXPERIMENTAL_ACTIONS)) {
       group.add(new RecordingAction(myCpuSampler));
     }
+    group.add(new RecordCaptureAction(myProject, myCpuSampler, "Kernel", "User"));
+    group.add(new ShowHistoryAction(this));
 
     group.add(new ToggleMethodProfilingAction(myProject, myDeviceContext));
     //group.add(new MyThreadDumpAction()); // thread dump -> systrace
@@ -76,12 +76,11 @@ public class CpuSampler extends DeviceSampler {
       try {
         int pid = data.getPid();
         ProcessStatReceiver dumpsysReceiver = new ProcessStatReceiver(pid);
-        device.executeShellCommand("cat /proc/" + pid + "/stat", dumpsysReceiver, 1, TimeUnit.SECONDS);
+        SystemStatReceiver systemStatReceiver = new SystemStatReceiver();
+        executeShellCommands(device, new String[]{"cat /proc/" + pid + "/stat", "cat /proc/stat"},
+                             new IShellOutputReceiver[]{dumpsysReceiver, systemStatReceiver}, 1, TimeUnit.SECONDS);
         kernelCpuUsage = dumpsysReceiver.getKernelCpuUsage();
         userCpuUsage = dumpsysReceiver.getUserCpuUsage();
-
-        SystemStatReceiver systemStatReceiver = new SystemStatReceiver();
-        device.executeShellCommand("cat /proc/stat", systemStatReceiver, 1, TimeUnit.SECONDS);
         totalUptime = systemStatReceiver.getTotalUptime();
       }
       catch (TimeoutException e) {
@@ -106,7 +105,7 @@ public class CpuSampler extends DeviceSampler {
           kernelPercentUsage = Math.max(Math.min(kernelPercentUsage, 100.0f), 0.0f);
           float userPercentUsage = (float)(userCpuUsage - previousUserUsage) * 100.0f / (float)totalTimeDiff;
           userPercentUsage = Math.max(Math.min(userPercentUsage, 100.0f), 0.0f);
-          myData.add(System.currentTimeMillis(), type, kernelPercentUsage, userPercentUsage);
+          myData.add(getSampleTime(), type, kernelPercentUsage, userPercentUsage);
         }
       }
       previousKernelUsage = kernelCpuUsage;
@@ -117,7 +116,7 @@ public class CpuSampler extends DeviceSampler {
       synchronized (myData) {
         if (myData.size() > 0) {
           TimelineData.Sample lastSample = myData.get(myData.size() - 1);
-          myData.add(System.currentTimeMillis(), TYPE_NOT_FOUND, lastSample.values[0], lastSample.values[1]);
+          myData.add(getSampleTime(), TYPE_NOT_FOUND, lastSample.values[0], lastSample.values[1]);
         }
       }
     }
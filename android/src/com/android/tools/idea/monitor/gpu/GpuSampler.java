@@ -111,7 +111,7 @@ public class GpuSampler extends DeviceSampler {
     for (int i = 0; i < 3; ++i) {
       try {
         mySynchronizedIdeTimeMs = System.currentTimeMillis();
-        client.getDevice().executeShellCommand("cat /proc/timer_list", hostNanotimeReceiver, 1, TimeUnit.SECONDS);
+        executeShellCommand(client.getDevice(), "cat /proc/timer_list", hostNanotimeReceiver, 1, TimeUnit.SECONDS);
         break;
       }
       catch (Exception ignored) {}
@@ -126,7 +126,7 @@ public class GpuSampler extends DeviceSampler {
     int pid = data.getPid();
 
     ProcessStatReceiverApi23OrLater dumpsysReceiver = new ProcessStatReceiverApi23OrLater(myLastSampleTime);
-    device.executeShellCommand("dumpsys gfxinfo " + pid + " framestats", dumpsysReceiver, 1, TimeUnit.SECONDS);
+    executeShellCommand(device, "dumpsys gfxinfo " + pid + " framestats", dumpsysReceiver, 1, TimeUnit.SECONDS);
 
     if (dumpsysReceiver.getSampleSize() > 0) {
       if (myDelimiterAdded) {
@@ -167,7 +167,7 @@ public class GpuSampler extends DeviceSampler {
     long currentTime = System.currentTimeMillis();
 
     ProcessStatReceiverApi22OrEarlier dumpsysReceiver = new ProcessStatReceiverApi22OrEarlier();
-    device.executeShellCommand("dumpsys gfxinfo " + pid, dumpsysReceiver, 1, TimeUnit.SECONDS);
+    executeShellCommand(device, "dumpsys gfxinfo " + pid, dumpsysReceiver, 1, TimeUnit.SECONDS);
 
     long timeDelta = currentTime - myLastSampleTime;
     if (dumpsysReceiver.getLogSize() > 0) {
@@ -27,7 +27,10 @@ import com.android.tools.idea.ddms.hprof.DumpHprofAction;
 import com.android.tools.idea.monitor.BaseMonitorView;
 import com.android.tools.idea.monitor.DeviceSampler;
 import com.android.tools.idea.monitor.TimelineEventListener;
+import com.android.tools.idea.monitor.TimelineHistoryComponent;
+import com.android.tools.idea.monitor.actions.RecordCaptureAction;
 import com.android.tools.idea.monitor.actions.RecordingAction;
+import com.android.tools.idea.monitor.actions.ShowHistoryAction;
 import com.android.tools.idea.monitor.memory.actions.ToggleDebugRender;
 import com.intellij.openapi.actionSystem.ActionGroup;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
@@ -74,8 +77,10 @@ public class MemoryMonitorView extends BaseMonitorView implements HierarchyListe
     myTimelineComponent = new TimelineComponent(data, myEvents, bufferTimeInSeconds, initialMax, Float.MAX_VALUE, initialMarker);
 
     myTimelineComponent.configureUnits("MB");
-    myTimelineComponent.configureStream(0, "Allocated", new JBColor(0x78abd9, 0x78abd9));
-    myTimelineComponent.configureStream(1, "Free", new JBColor(0xbaccdc, 0x51585c));
+    JBColor allocatedColor = new JBColor(0x78abd9, 0x78abd9);
+    JBColor freeColor = new JBColor(0xbaccdc, 0x51585c);
+    myTimelineComponent.configureStream(0, "Allocated", allocatedColor);
+    myTimelineComponent.configureStream(1, "Free", freeColor);
     myTimelineComponent
       .configureEvent(EVENT_HPROF, 0, AndroidIcons.Ddms.DumpHprof, new JBColor(0x92ADC6, 0x718493), new JBColor(0x2B4E8C, 0xC7E5FF), false);
     myTimelineComponent
@@ -91,6 +96,11 @@ public class MemoryMonitorView extends BaseMonitorView implements HierarchyListe
     myMemorySampler = new MemorySampler(data, SAMPLE_FREQUENCY_MS);
     myMemorySampler.addListener(this);
 
+    TimelineHistoryComponent historyComponent = new TimelineHistoryComponent(myMemorySampler.getHistory(), "MB");
+    historyComponent.configureStream(0, "Allocated", allocatedColor);
+    historyComponent.configureStream(1, "Free", freeColor);
+    setHistoryComponent(historyComponent);
+
     myContentPane.addHierarchyListener(this);
 
     myDeviceContext.addListener(this, project);
@@ -103,6 +113,8 @@ public class MemoryMonitorView extends BaseMonitorView implements HierarchyListe
     if (Boolean.getBoolean(ENABLE_EXPERIMENTAL_ACTIONS)) {
       group.add(new RecordingAction(myMemorySampler));
     }
+    group.add(new RecordCaptureAction(myProject, myMemorySampler, "Allocated", "Free"));
+    group.add(new ShowHistoryAction(this));
     group.add(new GcAction(myDeviceContext));
     group.add(new DumpHprofAction(myProject, myDeviceContext, myEvents));
     group.add(new ToggleAllocationTrackingAction(myDeviceContext, myEvents));
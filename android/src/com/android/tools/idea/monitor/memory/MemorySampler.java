@@ -73,7 +73,7 @@ public class MemorySampler extends DeviceSampler implements AndroidDebugBridge.I
       type = TYPE_UNREACHABLE;
     }
     // We cannot use the timeStamp in HeapInfo because it's based on the current time of the attached device.
-    myData.add(System.currentTimeMillis(), type, allocMb, freeMb);
+    myData.add(getSampleTime(), type, allocMb, freeMb);
   }
 
   protected void requestSample() {
@@ -22,6 +22,9 @@ import com.android.tools.chartlib.TimelineData;
 import com.android.tools.idea.ddms.DeviceContext;
 import com.android.tools.idea.monitor.BaseMonitorView;
 import com.android.tools.idea.monitor.DeviceSampler;
+import com.android.tools.idea.monitor.TimelineHistoryComponent;
+import com.android.tools.idea.monitor.actions.RecordCaptureAction;
+import com.android.tools.idea.monitor.actions.ShowHistoryAction;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
@@ -59,8 +62,10 @@ public class NetworkMonitorView extends BaseMonitorView implements DeviceContext
                                                 TIMELINE_INITIAL_MARKER_SEPARATION);
     // TODO: Change the initial unit to B/s after fixing the window frozen problem.
     myTimelineComponent.configureUnits("KB/s");
-    myTimelineComponent.configureStream(0, "Rx", new JBColor(0xff8000, 0xff8000));
-    myTimelineComponent.configureStream(1, "Tx", new JBColor(0xffcc99, 0xffcc99));
+    JBColor rxColor = new JBColor(0xff8000, 0xff8000);
+    JBColor txColor = new JBColor(0xffcc99, 0xffcc99);
+    myTimelineComponent.configureStream(0, "Rx", rxColor);
+    myTimelineComponent.configureStream(1, "Tx", txColor);
 
     // Some system images do not have the network stats file, it is a bug; we show a label before the bug is fixed.
     JLabel fileMissingLabel = new JLabel("Network monitoring is not available on your device.");
@@ -75,13 +80,21 @@ public class NetworkMonitorView extends BaseMonitorView implements DeviceContext
     myNetworkSampler = new NetworkSampler(data, SAMPLE_FREQUENCY_MS);
     myNetworkSampler.addListener(this);
 
+    TimelineHistoryComponent historyComponent = new TimelineHistoryComponent(myNetworkSampler.getHistory(), "KB/s");
+    historyComponent.configureStream(0, "Rx", rxColor);
+    historyComponent.configureStream(1, "Tx", txColor);
+    setHistoryComponent(historyComponent);
+
     myDeviceContext = deviceContext;
     myDeviceContext.addListener(this, project);
   }
 
   @NotNull
   public ComponentWithActions createComponent() {
-    return new ComponentWithActions.Impl(new DefaultActionGroup(), null, null, null, myContentPane);
+    DefaultActionGroup group = new DefaultActionGroup();
+    group.add(new RecordCaptureAction(myProject, myNetworkSampler, "Rx", "Tx"));
+    group.add(new ShowHistoryAction(this));
+    return new ComponentWithActions.Impl(group, null, null, null, myContentPane);
   }
 
   @Override
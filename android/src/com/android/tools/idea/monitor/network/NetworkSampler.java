@@ -72,7 +72,10 @@ public class NetworkSampler extends DeviceSampler {
 
     CollectingOutputReceiver receiver = new CollectingOutputReceiver();
     try {
-      device.executeShellCommand("ls " + NETWORK_STATS_FILE, receiver);
+      executeShellCommand(device, "ls " + NETWORK_STATS_FILE, receiver, MAX_TIMEOUT_SECOND, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
     catch (TimeoutException timeoutException) {
       LOG.warning(String.format("TimeoutException %1$s in ls %2$s", timeoutException.getMessage(), NETWORK_STATS_FILE));
@@ -113,7 +116,7 @@ public class NetworkSampler extends DeviceSampler {
     String command = "cat " + NETWORK_STATS_FILE + " | grep " + receiver.getUid();
     int myDataType = TYPE_DATA;
     try {
-      device.executeShellCommand(command, receiver, MAX_TIMEOUT_SECOND, TimeUnit.SECONDS);
+      executeShellCommand(device, command, receiver, MAX_TIMEOUT_SECOND, TimeUnit.SECONDS);
     }
     catch (TimeoutException timeoutException) {
       myDataType = TYPE_TIMEOUT;
@@ -147,14 +150,14 @@ public class NetworkSampler extends DeviceSampler {
       myIsFirstSample = false;
     }
     else {
-      myData.add(System.currentTimeMillis(), myDataType, rxBytesIncreased / 1024.f, txBytesIncreased / 1024.f);
+      myData.add(getSampleTime(), myDataType, rxBytesIncreased / 1024.f, txBytesIncreased / 1024.f);
     }
   }
 
-  private static int getUidFromPid(int pid, IDevice device) {
+  private int getUidFromPid(int pid, IDevice device) throws InterruptedException {
     UidReceiver uidReceiver = new UidReceiver();
     try {
-      device.executeShellCommand("cat /proc/" + pid + "/status", uidReceiver, MAX_TIMEOUT_SECOND, TimeUnit.SECONDS);
+      executeShellCommand(device, "cat /proc/" + pid + "/status", uidReceiver, MAX_TIMEOUT_SECOND, TimeUnit.SECONDS);
     }
     catch (TimeoutException timeoutException) {
       LOG.warning(String.format("TimeoutException to get uid from pid %d", pid));
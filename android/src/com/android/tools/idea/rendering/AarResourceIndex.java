@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.res2.ResourceFile;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.ResourceType;
+import com.android.utils.XmlUtils;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.*;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static com.android.SdkConstants.XMLNS_PREFIX;
+
+/**
+ * An immutable, memory-mapped index of the resources in an exploded AAR.
+ * <p/>
+ * The index is computed once per AAR content hash (by running the {@link com.android.ide.common.res2.ResourceMerger}
+ * over the AAR resources) and stored in the Android system directory, where it is shared by all modules and projects
+ * using the same library. Loading it does not parse any XML: item names and qualifiers are read from an interned string
+ * table, and the XML for value resources stays in the mapped file until a resource value is first requested
+ * from an {@link AarResourceItem}. Since the index only records paths relative to the resource directory,
+ * the same index is used for every exploded copy of the library.
+ * <p/>
+ * File format (big endian):
+ * <pre>
+ *   int magic, int version
+ *   int stringCount, int[stringCount] string offsets, then for each string: int byteCount, UTF-8 bytes
+ *   int itemCount, then for each item: int type ordinal, int name, int qualifiers, int source path, int value xml,
+ *                                      int namespace declarations (string indices, -1 if absent)
+ * </pre>
+ */
+final class AarResourceIndex {
+  private static final Logger LOG = Logger.getInstance(AarResourceIndex.class);
+
+  private static final int MAGIC = 0x41524958; // "ARIX"
+  /** Bump whenever the format or the set of indexed data changes */
+  private static final int VERSION = 1;
+  private static final int ITEM_SIZE = 6 * 4;
+
+  private static final Interner<String> ourInterner = Interners.newWeakInterner();
+  /** Loaded indices, keyed by content hash, shared across repositories */
+  private static final Map<String, AarResourceIndex> ourIndices = ContainerUtil.createConcurrentWeakValueMap();
+  /** Content hashes of resource directories, keyed by directory, along with the file stamps they were computed for */
+  private static final Map<File, ContentHash> ourContentHashes = Maps.newHashMap();
+
+  private final ByteBuffer myBuffer;
+  private final int myStringCount;
+  private final int myItemsStart;
+  private final int myItemCount;
+  private final String[] myStrings;
+  private final Map<String, FolderConfiguration> myConfigurations = Maps.newHashMap();
+
+  private AarResourceIndex(@NotNull ByteBuffer buffer) throws IOException {
+    myBuffer = buffer;
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("Incompatible AAR resource index");
+    }
+    myStringCount = buffer.getInt(8);
+    myStrings = new String[myStringCount];
+    int stringsEnd = 12 + 4 * myStringCount;
+    if (myStringCount > 0) {
+      int lastOffset = buffer.getInt(12 + 4 * (myStringCount - 1));
+      stringsEnd = lastOffset + 4 + buffer.getInt(lastOffset);
+    }
+    myItemCount = buffer.getInt(stringsEnd);
+    myItemsStart = stringsEnd + 4;
+  }
+
+  /**
+   * Returns the index for the given AAR resource directory, computing and storing it first if necessary, or null if
+   * the index could not be created
+   */
+  @Nullable
+  static AarResourceIndex get(@NotNull File resourceDir, @NotNull ResourceIndexSource source) {
+    try {
+      String hash = getContentHash(resourceDir);
+      AarResourceIndex index = ourIndices.get(hash);
+      if (index != null) {
+        return index;
+      }
+      File indexFile = new File(getIndexDirectory(), hash + ".idx");
+      if (!indexFile.exists()) {
+        write(resourceDir, source.computeItems(), indexFile);
+      }
+      index = new AarResourceIndex(map(indexFile));
+      ourIndices.put(hash, index);
+      return index;
+    }
+    catch (IOException e) {
+      LOG.warn("Could not use AAR resource index for " + resourceDir, e);
+      return null;
+    }
+  }
+
+  @NotNull
+  private static File getIndexDirectory() {
+    return new File(AndroidUtils.getAndroidSystemDirectoryOsPath(), "aar-resources");
+  }
+
+  @NotNull
+  private static ByteBuffer map(@NotNull File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return buffer.asReadOnlyBuffer();
+    }
+    finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Returns a hash of the names and contents of the files in the given directory. The hash is cached in memory along
+   * with the file stamps so that it does not need to be recomputed unless the directory changes.
+   */
+  @NotNull
+  private static String getContentHash(@NotNull File dir) throws IOException {
+    List<File> files = Lists.newArrayList();
+    collectFiles(dir, files);
+    Collections.sort(files);
+    Hasher stampHasher = Hashing.md5().newHasher();
+    for (File file : files) {
+      stampHasher.putString(file.getPath(), Charsets.UTF_8).putLong(file.length()).putLong(file.lastModified());
+    }
+    String stamp = stampHasher.hash().toString();
+    synchronized (ourContentHashes) {
+      ContentHash cached = ourContentHashes.get(dir);
+      if (cached != null && cached.stamp.equals(stamp)) {
+        return cached.hash;
+      }
+    }
+    Hasher contentHasher = Hashing.sha1().newHasher();
+    int prefixLength = dir.getPath().length();
+    for (File file : files) {
+      contentHasher.putString(file.getPath().substring(prefixLength), Charsets.UTF_8).putBytes(Files.toByteArray(file));
+    }
+    String hash = contentHasher.hash().toString();
+    synchronized (ourContentHashes) {
+      ourContentHashes.put(dir, new ContentHash(stamp, hash));
+    }
+    return hash;
+  }
+
+  private static void collectFiles(@NotNull File dir, @NotNull List<File> files) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          collectFiles(child, files);
+        } else {
+          files.add(child);
+        }
+      }
+    }
+  }
+
+  private static void write(@NotNull File resourceDir, @NotNull Map<ResourceType, ListMultimap<String, ResourceItem>> items,
+                            @NotNull File indexFile) throws IOException {
+    Map<String, Integer> stringIds = Maps.newLinkedHashMap();
+    List<int[]> records = Lists.newArrayList();
+    Map<Document, Integer> namespaces = Maps.newIdentityHashMap();
+    Transformer transformer = createTransformer();
+    int prefixLength = resourceDir.getPath().length() + 1;
+
+    for (ListMultimap<String, ResourceItem> map : items.values()) {
+      for (ResourceItem item : map.values()) {
+        ResourceFile source = item.getSource();
+        if (source == null) {
+          continue;
+        }
+        String path = source.getFile().getPath();
+        path = path.length() > prefixLength ? path.substring(prefixLength) : path;
+        Node value = item.getValue();
+        int xml = -1;
+        int xmlns = -1;
+        if (value != null) {
+          xml = getStringId(stringIds, toXml(transformer, value));
+          Document document = value.getOwnerDocument();
+          Integer namespaceId = document != null ? namespaces.get(document) : null;
+          if (namespaceId == null) {
+            namespaceId = getStringId(stringIds, getNamespaceDeclarations(document));
+            if (document != null) {
+              namespaces.put(document, namespaceId);
+            }
+          }
+          xmlns = namespaceId;
+        }
+        records.add(new int[]{item.getType().ordinal(), getStringId(stringIds, item.getName()),
+          getStringId(stringIds, item.getQualifiers()), getStringId(stringIds, path), xml, xmlns});
+      }
+    }
+
+    File tempFile = FileUtil.createTempFile(indexFile.getParentFile() != null ? ensureDir(indexFile.getParentFile()) : null,
+                                            indexFile.getName(), ".tmp", true);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      List<byte[]> strings = Lists.newArrayListWithExpectedSize(stringIds.size());
+      for (String s : stringIds.keySet()) {
+        strings.add(s.getBytes(Charsets.UTF_8));
+      }
+      out.writeInt(strings.size());
+      int offset = 12 + 4 * strings.size();
+      for (byte[] bytes : strings) {
+        out.writeInt(offset);
+        offset += 4 + bytes.length;
+      }
+      for (byte[] bytes : strings) {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeInt(records.size());
+      for (int[] record : records) {
+        for (int value : record) {
+          out.writeInt(value);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+    if (!tempFile.renameTo(indexFile) && !indexFile.exists()) {
+      FileUtil.delete(tempFile);
+      throw new IOException("Could not write " + indexFile);
+    }
+    FileUtil.delete(tempFile);
+  }
+
+  @NotNull
+  private static File ensureDir(@NotNull File dir) {
+    FileUtil.createDirectory(dir);
+    return dir;
+  }
+
+  private static int getStringId(@NotNull Map<String, Integer> stringIds, @NotNull String s) {
+    Integer id = stringIds.get(s);
+    if (id == null) {
+      id = stringIds.size();
+      stringIds.put(s, id);
+    }
+    return id;
+  }
+
+  @NotNull
+  private static Transformer createTransformer() throws IOException {
+    try {
+      Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      return transformer;
+    }
+    catch (TransformerException e) {
+      throw new IOException(e.toString());
+    }
+  }
+
+  @NotNull
+  private static String toXml(@NotNull Transformer transformer, @NotNull Node node) throws IOException {
+    StringWriter writer = new StringWriter();
+    try {
+      transformer.transform(new DOMSource(node), new StreamResult(writer));
+    }
+    catch (TransformerException e) {
+      throw new IOException(e.toString());
+    }
+    return writer.toString();
+  }
+
+  /** Returns the namespace declarations on the root element of the given document, such as {@code xmlns:xliff="..."} */
+  @NotNull
+  private static String getNamespaceDeclarations(@Nullable Document document) {
+    Element root = document != null ? document.getDocumentElement() : null;
+    if (root == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    NamedNodeMap attributes = root.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Node attribute = attributes.item(i);
+      String name = attribute.getNodeName();
+      if (name.startsWith(XMLNS_PREFIX)) {
+        sb.append(' ').append(name).append("=\"").append(XmlUtils.toXmlAttributeValue(attribute.getNodeValue())).append('"');
+      }
+    }
+    return sb.toString();
+  }
+
+  /** Creates the resource items in the index, adding them to the given repository */
+  void createItems(@NotNull FileResourceRepository repository) {
+    ResourceType[] types = ResourceType.values();
+    for (int i = 0; i < myItemCount; i++) {
+      int record = myItemsStart + i * ITEM_SIZE;
+      ResourceType type = types[myBuffer.getInt(record)];
+      String name = ourInterner.intern(getString(myBuffer.getInt(record + 4)));
+      AarResourceItem item = new AarResourceItem(name, type, this, i, repository.getResourceDirectory());
+      ListMultimap<String, ResourceItem> map = repository.getMap(type, true);
+      assert map != null;
+      map.put(name, item);
+    }
+  }
+
+  @NotNull
+  private synchronized String getString(int id) {
+    String s = myStrings[id];
+    if (s == null) {
+      int offset = myBuffer.getInt(12 + 4 * id);
+      int length = myBuffer.getInt(offset);
+      byte[] bytes = new byte[length];
+      ByteBuffer duplicate = myBuffer.duplicate();
+      duplicate.position(offset + 4);
+      duplicate.get(bytes);
+      s = new String(bytes, Charsets.UTF_8);
+      myStrings[id] = s;
+    }
+    return s;
+  }
+
+  /** Like {@link #getString(int)}, but does not keep the string in memory; used for large and rarely needed strings */
+  @NotNull
+  private String readString(int id) {
+    int offset = myBuffer.getInt(12 + 4 * id);
+    int length = myBuffer.getInt(offset);
+    byte[] bytes = new byte[length];
+    ByteBuffer duplicate = myBuffer.duplicate();
+    duplicate.position(offset + 4);
+    duplicate.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  @NotNull
+  String getQualifiers(int item) {
+    return ourInterner.intern(getString(myBuffer.getInt(myItemsStart + item * ITEM_SIZE + 8)));
+  }
+
+  @NotNull
+  synchronized FolderConfiguration getConfiguration(int item) {
+    String qualifiers = getQualifiers(item);
+    FolderConfiguration configuration = myConfigurations.get(qualifiers);
+    if (configuration == null) {
+      configuration = qualifiers.isEmpty() ? new FolderConfiguration()
+                                           : FolderConfiguration.getConfigFromQualifiers(Splitter.on('-').split(qualifiers));
+      if (configuration == null) {
+        configuration = new FolderConfiguration();
+      }
+      myConfigurations.put(qualifiers, configuration);
+    }
+    return configuration;
+  }
+
+  @NotNull
+  File getSourceFile(int item, @NotNull File resourceDir) {
+    return new File(resourceDir, readString(myBuffer.getInt(myItemsStart + item * ITEM_SIZE + 12)));
+  }
+
+  /** Parses and returns the XML element defining the given value item, or null if this is a file based item */
+  @Nullable
+  Node parseValue(int item) {
+    int record = myItemsStart + item * ITEM_SIZE;
+    int xml = myBuffer.getInt(record + 16);
+    if (xml == -1) {
+      return null;
+    }
+    int xmlns = myBuffer.getInt(record + 20);
+    String wrapped = "<resources" + (xmlns != -1 ? getString(xmlns) : "") + ">" + readString(xml) + "</resources>";
+    Document document = XmlUtils.parseDocumentSilently(wrapped, true);
+    if (document == null || document.getDocumentElement() == null) {
+      return null;
+    }
+    Node child = document.getDocumentElement().getFirstChild();
+    while (child != null && child.getNodeType() != Node.ELEMENT_NODE) {
+      child = child.getNextSibling();
+    }
+    return child;
+  }
+
+  /** Computes the resource items for an AAR, such that they can be written into a new index */
+  interface ResourceIndexSource {
+    @NotNull
+    Map<ResourceType, ListMultimap<String, ResourceItem>> computeItems() throws IOException;
+  }
+
+  private static final class ContentHash {
+    final String stamp;
+    final String hash;
+
+    ContentHash(@NotNull String stamp, @NotNull String hash) {
+      this.stamp = stamp;
+      this.hash = hash;
+    }
+  }
+}
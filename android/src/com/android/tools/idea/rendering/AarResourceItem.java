@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.rendering.api.DensityBasedResourceValue;
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.res2.ResourceFile;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.ide.common.resources.configuration.DensityQualifier;
+import com.android.ide.common.resources.configuration.FolderConfiguration;
+import com.android.resources.Density;
+import com.android.resources.ResourceType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Node;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * A {@link ResourceItem} backed by an {@link AarResourceIndex}. Only the name and type are kept on the heap; the
+ * qualifiers, source file and value are read from the index when needed.
+ */
+class AarResourceItem extends ResourceItem {
+  private final AarResourceIndex myIndex;
+  private final int myIndexItem;
+  private final File myResourceDir;
+
+  AarResourceItem(@NotNull String name, @NotNull ResourceType type, @NotNull AarResourceIndex index, int indexItem,
+                  @NotNull File resourceDir) {
+    super(name, type, null);
+    myIndex = index;
+    myIndexItem = indexItem;
+    myResourceDir = resourceDir;
+  }
+
+  @NonNull
+  @Override
+  public String getQualifiers() {
+    return myIndex.getQualifiers(myIndexItem);
+  }
+
+  @Override
+  public FolderConfiguration getConfiguration() {
+    return myIndex.getConfiguration(myIndexItem);
+  }
+
+  @Nullable
+  @Override
+  public ResourceFile getSource() {
+    ResourceFile source = super.getSource();
+    if (source == null) {
+      // Created on demand, since very few items are ever asked for their source
+      source = new ResourceFile(myIndex.getSourceFile(myIndexItem, myResourceDir), Collections.<ResourceItem>singletonList(this),
+                                getQualifiers());
+      setSource(source);
+    }
+    return source;
+  }
+
+  @Nullable
+  @Override
+  public Node getValue() {
+    return myIndex.parseValue(myIndexItem);
+  }
+
+  @Nullable
+  @Override
+  public ResourceValue getResourceValue(boolean isFrameworks) {
+    if (mResourceValue == null) {
+      Node value = myIndex.parseValue(myIndexItem);
+      if (value != null) {
+        // Let a plain DOM based item do the actual parsing of the value
+        mResourceValue = new ResourceItem(getName(), getType(), value).getResourceValue(isFrameworks);
+      } else {
+        ResourceType type = getType();
+        String path = myIndex.getSourceFile(myIndexItem, myResourceDir).getPath();
+        DensityQualifier densityQualifier = getConfiguration().getDensityQualifier();
+        Density density = densityQualifier != null && (type == ResourceType.DRAWABLE || type == ResourceType.MIPMAP)
+                          ? densityQualifier.getValue() : null;
+        if (density != null) {
+          mResourceValue = new DensityBasedResourceValue(type, getName(), path, density, isFrameworks);
+        } else {
+          mResourceValue = new ResourceValue(type, getName(), path, isFrameworks);
+        }
+      }
+    }
+
+    return mResourceValue;
+  }
+}
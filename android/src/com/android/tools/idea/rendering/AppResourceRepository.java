@@ -22,7 +22,6 @@ import com.android.builder.model.AndroidProject;
 import com.android.builder.model.Variant;
 import com.android.ide.common.rendering.api.AttrResourceValue;
 import com.android.ide.common.repository.ResourceVisibilityLookup;
-import com.android.ide.common.resources.IntArrayWrapper;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.gradle.IdeaAndroidProject;
 import com.android.tools.idea.gradle.project.GradleSyncListener;
@@ -32,8 +31,6 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
-import gnu.trove.TIntObjectHashMap;
-import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.uipreview.ModuleClassLoader;
 import org.jetbrains.android.util.AndroidUtils;
@@ -300,7 +297,8 @@ public class AppResourceRepository extends MultiResourceRepository {
 
   @NotNull
   Set<String> getAllIds() {
-    long currentModCount = getModificationCount();
+    // Only recompute when the set of ids (or the set of libraries, which bumps all types) has changed
+    long currentModCount = getModificationCount(ResourceType.ID);
     if (myIdsModificationCount < currentModCount) {
       myIdsModificationCount = currentModCount;
       if (myIds == null) {
@@ -439,64 +437,23 @@ public class AppResourceRepository extends MultiResourceRepository {
 
   // For LayoutlibCallback
 
-  // Project resource ints are defined as 0x7FXX#### where XX is the resource type (layout, drawable,
-  // etc...). Using FF as the type allows for 255 resource types before we get a collision
-  // which should be fine.
-  private static final int DYNAMIC_ID_SEED_START = 0x7fff0000;
-
-  /** Map of (name, id) for resources of type {@link ResourceType#ID} coming from R.java */
-  private Map<ResourceType, TObjectIntHashMap<String>> myResourceValueMap;
-  /** Map of (id, [name, resType]) for all resources coming from R.java */
-  @SuppressWarnings("deprecation")  // For Pair
-  private TIntObjectHashMap<Pair<ResourceType, String>> myResIdValueToNameMap;
-  /** Map of (int[], name) for styleable resources coming from R.java */
-  private Map<IntArrayWrapper, String> myStyleableValueToNameMap;
-
-  private final TObjectIntHashMap<TypedResourceName> myName2DynamicIdMap = new TObjectIntHashMap<TypedResourceName>();
-  private final TIntObjectHashMap<TypedResourceName> myDynamicId2ResourceMap = new TIntObjectHashMap<TypedResourceName>();
-  private int myDynamicSeed = DYNAMIC_ID_SEED_START;
-  private final IntArrayWrapper myWrapper = new IntArrayWrapper(null);
-
+  /** Ids from the compiled R class, along with dynamically assigned ids */
+  private final ResourceIdTable myIdTable = new ResourceIdTable();
 
   @Nullable
   @SuppressWarnings("deprecation")  // For Pair
   public Pair<ResourceType, String> resolveResourceId(int id) {
-    Pair<ResourceType, String> result = null;
-    if (myResIdValueToNameMap != null) {
-      result = myResIdValueToNameMap.get(id);
-    }
-
-    if (result == null) {
-      final TypedResourceName pair = myDynamicId2ResourceMap.get(id);
-      if (pair != null) {
-        result = pair.toPair();
-      }
-    }
-
-    return result;
+    return myIdTable.resolve(id);
   }
 
   @Nullable
   public String resolveStyleable(int[] id) {
-    if (myStyleableValueToNameMap != null) {
-      myWrapper.set(id);
-      // A normal map lookup on int[] would only consider object identity, but the IntArrayWrapper
-      // will check all the individual elements for equality. We reuse an instance for all the lookups
-      // since we don't need a new one each time.
-      return myStyleableValueToNameMap.get(myWrapper);
-    }
-
-    return null;
+    return myIdTable.resolveStyleable(id);
   }
 
   @NotNull
   public Integer getResourceId(ResourceType type, String name) {
-    final TObjectIntHashMap<String> map = myResourceValueMap != null ? myResourceValueMap.get(type) : null;
-
-    if (map == null || !map.containsKey(name)) {
-      return getDynamicId(type, name);
-    }
-    return map.get(name);
+    return myIdTable.getId(type, name);
   }
 
   @Nullable
@@ -519,26 +476,9 @@ public class AppResourceRepository extends MultiResourceRepository {
     return null;
   }
 
-  private int getDynamicId(ResourceType type, String name) {
-    TypedResourceName key = new TypedResourceName(type, name);
-    synchronized (myName2DynamicIdMap) {
-      if (myName2DynamicIdMap.containsKey(key)) {
-        return myName2DynamicIdMap.get(key);
-      }
-      final int value = ++myDynamicSeed;
-      myName2DynamicIdMap.put(key, value);
-      myDynamicId2ResourceMap.put(value, key);
-      return value;
-    }
-  }
-
-  public void setCompiledResources(@SuppressWarnings("deprecation") TIntObjectHashMap<Pair<ResourceType, String>> id2res,
-                                   Map<IntArrayWrapper, String> styleableId2name,
-                                   Map<ResourceType, TObjectIntHashMap<String>> res2id) {
+  public void setCompiledResources(@NotNull ResourceIdTable.Builder compiledIds) {
     resetDynamicIds(true);
-    myResourceValueMap = res2id;
-    myResIdValueToNameMap = id2res;
-    myStyleableValueToNameMap = styleableId2name;
+    myIdTable.setCompiledIds(compiledIds);
   }
 
   void resetDynamicIds(boolean clearAarResourceRegistry) {
@@ -547,56 +487,6 @@ public class AppResourceRepository extends MultiResourceRepository {
     if (clearAarResourceRegistry) {
       AarResourceClassRegistry.get(myFacet.getModule().getProject()).clearCache(this);
     }
-    synchronized (myName2DynamicIdMap) {
-      myDynamicSeed = DYNAMIC_ID_SEED_START;
-      myName2DynamicIdMap.clear();
-      myDynamicId2ResourceMap.clear();
-    }
-  }
-
-  private static final class TypedResourceName {
-    @Nullable
-    final ResourceType myType;
-    @NotNull
-    final String myName;
-    @SuppressWarnings("deprecation") Pair<ResourceType, String> myPair;
-
-    public TypedResourceName(@Nullable ResourceType type, @NotNull String name) {
-      myType = type;
-      myName = name;
-    }
-
-    @SuppressWarnings("deprecation")
-    public Pair<ResourceType, String> toPair() {
-      if (myPair == null) {
-        myPair = Pair.of(myType, myName);
-      }
-      return myPair;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-
-      TypedResourceName that = (TypedResourceName)o;
-
-      if (myType != that.myType) return false;
-      if (!myName.equals(that.myName)) return false;
-
-      return true;
-    }
-
-    @Override
-    public int hashCode() {
-      int result = myType != null ? myType.hashCode() : 0;
-      result = 31 * result + (myName.hashCode());
-      return result;
-    }
-
-    @Override
-    public String toString() {
-      return String.format("Type=%1$s, value=%2$s", myType, myName);
-    }
+    myIdTable.resetDynamicIds();
   }
 }
@@ -29,6 +29,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
 
@@ -40,6 +41,10 @@ import static org.jetbrains.android.facet.ResourceFolderManager.EXPLODED_AAR;
  * in output folders such as build, where Studio will not create PsiDirectories, and
  * as a result cannot use the normal {@link ResourceFolderRepository}. This is the case
  * for example for the expanded {@code .aar} directories.
+ * <p/>
+ * Since AAR contents never change, the items of expanded AARs are read from an {@link AarResourceIndex},
+ * a memory-mapped index shared by all repositories (and IDE sessions) for the same AAR contents, rather
+ * than being parsed again by a {@link ResourceMerger} each time.
  */
 public class FileResourceRepository extends LocalResourceRepository {
   private static final Logger LOG = Logger.getInstance(FileResourceRepository.class);
@@ -85,12 +90,34 @@ public class FileResourceRepository extends LocalResourceRepository {
   @NotNull
   private static FileResourceRepository create(@NotNull final File file) {
     final FileResourceRepository repository = new FileResourceRepository(file);
-    try {
-      ResourceMerger resourceMerger = createResourceMerger(file);
-      resourceMerger.mergeData(repository.createMergeConsumer(), true);
+    AarResourceIndex index = null;
+    if (file.getPath().contains(EXPLODED_AAR)) {
+      index = AarResourceIndex.get(file, new AarResourceIndex.ResourceIndexSource() {
+        @NotNull
+        @Override
+        public Map<ResourceType, ListMultimap<String, ResourceItem>> computeItems() throws IOException {
+          FileResourceRepository parsed = new FileResourceRepository(file);
+          try {
+            createResourceMerger(file).mergeData(parsed.createMergeConsumer(), true);
+          }
+          catch (MergingException e) {
+            throw new IOException(e);
+          }
+          return parsed.myItems;
+        }
+      });
+    }
+    if (index != null) {
+      index.createItems(repository);
     }
-    catch (Exception e) {
-      LOG.error("Failed to initialize resources", e);
+    else {
+      try {
+        ResourceMerger resourceMerger = createResourceMerger(file);
+        resourceMerger.mergeData(repository.createMergeConsumer(), true);
+      }
+      catch (Exception e) {
+        LOG.error("Failed to initialize resources", e);
+      }
     }
     if (file.getPath().contains(EXPLODED_AAR)) {
       File rDotTxt = new File(file.getParentFile(), FN_RESOURCE_TEXT);
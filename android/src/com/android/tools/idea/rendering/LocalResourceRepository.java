@@ -44,6 +44,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -146,6 +147,9 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
 
   protected long myGeneration;
 
+  /** Generation of the set of items of each resource type; see {@link #getModificationCount(ResourceType)} */
+  private final long[] myTypeGenerations = new long[ResourceType.values().length];
+
   protected LocalResourceRepository(@NotNull String displayName) {
     super(false);
     myDisplayName = displayName;
@@ -179,6 +183,18 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
   }
 
   protected void invalidateItemCaches(@Nullable ResourceType... types) {
+    synchronized (myTypeGenerations) {
+      if (types == null || types.length == 0) {
+        for (int i = 0; i < myTypeGenerations.length; i++) {
+          myTypeGenerations[i]++;
+        }
+      }
+      else {
+        for (ResourceType type : types) {
+          myTypeGenerations[type.ordinal()]++;
+        }
+      }
+    }
     if (myParents != null) {
       for (MultiResourceRepository parent : myParents) {
         parent.invalidateCache(this, types);
@@ -186,6 +202,25 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
     }
   }
 
+  /**
+   * Notifies the parent repositories that the items of the given type with the given names were added, removed or
+   * replaced, such that they can update their merged views of just those names rather than rebuilding the maps for
+   * the whole type
+   */
+  protected void invalidateItemCaches(@NotNull ResourceType type, @NotNull Collection<String> names) {
+    if (names.isEmpty()) {
+      return;
+    }
+    synchronized (myTypeGenerations) {
+      myTypeGenerations[type.ordinal()]++;
+    }
+    if (myParents != null) {
+      for (MultiResourceRepository parent : myParents) {
+        parent.invalidateCache(this, type, names);
+      }
+    }
+  }
+
   // ---- Implements ModificationCount ----
 
   /**
@@ -208,6 +243,18 @@ public abstract class LocalResourceRepository extends AbstractResourceRepository
     return myGeneration;
   }
 
+  /**
+   * Returns the generation of the set of items of the given type. Unlike {@link #getModificationCount()}, this only
+   * changes when items of the given type are added, removed or replaced (not when the value of an existing item is
+   * edited, and not when items of other types change). Clients which only depend on which items of a type exist,
+   * such as the set of ids, can use this to skip work when nothing relevant has changed.
+   */
+  public long getModificationCount(@NotNull ResourceType type) {
+    synchronized (myTypeGenerations) {
+      return myTypeGenerations[type.ordinal()];
+    }
+  }
+
   @Nullable
   public VirtualFile getMatchingFile(@NonNull VirtualFile file, @NonNull ResourceType type, @NonNull FolderConfiguration config) {
     List<VirtualFile> matches = getMatchingFiles(file, type, config);
@@ -27,6 +27,7 @@ import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -194,28 +195,7 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
       // TODO: Start with JUST the first map here (which often contains most of the keys) and then
       // only merge in 1...n
       for (ResourceItem item : m.values()) {
-        String name = item.getName();
-        if (map.containsKey(name) && item.getType() != ResourceType.ID) {
-          // The item already exists in this map; only add if there isn't an item with the
-          // same qualifiers (and it's not an id; id's are allowed to be defined in multiple
-          // places even with the same qualifiers)
-          String qualifiers = item.getQualifiers();
-          boolean contains = false;
-          List<ResourceItem> list = map.get(name);
-          assert list != null;
-          for (ResourceItem existing : list) {
-            if (qualifiers.equals(existing.getQualifiers())) {
-              contains = true;
-              break;
-            }
-          }
-          if (!contains) {
-            map.put(name, item);
-          }
-        }
-        else {
-          map.put(name, item);
-        }
+        addMergedItem(map, item);
       }
     }
 
@@ -226,6 +206,48 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
     return map;
   }
 
+  private static void addMergedItem(@NotNull ListMultimap<String, ResourceItem> map, @NotNull ResourceItem item) {
+    String name = item.getName();
+    if (map.containsKey(name) && item.getType() != ResourceType.ID) {
+      // The item already exists in this map; only add if there isn't an item with the
+      // same qualifiers (and it's not an id; id's are allowed to be defined in multiple
+      // places even with the same qualifiers)
+      String qualifiers = item.getQualifiers();
+      boolean contains = false;
+      List<ResourceItem> list = map.get(name);
+      assert list != null;
+      for (ResourceItem existing : list) {
+        if (qualifiers.equals(existing.getQualifiers())) {
+          contains = true;
+          break;
+        }
+      }
+      if (!contains) {
+        map.put(name, item);
+      }
+    }
+    else {
+      map.put(name, item);
+    }
+  }
+
+  /** Recomputes the merged items of the given name in the given (cached) map of items of the given type */
+  private void remergeItems(@NotNull ListMultimap<String, ResourceItem> map, @NotNull ResourceType type, @NotNull String name) {
+    map.removeAll(name);
+    for (int i = myChildren.size() - 1; i >= 0; i--) {
+      ListMultimap<String, ResourceItem> m = myChildren.get(i).getItems().get(type);
+      if (m == null) {
+        continue;
+      }
+      List<ResourceItem> items = m.get(name);
+      if (items != null) {
+        for (ResourceItem item : items) {
+          addMergedItem(map, item);
+        }
+      }
+    }
+  }
+
   @NonNull
   @Override
   protected ListMultimap<String, ResourceItem> getMap(ResourceType type) {
@@ -270,6 +292,28 @@ public abstract class MultiResourceRepository extends LocalResourceRepository {
     invalidateItemCaches(types);
   }
 
+  /**
+   * Notifies this delegating repository that the given dependent repository has added, removed or replaced the
+   * items of the given type with the given names. Rather than discarding the merged map for the type, only the
+   * entries for those names are recomputed.
+   */
+  public void invalidateCache(@NotNull LocalResourceRepository repository, @NotNull ResourceType type,
+                              @NotNull Collection<String> names) {
+    assert myChildren.contains(repository) : repository;
+
+    synchronized (this) {
+      ListMultimap<String, ResourceItem> map = myCachedTypeMaps.get(type);
+      if (map != null) {
+        for (String name : names) {
+          remergeItems(map, type, name);
+        }
+      }
+    }
+    myGeneration++;
+
+    invalidateItemCaches(type, names);
+  }
+
   @Override
   @VisibleForTesting
   public boolean isScanPending(@NonNull PsiFile psiFile) {
@@ -87,10 +87,15 @@ public final class ProjectResourceRepository extends MultiResourceRepository {
   }
 
   private static List<LocalResourceRepository> computeRepositories(@NotNull final AndroidFacet facet) {
-    LocalResourceRepository main = ModuleResourceRepository.getModuleResources(facet, true);
-
     // List of module facets the given module depends on
     List<AndroidFacet> dependentFacets = AndroidUtils.getAllAndroidDependencies(facet.getModule(), true);
+
+    // Parse the resource files of all the modules in parallel before scanning them one module at a time
+    List<AndroidFacet> facets = Lists.newArrayList(dependentFacets);
+    facets.add(facet);
+    ResourceFolderPreloader.preloadModules(facet.getModule().getProject(), facets);
+
+    LocalResourceRepository main = ModuleResourceRepository.getModuleResources(facet, true);
     if (dependentFacets.isEmpty()) {
       return Collections.singletonList(main);
     }
@@ -44,8 +44,10 @@ import static com.android.SdkConstants.*;
 import static com.android.ide.common.resources.ResourceResolver.*;
 
 public class PsiResourceItem extends ResourceItem {
-  private final XmlTag myTag;
+  private XmlTag myTag;
   private PsiFile myFile;
+  /** Whether this item was restored from a {@link ResourceFolderSnapshot} and its tag has not been looked up yet */
+  private volatile boolean myTagPending;
 
   PsiResourceItem(@NonNull String name, @NonNull ResourceType type, @Nullable XmlTag tag, @NonNull PsiFile file) {
     super(name, type, null);
@@ -53,6 +55,30 @@ public class PsiResourceItem extends ResourceItem {
     myFile = file;
   }
 
+  /**
+   * Creates an item restored from a {@link ResourceFolderSnapshot}. The item has a tag, but it is not looked up
+   * (which requires parsing the file) until it is first needed.
+   */
+  static PsiResourceItem createPending(@NonNull String name, @NonNull ResourceType type, @NonNull PsiFile file) {
+    PsiResourceItem item = new PsiResourceItem(name, type, null, file);
+    item.myTagPending = true;
+    return item;
+  }
+
+  boolean isTagPending() {
+    return myTagPending;
+  }
+
+  /** Returns true if this item is defined by a tag (which may not have been looked up yet) rather than a whole file */
+  boolean hasTag() {
+    return myTagPending || myTag != null;
+  }
+
+  void bindTag(@Nullable XmlTag tag) {
+    myTag = tag;
+    myTagPending = false;
+  }
+
   @Override
   public FolderConfiguration getConfiguration() {
     PsiResourceFile source = (PsiResourceFile)super.getSource();
@@ -111,7 +137,7 @@ public class PsiResourceItem extends ResourceItem {
   public ResourceValue getResourceValue(boolean isFrameworks) {
     if (mResourceValue == null) {
       //noinspection VariableNotUsedInsideIf
-      if (myTag == null) {
+      if (getTag() == null) {
         // Density based resource value?
         ResourceType type = getType();
         Density density = type == ResourceType.DRAWABLE || type == ResourceType.MIPMAP ? getFolderDensity() : null;
@@ -419,6 +445,14 @@ public class PsiResourceItem extends ResourceItem {
 
   @Nullable
   public XmlTag getTag() {
+    if (myTagPending) {
+      ResourceFile source = super.getSource();
+      if (source instanceof PsiResourceFile) {
+        ResourceFolderSnapshot.bindPendingTags(myFile, (PsiResourceFile)source);
+      } else {
+        ResourceFolderSnapshot.bindPendingTags(myFile, Collections.<ResourceItem>singletonList(this));
+      }
+    }
     return myTag;
   }
 
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules render actions, giving foreground (editor) renders priority over background renders such as multi-configuration
+ * preview thumbnails.
+ * <p/>
+ * Render actions run one at a time, even when they use different layout libraries: rendering installs a
+ * {@link com.android.ide.common.rendering.RenderSecurityManager} as the JVM wide security manager, and layoutlib shares static
+ * AWT and font state between class loaders, so overlapping renders would replace each other's security manager in the
+ * middle of a render.
+ */
+public class RenderScheduler {
+  private static final RenderScheduler ourInstance = new RenderScheduler();
+
+  private final ThreadLocal<Integer> myDepth = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return 0;
+    }
+  };
+
+  /** Guarded by {@code this} */
+  private boolean myRunning;
+  /** Guarded by {@code this} */
+  private int myForegroundWaiting;
+
+  private final AtomicLong myRenderCount = new AtomicLong();
+  private final AtomicLong myQueueWaitNanos = new AtomicLong();
+  private final AtomicLong myRenderNanos = new AtomicLong();
+
+  RenderScheduler() {
+  }
+
+  @NotNull
+  public static RenderScheduler getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * Runs the given action once no other render action is running.
+   *
+   * @param background true if this is a background render which should yield to foreground renders
+   * @param callable   the action to run
+   * @return the result of the action
+   */
+  public <T> T run(boolean background, @NotNull Callable<T> callable) throws Exception {
+    long queued = System.nanoTime();
+    int depth = myDepth.get();
+    // Nested render actions on the same thread already own the slot
+    boolean acquired = depth == 0;
+    if (acquired) {
+      acquireSlot(background);
+    }
+    myDepth.set(depth + 1);
+    try {
+      long start = System.nanoTime();
+      try {
+        return callable.call();
+      }
+      finally {
+        if (acquired) {
+          myRenderCount.incrementAndGet();
+          myQueueWaitNanos.addAndGet(start - queued);
+          myRenderNanos.addAndGet(System.nanoTime() - start);
+        }
+      }
+    }
+    finally {
+      myDepth.set(depth);
+      if (acquired) {
+        releaseSlot();
+      }
+    }
+  }
+
+  private synchronized void acquireSlot(boolean background) throws InterruptedException {
+    if (background) {
+      while (myRunning || myForegroundWaiting > 0) {
+        wait();
+      }
+    }
+    else {
+      myForegroundWaiting++;
+      try {
+        while (myRunning) {
+          wait();
+        }
+      }
+      finally {
+        myForegroundWaiting--;
+      }
+    }
+    myRunning = true;
+  }
+
+  private synchronized void releaseSlot() {
+    myRunning = false;
+    notifyAll();
+  }
+
+  /** Returns the number of render actions completed so far */
+  public long getRenderCount() {
+    return myRenderCount.get();
+  }
+
+  /** Returns the total time, in nanoseconds, render actions spent waiting for other render actions */
+  public long getQueueWaitNanos() {
+    return myQueueWaitNanos.get();
+  }
+
+  /** Returns the total time, in nanoseconds, spent running render actions */
+  public long getRenderNanos() {
+    return myRenderNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    long count = Math.max(1, getRenderCount());
+    return String.format("RenderScheduler[renders=%1$d, avg wait=%2$.1fms, avg render=%3$.1fms]",
+                         getRenderCount(), getQueueWaitNanos() / 1e6 / count, getRenderNanos() / 1e6 / count);
+  }
+}
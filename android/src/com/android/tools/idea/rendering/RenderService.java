@@ -62,7 +62,6 @@ import static com.intellij.lang.annotation.HighlightSeverity.WARNING;
  */
 public class RenderService {
   public static final boolean NELE_ENABLED = Boolean.getBoolean("nele.enabled");
-  private static final Object RENDERING_LOCK = new Object();
 
   @NotNull
   private final AndroidFacet myFacet;
@@ -360,8 +359,17 @@ public class RenderService {
    * method.
    */
   public static <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
-    synchronized (RENDERING_LOCK) {
-      return callable.call();
-    }
+    return runRenderAction(false, callable);
+  }
+
+  /**
+   * Runs a action that requires the rendering lock, see {@link #runRenderAction(Callable)}.
+   *
+   * @param background true for renders that are not shown in the focused editor, such as preview thumbnails; these yield
+   *                   to foreground renders waiting for the rendering lock
+   * @param callable   the action to run
+   */
+  public static <T> T runRenderAction(boolean background, @NotNull Callable<T> callable) throws Exception {
+    return RenderScheduler.getInstance().run(background, callable);
   }
 }
@@ -126,6 +126,8 @@ public class RenderTask implements IImageFactory {
 
   private boolean myProvideCookiesForIncludedViews = false;
 
+  private boolean myBackground;
+
   /**
    * Don't create this task directly; obtain via {@link com.android.tools.idea.rendering.RenderService}
    */
@@ -366,6 +368,23 @@ public class RenderTask implements IImageFactory {
     return this;
   }
 
+  /**
+   * Marks this task as a background render (for example a preview thumbnail rather than the focused editor). Background
+   * renders yield to foreground renders when the {@link RenderScheduler} is busy.
+   *
+   * @param background whether this is a background render
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @NotNull
+  public RenderTask setBackground(boolean background) {
+    myBackground = background;
+    return this;
+  }
+
+  public boolean isBackground() {
+    return myBackground;
+  }
+
   /**
    * Returns the layout to be included
    */
@@ -605,7 +624,7 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      return RenderService.runRenderAction(new Callable<RenderResult>() {
+      return RenderService.runRenderAction(myBackground, new Callable<RenderResult>() {
         @Override
         public RenderResult call() throws Exception {
           return createRenderSession(factory);
@@ -677,7 +696,7 @@ public class RenderTask implements IImageFactory {
     params.setAssetRepository(myAssetRepository);
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = RenderService.runRenderAction(myBackground, new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -726,7 +745,7 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = RenderService.runRenderAction(myBackground, new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.resources.ResourceFolderType;
+import com.google.common.collect.Lists;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ex.ApplicationManagerEx;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.util.Processor;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the XML files of resource folders in parallel, ahead of the (sequential) initial scan of their
+ * {@link ResourceFolderRepository} instances.
+ * <p/>
+ * Building the PSI trees dominates the initial scan, and unlike the repository maps the trees can be built
+ * concurrently. The files are fanned out over the shared fork-join pool, each in its own read action which is skipped
+ * rather than blocked on when a write action is pending; any file not parsed here is simply parsed by the scan itself.
+ * Failures (including cancellation) of the preload are ignored for the same reason.
+ */
+final class ResourceFolderPreloader {
+  private static final Logger LOG = Logger.getInstance(ResourceFolderPreloader.class);
+
+  /** System property which can be set to false to turn off parallel preloading of resource folders */
+  static final String PARALLEL_SCAN_PROPERTY = "android.resources.parallel.scan";
+
+  private ResourceFolderPreloader() {
+  }
+
+  static boolean isEnabled() {
+    return Runtime.getRuntime().availableProcessors() > 1 && !"false".equals(System.getProperty(PARALLEL_SCAN_PROPERTY));
+  }
+
+  /**
+   * Parses the resource files of all the given modules whose resources have not been computed yet, such that the
+   * modules' repositories can be created without parsing. Folders with a {@link ResourceFolderSnapshot} are left
+   * alone, since most of their files will be restored from the snapshot rather than parsed.
+   */
+  static void preloadModules(@NotNull Project project, @NotNull List<AndroidFacet> facets) {
+    if (!isEnabled()) {
+      return;
+    }
+    List<VirtualFile> resourceDirs = Lists.newArrayList();
+    for (AndroidFacet facet : facets) {
+      if (ModuleResourceRepository.getModuleResources(facet, false) != null) {
+        continue;
+      }
+      for (VirtualFile resourceDir : facet.getAllResourceDirectories()) {
+        ResourceFolderSnapshot snapshot = ResourceFolderSnapshot.forFolder(resourceDir);
+        if (snapshot == null || !snapshot.exists()) {
+          resourceDirs.add(resourceDir);
+        }
+      }
+    }
+    preload(project, resourceDirs, null);
+  }
+
+  /**
+   * Parses the XML files scanned by {@link ResourceFolderRepository} in the given resource directories
+   *
+   * @param filter if not null, only the files accepted by the filter are parsed
+   * @return the number of files parsed
+   */
+  static int preload(@NotNull final Project project, @NotNull Collection<VirtualFile> resourceDirs,
+                     @Nullable Condition<VirtualFile> filter) {
+    if (!isEnabled() || project.isDisposed()) {
+      return 0;
+    }
+    List<VirtualFile> files = Lists.newArrayList();
+    for (VirtualFile resourceDir : resourceDirs) {
+      collectFiles(resourceDir, filter, files);
+    }
+    if (files.size() < 2) {
+      return 0;
+    }
+
+    final PsiManager manager = PsiManager.getInstance(project);
+    final AtomicInteger parsed = new AtomicInteger();
+    Processor<VirtualFile> processor = new Processor<VirtualFile>() {
+      @Override
+      public boolean process(final VirtualFile file) {
+        if (project.isDisposed()) {
+          return false;
+        }
+        // Each file gets its own read action, such that a pending write action only has to wait for one file. The read
+        // action is not attempted at all while a write action is pending: the thread which started the preload may hold
+        // the read lock itself, so blocking here could deadlock; the file is simply left to the scan instead.
+        ApplicationManagerEx.getApplicationEx().tryRunReadAction(new Runnable() {
+          @Override
+          public void run() {
+            if (file.isValid()) {
+              PsiFile psiFile = manager.findFile(file);
+              // Looking up the root tag builds the tree
+              if (psiFile instanceof XmlFile && ((XmlFile)psiFile).getRootTag() != null) {
+                parsed.incrementAndGet();
+              }
+            }
+          }
+        });
+        return true;
+      }
+    };
+    try {
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, ProgressManager.getInstance().getProgressIndicator(), true,
+                                                               processor);
+    }
+    catch (ProcessCanceledException e) {
+      // Preloading is only an optimization, so a cancelled preload must not fail the creation of the repositories;
+      // the scan parses whatever was not handled here (and checks for cancellation itself)
+      LOG.debug(e);
+    }
+    catch (RuntimeException e) {
+      LOG.warn(e);
+    }
+    return parsed.get();
+  }
+
+  private static void collectFiles(@NotNull VirtualFile resourceDir, @Nullable Condition<VirtualFile> filter,
+                                   @NotNull List<VirtualFile> files) {
+    if (!resourceDir.isValid()) {
+      return;
+    }
+    for (VirtualFile dir : resourceDir.getChildren()) {
+      ResourceFolderType folderType = dir.isDirectory() ? ResourceFolderType.getFolderType(dir.getName()) : null;
+      // Only values files and id generating (layout and menu) files are parsed during the scan
+      if (folderType == ResourceFolderType.VALUES || folderType == ResourceFolderType.LAYOUT || folderType == ResourceFolderType.MENU) {
+        for (VirtualFile file : dir.getChildren()) {
+          if (file.getFileType() == StdFileTypes.XML && (filter == null || filter.value(file))) {
+            files.add(file);
+          }
+        }
+      }
+    }
+  }
+}
@@ -37,11 +37,15 @@ import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.*;
+import com.intellij.util.Alarm;
 import com.intellij.util.ArrayUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.sdk.AndroidTargetData;
@@ -63,8 +67,6 @@ import static com.android.tools.lint.detector.api.LintUtils.stripIdPrefix;
  * <ul>
  *   <li>Find some way to have event updates in this resource folder directly update parent repositories
  *   (typically {@link ModuleResourceRepository}</li>
- *   <li>consider *initializing* this repository initially from IO files to not force full modelling of
- *   XML objects for all these tiny files (translations etc) ? Or find some way to persist the data in the index.</li>
  *   <li>Add defensive checks for non-read permission reads of resource values</li>
  *   <li>Idea: For {@link #rescan}; compare the removed items from the added items, and if they're the same, avoid
  *   creating a new generation.</li>
@@ -83,18 +85,38 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   private Map<String, DataBindingInfo> myDataBindingResourceFiles = Maps.newHashMap();
   private long myDataBindingResourceFilesModificationCount = Long.MIN_VALUE;
   private final Object SCAN_LOCK = new Object();
-  private Set<PsiFile> myPendingScans;
+  /** Files waiting to be rescanned, along with their folder types. Guarded by {@link #SCAN_LOCK}. */
+  private Map<PsiFile, ResourceFolderType> myPendingScans;
+  /** Whether a call to {@link #rescanPending()} has been scheduled. Guarded by {@link #SCAN_LOCK}. */
+  private boolean myRescanScheduled;
+  /** Collects cache invalidations while a batch of rescans is applied, so they can be published once. Only accessed under write action. */
+  @Nullable private InvalidationBatch myInvalidationBatch;
+  @Nullable private final ResourceFolderSnapshot mySnapshot;
+  private Alarm mySnapshotAlarm;
+  private boolean myInitialScan;
 
   @VisibleForTesting
   static int ourFullRescans;
 
+  /** Delay before writing the {@link ResourceFolderSnapshot} after a change, such that bursts of edits are written once */
+  private static final int SNAPSHOT_SAVE_DELAY_MS = 5000;
+
   private ResourceFolderRepository(@NotNull AndroidFacet facet, @NotNull VirtualFile resourceDir) {
     super(resourceDir.getName());
     myFacet = facet;
     myModule = facet.getModule();
     myListener = new PsiListener();
     myResourceDir = resourceDir;
+    mySnapshot = ResourceFolderSnapshot.forFolder(resourceDir);
+    if (mySnapshot != null) {
+      mySnapshot.load();
+    }
+    myInitialScan = true;
     scan();
+    myInitialScan = false;
+    if (mySnapshot != null && mySnapshot.isStale()) {
+      scheduleSnapshotSave();
+    }
   }
 
   @NotNull
@@ -113,6 +135,14 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   }
 
   private void scan() {
+    // Build the PSI trees of the files which will actually be parsed in parallel first; files with a valid
+    // snapshot entry are restored without parsing
+    ResourceFolderPreloader.preload(myModule.getProject(), Collections.singletonList(myResourceDir), new Condition<VirtualFile>() {
+      @Override
+      public boolean value(VirtualFile file) {
+        return mySnapshot == null || !mySnapshot.hasValidEntry(myResourceDir, file);
+      }
+    });
     ApplicationManager.getApplication().runReadAction(new Runnable() {
       @Override
       public void run() {
@@ -197,6 +227,9 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                                     PsiFile file) {
     // XML or Image
     String name = ResourceHelper.getResourceName(file);
+    if (idGenerating && restoreFromSnapshot(file, qualifiers, folderType, folderConfiguration)) {
+      return;
+    }
     ResourceItem item = new PsiResourceItem(name, type, null, file);
 
     if (idGenerating) {
@@ -368,6 +401,165 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     scanDataBindingDataTag(resourceFile, dataTag, modificationCount);
   }
 
+  /**
+   * Restores the items of the given file from the {@link ResourceFolderSnapshot}, if the snapshot is up to date for
+   * that file. The file is not parsed; the tags of the restored items are looked up the first time they are needed.
+   *
+   * @return true if the file was restored, false if it needs to be scanned
+   */
+  private boolean restoreFromSnapshot(@NotNull PsiFile file, @NotNull String qualifiers, @NotNull ResourceFolderType folderType,
+                                      @NotNull FolderConfiguration folderConfiguration) {
+    // Only the initial scan uses the snapshot; afterwards the repository is kept up to date from PSI events
+    if (mySnapshot == null || !myInitialScan) {
+      return false;
+    }
+    ResourceFolderSnapshot.FileEntry entry = mySnapshot.getValidEntry(myResourceDir, file.getVirtualFile());
+    if (entry == null) {
+      return false;
+    }
+    List<ResourceItem> items = Lists.newArrayListWithExpectedSize(entry.items.size());
+    for (ResourceFolderSnapshot.ItemEntry itemEntry : entry.items) {
+      PsiResourceItem item = itemEntry.hasTag
+                             ? PsiResourceItem.createPending(itemEntry.name, itemEntry.type, file)
+                             : new PsiResourceItem(itemEntry.name, itemEntry.type, null, file);
+      getMap(itemEntry.type, true).put(itemEntry.name, item);
+      if (itemEntry.inFile) {
+        items.add(item);
+      }
+    }
+    myResourceFiles.put(file, new PsiResourceFile(file, items, qualifiers, folderType, folderConfiguration));
+    return true;
+  }
+
+  private void scheduleSnapshotSave() {
+    if (mySnapshot == null) {
+      return;
+    }
+    synchronized (SCAN_LOCK) {
+      if (mySnapshotAlarm == null) {
+        mySnapshotAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, myFacet);
+      }
+      mySnapshotAlarm.cancelAllRequests();
+      mySnapshotAlarm.addRequest(new Runnable() {
+        @Override
+        public void run() {
+          saveSnapshot();
+        }
+      }, SNAPSHOT_SAVE_DELAY_MS);
+    }
+  }
+
+  @VisibleForTesting
+  void saveSnapshot() {
+    if (mySnapshot == null || myModule.isDisposed()) {
+      return;
+    }
+    Map<String, ResourceFolderSnapshot.FileEntry> entries =
+      ApplicationManager.getApplication().runReadAction(new Computable<Map<String, ResourceFolderSnapshot.FileEntry>>() {
+        @Override
+        public Map<String, ResourceFolderSnapshot.FileEntry> compute() {
+          return createSnapshotEntries();
+        }
+      });
+    mySnapshot.save(entries);
+  }
+
+  @NotNull
+  private Map<String, ResourceFolderSnapshot.FileEntry> createSnapshotEntries() {
+    // Ids referenced with @+id/ before their declaration are only registered in the id map, not in their resource file
+    Set<ResourceItem> fileItems = Sets.newIdentityHashSet();
+    for (PsiResourceFile resourceFile : myResourceFiles.values()) {
+      Iterables.addAll(fileItems, resourceFile);
+    }
+    ListMultimap<PsiFile, ResourceItem> extraIds = ArrayListMultimap.create();
+    ListMultimap<String, ResourceItem> idMap = myItems.get(ResourceType.ID);
+    if (idMap != null) {
+      for (ResourceItem item : idMap.values()) {
+        if (item instanceof PsiResourceItem && !fileItems.contains(item)) {
+          extraIds.put(((PsiResourceItem)item).getPsiFile(), item);
+        }
+      }
+    }
+
+    Map<String, ResourceFolderSnapshot.FileEntry> entries = Maps.newHashMap();
+    for (Map.Entry<PsiFile, PsiResourceFile> e : myResourceFiles.entrySet()) {
+      PsiResourceFile resourceFile = e.getValue();
+      ResourceFolderType folderType = resourceFile.getFolderType();
+      // Only files which require parsing benefit from the snapshot
+      if (folderType == null || resourceFile.getDataBindingInfo() != null ||
+          folderType != VALUES && FolderTypeRelationship.getRelatedResourceTypes(folderType).size() < 2) {
+        continue;
+      }
+      VirtualFile virtualFile = e.getKey().getVirtualFile();
+      String path = virtualFile != null ? VfsUtilCore.getRelativePath(virtualFile, myResourceDir, '/') : null;
+      if (path == null) {
+        continue;
+      }
+      ResourceFolderSnapshot.FileEntry entry =
+        ResourceFolderSnapshot.createEntry(virtualFile, Lists.newArrayList(resourceFile), extraIds.get(e.getKey()));
+      if (entry != null) {
+        entries.put(path, entry);
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  protected void invalidateItemCaches(@Nullable ResourceType... types) {
+    if (myInvalidationBatch != null) {
+      myInvalidationBatch.add(types);
+      return;
+    }
+    super.invalidateItemCaches(types);
+    scheduleSnapshotSave();
+  }
+
+  @Override
+  protected void invalidateItemCaches(@NotNull ResourceType type, @NotNull Collection<String> names) {
+    if (myInvalidationBatch != null) {
+      myInvalidationBatch.add(type, names);
+      return;
+    }
+    super.invalidateItemCaches(type, names);
+    scheduleSnapshotSave();
+  }
+
+  /** Invalidations recorded while rescanning a batch of files; see {@link #rescanPending()} */
+  private final class InvalidationBatch {
+    private boolean myAllTypes;
+    private final Set<ResourceType> myTypes = EnumSet.noneOf(ResourceType.class);
+    private final SetMultimap<ResourceType, String> myNames = HashMultimap.create();
+
+    void add(@Nullable ResourceType... types) {
+      if (types == null || types.length == 0) {
+        myAllTypes = true;
+      }
+      else {
+        Collections.addAll(myTypes, types);
+      }
+    }
+
+    void add(@NotNull ResourceType type, @NotNull Collection<String> names) {
+      myNames.putAll(type, names);
+    }
+
+    void publish() {
+      if (myAllTypes) {
+        invalidateItemCaches();
+        return;
+      }
+      if (!myTypes.isEmpty()) {
+        invalidateItemCaches(myTypes.toArray(new ResourceType[myTypes.size()]));
+      }
+      for (ResourceType type : myNames.keySet()) {
+        // Whole types invalidated above already cover these names
+        if (!myTypes.contains(type)) {
+          invalidateItemCaches(type, myNames.get(type));
+        }
+      }
+    }
+  }
+
   @NonNull
   @Override
   protected Map<ResourceType, ListMultimap<String, ResourceItem>> getMap() {
@@ -396,7 +588,14 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     addIds(items, file, file);
   }
 
-  private void addIds(List<ResourceItem> items, PsiElement element, PsiFile file) {
+  /**
+   * Adds the ids declared by the given element and its children to the repository, and the items of the ids
+   * declared with android:id to the given list
+   *
+   * @return the names of the other "@+id/" declarations which were added to the repository, which have no item in the list
+   */
+  @NotNull
+  private Collection<String> addIds(List<ResourceItem> items, PsiElement element, PsiFile file) {
     // "@+id/" names found before processing the view tag corresponding to the id.
     Map<String, XmlTag> pendingResourceIds = Maps.newHashMap();
     Collection<XmlTag> xmlTags = PsiTreeUtil.findChildrenOfType(element, XmlTag.class);
@@ -416,6 +615,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         map.put(id, new PsiResourceItem(id, ResourceType.ID, entry.getValue(), file));
       }
     }
+    return pendingResourceIds.keySet();
   }
 
   private void addId(List<ResourceItem> items, PsiFile file, XmlTag tag, Map<String, XmlTag> pendingResourceIds) {
@@ -471,6 +671,10 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
     boolean added = false;
     FileType fileType = file.getFileType();
     if (fileType == StdFileTypes.XML) {
+      if (restoreFromSnapshot(file, qualifiers, ResourceFolderType.VALUES, folderConfiguration)) {
+        PsiResourceFile resourceFile = myResourceFiles.get(file);
+        return resourceFile != null && resourceFile.iterator().hasNext();
+      }
       XmlFile xmlFile = (XmlFile)file;
       assert xmlFile.isValid();
       XmlDocument document = xmlFile.getDocument();
@@ -536,7 +740,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
    * @return the ResourceType or null if it could not be inferred.
    */
   @Nullable
-  private static ResourceType getType(XmlTag node) {
+  static ResourceType getType(XmlTag node) {
     String nodeName = node.getLocalName();
     String typeString = null;
 
@@ -577,10 +781,15 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   @Override
   public boolean isScanPending(@NonNull PsiFile psiFile) {
     synchronized (SCAN_LOCK) {
-      return myPendingScans != null && myPendingScans.contains(psiFile);
+      return myPendingScans != null && myPendingScans.containsKey(psiFile);
     }
   }
 
+  /**
+   * Schedules a rescan of the given file. Rescans are coalesced: all files scheduled before the rescan runs (such as
+   * all the files touched by a refactoring or VCS update, which fire their PSI events within a single command) are
+   * rescanned in one write action, and parent repositories are notified once for the whole batch.
+   */
   @VisibleForTesting
   void rescan(@NonNull final PsiFile psiFile, final @NonNull ResourceFolderType folderType) {
     synchronized(SCAN_LOCK) {
@@ -589,9 +798,13 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       }
 
       if (myPendingScans == null) {
-        myPendingScans = Sets.newHashSet();
+        myPendingScans = Maps.newLinkedHashMap();
+      }
+      myPendingScans.put(psiFile, folderType);
+      if (myRescanScheduled) {
+        return;
       }
-      myPendingScans.add(psiFile);
+      myRescanScheduled = true;
     }
     ApplicationManager.getApplication().invokeLater(new Runnable() {
       @Override
@@ -599,23 +812,11 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         ApplicationManager.getApplication().runWriteAction(new Runnable() {
           @Override
           public void run() {
-            boolean rescan;
             synchronized (SCAN_LOCK) {
-              // Handled by {@link #sync()} after the {@link #rescan} call and before invokeLater ?
-              rescan = myPendingScans != null && myPendingScans.contains(psiFile);
-            }
-            if (rescan) {
-              rescanImmediately(psiFile, folderType);
-              synchronized (SCAN_LOCK) {
-                // myPendingScans can't be null here because the only method which clears it
-                // is sync() which also requires a write lock, and we've held the write lock
-                // since null checking it above
-                myPendingScans.remove(psiFile);
-                if (myPendingScans.isEmpty()) {
-                  myPendingScans = null;
-                }
-              }
+              myRescanScheduled = false;
             }
+            // May already have been handled by {@link #sync()} after the {@link #rescan} call and before invokeLater
+            rescanPending();
           }
         });
       }
@@ -626,31 +827,42 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
   public void sync() {
     super.sync();
 
-    final List<PsiFile> files;
     synchronized(SCAN_LOCK) {
       if (myPendingScans == null || myPendingScans.isEmpty()) {
         return;
       }
-      files = new ArrayList<PsiFile>(myPendingScans);
     }
 
     ApplicationManager.getApplication().runWriteAction(new Runnable() {
       @Override
       public void run() {
-        for (PsiFile file : files) {
-          if (file.isValid()) {
-            ResourceFolderType folderType = ResourceHelper.getFolderType(file);
-            if (folderType != null) {
-              rescanImmediately(file, folderType);
-            }
-          }
-        }
+        rescanPending();
       }
     });
+  }
 
-    synchronized(SCAN_LOCK) {
+  /** Rescans all the files with pending scans, and publishes the combined changes to the parent repositories. Requires write access. */
+  private void rescanPending() {
+    final Map<PsiFile, ResourceFolderType> files;
+    synchronized (SCAN_LOCK) {
+      if (myPendingScans == null || myPendingScans.isEmpty()) {
+        return;
+      }
+      files = myPendingScans;
       myPendingScans = null;
     }
+
+    InvalidationBatch batch = new InvalidationBatch();
+    myInvalidationBatch = batch;
+    try {
+      for (Map.Entry<PsiFile, ResourceFolderType> entry : files.entrySet()) {
+        rescanImmediately(entry.getKey(), entry.getValue());
+      }
+    }
+    finally {
+      myInvalidationBatch = null;
+      batch.publish();
+    }
   }
 
   private void rescanImmediately(@NonNull final PsiFile psiFile, final @NonNull ResourceFolderType folderType) {
@@ -663,9 +875,12 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
       // First delete out the previous items
       PsiResourceFile resourceFile = myResourceFiles.get(file);
       boolean removed = false;
+      // Names of the items defined by this file before and after the rescan; only these need to be merged again by parents
+      SetMultimap<ResourceType, String> changed = HashMultimap.create();
       if (resourceFile != null) {
         for (ResourceItem item : resourceFile) {
           removed |= removeItems(resourceFile, item.getType(), item.getName(), false);  // Will throw away file
+          changed.put(item.getType(), item.getName());
         }
 
         myResourceFiles.remove(file);
@@ -691,7 +906,15 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
         // TODO: Consider doing a deeper diff of the changes to the resource items
         // to determine if the removed and added items actually differ
         myGeneration++;
-        invalidateItemCaches();
+        PsiResourceFile newResourceFile = file != null ? myResourceFiles.get(file) : null;
+        if (newResourceFile != null) {
+          for (ResourceItem item : newResourceFile) {
+            changed.put(item.getType(), item.getName());
+          }
+        }
+        for (ResourceType type : changed.keySet()) {
+          invalidateItemCaches(type, changed.get(type));
+        }
       }
     } else {
       PsiResourceFile resourceFile = myResourceFiles.get(file);
@@ -897,7 +1120,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       map.put(name, item);
                       resourceFile.addItems(Collections.singletonList(item));
                       myGeneration++;
-                      invalidateItemCaches(type);
+                      invalidateItemCaches(type, Collections.singletonList(name));
                     }
                   }
 
@@ -946,13 +1169,18 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
             if (parent instanceof XmlElement && child instanceof XmlElement) {
               if (child instanceof XmlTag) {
                 List<ResourceItem> ids = Lists.newArrayList();
-                addIds(ids, child, psiFile);
-                if (!ids.isEmpty()) {
+                Collection<String> otherIds = addIds(ids, child, psiFile);
+                if (!ids.isEmpty() || !otherIds.isEmpty()) {
                   PsiResourceFile resourceFile = myResourceFiles.get(psiFile);
                   if (resourceFile != null) {
                     resourceFile.addItems(ids);
-                    myGeneration++;
                   }
+                  List<String> names = Lists.newArrayList(otherIds);
+                  for (ResourceItem item : ids) {
+                    names.add(item.getName());
+                  }
+                  myGeneration++;
+                  invalidateItemCaches(ResourceType.ID, names);
                 }
                 return;
               } else if (child instanceof XmlAttributeValue) {
@@ -1090,7 +1318,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                       }
                       if (removeItems(resourceFile, type, name, true)) {
                         myGeneration++;
-                        invalidateItemCaches(type);
+                        invalidateItemCaches(type, Collections.singletonList(name));
                       }
                     }
                   }
@@ -1407,7 +1635,7 @@ public final class ResourceFolderRepository extends LocalResourceRepository {
                           assert false : item;
                         }
                         myGeneration++;
-                        invalidateItemCaches(type);
+                        invalidateItemCaches(type, Arrays.asList(oldName, newName));
 
                         // Invalidate surrounding declare styleable if any
                         if (type == ResourceType.ATTR) {
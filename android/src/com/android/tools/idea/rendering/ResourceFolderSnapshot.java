@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.resources.ResourceType;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.android.SdkConstants.*;
+
+/**
+ * A persistent, versioned snapshot of the items in a {@link ResourceFolderRepository}.
+ * <p/>
+ * For each resource file which requires parsing (value files and id-generating files such as layouts) the snapshot
+ * records the VFS time stamp and length of the file along with the names and types of the items it defines.
+ * When the repository is created, files whose stamps match the snapshot are not parsed; instead their items are
+ * restored from the snapshot, and the corresponding {@link XmlTag}s are looked up lazily the first time an item
+ * from the file needs its value. Only files whose stamps differ are rescanned.
+ * <p/>
+ * The snapshot is written back (on a background thread) after the repository changes.
+ */
+final class ResourceFolderSnapshot {
+  private static final Logger LOG = Logger.getInstance(ResourceFolderSnapshot.class);
+
+  private static final int MAGIC = 0x52465350; // "RFSP"
+  /** Version of the snapshot format. Bump whenever the format or the scanning rules in the repository change. */
+  private static final int VERSION = 1;
+
+  /** Snapshots are disabled in unit tests unless explicitly enabled */
+  @VisibleForTesting
+  static boolean ourEnabledInTests;
+
+  private final String myResourceDirPath;
+  private final File mySnapshotFile;
+  private final Map<String, FileEntry> myEntries = Maps.newHashMap();
+  private int myHits;
+  private int myMisses;
+
+  private ResourceFolderSnapshot(@NotNull String resourceDirPath, @NotNull File snapshotFile) {
+    myResourceDirPath = resourceDirPath;
+    mySnapshotFile = snapshotFile;
+  }
+
+  /** Returns the snapshot for the given resource folder, or null if snapshots are not used for the folder */
+  @Nullable
+  static ResourceFolderSnapshot forFolder(@NotNull VirtualFile resourceDir) {
+    if (ApplicationManager.getApplication().isUnitTestMode() && !ourEnabledInTests) {
+      return null;
+    }
+    String path = resourceDir.getPath();
+    String fileName = resourceDir.getParent() != null ? resourceDir.getParent().getName() : resourceDir.getName();
+    fileName = FileUtil.sanitizeFileName(fileName) + "-" + Integer.toHexString(path.hashCode()) + ".bin";
+    File file = new File(AndroidUtils.getAndroidSystemDirectoryOsPath(), "resource-snapshots" + File.separator + fileName);
+    return new ResourceFolderSnapshot(path, file);
+  }
+
+  /** Loads the snapshot from disk, if it exists and is compatible. Returns true if the snapshot was loaded. */
+  boolean load() {
+    myEntries.clear();
+    if (!mySnapshotFile.exists()) {
+      return false;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(mySnapshotFile)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !myResourceDirPath.equals(in.readUTF())) {
+        return false;
+      }
+      int fileCount = in.readInt();
+      for (int i = 0; i < fileCount; i++) {
+        String path = in.readUTF();
+        long timeStamp = in.readLong();
+        long length = in.readLong();
+        int itemCount = in.readInt();
+        List<ItemEntry> items = Lists.newArrayListWithExpectedSize(itemCount);
+        for (int j = 0; j < itemCount; j++) {
+          ResourceType type = ResourceType.getEnum(in.readUTF());
+          String name = in.readUTF();
+          int flags = in.readByte();
+          if (type == null) {
+            throw new IOException("Unknown resource type in snapshot");
+          }
+          items.add(new ItemEntry(type, name, (flags & ItemEntry.IN_FILE) != 0, (flags & ItemEntry.HAS_TAG) != 0));
+        }
+        myEntries.put(path, new FileEntry(timeStamp, length, items));
+      }
+      return true;
+    }
+    catch (IOException e) {
+      // Corrupt or truncated snapshot: fall back to a full scan
+      LOG.info("Ignoring resource snapshot " + mySnapshotFile, e);
+      myEntries.clear();
+      return false;
+    }
+    finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * Returns the snapshot entry for the given file in the given resource directory, provided the file has not
+   * changed since the snapshot was written, or null
+   */
+  @Nullable
+  FileEntry getValidEntry(@NotNull VirtualFile resourceDir, @Nullable VirtualFile file) {
+    if (myEntries.isEmpty() || file == null) {
+      return null;
+    }
+    FileEntry entry = findValidEntry(resourceDir, file);
+    if (entry == null) {
+      myMisses++;
+      return null;
+    }
+    myHits++;
+    return entry;
+  }
+
+  /** Like {@link #getValidEntry}, but without counting the lookup towards {@link #isStale()} */
+  boolean hasValidEntry(@NotNull VirtualFile resourceDir, @NotNull VirtualFile file) {
+    return !myEntries.isEmpty() && findValidEntry(resourceDir, file) != null;
+  }
+
+  @Nullable
+  private FileEntry findValidEntry(@NotNull VirtualFile resourceDir, @NotNull VirtualFile file) {
+    String path = VfsUtilCore.getRelativePath(file, resourceDir, '/');
+    FileEntry entry = path != null ? myEntries.get(path) : null;
+    if (entry == null || entry.timeStamp != file.getTimeStamp() || entry.length != file.getLength() ||
+        FileDocumentManager.getInstance().isFileModified(file)) {
+      return null;
+    }
+    return entry;
+  }
+
+  /** Returns true if a snapshot has been saved for the folder */
+  boolean exists() {
+    return mySnapshotFile.exists();
+  }
+
+  /** Returns true if the snapshot on disk does not fully describe the current scan and should be rewritten */
+  boolean isStale() {
+    return myMisses > 0 || myHits != myEntries.size();
+  }
+
+  /**
+   * Creates an entry describing the given items, defined in the given file, or null if the file has unsaved
+   * changes (in which case it will be rescanned the next time the repository is created)
+   */
+  @Nullable
+  static FileEntry createEntry(@NotNull VirtualFile file, @NotNull List<ResourceItem> items, @NotNull List<ResourceItem> extraIds) {
+    if (FileDocumentManager.getInstance().isFileModified(file)) {
+      return null;
+    }
+    List<ItemEntry> entries = Lists.newArrayListWithExpectedSize(items.size() + extraIds.size());
+    for (ResourceItem item : items) {
+      entries.add(new ItemEntry(item.getType(), item.getName(), true, item instanceof PsiResourceItem && ((PsiResourceItem)item).hasTag()));
+    }
+    for (ResourceItem item : extraIds) {
+      entries.add(new ItemEntry(item.getType(), item.getName(), false, true));
+    }
+    return new FileEntry(file.getTimeStamp(), file.getLength(), entries);
+  }
+
+  /** Writes the given entries, keyed by path relative to the resource directory, to disk */
+  synchronized void save(@NotNull Map<String, FileEntry> entries) {
+    File tempFile = new File(mySnapshotFile.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      FileUtil.createParentDirs(tempFile);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(myResourceDirPath);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, FileEntry> e : entries.entrySet()) {
+        FileEntry entry = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeLong(entry.timeStamp);
+        out.writeLong(entry.length);
+        out.writeInt(entry.items.size());
+        for (ItemEntry item : entry.items) {
+          out.writeUTF(item.type.getName());
+          out.writeUTF(item.name);
+          out.writeByte((item.inFile ? ItemEntry.IN_FILE : 0) | (item.hasTag ? ItemEntry.HAS_TAG : 0));
+        }
+      }
+      out.close();
+      out = null;
+      FileUtil.delete(mySnapshotFile);
+      if (!tempFile.renameTo(mySnapshotFile)) {
+        LOG.info("Could not write resource snapshot " + mySnapshotFile);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Could not write resource snapshot " + mySnapshotFile, e);
+    }
+    finally {
+      closeQuietly(out);
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  /** Looks up the tags for all the pending items restored from a snapshot among the given items from the given file */
+  static void bindPendingTags(@NotNull final PsiFile file, @NotNull final Iterable<ResourceItem> items) {
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        Map<String, XmlTag> tags = Collections.emptyMap();
+        if (file instanceof XmlFile && file.isValid()) {
+          XmlTag root = ((XmlFile)file).getRootTag();
+          if (root != null) {
+            tags = Maps.newHashMap();
+            if (TAG_RESOURCES.equals(root.getName())) {
+              collectValueTags(root, tags);
+            } else {
+              collectIdDefinitions(root, tags);
+              collectIdReferences(root, tags);
+            }
+          }
+        }
+        for (ResourceItem item : items) {
+          if (item instanceof PsiResourceItem) {
+            PsiResourceItem psiItem = (PsiResourceItem)item;
+            if (psiItem.isTagPending()) {
+              psiItem.bindTag(tags.get(getKey(item.getType(), item.getName())));
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private static void collectValueTags(@NotNull XmlTag root, @NotNull Map<String, XmlTag> tags) {
+    for (XmlTag tag : root.getSubTags()) {
+      String name = tag.getAttributeValue(ATTR_NAME);
+      ResourceType type = name != null ? ResourceFolderRepository.getType(tag) : null;
+      if (type == null) {
+        continue;
+      }
+      putIfAbsent(tags, getKey(type, name), tag);
+      if (type == ResourceType.DECLARE_STYLEABLE) {
+        for (XmlTag child : tag.getSubTags()) {
+          String attrName = child.getAttributeValue(ATTR_NAME);
+          if (attrName != null) {
+            putIfAbsent(tags, getKey(ResourceType.ATTR, attrName), child);
+          }
+        }
+      }
+    }
+  }
+
+  private static void collectIdDefinitions(@NotNull XmlTag tag, @NotNull Map<String, XmlTag> tags) {
+    String id = tag.getAttributeValue(ATTR_ID, ANDROID_URI);
+    if (id != null) {
+      if (id.startsWith(NEW_ID_PREFIX)) {
+        putIfAbsent(tags, getKey(ResourceType.ID, id.substring(NEW_ID_PREFIX.length())), tag);
+      } else if (id.startsWith(ID_PREFIX)) {
+        putIfAbsent(tags, getKey(ResourceType.ID, id.substring(ID_PREFIX.length())), tag);
+      }
+    }
+    for (XmlTag child : tag.getSubTags()) {
+      collectIdDefinitions(child, tags);
+    }
+  }
+
+  private static void collectIdReferences(@NotNull XmlTag tag, @NotNull Map<String, XmlTag> tags) {
+    for (XmlAttribute attribute : tag.getAttributes()) {
+      String value = attribute.getValue();
+      if (value != null && value.startsWith(NEW_ID_PREFIX) && ANDROID_URI.equals(attribute.getNamespace())) {
+        putIfAbsent(tags, getKey(ResourceType.ID, value.substring(NEW_ID_PREFIX.length())), tag);
+      }
+    }
+    for (XmlTag child : tag.getSubTags()) {
+      collectIdReferences(child, tags);
+    }
+  }
+
+  private static void putIfAbsent(@NotNull Map<String, XmlTag> tags, @NotNull String key, @NotNull XmlTag tag) {
+    if (!tags.containsKey(key)) {
+      tags.put(key, tag);
+    }
+  }
+
+  @NotNull
+  private static String getKey(@NotNull ResourceType type, @NotNull String name) {
+    return type.getName() + '/' + name;
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      }
+      catch (IOException ignore) {
+      }
+    }
+  }
+
+  /** The snapshot of a single resource file */
+  static final class FileEntry {
+    final long timeStamp;
+    final long length;
+    @NotNull final List<ItemEntry> items;
+
+    FileEntry(long timeStamp, long length, @NotNull List<ItemEntry> items) {
+      this.timeStamp = timeStamp;
+      this.length = length;
+      this.items = items;
+    }
+  }
+
+  /** The snapshot of a single resource item */
+  static final class ItemEntry {
+    private static final int IN_FILE = 1;
+    private static final int HAS_TAG = 2;
+
+    @NotNull final ResourceType type;
+    @NotNull final String name;
+    /** Whether the item is part of its {@link PsiResourceFile}, as opposed to only being registered in the id map */
+    final boolean inFile;
+    final boolean hasTag;
+
+    ItemEntry(@NotNull ResourceType type, @NotNull String name, boolean inFile, boolean hasTag) {
+      this.type = type;
+      this.name = name;
+      this.inFile = inFile;
+      this.hasTag = hasTag;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.ide.common.resources.IntArrayWrapper;
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+import com.google.common.collect.Maps;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of resource ids used by layoutlib during rendering: the ids compiled into the module's R class, plus
+ * dynamically assigned ids for resources which are not (yet) in the R class.
+ * <p/>
+ * Compiled ids have the form {@code 0xPPTTEEEE} (package, type and entry), so reverse lookups are done in dense
+ * arrays indexed by type and entry, holding preallocated name pairs. Dynamic ids are handed out without locking.
+ * All lookups are safe to perform from concurrent render threads.
+ */
+@SuppressWarnings("deprecation") // The Pair class is required by the IProjectCallback
+public class ResourceIdTable {
+  // Project resource ints are defined as 0x7FXX#### where XX is the resource type (layout, drawable,
+  // etc...). Using FF as the type allows for 255 resource types before we get a collision
+  // which should be fine.
+  static final int DYNAMIC_ID_SEED_START = 0x7fff0000;
+
+  private static final int APP_PACKAGE_ID = 0x7f;
+
+  /** Slot used for names without a resource type */
+  private static final int NULL_TYPE_SLOT = ResourceType.values().length;
+
+  private volatile CompiledIds myCompiledIds = new Builder().createIds();
+  private volatile DynamicIds myDynamicIds = new DynamicIds();
+
+  /**
+   * Returns the id for the given resource, assigning a new dynamic id if the resource is not in the compiled R class
+   */
+  public int getId(@Nullable ResourceType type, @NotNull String name) {
+    CompiledIds compiled = myCompiledIds;
+    if (type != null) {
+      TObjectIntHashMap<String> map = compiled.myNameToId[type.ordinal()];
+      // Trove returns 0 for missing keys, which is never a valid resource id
+      int id = map != null ? map.get(name) : 0;
+      if (id != 0) {
+        return id;
+      }
+    }
+    return myDynamicIds.getId(type, name);
+  }
+
+  /** Returns the type and name of the resource with the given id, or null if the id is unknown */
+  @Nullable
+  public Pair<ResourceType, String> resolve(int id) {
+    Pair<ResourceType, String> result = myCompiledIds.resolve(id);
+    if (result == null) {
+      result = myDynamicIds.resolve(id);
+    }
+    return result;
+  }
+
+  /** Returns the name of the styleable with the given attribute ids, or null if not known */
+  @Nullable
+  public String resolveStyleable(@NotNull int[] ids) {
+    // A normal map lookup on int[] would only consider object identity, but the IntArrayWrapper
+    // will check all the individual elements for equality. A new wrapper is used for each lookup
+    // since lookups can come from several render threads at the same time.
+    return myCompiledIds.myStyleables.get(new IntArrayWrapper(ids));
+  }
+
+  /** Replaces the compiled ids with the ones in the given builder. Dynamic ids are not affected. */
+  public void setCompiledIds(@NotNull Builder builder) {
+    myCompiledIds = builder.createIds();
+  }
+
+  /** Discards all dynamically assigned ids */
+  public void resetDynamicIds() {
+    myDynamicIds = new DynamicIds();
+  }
+
+  /** Collects the compiled ids from an R class */
+  public static class Builder {
+    @SuppressWarnings("unchecked")
+    private final TObjectIntHashMap<String>[] myNameToId = new TObjectIntHashMap[ResourceType.values().length];
+    private final TIntObjectHashMap<Pair<ResourceType, String>> myIdToName = new TIntObjectHashMap<Pair<ResourceType, String>>();
+    private final Map<IntArrayWrapper, String> myStyleables = Maps.newHashMap();
+
+    @NotNull
+    public Builder addId(@NotNull ResourceType type, @NotNull String name, int id) {
+      TObjectIntHashMap<String> map = myNameToId[type.ordinal()];
+      if (map == null) {
+        map = new TObjectIntHashMap<String>();
+        myNameToId[type.ordinal()] = map;
+      }
+      map.put(name, id);
+      myIdToName.put(id, Pair.of(type, name));
+      return this;
+    }
+
+    @NotNull
+    public Builder addStyleable(@NotNull String name, @NotNull int[] ids) {
+      myStyleables.put(new IntArrayWrapper(ids), name);
+      return this;
+    }
+
+    @NotNull
+    private CompiledIds createIds() {
+      return new CompiledIds(myNameToId.clone(), myIdToName, Maps.newHashMap(myStyleables));
+    }
+  }
+
+  /** Immutable snapshot of the ids from the compiled R class */
+  private static final class CompiledIds {
+    private final TObjectIntHashMap<String>[] myNameToId;
+    /** Reverse lookup for app ids, indexed by type byte and then entry */
+    private final Pair<ResourceType, String>[][] myAppIdToName;
+    /** Reverse lookup for ids which do not fit in {@link #myAppIdToName} */
+    private final TIntObjectHashMap<Pair<ResourceType, String>> myOtherIdToName = new TIntObjectHashMap<Pair<ResourceType, String>>();
+    private final Map<IntArrayWrapper, String> myStyleables;
+
+    @SuppressWarnings("unchecked")
+    private CompiledIds(@NotNull TObjectIntHashMap<String>[] nameToId,
+                        @NotNull TIntObjectHashMap<Pair<ResourceType, String>> idToName,
+                        @NotNull Map<IntArrayWrapper, String> styleables) {
+      myNameToId = nameToId;
+      myStyleables = styleables;
+
+      final int[] entryCounts = new int[256];
+      for (int id : idToName.keys()) {
+        if (isAppId(id)) {
+          int type = (id >> 16) & 0xff;
+          entryCounts[type] = Math.max(entryCounts[type], (id & 0xffff) + 1);
+        }
+      }
+      myAppIdToName = new Pair[256][];
+      for (int type = 0; type < entryCounts.length; type++) {
+        if (entryCounts[type] > 0) {
+          myAppIdToName[type] = new Pair[entryCounts[type]];
+        }
+      }
+      for (int id : idToName.keys()) {
+        Pair<ResourceType, String> pair = idToName.get(id);
+        if (isAppId(id)) {
+          myAppIdToName[(id >> 16) & 0xff][id & 0xffff] = pair;
+        }
+        else {
+          myOtherIdToName.put(id, pair);
+        }
+      }
+    }
+
+    private static boolean isAppId(int id) {
+      // Entries above the 0x7fff type range are dynamic ids, never compiled ones
+      return (id >>> 24) == APP_PACKAGE_ID && ((id >> 16) & 0xff) != 0xff;
+    }
+
+    @Nullable
+    Pair<ResourceType, String> resolve(int id) {
+      if (isAppId(id)) {
+        Pair<ResourceType, String>[] entries = myAppIdToName[(id >> 16) & 0xff];
+        int entry = id & 0xffff;
+        return entries != null && entry < entries.length ? entries[entry] : null;
+      }
+      return myOtherIdToName.isEmpty() ? null : myOtherIdToName.get(id);
+    }
+  }
+
+  /** Dynamically assigned ids; names are mapped to ids per type, and ids map back to names in lazily allocated chunks */
+  private static final class DynamicIds {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_COUNT = 0x10000 / CHUNK_SIZE;
+
+    private final AtomicInteger mySeed = new AtomicInteger(DYNAMIC_ID_SEED_START);
+    private final AtomicReferenceArray<ConcurrentMap<String, Integer>> myNameToId =
+      new AtomicReferenceArray<ConcurrentMap<String, Integer>>(NULL_TYPE_SLOT + 1);
+    private final AtomicReferenceArray<AtomicReferenceArray<Pair<ResourceType, String>>> myIdToName =
+      new AtomicReferenceArray<AtomicReferenceArray<Pair<ResourceType, String>>>(CHUNK_COUNT);
+    /** Ids handed out after the 0x7fff range has been used up (and wrapped around), which in practice never happens */
+    private final ConcurrentMap<Integer, Pair<ResourceType, String>> myOverflow =
+      new ConcurrentHashMap<Integer, Pair<ResourceType, String>>();
+
+    int getId(@Nullable ResourceType type, @NotNull String name) {
+      ConcurrentMap<String, Integer> map = getNameMap(type);
+      Integer id = map.get(name);
+      if (id != null) {
+        return id;
+      }
+
+      int value = mySeed.incrementAndGet();
+      // Publish the reverse mapping before the id can be seen by anyone else
+      setName(value, Pair.of(type, name));
+      Integer previous = map.putIfAbsent(name, value);
+      if (previous != null) {
+        // Another thread assigned an id first; the id allocated here is simply never used
+        setName(value, null);
+        return previous;
+      }
+      return value;
+    }
+
+    @Nullable
+    Pair<ResourceType, String> resolve(int id) {
+      int index = getIndex(id);
+      if (index == -1) {
+        return myOverflow.isEmpty() ? null : myOverflow.get(id);
+      }
+      AtomicReferenceArray<Pair<ResourceType, String>> chunk = myIdToName.get(index >> CHUNK_BITS);
+      return chunk != null ? chunk.get(index & (CHUNK_SIZE - 1)) : null;
+    }
+
+    @NotNull
+    private ConcurrentMap<String, Integer> getNameMap(@Nullable ResourceType type) {
+      int slot = type != null ? type.ordinal() : NULL_TYPE_SLOT;
+      ConcurrentMap<String, Integer> map = myNameToId.get(slot);
+      if (map == null) {
+        myNameToId.compareAndSet(slot, null, new ConcurrentHashMap<String, Integer>());
+        map = myNameToId.get(slot);
+      }
+      return map;
+    }
+
+    /** Returns the index of the given id in {@link #myIdToName}, or -1 if it is not in the dynamic id range */
+    private static int getIndex(int id) {
+      long index = (long)id - DYNAMIC_ID_SEED_START - 1;
+      return index >= 0 && index < CHUNK_COUNT * CHUNK_SIZE ? (int)index : -1;
+    }
+
+    private void setName(int id, @Nullable Pair<ResourceType, String> name) {
+      int index = getIndex(id);
+      if (index == -1) {
+        if (name != null) {
+          myOverflow.put(id, name);
+        }
+        else {
+          myOverflow.remove(id);
+        }
+        return;
+      }
+      int chunkIndex = index >> CHUNK_BITS;
+      AtomicReferenceArray<Pair<ResourceType, String>> chunk = myIdToName.get(chunkIndex);
+      if (chunk == null) {
+        myIdToName.compareAndSet(chunkIndex, null, new AtomicReferenceArray<Pair<ResourceType, String>>(CHUNK_SIZE));
+        chunk = myIdToName.get(chunkIndex);
+      }
+      chunk.set(index & (CHUNK_SIZE - 1), name);
+    }
+  }
+}
@@ -561,6 +561,8 @@ public class RenderPreview implements Disposable {
     if (renderTask == null) {
       return false;
     }
+    // Preview thumbnails should not hold up rendering of the main editor
+    renderTask.setBackground(true);
 
     if (myIncludedWithin != null) {
       renderTask.setIncludedWithin(myIncludedWithin);
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * A patch that turns the copy of an apk left in /data/local/tmp by the last install into a new build of the apk, so that only
+ * the parts of the new apk that are not in the old one have to be pushed.
+ * <p/>
+ * The new apk is described as a list of segments, each either copied from the old apk or read from the patch file, which holds
+ * the bytes of the new apk that are not in the old one. An entry is copied with its local header if the header is the same in
+ * both apks, and otherwise only its data is copied. The data of entries is compared by CRC, sizes and compression method; pm
+ * install verifies every entry against the signature anyway. Entries copied from consecutive places of the old apk form one
+ * segment.
+ * <p/>
+ * The patch is applied on the device by a script with a {@code tail -c} and {@code head -c} pipe per segment, which ends by
+ * printing the MD5 of the result. So a patch is only used if it has few segments, and the caller compares the MD5 with that of
+ * the new apk, which also catches devices without these commands.
+ */
+public class ApkDelta {
+  /** Above this many segments, running the script on the device can take longer than pushing the whole apk */
+  @VisibleForTesting
+  static final int MAX_SEGMENTS = 100;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  /** Where the entries of an apk are, and the bytes around their data */
+  public static final class Layout {
+    private final long myLength;
+    @NotNull private final Map<String, Record> myRecords;
+
+    private Layout(long length, @NotNull Map<String, Record> records) {
+      myLength = length;
+      myRecords = records;
+    }
+
+    public long getLength() {
+      return myLength;
+    }
+  }
+
+  /** An entry as stored in the apk: local header, data, and what follows the data up to the next entry */
+  private static final class Record {
+    final long myOffset;
+    final long myDataOffset;
+    final long myEnd;
+    final long myCrc;
+    final long mySize;
+    final long myCompressedSize;
+    final int myMethod;
+    @NotNull final byte[] myHeader;
+    /** Bytes between the data and the next record, such as a data descriptor */
+    @NotNull final byte[] myTrailer;
+
+    Record(long offset,
+           long dataOffset,
+           long end,
+           long crc,
+           long size,
+           long compressedSize,
+           int method,
+           @NotNull byte[] header,
+           @NotNull byte[] trailer) {
+      myOffset = offset;
+      myDataOffset = dataOffset;
+      myEnd = end;
+      myCrc = crc;
+      mySize = size;
+      myCompressedSize = compressedSize;
+      myMethod = method;
+      myHeader = header;
+      myTrailer = trailer;
+    }
+
+    long getDataEnd() {
+      return myDataOffset + myCompressedSize;
+    }
+
+    boolean hasSameData(@NotNull Record other) {
+      return myCrc == other.myCrc && mySize == other.mySize && myCompressedSize == other.myCompressedSize &&
+             myMethod == other.myMethod;
+    }
+
+    boolean isSame(@NotNull Record other) {
+      return hasSameData(other) && Arrays.equals(myHeader, other.myHeader) && Arrays.equals(myTrailer, other.myTrailer);
+    }
+  }
+
+  /** A range of the new apk, copied either from the old apk or from the new apk through the patch */
+  @VisibleForTesting
+  static final class Segment {
+    final boolean myFromOld;
+    /** Offset in the old apk for segments copied from it, and in the new apk otherwise */
+    final long myOffset;
+    long myLength;
+
+    Segment(boolean fromOld, long offset, long length) {
+      myFromOld = fromOld;
+      myOffset = offset;
+      myLength = length;
+    }
+  }
+
+  @NotNull private final List<Segment> mySegments;
+  private final long myPatchSize;
+
+  private ApkDelta(@NotNull List<Segment> segments) {
+    mySegments = segments;
+    long patchSize = 0;
+    for (Segment segment : segments) {
+      if (!segment.myFromOld) {
+        patchSize += segment.myLength;
+      }
+    }
+    myPatchSize = patchSize;
+  }
+
+  /**
+   * Returns a patch from the apk of the first layout to that of the second, or null if it would have too many segments or would
+   * not save much over pushing the new apk
+   */
+  @Nullable
+  public static ApkDelta create(@NotNull Layout old, @NotNull Layout current) {
+    List<Segment> segments = Lists.newArrayList();
+    long offset = 0;
+    for (Map.Entry<String, Record> entry : sortByOffset(current.myRecords)) {
+      Record record = entry.getValue();
+      Record oldRecord = old.myRecords.get(entry.getKey());
+      add(segments, false, offset, record.myOffset - offset);
+      if (oldRecord != null && oldRecord.isSame(record)) {
+        add(segments, true, oldRecord.myOffset, record.myEnd - record.myOffset);
+      }
+      else if (oldRecord != null && oldRecord.hasSameData(record)) {
+        add(segments, false, record.myOffset, record.myDataOffset - record.myOffset);
+        add(segments, true, oldRecord.myDataOffset, record.myCompressedSize);
+        add(segments, false, record.getDataEnd(), record.myEnd - record.getDataEnd());
+      }
+      else {
+        add(segments, false, record.myOffset, record.myEnd - record.myOffset);
+      }
+      offset = record.myEnd;
+    }
+    add(segments, false, offset, current.myLength - offset);
+
+    ApkDelta delta = new ApkDelta(segments);
+    if (segments.size() > MAX_SEGMENTS || delta.myPatchSize > current.myLength / 2) {
+      return null;
+    }
+    return delta;
+  }
+
+  @NotNull
+  private static List<Map.Entry<String, Record>> sortByOffset(@NotNull Map<String, Record> records) {
+    List<Map.Entry<String, Record>> entries = Lists.newArrayList(records.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Record>>() {
+      @Override
+      public int compare(Map.Entry<String, Record> e1, Map.Entry<String, Record> e2) {
+        long offset1 = e1.getValue().myOffset;
+        long offset2 = e2.getValue().myOffset;
+        return offset1 < offset2 ? -1 : offset1 == offset2 ? 0 : 1;
+      }
+    });
+    return entries;
+  }
+
+  /** Adds a segment, or extends the last one if the new one follows it in the same file */
+  private static void add(@NotNull List<Segment> segments, boolean fromOld, long offset, long length) {
+    if (length <= 0) {
+      return;
+    }
+    Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (last != null && last.myFromOld == fromOld && last.myOffset + last.myLength == offset) {
+      last.myLength += length;
+    }
+    else {
+      segments.add(new Segment(fromOld, offset, length));
+    }
+  }
+
+  @VisibleForTesting
+  @NotNull
+  List<Segment> getSegments() {
+    return mySegments;
+  }
+
+  /** Returns the size of the patch file, which is what is pushed instead of the new apk besides the script */
+  public long getPatchSize() {
+    return myPatchSize;
+  }
+
+  /** Writes the bytes of the new apk that are not copied from the old one */
+  public void writePatch(@NotNull File apk, @NotNull File patch) throws IOException {
+    RandomAccessFile input = new RandomAccessFile(apk, "r");
+    try {
+      OutputStream output = new BufferedOutputStream(new FileOutputStream(patch));
+      try {
+        byte[] buffer = new byte[64 * 1024];
+        for (Segment segment : mySegments) {
+          if (segment.myFromOld) {
+            continue;
+          }
+          input.seek(segment.myOffset);
+          long remaining = segment.myLength;
+          while (remaining > 0) {
+            int read = input.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+            if (read < 0) {
+              throw new EOFException("Unexpected end of " + apk);
+            }
+            output.write(buffer, 0, read);
+            remaining -= read;
+          }
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Returns a shell script which writes the new apk to the given path from the old apk and the patch, and then prints its MD5.
+   * The paths must not contain single quotes.
+   */
+  @NotNull
+  public String getScript(@NotNull String oldPath, @NotNull String patchPath, @NotNull String newPath) {
+    StringBuilder script = new StringBuilder();
+    script.append("rm -f '").append(newPath).append("' && (\n");
+    long patchOffset = 0;
+    for (Segment segment : mySegments) {
+      long offset;
+      String path;
+      if (segment.myFromOld) {
+        offset = segment.myOffset;
+        path = oldPath;
+      }
+      else {
+        offset = patchOffset;
+        path = patchPath;
+        patchOffset += segment.myLength;
+      }
+      // tail counts from 1
+      script.append("tail -c +").append(offset + 1).append(" '").append(path).append("' | head -c ").append(segment.myLength)
+        .append('\n');
+    }
+    script.append(") > '").append(newPath).append("' && md5sum '").append(newPath).append("'\n");
+    return script.toString();
+  }
+
+  /** Reads the layout of an apk from its central directory and local headers */
+  @NotNull
+  public static Layout readLayout(@NotNull File apk) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(apk, "r");
+    try {
+      long length = file.length();
+      byte[] end = findEnd(file, length);
+      int entryCount = getShort(end, 10);
+      long directorySize = getInt(end, 12);
+      long directoryOffset = getInt(end, 16);
+      if (directoryOffset + directorySize > length || directorySize > Integer.MAX_VALUE) {
+        throw new ZipException("Invalid central directory in " + apk);
+      }
+
+      byte[] directory = new byte[(int)directorySize];
+      file.seek(directoryOffset);
+      file.readFully(directory);
+
+      // Name -> {offset, crc, size, compressed size, method}, in the order of the directory
+      Map<String, long[]> entries = Maps.newLinkedHashMap();
+      int position = 0;
+      for (int i = 0; i < entryCount; i++) {
+        if (position + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, position) != CENTRAL_HEADER_SIGNATURE) {
+          throw new ZipException("Invalid central directory entry in " + apk);
+        }
+        int nameLength = getShort(directory, position + 28);
+        int extraLength = getShort(directory, position + 30);
+        int commentLength = getShort(directory, position + 32);
+        String name = new String(directory, position + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+        entries.put(name, new long[]{getInt(directory, position + 42), getInt(directory, position + 16), getInt(directory, position + 24),
+          getInt(directory, position + 20), getShort(directory, position + 10)});
+        position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+
+      List<long[]> sorted = Lists.newArrayList(entries.values());
+      Collections.sort(sorted, new Comparator<long[]>() {
+        @Override
+        public int compare(long[] e1, long[] e2) {
+          return e1[0] < e2[0] ? -1 : e1[0] == e2[0] ? 0 : 1;
+        }
+      });
+      Map<long[], Long> ends = Maps.newIdentityHashMap();
+      for (int i = 0; i < sorted.size(); i++) {
+        ends.put(sorted.get(i), i + 1 < sorted.size() ? sorted.get(i + 1)[0] : directoryOffset);
+      }
+
+      Map<String, Record> records = Maps.newHashMapWithExpectedSize(entries.size());
+      for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+        long[] values = entry.getValue();
+        records.put(entry.getKey(), readRecord(file, apk, values, ends.get(values)));
+      }
+      return new Layout(length, records);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  @NotNull
+  private static Record readRecord(@NotNull RandomAccessFile file, @NotNull File apk, @NotNull long[] values, long end)
+    throws IOException {
+    long offset = values[0];
+    byte[] fixedHeader = new byte[LOCAL_HEADER_SIZE];
+    file.seek(offset);
+    file.readFully(fixedHeader);
+    if (getInt(fixedHeader, 0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Invalid local header in " + apk);
+    }
+    long dataOffset = offset + LOCAL_HEADER_SIZE + getShort(fixedHeader, 26) + getShort(fixedHeader, 28);
+    long dataEnd = dataOffset + values[3];
+    if (dataEnd > end) {
+      throw new ZipException("Overlapping entries in " + apk);
+    }
+
+    byte[] header = new byte[(int)(dataOffset - offset)];
+    file.seek(offset);
+    file.readFully(header);
+    byte[] trailer = new byte[(int)(end - dataEnd)];
+    file.seek(dataEnd);
+    file.readFully(trailer);
+    return new Record(offset, dataOffset, end, values[1], values[2], values[3], (int)values[4], header, trailer);
+  }
+
+  /** Returns the end of central directory record, which is followed by a comment of up to 64K */
+  @NotNull
+  private static byte[] findEnd(@NotNull RandomAccessFile file, long length) throws IOException {
+    int size = (int)Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+    byte[] buffer = new byte[size];
+    file.seek(length - size);
+    file.readFully(buffer);
+    for (int i = size - END_SIZE; i >= 0; i--) {
+      if (getInt(buffer, i) == END_SIGNATURE) {
+        return Arrays.copyOfRange(buffer, i, i + END_SIZE);
+      }
+    }
+    throw new ZipException("No central directory found");
+  }
+
+  private static int getShort(@NotNull byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+  }
+
+  private static long getInt(@NotNull byte[] bytes, int offset) {
+    return (getShort(bytes, offset) | (long)getShort(bytes, offset + 2) << 16) & 0xffffffffL;
+  }
+}
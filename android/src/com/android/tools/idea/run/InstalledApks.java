@@ -18,8 +18,8 @@ package com.android.tools.idea.run;
 import com.android.annotations.VisibleForTesting;
 import com.android.ddmlib.*;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 import com.intellij.openapi.Disposable;
@@ -30,17 +30,29 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 public class InstalledApks implements AndroidDebugBridge.IDeviceChangeListener, Disposable {
   /**
    * A map from device serial -> package name -> install state.
-   * The install state provides the hash of the apk that was installed, and the last update time as obtained from the device.
+   * The install state provides the contents of the apk that was installed, and the last update time as obtained from the device.
    */
   private final Map<String, Map<String, InstallState>> myCache = Maps.newHashMap();
 
+  /**
+   * Contents of local apks, such that an apk deployed to several devices at once is only read once. Keyed by path, and
+   * only valid while the size and timestamp of the file are unchanged.
+   */
+  private final Map<String, ApkContents> myContents = Maps.newHashMap();
+
   /** Diagnostic output set by {@link #getLastUpdateTime(com.android.ddmlib.IDevice, String)} */
   private String myDiagnosticOutput;
 
@@ -54,29 +66,40 @@ public class InstalledApks implements AndroidDebugBridge.IDeviceChangeListener,
   }
 
   public boolean isInstalled(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
+    List<String> changedEntries = getChangedEntries(device, apk, pkgName);
+    return changedEntries != null && changedEntries.isEmpty();
+  }
+
+  /**
+   * Returns the names of the entries of the given apk that were added, changed or removed since it was last installed on the
+   * device, or null if it is not known what is installed. The entries are compared by the CRCs and sizes recorded in the zip
+   * directory, so an apk that was only repackaged (which changes the timestamps of its entries) is still considered installed.
+   */
+  @Nullable
+  public List<String> getChangedEntries(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
     String serial = device.getSerialNumber();
-    Map<String, InstallState> cache = myCache.get(serial);
-    if (cache == null) {
-      return false;
-    }
+    InstallState state;
+    synchronized (myCache) {
+      Map<String, InstallState> cache = myCache.get(serial);
+      if (cache == null) {
+        return null;
+      }
 
-    InstallState state = cache.get(pkgName);
-    if (state == null) {
-      return false;
+      state = cache.get(pkgName);
+      if (state == null) {
+        return null;
+      }
     }
 
     String lastUpdateTime = getLastUpdateTime(device, pkgName);
-    return lastUpdateTime != null && lastUpdateTime.equals(state.lastUpdateTime) && state.hash.equals(hash(apk));
+    if (lastUpdateTime == null || !lastUpdateTime.equals(state.lastUpdateTime)) {
+      return null;
+    }
+    return getContents(apk).getChangedEntries(state.contents);
   }
 
   public void setInstalled(@NotNull IDevice device, @NotNull File apk, @NotNull String pkgName) throws IOException {
     String serial = device.getSerialNumber();
-    Map<String, InstallState> cache = myCache.get(serial);
-    if (cache == null) {
-      cache = Maps.newHashMap();
-      myCache.put(serial, cache);
-    }
-
     String lastUpdateTime = getLastUpdateTime(device, pkgName);
     if (lastUpdateTime == null) {
       // set installed should be called only after the package has been installed
@@ -90,12 +113,84 @@ public class InstalledApks implements AndroidDebugBridge.IDeviceChangeListener,
       Logger.getInstance(InstalledApks.class).warn(msg);
       return;
     }
-    cache.put(pkgName, new InstallState(hash(apk), lastUpdateTime));
+    InstallState state = new InstallState(getContents(apk), readLayout(apk), lastUpdateTime);
+    synchronized (myCache) {
+      Map<String, InstallState> cache = myCache.get(serial);
+      if (cache == null) {
+        cache = Maps.newHashMap();
+        myCache.put(serial, cache);
+      }
+      cache.put(pkgName, state);
+    }
+  }
+
+  /**
+   * Returns the layout of the apk last installed by {@link #setInstalled}, which is what the copy of the apk left on the device
+   * is expected to be, or null if it is unknown or not an apk. Check that the package is still installed first, for instance
+   * with {@link #getChangedEntries}.
+   */
+  @Nullable
+  public ApkDelta.Layout getInstalledLayout(@NotNull IDevice device, @NotNull String pkgName) {
+    synchronized (myCache) {
+      Map<String, InstallState> cache = myCache.get(device.getSerialNumber());
+      InstallState state = cache != null ? cache.get(pkgName) : null;
+      return state != null ? state.layout : null;
+    }
+  }
+
+  @Nullable
+  private static ApkDelta.Layout readLayout(@NotNull File apk) {
+    try {
+      return ApkDelta.readLayout(apk);
+    }
+    catch (IOException e) {
+      // Not an apk, or one that ApkDelta cannot patch; it is pushed in full next time
+      Logger.getInstance(InstalledApks.class).info(e);
+      return null;
+    }
+  }
+
+  @NotNull
+  private ApkContents getContents(@NotNull File apk) throws IOException {
+    long length = apk.length();
+    long lastModified = apk.lastModified();
+    synchronized (myContents) {
+      ApkContents contents = myContents.get(apk.getPath());
+      if (contents == null || contents.length != length || contents.lastModified != lastModified) {
+        contents = new ApkContents(readEntries(apk), length, lastModified);
+        myContents.put(apk.getPath(), contents);
+      }
+      return contents;
+    }
   }
 
+  /**
+   * Reads the CRC and size of each entry from the zip directory of the apk, which is much cheaper than hashing the whole file.
+   * A file that is not a zip file is treated as a single entry.
+   */
   @NotNull
-  private static HashCode hash(@NotNull File apk) throws IOException {
-    return Files.hash(apk, Hashing.goodFastHash(32));
+  private static Map<String, EntryDigest> readEntries(@NotNull File apk) throws IOException {
+    ZipFile zip;
+    try {
+      zip = new ZipFile(apk);
+    }
+    catch (ZipException e) {
+      EntryDigest digest = new EntryDigest(Files.hash(apk, Hashing.goodFastHash(32)).asInt(), apk.length());
+      return Collections.singletonMap(apk.getName(), digest);
+    }
+
+    try {
+      Map<String, EntryDigest> entries = Maps.newHashMapWithExpectedSize(zip.size());
+      Enumeration<? extends ZipEntry> enumeration = zip.entries();
+      while (enumeration.hasMoreElements()) {
+        ZipEntry entry = enumeration.nextElement();
+        entries.put(entry.getName(), new EntryDigest(entry.getCrc(), entry.getSize()));
+      }
+      return entries;
+    }
+    finally {
+      zip.close();
+    }
   }
 
   @Override
@@ -104,7 +199,9 @@ public class InstalledApks implements AndroidDebugBridge.IDeviceChangeListener,
 
   @Override
   public void deviceDisconnected(IDevice device) {
-    myCache.remove(device.getSerialNumber());
+    synchronized (myCache) {
+      myCache.remove(device.getSerialNumber());
+    }
   }
 
   @Override
@@ -173,12 +270,66 @@ public class InstalledApks implements AndroidDebugBridge.IDeviceChangeListener,
     return receiver.getOutput();
   }
 
+  private static class EntryDigest {
+    public final long crc;
+    public final long size;
+
+    public EntryDigest(long crc, long size) {
+      this.crc = crc;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof EntryDigest)) return false;
+      EntryDigest other = (EntryDigest)o;
+      return crc == other.crc && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int)(crc ^ (crc >>> 32)) + (int)(size ^ (size >>> 32));
+    }
+  }
+
+  private static class ApkContents {
+    @NotNull public final Map<String, EntryDigest> entries;
+    public final long length;
+    public final long lastModified;
+
+    public ApkContents(@NotNull Map<String, EntryDigest> entries, long length, long lastModified) {
+      this.entries = entries;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    /** Returns the names of the entries that differ from those of the given contents, in no particular order */
+    @NotNull
+    public List<String> getChangedEntries(@NotNull ApkContents previous) {
+      List<String> changed = Lists.newArrayList();
+      for (Map.Entry<String, EntryDigest> entry : entries.entrySet()) {
+        if (!entry.getValue().equals(previous.entries.get(entry.getKey()))) {
+          changed.add(entry.getKey());
+        }
+      }
+      for (String name : previous.entries.keySet()) {
+        if (!entries.containsKey(name)) {
+          changed.add(name);
+        }
+      }
+      return changed;
+    }
+  }
+
   private static class InstallState {
-    @NotNull public final HashCode hash;
+    @NotNull public final ApkContents contents;
+    @Nullable public final ApkDelta.Layout layout;
     @Nullable public final String lastUpdateTime;
 
-    public InstallState(@NotNull HashCode hash, @Nullable String lastUpdateTime) {
-      this.hash = hash;
+    public InstallState(@NotNull ApkContents contents, @Nullable ApkDelta.Layout layout, @Nullable String lastUpdateTime) {
+      this.contents = contents;
+      this.layout = layout;
       this.lastUpdateTime = lastUpdateTime;
     }
   }
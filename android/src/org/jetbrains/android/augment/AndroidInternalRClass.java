@@ -3,6 +3,7 @@ package org.jetbrains.android.augment;
 import com.android.resources.ResourceType;
 import com.intellij.ide.highlighter.JavaFileType;
 import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
@@ -88,8 +89,15 @@ public class AndroidInternalRClass extends AndroidLightClassBase {
 
     @NotNull
     @Override
-    protected PsiField[] doGetFields() {
-      return buildResourceFields(mySystemResourceManager, false, myName, AndroidInternalRClass.this);
+    protected ResourceFields doGetResourceFields() {
+      return new ResourceFields(mySystemResourceManager, false, myName, AndroidInternalRClass.this);
+    }
+
+    @NotNull
+    @Override
+    protected Object[] getFieldsDependencies() {
+      // The platform resources only change along with the SDK
+      return new Object[]{ProjectRootManager.getInstance(getProject())};
     }
   }
 
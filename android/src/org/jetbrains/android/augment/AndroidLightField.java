@@ -32,6 +32,8 @@ class AndroidLightField extends LightElement implements PsiField, PsiVariableEx,
   private final Object myConstantValue;
 
   private volatile PsiExpression myInitializer;
+  /** Text of the initializer, which is only parsed if {@link #getInitializer()} is called */
+  private volatile String myInitializerText;
   private volatile String myName;
   private volatile LightModifierList myModifierList;
 
@@ -91,10 +93,21 @@ class AndroidLightField extends LightElement implements PsiField, PsiVariableEx,
   @Override
   public void setInitializer(@Nullable PsiExpression initializer) throws IncorrectOperationException {
     myInitializer = initializer;
+    myInitializerText = null;
+  }
+
+  public void setInitializerText(@Nullable String initializerText) {
+    myInitializer = null;
+    myInitializerText = initializerText;
   }
 
   @Override
   public PsiExpression getInitializer() {
+    final String initializerText = myInitializerText;
+
+    if (myInitializer == null && initializerText != null) {
+      myInitializer = JavaPsiFacade.getElementFactory(getProject()).createExpressionFromText(initializerText, this);
+    }
     return myInitializer;
   }
 
@@ -41,12 +41,11 @@ abstract class ManifestInnerClass extends AndroidLightClass {
 
           final PsiField[] result = new PsiField[pairs.size()];
           final PsiClassType stringType = PsiType.getJavaLangString(myManager, GlobalSearchScope.allScope(getProject()));
-          final PsiElementFactory factory = JavaPsiFacade.getElementFactory(getProject());
           int i = 0;
           for (Pair<String, String> pair : pairs) {
             final AndroidLightField field =
               new AndroidLightField(pair.getFirst(), ManifestInnerClass.this, stringType, true, pair.getSecond());
-            field.setInitializer(factory.createExpressionFromText("\"" + pair.getSecond() + "\"", field));
+            field.setInitializerText("\"" + pair.getSecond() + "\"");
             result[i++] = field;
           }
 
@@ -1,12 +1,19 @@
 package org.jetbrains.android.augment;
 
+import com.android.resources.ResourceType;
+import com.android.tools.idea.rendering.AppResourceRepository;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiField;
 import org.jetbrains.android.compiler.AndroidCompileUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
 /**
 * @author Eugene.Kudelevsky
 */
@@ -22,14 +29,59 @@ public class ResourceTypeClass extends ResourceTypeClassBase {
   static PsiField[] buildLocalResourceFields(@NotNull AndroidFacet facet,
                                              @NotNull String resClassName,
                                              @NotNull final PsiClass context) {
+    return buildResourceFields(facet.getLocalResourceManager(), isGenerateNonFinalFields(facet), resClassName, context);
+  }
+
+  private static boolean isGenerateNonFinalFields(@NotNull AndroidFacet facet) {
     final Module circularDepLibWithSamePackage = AndroidCompileUtil.findCircularDependencyOnLibraryWithSamePackage(facet);
-    final boolean generateNonFinalFields = facet.isLibraryProject() || circularDepLibWithSamePackage != null;
-    return buildResourceFields(facet.getLocalResourceManager(), generateNonFinalFields, resClassName, context);
+    return facet.isLibraryProject() || circularDepLibWithSamePackage != null;
+  }
+
+  @NotNull
+  @Override
+  protected ResourceFields doGetResourceFields() {
+    return new ResourceFields(myFacet.getLocalResourceManager(), isGenerateNonFinalFields(myFacet), myName, this);
   }
 
   @NotNull
   @Override
-  protected PsiField[] doGetFields() {
-    return buildLocalResourceFields(myFacet, myName, this);
+  protected Object[] getFieldsDependencies() {
+    final ResourceType type = ResourceType.getEnum(myName);
+    return new Object[]{new MyResourceTypeModificationTracker(myFacet, type), ProjectRootManager.getInstance(getProject())};
+  }
+
+  /**
+   * Changes when resources of the given type are added to or removed from the app resources, but not when their values are
+   * edited, since the fields only depend on the names of the resources. Styleables also depend on the attributes they declare.
+   * <p/>
+   * The generations start over when the app resources are recreated (e.g. after a sync), so the tracker also changes when
+   * the repository it was created for is replaced.
+   */
+  private static class MyResourceTypeModificationTracker implements ModificationTracker {
+    private final AndroidFacet myFacet;
+    private final ResourceType myType;
+    private final Reference<AppResourceRepository> myResources;
+
+    MyResourceTypeModificationTracker(@NotNull AndroidFacet facet, @NotNull ResourceType type) {
+      myFacet = facet;
+      myType = type;
+      myResources = new WeakReference<AppResourceRepository>(facet.getAppResources(true));
+    }
+
+    @Override
+    public long getModificationCount() {
+      final AppResourceRepository resources = myFacet.getAppResources(true);
+
+      if (resources != myResources.get()) {
+        // Generations are never negative
+        return -1;
+      }
+      long count = resources.getModificationCount(myType);
+
+      if (myType == ResourceType.STYLEABLE) {
+        count += resources.getModificationCount(ResourceType.ATTR);
+      }
+      return count;
+    }
   }
 }
@@ -1,24 +1,32 @@
 package org.jetbrains.android.augment;
 
 import com.android.resources.ResourceType;
+import com.google.common.annotations.VisibleForTesting;
 import com.intellij.psi.*;
+import com.intellij.psi.scope.ElementClassHint;
+import com.intellij.psi.scope.NameHint;
+import com.intellij.psi.scope.PsiScopeProcessor;
 import com.intellij.psi.util.CachedValue;
 import com.intellij.psi.util.CachedValueProvider;
 import com.intellij.psi.util.CachedValuesManager;
-import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.HashMap;
 import org.jetbrains.android.resourceManagers.ResourceManager;
 import org.jetbrains.android.util.AndroidResourceUtil;
 import org.jetbrains.android.util.ResourceEntry;
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author Eugene.Kudelevsky
  */
 public abstract class ResourceTypeClassBase extends AndroidLightClass {
-  private CachedValue<PsiField[]> myFieldsCache;
+  private CachedValue<ResourceFields> myFieldsCache;
 
   public ResourceTypeClassBase(PsiClass context, String name) {
     super(context, name);
@@ -29,50 +37,55 @@ public abstract class ResourceTypeClassBase extends AndroidLightClass {
                                         boolean nonFinal,
                                         @NotNull String resClassName,
                                         @NotNull final PsiClass context) {
-    final Map<String, PsiType> fieldNames = new HashMap<String, PsiType>();
-    final boolean styleable = ResourceType.STYLEABLE.getName().equals(resClassName);
-    final PsiType basicType = styleable ? PsiType.INT.createArrayType() : PsiType.INT;
+    return new ResourceFields(manager, nonFinal, resClassName, context).getFields();
+  }
 
-    for (String resName : manager.getResourceNames(resClassName)) {
-      fieldNames.put(resName, basicType);
-    }
+  @NotNull
+  @Override
+  public PsiField[] getFields() {
+    return getResourceFields().getFields();
+  }
 
-    if (styleable) {
-      for (ResourceEntry entry : manager.getValueResourceEntries(ResourceType.ATTR.getName())) {
-        final String resName = entry.getName();
-        final String resContext = entry.getContext();
+  @Override
+  public PsiField findFieldByName(@NonNls String name, boolean checkBases) {
+    return getResourceFields().findField(name);
+  }
 
-        if (resContext.length() > 0) {
-          fieldNames.put(resContext + '_' + resName, PsiType.INT);
-        }
+  @Override
+  public boolean processDeclarations(@NotNull PsiScopeProcessor processor,
+                                     @NotNull ResolveState state,
+                                     PsiElement lastParent,
+                                     @NotNull PsiElement place) {
+    // Resolving a reference such as R.string.app_name only needs the field with that name, so don't create the others
+    final NameHint nameHint = processor.getHint(NameHint.KEY);
+    final ElementClassHint classHint = processor.getHint(ElementClassHint.KEY);
+    final String name = nameHint != null ? nameHint.getName(state) : null;
+
+    if (name != null && (classHint == null || classHint.shouldProcess(ElementClassHint.DeclarationKind.FIELD))) {
+      final PsiField field = findFieldByName(name, false);
+
+      if (field != null) {
+        return processor.execute(field, state);
+      }
+      if (classHint != null &&
+          !classHint.shouldProcess(ElementClassHint.DeclarationKind.METHOD) &&
+          !classHint.shouldProcess(ElementClassHint.DeclarationKind.CLASS)) {
+        return true;
       }
     }
-    final PsiField[] result = new PsiField[fieldNames.size()];
-    final PsiElementFactory factory = JavaPsiFacade.getElementFactory(context.getProject());
-
-    int idIterator = ResourceType.getEnum(resClassName).ordinal() * 100000;
-    int i = 0;
-
-    for (Map.Entry<String, PsiType> entry : fieldNames.entrySet()) {
-      final String fieldName = AndroidResourceUtil.getFieldNameByResourceName(entry.getKey());
-      final PsiType type = entry.getValue();
-      final int id = -(idIterator++);
-      final AndroidLightField field =
-        new AndroidLightField(fieldName, context, type, !nonFinal, nonFinal ? null : id);
-      field.setInitializer(factory.createExpressionFromText(Integer.toString(id), field));
-      result[i++] = field;
-    }
-    return result;
+    return super.processDeclarations(processor, state, lastParent, place);
   }
 
   @NotNull
-  @Override
-  public PsiField[] getFields() {
+  @VisibleForTesting
+  ResourceFields getResourceFields() {
     if (myFieldsCache == null) {
-      myFieldsCache = CachedValuesManager.getManager(getProject()).createCachedValue(new CachedValueProvider<PsiField[]>() {
+      myFieldsCache = CachedValuesManager.getManager(getProject()).createCachedValue(new CachedValueProvider<ResourceFields>() {
         @Override
-        public Result<PsiField[]> compute() {
-          return Result.create(doGetFields(), PsiModificationTracker.MODIFICATION_COUNT);
+        public Result<ResourceFields> compute() {
+          // Capture the dependencies first, such that changes made while the fields are computed aren't missed
+          final Object[] dependencies = getFieldsDependencies();
+          return Result.create(doGetResourceFields(), dependencies);
         }
       });
     }
@@ -80,5 +93,106 @@ public abstract class ResourceTypeClassBase extends AndroidLightClass {
   }
 
   @NotNull
-  protected abstract PsiField[] doGetFields();
+  protected abstract ResourceFields doGetResourceFields();
+
+  /**
+   * Returns the dependencies of the fields, see {@link CachedValueProvider.Result#create(Object, Object...)}. These should be
+   * the resources the fields are computed from rather than all PSI, so that the fields survive edits of Java code.
+   */
+  @NotNull
+  protected abstract Object[] getFieldsDependencies();
+
+  /**
+   * The fields of a resource type class. The names of the fields are computed up front, but the {@link PsiField}s are only
+   * created when they are asked for, so that looking up one resource doesn't create a field for every resource of the type.
+   */
+  static class ResourceFields {
+    private final PsiClass myContext;
+    private final boolean myNonFinal;
+    private final int myFirstId;
+    /** Sorted field names */
+    private final String[] myNames;
+    private final PsiType[] myTypes;
+    private final AtomicReferenceArray<PsiField> myFields;
+    private volatile PsiField[] myAllFields;
+
+    ResourceFields(@NotNull ResourceManager manager, boolean nonFinal, @NotNull String resClassName, @NotNull PsiClass context) {
+      final Map<String, PsiType> fieldNames = new HashMap<String, PsiType>();
+      final boolean styleable = ResourceType.STYLEABLE.getName().equals(resClassName);
+      final PsiType basicType = styleable ? PsiType.INT.createArrayType() : PsiType.INT;
+
+      for (String resName : manager.getResourceNames(resClassName)) {
+        fieldNames.put(AndroidResourceUtil.getFieldNameByResourceName(resName), basicType);
+      }
+
+      if (styleable) {
+        for (ResourceEntry entry : manager.getValueResourceEntries(ResourceType.ATTR.getName())) {
+          final String resName = entry.getName();
+          final String resContext = entry.getContext();
+
+          if (resContext.length() > 0) {
+            fieldNames.put(AndroidResourceUtil.getFieldNameByResourceName(resContext + '_' + resName), PsiType.INT);
+          }
+        }
+      }
+      myContext = context;
+      myNonFinal = nonFinal;
+      myFirstId = ResourceType.getEnum(resClassName).ordinal() * 100000;
+      myNames = ArrayUtil.toStringArray(fieldNames.keySet());
+      Arrays.sort(myNames);
+      myTypes = new PsiType[myNames.length];
+
+      for (int i = 0; i < myNames.length; i++) {
+        myTypes[i] = fieldNames.get(myNames[i]);
+      }
+      myFields = new AtomicReferenceArray<PsiField>(myNames.length);
+    }
+
+    @NotNull
+    PsiField[] getFields() {
+      PsiField[] result = myAllFields;
+
+      if (result == null) {
+        result = new PsiField[myNames.length];
+
+        for (int i = 0; i < result.length; i++) {
+          result[i] = getField(i);
+        }
+        myAllFields = result;
+      }
+      return result;
+    }
+
+    @VisibleForTesting
+    int getCreatedFieldCount() {
+      int count = 0;
+
+      for (int i = 0; i < myFields.length(); i++) {
+        if (myFields.get(i) != null) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @Nullable
+    PsiField findField(@NotNull String name) {
+      final int index = Arrays.binarySearch(myNames, name);
+      return index >= 0 ? getField(index) : null;
+    }
+
+    @NotNull
+    private PsiField getField(int index) {
+      final PsiField field = myFields.get(index);
+
+      if (field != null) {
+        return field;
+      }
+      final int id = -(myFirstId + index);
+      final AndroidLightField newField =
+        new AndroidLightField(myNames[index], myContext, myTypes[index], !myNonFinal, myNonFinal ? null : id);
+      newField.setInitializerText(Integer.toString(id));
+      return myFields.compareAndSet(index, null, newField) ? newField : myFields.get(index);
+    }
+  }
 }
@@ -46,7 +46,13 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   private boolean myFullMessageApplicable = false;
   private boolean myFullMessageApplicableByCustomFilter = false;
   private StringBuilder myMessageBuilder = new StringBuilder();
-  
+
+  /**
+   * The most recently parsed line. Each line is checked by {@link #processLine}, the log level filter and the custom filter,
+   * so this saves parsing it three times.
+   */
+  private volatile ParsedLine myLastParsedLine;
+
   protected List<AndroidLogFilter> myLogFilters = new ArrayList<AndroidLogFilter>();
 
   public AndroidLogFilterModel() {
@@ -102,7 +108,8 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     }
   }
 
-  private static Key getProcessOutputType(@NotNull Log.LogLevel level) {
+  @NotNull
+  static Key getProcessOutputType(@NotNull Log.LogLevel level) {
     switch (level) {
       case VERBOSE:
         return AndroidLogcatConstants.VERBOSE;
@@ -127,6 +134,11 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     return selectedLogLevelFilter == null || selectedLogLevelFilter.isAcceptable(text);
   }
 
+  /** Returns whether the line matches the search text of the console, regardless of the log level and configured filter */
+  boolean isApplicableBySearchText(String text) {
+    return super.isApplicable(text);
+  }
+
   public boolean isApplicableByCustomFilter(String text) {
     final ConfiguredFilter configuredFilterName = getConfiguredFilter();
     if (configuredFilterName == null) {
@@ -139,7 +151,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     String pid = null;
     String message = text;
 
-    Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(text);
+    Pair<LogMessageHeader, String> result = parseMessage(text);
     if (result.getFirst() != null) {
       LogMessageHeader header = result.getFirst();
       logLevel = header.myLogLevel;
@@ -167,6 +179,27 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     return configuredFilterName.isApplicable(message, tag, pkg, pid, logLevel);
   }
 
+  @NotNull
+  private Pair<LogMessageHeader, String> parseMessage(@NotNull String line) {
+    ParsedLine parsed = myLastParsedLine;
+    // Identity check first: the same line instance is passed to all the filters
+    if (parsed == null || (parsed.myLine != line && !parsed.myLine.equals(line))) {
+      parsed = new ParsedLine(line, AndroidLogcatFormatter.parseMessage(line));
+      myLastParsedLine = parsed;
+    }
+    return parsed.myResult;
+  }
+
+  private static final class ParsedLine {
+    final String myLine;
+    final Pair<LogMessageHeader, String> myResult;
+
+    private ParsedLine(@NotNull String line, @NotNull Pair<LogMessageHeader, String> result) {
+      myLine = line;
+      myResult = result;
+    }
+  }
+
   @Override
   public List<? extends LogFilter> getLogFilters() {
     return myLogFilters;
@@ -184,7 +217,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
     public boolean isAcceptable(String line) {
       Log.LogLevel logLevel = null;
 
-      Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(line);
+      Pair<LogMessageHeader, String> result = parseMessage(line);
       if (result.getFirst() != null) {
         logLevel = result.getFirst().myLogLevel;
       }
@@ -197,6 +230,19 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
 
   public abstract String getSelectedLogLevelName();
 
+  @Nullable
+  Log.LogLevel getSelectedLogLevel() {
+    final String filterName = getSelectedLogLevelName();
+    if (filterName != null) {
+      for (AndroidLogFilter logFilter : myLogFilters) {
+        if (filterName.equals(logFilter.myLogLevel.name())) {
+          return logFilter.myLogLevel;
+        }
+      }
+    }
+    return null;
+  }
+
   @Nullable
   private LogFilter getSelectedLogLevelFilter() {
     final String filterName = getSelectedLogLevelName();
@@ -241,7 +287,7 @@ public abstract class AndroidLogFilterModel extends LogFilterModel {
   @Override
   @NotNull
   public MyProcessingResult processLine(String line) {
-    Pair<LogMessageHeader, String> result = AndroidLogcatFormatter.parseMessage(line);
+    Pair<LogMessageHeader, String> result = parseMessage(line);
     final boolean messageHeader = result.getFirst() != null;
 
     if (messageHeader) {
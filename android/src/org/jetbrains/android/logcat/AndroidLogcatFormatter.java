@@ -21,11 +21,7 @@ import com.android.ddmlib.Log;
 import com.google.common.primitives.Ints;
 import com.intellij.openapi.util.Pair;
 import org.jetbrains.android.logcat.AndroidLogcatReceiver.LogMessageHeader;
-import org.jetbrains.annotations.NonNls;
-
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
 
 public class AndroidLogcatFormatter {
   /**
@@ -39,46 +35,130 @@ public class AndroidLogcatFormatter {
   @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
   static final String TAG_SEPARATOR = "\ufe55"; // unicode small colon
 
-  @NonNls
-  private static final Pattern LOGMESSAGE_PATTERN =
-    Pattern.compile("(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d.\\d+)\\s+" +   // time
-                    "(\\d+)-(\\d+)/" +                // pid-tid
-                    "(\\S+)\\s+" +                    // package
-                    "([A-Z])/" +                      // log level
-                    "(.*)" + TAG_SEPARATOR + " " +    // tag
-                    "(.*)"                            // message
-    );
+  /** Width the "pid-tid" column is padded to */
+  private static final int IDS_WIDTH = 12;
 
+  /**
+   * Formats the given message with its header. This is called for every logcat line, so it is hand written rather than
+   * using {@link String#format}; the output has the form {@code "<time> <pid-tid padded to 12>/<package> <level>/<tag>: <message>"}
+   */
   public static String formatMessage(String message, LogMessageHeader header) {
-    String ids = String.format(Locale.US, "%d-%s", header.myPid, header.myTid);
-    return String.format(Locale.US,
-                         "%1$s %2$12s/%3$s %4$c/%5$s%6$s %7$s",
-                         header.myTime,
-                         ids,
-                         header.myAppPackage.isEmpty() ? "?" : header.myAppPackage,
-                         header.myLogLevel.getPriorityLetter(),
-                         header.myTag,
-                         TAG_SEPARATOR,
-                         message);
+    StringBuilder sb = new StringBuilder(header.myTime.length() + header.myTag.length() + message.length() + 40);
+    sb.append(header.myTime).append(' ');
+    String ids = header.myPid + "-" + header.myTid;
+    for (int i = ids.length(); i < IDS_WIDTH; i++) {
+      sb.append(' ');
+    }
+    sb.append(ids).append('/');
+    sb.append(header.myAppPackage.isEmpty() ? "?" : header.myAppPackage).append(' ');
+    sb.append(header.myLogLevel.getPriorityLetter()).append('/');
+    sb.append(header.myTag).append(TAG_SEPARATOR).append(' ');
+    sb.append(message);
+    return sb.toString();
   }
 
-  /** Parse a message that was encoded using {@link #formatMessage(String, LogMessageHeader)}. */
+  /**
+   * Parse a message that was encoded using {@link #formatMessage(String, LogMessageHeader)}.
+   * <p/>
+   * This is called several times for every line shown in the logcat view, so it is a hand written parser rather than
+   * a regular expression. It accepts {@code "<time>\s+<pid>-<tid>/<package>\s+<level>/<tag>: <message>"}.
+   */
   public static Pair<LogMessageHeader,String> parseMessage(String msg) {
-    final Matcher matcher = LOGMESSAGE_PATTERN.matcher(msg);
-    if (!matcher.matches()) {
+    int length = msg.length();
+
+    // Time: dd-dd dd:dd:dd.d+
+    if (length < 16 || !isDigits(msg, 0, 2) || msg.charAt(2) != '-' || !isDigits(msg, 3, 5) || !isWhitespace(msg.charAt(5)) ||
+        !isDigits(msg, 6, 8) || msg.charAt(8) != ':' || !isDigits(msg, 9, 11) || msg.charAt(11) != ':' || !isDigits(msg, 12, 14)) {
+      return Pair.create(null, msg);
+    }
+    int index = skipDigits(msg, 15);
+    if (index == 15) {
+      return Pair.create(null, msg);
+    }
+    String time = msg.substring(0, index);
+
+    // pid-tid/
+    int pidStart = skipWhitespace(msg, index);
+    if (pidStart == index) {
+      return Pair.create(null, msg);
+    }
+    int pidEnd = skipDigits(msg, pidStart);
+    if (pidEnd == pidStart || pidEnd >= length || msg.charAt(pidEnd) != '-') {
+      return Pair.create(null, msg);
+    }
+    int tidEnd = skipDigits(msg, pidEnd + 1);
+    if (tidEnd == pidEnd + 1 || tidEnd >= length || msg.charAt(tidEnd) != '/') {
+      return Pair.create(null, msg);
+    }
+
+    // package, whitespace, level/
+    int packageEnd = tidEnd + 1;
+    while (packageEnd < length && !isWhitespace(msg.charAt(packageEnd))) {
+      packageEnd++;
+    }
+    int levelIndex = skipWhitespace(msg, packageEnd);
+    if (packageEnd == tidEnd + 1 || levelIndex == packageEnd || levelIndex + 1 >= length) {
+      return Pair.create(null, msg);
+    }
+    char level = msg.charAt(levelIndex);
+    if (level < 'A' || level > 'Z' || msg.charAt(levelIndex + 1) != '/') {
+      return Pair.create(null, msg);
+    }
+
+    // tag: message, where the tag extends to the last separator
+    int tagStart = levelIndex + 2;
+    int separator = msg.lastIndexOf(TAG_SEPARATOR + " ");
+    if (separator < tagStart) {
       return Pair.create(null, msg);
     }
 
     LogMessageHeader header = new LogMessageHeader();
-    header.myTime = matcher.group(1).trim();
-    Integer pid = Ints.tryParse(matcher.group(2));
+    header.myTime = time.trim();
+    Integer pid = Ints.tryParse(msg.substring(pidStart, pidEnd));
     header.myPid = pid == null ? 0 : pid;
-    header.myTid = matcher.group(3).trim();
-    header.myAppPackage = matcher.group(4).trim();
-    header.myLogLevel = Log.LogLevel.getByLetter(matcher.group(5).trim().charAt(0));
-    header.myTag = matcher.group(6).trim();
-    String message = matcher.group(7);
+    header.myTid = msg.substring(pidEnd + 1, tidEnd);
+    header.myAppPackage = msg.substring(tidEnd + 1, packageEnd);
+    header.myLogLevel = Log.LogLevel.getByLetter(level);
+    header.myTag = msg.substring(tagStart, separator).trim();
+    String message = msg.substring(separator + TAG_SEPARATOR.length() + 1);
 
     return Pair.create(header, message);
   }
+
+  static boolean isDigits(@NotNull String s, int start, int end) {
+    if (end > s.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (!isDigit(s.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the index of the first non digit character at or after the given index */
+  static int skipDigits(@NotNull String s, int index) {
+    while (index < s.length() && isDigit(s.charAt(index))) {
+      index++;
+    }
+    return index;
+  }
+
+  /** Returns the index of the first non whitespace character at or after the given index */
+  static int skipWhitespace(@NotNull String s, int index) {
+    while (index < s.length() && isWhitespace(s.charAt(index))) {
+      index++;
+    }
+    return index;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /** Same as the {@code \s} regular expression character class */
+  static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
 }
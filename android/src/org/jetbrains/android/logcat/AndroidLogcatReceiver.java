@@ -22,13 +22,14 @@ import com.android.tools.idea.logcat.StackTraceExpander;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import org.jetbrains.android.util.AndroidOutputReceiver;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import static org.jetbrains.android.logcat.AndroidLogcatFormatter.*;
 
 /**
  * Created by IntelliJ IDEA.
@@ -38,8 +39,6 @@ import java.util.regex.Pattern;
  */
 public class AndroidLogcatReceiver extends AndroidOutputReceiver {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.android.logcat.AndroidLogcatReceiver");
-  private static Pattern LOG_PATTERN =
-    Pattern.compile("^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$", Pattern.DOTALL);
 
   /** Prefix to use for all lines without a header. */
   public static final String CONTINUATION_LINE_PREFIX = StringUtil.repeatSymbol(' ', 4);
@@ -62,6 +61,7 @@ public class AndroidLogcatReceiver extends AndroidOutputReceiver {
   private Log.LogLevel myPrevLogLevel;
   private final Writer myWriter;
   private final IDevice myDevice;
+  @Nullable private final LogcatHistory myHistory;
 
   private final StackTraceExpander myStackTraceExpander = new StackTraceExpander(CONTINUATION_LINE_PREFIX,
                                                                                  STACK_TRACE_LINE_PREFIX,
@@ -69,65 +69,147 @@ public class AndroidLogcatReceiver extends AndroidOutputReceiver {
                                                                                  STACK_TRACE_CAUSE_LINE_PREFIX);
 
   public AndroidLogcatReceiver(IDevice device, Writer writer) {
+    this(device, writer, null);
+  }
+
+  /**
+   * @param history if not null, every line written is also recorded in the history
+   */
+  public AndroidLogcatReceiver(IDevice device, Writer writer, @Nullable LogcatHistory history) {
     myDevice = device;
     myWriter = new PrintWriter(writer);
+    myHistory = history;
   }
 
   @Override
   public void processNewLine(String line) {
-    Matcher matcher = LOG_PATTERN.matcher(line);
-    if (myLastMessageHeader == null && matcher.matches()) {
-      myLastMessageHeader = new LogMessageHeader();
-      myLastMessageHeader.myTime = matcher.group(1);
-      myLastMessageHeader.myPid = Integer.valueOf(matcher.group(2));
-
-      String tid = matcher.group(3).trim();
-      long tidValue;
-      try {
-        // Thread id's may be in hex on some platforms.
-        // Decode and store them in radix 10.
-        tidValue = Long.decode(tid.trim());
-      } catch (NumberFormatException e) {
-        tidValue = -1;
-      }
-      myLastMessageHeader.myTid = Long.toString(tidValue);
-
-      myLastMessageHeader.myAppPackage =
-        myDevice == null ? "" : myDevice.getClientName(myLastMessageHeader.myPid);
-      myLastMessageHeader.myLogLevel = getByLetterString(matcher.group(4));
-      myLastMessageHeader.myTag = matcher.group(5).trim();
+    LogMessageHeader header = myLastMessageHeader == null ? parseHeader(line) : null;
+    if (header != null) {
+      header.myAppPackage = myDevice == null ? "" : myDevice.getClientName(header.myPid);
+      myLastMessageHeader = header;
     }
     else {
       if (line.length() == 0) return;
-      String text;
-      if (myLastMessageHeader == null) {
-        text = myStackTraceExpander.expand(line);
-      } else {
-        text = getFullMessage(line, myLastMessageHeader);
+      String text = myLastMessageHeader == null ? myStackTraceExpander.expand(line) : getFullMessage(line, myLastMessageHeader);
+      if (myHistory != null) {
+        // The line is recorded and written under the history's monitor, so that readers of the written lines can tell which
+        // of them are in the history
+        synchronized (myHistory) {
+          if (myLastMessageHeader == null) {
+            myHistory.addContinuation(text);
+          }
+          else {
+            myHistory.addMessage(myLastMessageHeader, line, text);
+          }
+          write(text);
+        }
       }
-      try {
-        myWriter.write(text + '\n');
-      }
-      catch (IOException ignored) {
-        LOG.info(ignored);
+      else {
+        write(text);
       }
       myLastMessageHeader = null;
     }
   }
 
+  private void write(@NotNull String text) {
+    try {
+      myWriter.write(text + '\n');
+    }
+    catch (IOException ignored) {
+      LOG.info(ignored);
+    }
+  }
+
+  /**
+   * Parses a message header printed by {@code logcat -v long}, of the form {@code "[ <time> <pid>:<tid> <level>/<tag> ]"}.
+   * This is called for every line logcat prints, so it is a hand written parser rather than a regular expression.
+   *
+   * @return the header, without the app package, or null if the line is not a header
+   */
   @Nullable
-  private static Log.LogLevel getByLetterString(@Nullable String s) {
-    if (s == null) {
+  static LogMessageHeader parseHeader(@NotNull String line) {
+    int length = line.length();
+    if (length < 4 || line.charAt(0) != '[' || !isWhitespace(line.charAt(1)) || line.charAt(length - 1) != ']') {
+      return null;
+    }
+
+    // Time: dd-dd dd:dd:dd.d+
+    int timeStart = 2;
+    if (length < timeStart + 16 || !isDigits(line, timeStart, timeStart + 2) || line.charAt(timeStart + 2) != '-' ||
+        !isDigits(line, timeStart + 3, timeStart + 5) || !isWhitespace(line.charAt(timeStart + 5)) ||
+        !isDigits(line, timeStart + 6, timeStart + 8) || line.charAt(timeStart + 8) != ':' ||
+        !isDigits(line, timeStart + 9, timeStart + 11) || line.charAt(timeStart + 11) != ':' ||
+        !isDigits(line, timeStart + 12, timeStart + 14) || line.charAt(timeStart + 14) != '.') {
+      return null;
+    }
+    int timeEnd = skipDigits(line, timeStart + 15);
+    if (timeEnd == timeStart + 15) {
       return null;
     }
-    final Log.LogLevel logLevel = Log.LogLevel.getByLetterString(s);
 
-    /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
-     * to generate "A", but generates "F" */
-    if (logLevel == null && s.equals("F")) {
-      return Log.LogLevel.ASSERT;
+    // pid:tid
+    int pidStart = skipWhitespace(line, timeEnd);
+    if (pidStart == timeEnd) {
+      return null;
+    }
+    int pidEnd = skipDigits(line, pidStart);
+    if (pidEnd >= length || line.charAt(pidEnd) != ':') {
+      return null;
+    }
+    int tidStart = skipWhitespace(line, pidEnd + 1);
+    int tidEnd = tidStart;
+    while (tidEnd < length && !isWhitespace(line.charAt(tidEnd))) {
+      tidEnd++;
+    }
+
+    // Exactly one space, then the level and the tag
+    int levelIndex = tidEnd + 1;
+    if (tidEnd == tidStart || levelIndex + 1 >= length - 1 || line.charAt(levelIndex + 1) != '/') {
+      return null;
+    }
+    Log.LogLevel logLevel = getByLetter(line.charAt(levelIndex));
+    if (logLevel == null) {
+      return null;
+    }
+
+    LogMessageHeader header = new LogMessageHeader();
+    header.myTime = line.substring(timeStart, timeEnd);
+    header.myPid = pidEnd > pidStart ? Integer.parseInt(line.substring(pidStart, pidEnd)) : 0;
+    long tidValue;
+    try {
+      // Thread id's may be in hex on some platforms.
+      // Decode and store them in radix 10.
+      tidValue = Long.decode(line.substring(tidStart, tidEnd));
+    } catch (NumberFormatException e) {
+      tidValue = -1;
+    }
+    header.myTid = Long.toString(tidValue);
+    header.myLogLevel = logLevel;
+    header.myTag = line.substring(levelIndex + 2, length - 1).trim();
+    return header;
+  }
+
+  @Nullable
+  private static Log.LogLevel getByLetter(char c) {
+    switch (c) {
+      case 'V':
+        return Log.LogLevel.VERBOSE;
+      case 'D':
+        return Log.LogLevel.DEBUG;
+      case 'I':
+        return Log.LogLevel.INFO;
+      case 'W':
+        return Log.LogLevel.WARN;
+      case 'E':
+        return Log.LogLevel.ERROR;
+      case 'A':
+      case 'F':
+        /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
+         * to generate "A", but generates "F" */
+        return Log.LogLevel.ASSERT;
+      default:
+        return null;
     }
-    return logLevel;
   }
 
   @Override
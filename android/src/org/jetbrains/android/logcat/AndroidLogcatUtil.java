@@ -87,41 +87,37 @@ public class AndroidLogcatUtil {
                                           final IDevice device,
                                           final boolean clearLogcat,
                                           @NotNull final LogConsoleBase console) {
+    return startLoggingThread(project, device, clearLogcat, console, null, new LogcatRingBuffer());
+  }
+
+  /**
+   * @param history if not null, the lines logged are also recorded in the given history
+   * @param buffer the buffer holding the lines until the console reads them; it is closed once logging stops
+   */
+  @Nullable
+  public static Pair<Reader, Writer> startLoggingThread(final Project project,
+                                                       final IDevice device,
+                                                       final boolean clearLogcat,
+                                                       @NotNull final LogConsoleBase console,
+                                                       @Nullable LogcatHistory history,
+                                                       @NotNull LogcatRingBuffer buffer) {
     UIUtil.invokeAndWaitIfNeeded(new Runnable() {
       @Override
       public void run() {
         console.clear();
       }
     });
-    PipedWriter logWriter = new PipedWriter();
-    final AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(device, logWriter);
-    final PipedReader logReader;
-    try {
-      logReader = new PipedReader(logWriter) {
-        @Override
-        public void close() throws IOException {
-          super.close();
-          receiver.cancel();
-        }
-
-        @Override
-        public synchronized boolean ready() {
-          // We have to avoid Logging error in LogConsoleBase if logcat is finished incorrectly
-          try {
-            return super.ready();
-          }
-          catch (IOException e) {
-            LOG.debug(e);
-            return false;
-          }
-        }
-      };
-    }
-    catch (IOException e) {
-      LOG.info(e);
-      console.writeToConsole("Unable to run logcat. IOException: " + e.getMessage() + '\n', ProcessOutputTypes.STDERR);
-      return null;
-    }
+    // A bounded ring rather than a pipe, such that a chatty device never stalls the receiver; lines the console
+    // can not keep up with are dropped and reported
+    final Writer logWriter = buffer.createWriter();
+    final AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(device, logWriter, history);
+    final Reader logReader = new FilterReader(buffer.createReader()) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        receiver.cancel();
+      }
+    };
     ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
       @Override
       public void run() {
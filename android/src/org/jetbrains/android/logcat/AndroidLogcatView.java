@@ -17,10 +17,13 @@ package org.jetbrains.android.logcat;
 
 import com.android.ddmlib.Client;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
 import com.android.tools.idea.ddms.DeviceContext;
+import com.google.common.collect.Lists;
 import com.intellij.diagnostic.logging.LogConsoleBase;
 import com.intellij.diagnostic.logging.LogConsoleListener;
 import com.intellij.execution.impl.ConsoleViewImpl;
+import com.intellij.execution.process.ProcessOutputTypes;
 import com.intellij.execution.ui.ConsoleView;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
@@ -38,17 +41,19 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.ColoredListCellRenderer;
 import com.intellij.ui.IdeBorderFactory;
 import com.intellij.ui.SideBorder;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.android.util.AndroidBundle;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.ItemEvent;
-import java.awt.event.ItemListener;
+import java.awt.event.*;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.List;
 
 import static javax.swing.BoxLayout.X_AXIS;
@@ -64,6 +69,12 @@ public abstract class AndroidLogcatView implements Disposable {
   public static final String NO_FILTERS = AndroidBundle.message("android.logcat.filters.none");
   public static final String EDIT_FILTER_CONFIGURATION = AndroidBundle.message("android.logcat.filters.edit");
 
+  /** Number of characters of the history shown when switching filters, which matches the default console buffer size */
+  private static final int MAX_REPLAYED_CHARS = 1024 * 1024;
+
+  /** Interval at which the lines per second gauge is updated, which matches the window of {@link LogcatRingBuffer} */
+  private static final int RATE_REFRESH_MS = 1000;
+
   private final Project myProject;
   private final DeviceContext myDeviceContext;
 
@@ -78,6 +89,13 @@ public abstract class AndroidLogcatView implements Disposable {
 
   private volatile Reader myCurrentReader;
   private volatile Writer myCurrentWriter;
+  private volatile LogcatHistory myCurrentHistory;
+  private volatile LogcatRingBuffer myCurrentBuffer;
+  /** Filter to show the history of the session with, once the console's reader thread gets to it */
+  @Nullable private volatile ConfiguredFilter myPendingReplayFilter;
+
+  private JBLabel myRateLabel;
+  private Timer myRateTimer;
 
   private final IDevice myPreselectedDevice;
 
@@ -135,6 +153,13 @@ public abstract class AndroidLogcatView implements Disposable {
     protected Reader getReader() {
       return myCurrentReader;
     }
+
+    @Override
+    public boolean ready() throws IOException {
+      // The console checks whether a line is ready before reading each one, on its reader thread
+      replayFromHistory();
+      return super.ready();
+    }
   }
 
   /**
@@ -333,14 +358,52 @@ public abstract class AndroidLogcatView implements Disposable {
     });
     panel.add(editFiltersCombo);
 
+    myRateLabel = new JBLabel();
+    myRateLabel.setForeground(UIUtil.getLabelDisabledForeground());
+    panel.add(myRateLabel);
+
     final JPanel searchComponent = new JPanel();
     searchComponent.setLayout(new BoxLayout(searchComponent, X_AXIS));
     searchComponent.add(myLogConsole.getSearchComponent());
     searchComponent.add(panel);
 
+    if (myRateTimer == null) {
+      myRateTimer = new Timer(RATE_REFRESH_MS, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          updateRateLabel();
+        }
+      });
+    }
+    // The gauge is only updated while it is shown
+    searchComponent.addHierarchyListener(new HierarchyListener() {
+      @Override
+      public void hierarchyChanged(HierarchyEvent e) {
+        if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+          if (e.getComponent().isShowing()) {
+            updateRateLabel();
+            myRateTimer.start();
+          }
+          else {
+            myRateTimer.stop();
+          }
+        }
+      }
+    });
+
     return searchComponent;
   }
 
+  private void updateRateLabel() {
+    LogcatRingBuffer buffer = myCurrentBuffer;
+    if (buffer != null && !buffer.isClosed()) {
+      myRateLabel.setText(AndroidBundle.message("android.logcat.lines.per.second", buffer.getLinesPerSecond()));
+    }
+    else {
+      myRateLabel.setText("");
+    }
+  }
+
   protected abstract boolean isActive();
 
   public void activate() {
@@ -376,19 +439,25 @@ public abstract class AndroidLogcatView implements Disposable {
             LOG.error(e);
           }
         }
+        closeHistory();
         if (device != null) {
           final ConsoleView console = myLogConsole.getConsole();
           if (console != null) {
             console.clear();
           }
-          final Pair<Reader, Writer> pair = AndroidLogcatUtil.startLoggingThread(myProject, device, false, myLogConsole);
+          myCurrentHistory = LogcatHistory.create();
+          final LogcatRingBuffer buffer = new LogcatRingBuffer();
+          final Pair<Reader, Writer> pair =
+            AndroidLogcatUtil.startLoggingThread(myProject, device, false, myLogConsole, myCurrentHistory, buffer);
           if (pair != null) {
             myCurrentReader = pair.first;
             myCurrentWriter = pair.second;
+            myCurrentBuffer = buffer;
           }
           else {
             myCurrentReader = null;
             myCurrentWriter = null;
+            myCurrentBuffer = null;
           }
         }
       }
@@ -412,6 +481,11 @@ public abstract class AndroidLogcatView implements Disposable {
   private void applySelectedFilter() {
     final Object filter = myFilterComboBoxModel.getSelectedItem();
     if (filter instanceof ConfiguredFilter) {
+      if (myCurrentHistory != null && myCurrentBuffer != null) {
+        // Picked up by the console's reader thread, see replayFromHistory
+        myPendingReplayFilter = (ConfiguredFilter)filter;
+        return;
+      }
       ProgressManager.getInstance().run(new Task.Backgroundable(myProject, LogConsoleBase.APPLYING_FILTER_TITLE) {
         @Override
         public void run(@NotNull ProgressIndicator indicator) {
@@ -421,6 +495,115 @@ public abstract class AndroidLogcatView implements Disposable {
     }
   }
 
+  /**
+   * Shows the lines accepted by a newly selected filter by querying the indexed history of the current device session, instead
+   * of re-parsing all the text held by the console. The history also covers lines which have already scrolled out of the
+   * console buffer.
+   * <p/>
+   * This runs on the console's reader thread, between two lines, so no line is added to the console meanwhile. The lines
+   * waiting in the buffer are discarded in the same step as the end of the history is taken, so each line is either replayed
+   * from the history or read from the buffer afterwards, but never both. The replayed lines already passed the filter and log
+   * level in the history query, so they are written to the console directly, checking only the search text.
+   */
+  private void replayFromHistory() {
+    final ConfiguredFilter filter = myPendingReplayFilter;
+    if (filter == null) {
+      return;
+    }
+    myPendingReplayFilter = null;
+    final LogcatHistory history;
+    final LogcatRingBuffer buffer;
+    synchronized (myLock) {
+      history = myCurrentHistory;
+      buffer = myCurrentBuffer;
+    }
+
+    myLogFilterModel.setConfiguredFilter(filter);
+    UIUtil.invokeAndWaitIfNeeded(new Runnable() {
+      @Override
+      public void run() {
+        myLogConsole.clear();
+      }
+    });
+    if (history == null || buffer == null) {
+      return;
+    }
+
+    final int end;
+    // The receiver adds each line to the history and to the buffer under the history's monitor
+    synchronized (history) {
+      end = history.getRecordCount();
+      buffer.clear();
+    }
+    final List<String> lines = Lists.newArrayList();
+    final List<Key> types = Lists.newArrayList();
+    try {
+      int[] records = history.query(filter, myLogFilterModel.getSelectedLogLevel());
+      int count = records.length;
+      while (count > 0 && records[count - 1] >= end) {
+        count--;
+      }
+      // Only read as much as the console would keep anyway, starting from the most recent lines. Older records may have
+      // been evicted from the history meanwhile. Messages are shown in full if any of their lines matches the search text.
+      int chars = 0;
+      int groupEnd = count;
+      boolean groupMatches = false;
+      for (int i = count - 1; i >= 0 && chars < MAX_REPLAYED_CHARS; i--) {
+        String text = history.getText(records[i]);
+        int groupStart = history.getGroupStart(records[i]);
+        if (text == null || groupStart == -1) {
+          break;
+        }
+        groupMatches |= myLogFilterModel.isApplicableBySearchText(text);
+        lines.add(text);
+        if (i == 0 || history.getGroupStart(records[i - 1]) != groupStart) {
+          if (!groupMatches) {
+            lines.subList(lines.size() - (groupEnd - i), lines.size()).clear();
+          }
+          else {
+            chars += getLength(lines, groupEnd - i);
+            Log.LogLevel level = history.getLevel(records[i]);
+            Key type = level != null ? AndroidLogFilterModel.getProcessOutputType(level) : ProcessOutputTypes.STDOUT;
+            for (int j = i; j < groupEnd; j++) {
+              types.add(type);
+            }
+          }
+          groupEnd = i;
+          groupMatches = false;
+        }
+      }
+      // Drop a message cut short by the character limit or by eviction
+      lines.subList(types.size(), lines.size()).clear();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    Collections.reverse(lines);
+    Collections.reverse(types);
+
+    // Kept in the console's text as well, so that changing the search text filters them again
+    final StringBuffer document = myLogConsole.getOriginalDocument();
+    for (int i = 0; i < lines.size(); i++) {
+      document.append(lines.get(i)).append('\n');
+      myLogConsole.writeToConsole(lines.get(i) + '\n', types.get(i));
+    }
+  }
+
+  private static int getLength(@NotNull List<String> lines, int count) {
+    int length = 0;
+    for (int i = lines.size() - count; i < lines.size(); i++) {
+      length += lines.get(i).length() + 1;
+    }
+    return length;
+  }
+
+  private void closeHistory() {
+    if (myCurrentHistory != null) {
+      myCurrentHistory.close();
+      myCurrentHistory = null;
+    }
+  }
+
   private void updateFilterCombobox(String select) {
     final AndroidConfiguredLogFilters filters = AndroidConfiguredLogFilters.getInstance(myProject);
     final List<AndroidConfiguredLogFilters.MyFilterEntry> entries = filters.getFilterEntries();
@@ -449,6 +632,12 @@ public abstract class AndroidLogcatView implements Disposable {
 
   @Override
   public void dispose() {
+    if (myRateTimer != null) {
+      myRateTimer.stop();
+    }
+    synchronized (myLock) {
+      closeHistory();
+    }
   }
 
   private class MyRestartAction extends AnAction {
@@ -67,6 +67,31 @@ class ConfiguredFilter {
     return myName;
   }
 
+  @Nullable
+  Pattern getMessagePattern() {
+    return myMessagePattern;
+  }
+
+  @Nullable
+  Pattern getTagPattern() {
+    return myTagPattern;
+  }
+
+  @Nullable
+  Pattern getPkgNamePattern() {
+    return myPkgNamePattern;
+  }
+
+  @Nullable
+  String getPid() {
+    return myPid;
+  }
+
+  @Nullable
+  Log.LogLevel getLogLevel() {
+    return myLogLevel;
+  }
+
   @Nullable
   @Contract ("!null,_ -> !null")
   public static ConfiguredFilter compile(@Nullable AndroidConfiguredLogFilters.MyFilterEntry entry,
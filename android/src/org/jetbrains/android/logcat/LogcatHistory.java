@@ -0,0 +1,726 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.logcat;
+
+import com.android.ddmlib.Log;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.android.logcat.AndroidLogcatReceiver.LogMessageHeader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The logcat output of one device session, kept in append-only segment files on disk together with in-memory indexes,
+ * such that the session can be filtered without re-parsing its text.
+ * <p/>
+ * Every line written to the logcat console is a record. Records are numbered in order; their formatted text is stored
+ * in the segment files, while their level, tag, pid and package are kept in columns and in per value posting lists.
+ * Message text is indexed by token (runs of letters and digits), so literal message filters only have to look at the
+ * text of candidate records. Continuation lines (such as stack traces) belong to the record group of the message before
+ * them and share its header fields.
+ * <p/>
+ * Each segment holds a fixed number of records. Once the maximum number of segments is reached, starting a new segment
+ * evicts the oldest one: its file is deleted and its records are dropped from the columns and indexes, so memory and
+ * disk use are bounded however long the session runs. The history keeps the last 512K lines, which covers hours of logcat at
+ * typical rates, but only a minute or two of a device logging thousands of lines per second.
+ * <p/>
+ * Records are added and indexes are queried while holding the history's monitor; text is read from disk under a
+ * separate lock, so that reading does not hold up the logcat receiver.
+ */
+public class LogcatHistory {
+  private static final Logger LOG = Logger.getInstance(LogcatHistory.class);
+
+  /** Tokens shorter than this are not indexed, since they would match most records anyway */
+  static final int MIN_TOKEN_LENGTH = 3;
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+  private static final int MAX_SEGMENTS = 8;
+
+  private static final int READ_WINDOW_SIZE = 1024 * 1024;
+  private static final String REGEX_META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+  /** Number of records in each segment */
+  private final int mySegmentSize;
+  private final int myMaxSegments;
+
+  private final List<Segment> mySegments = Lists.newArrayList();
+  private OutputStream myOutput;
+  private boolean myFlushed = true;
+  private long myLength;
+  private boolean myClosed;
+
+  /** Number of the oldest record which has not been evicted */
+  private int myFirstRecord;
+
+  // Columns, indexed by record - myFirstRecord
+  private final TLongArrayList myOffsets = new TLongArrayList();
+  /** Character index at which the message starts in the formatted text, 0 for continuation lines */
+  private final TIntArrayList myMessageStarts = new TIntArrayList();
+  private final TIntArrayList myGroupStarts = new TIntArrayList();
+  private final TIntArrayList myLevels = new TIntArrayList();
+  private final TIntArrayList myTags = new TIntArrayList();
+  private final TIntArrayList myPids = new TIntArrayList();
+  private final TIntArrayList myPackages = new TIntArrayList();
+
+  // Secondary indexes: record lists per value, in record order
+  private final TIntArrayList[] myLevelIndex = new TIntArrayList[Log.LogLevel.values().length];
+  private final Dictionary myTagIndex = new Dictionary();
+  private final Dictionary myPackageIndex = new Dictionary();
+  private final TIntObjectHashMap<TIntArrayList> myPidIndex = new TIntObjectHashMap<TIntArrayList>();
+  private final Map<String, TIntArrayList> myTokenIndex = Maps.newHashMap();
+
+  // The current record group, whose header fields are shared by continuation lines
+  private int myGroupStart = -1;
+  @Nullable private Log.LogLevel myGroupLevel;
+  private int myGroupTag = -1;
+  private int myGroupPid;
+  private int myGroupPackage = -1;
+
+  // Read window over one segment file, guarded by myReadLock
+  private final Object myReadLock = new Object();
+  private final byte[] myWindow = new byte[READ_WINDOW_SIZE];
+  @Nullable private Segment myWindowSegment;
+  private long myWindowStart;
+  private int myWindowLength;
+
+  private LogcatHistory(int segmentSize, int maxSegments) {
+    mySegmentSize = segmentSize;
+    myMaxSegments = maxSegments;
+  }
+
+  /** Creates a history backed by new temporary segment files, or returns null if the files cannot be created */
+  @Nullable
+  public static LogcatHistory create() {
+    return create(SEGMENT_SIZE, MAX_SEGMENTS);
+  }
+
+  @VisibleForTesting
+  @Nullable
+  static LogcatHistory create(int segmentSize, int maxSegments) {
+    LogcatHistory history = new LogcatHistory(segmentSize, maxSegments);
+    try {
+      history.startSegment();
+      return history;
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      return null;
+    }
+  }
+
+  /** Adds a message line, formatted with {@link AndroidLogcatFormatter#formatMessage} */
+  public synchronized void addMessage(@NotNull LogMessageHeader header, @NotNull String message, @NotNull String text) {
+    if (myClosed) {
+      return;
+    }
+    int record = getRecordCount();
+    myGroupStart = record;
+    myGroupLevel = header.myLogLevel;
+    myGroupTag = myTagIndex.getId(header.myTag);
+    myGroupPid = header.myPid;
+    myGroupPackage = myPackageIndex.getId(header.myAppPackage);
+    if (add(text, text.length() - message.length())) {
+      addTokens(record, message);
+    }
+  }
+
+  /** Adds a line without a header, which shares the header of the message before it */
+  public synchronized void addContinuation(@NotNull String text) {
+    if (myClosed) {
+      return;
+    }
+    int record = getRecordCount();
+    if (myGroupStart == -1) {
+      myGroupStart = record;
+    }
+    if (add(text, 0)) {
+      addTokens(record, text);
+    }
+  }
+
+  /** Adds a record to the current group, returning false if the history had to be closed */
+  private boolean add(@NotNull String text, int messageStart) {
+    byte[] bytes = text.getBytes(Charsets.UTF_8);
+    try {
+      if (getRecordCount() - mySegments.get(mySegments.size() - 1).myFirstRecord >= mySegmentSize) {
+        startSegment();
+      }
+      myOutput.write(bytes);
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      close();
+      return false;
+    }
+    myFlushed = false;
+    int record = getRecordCount();
+    myOffsets.add(myLength);
+    myLength += bytes.length;
+    myMessageStarts.add(messageStart);
+    myGroupStarts.add(myGroupStart);
+    myLevels.add(myGroupLevel != null ? myGroupLevel.ordinal() : -1);
+    myTags.add(myGroupTag);
+    myPids.add(myGroupPid);
+    myPackages.add(myGroupPackage);
+
+    if (myGroupLevel != null) {
+      if (myLevelIndex[myGroupLevel.ordinal()] == null) {
+        myLevelIndex[myGroupLevel.ordinal()] = new TIntArrayList();
+      }
+      myLevelIndex[myGroupLevel.ordinal()].add(record);
+    }
+    myTagIndex.addRecord(myGroupTag, record);
+    myPackageIndex.addRecord(myGroupPackage, record);
+    TIntArrayList pidRecords = myPidIndex.get(myGroupPid);
+    if (pidRecords == null) {
+      pidRecords = new TIntArrayList();
+      myPidIndex.put(myGroupPid, pidRecords);
+    }
+    pidRecords.add(record);
+    return true;
+  }
+
+  private void addTokens(int record, @NotNull String text) {
+    int length = text.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      if (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+        if (start == -1) {
+          start = i;
+        }
+      }
+      else if (start != -1) {
+        if (i - start >= MIN_TOKEN_LENGTH) {
+          String token = text.substring(start, i).toLowerCase(Locale.US);
+          TIntArrayList records = myTokenIndex.get(token);
+          if (records == null) {
+            records = new TIntArrayList();
+            myTokenIndex.put(token, records);
+          }
+          // A token repeated within the record is only listed once
+          if (records.isEmpty() || records.get(records.size() - 1) != record) {
+            records.add(record);
+          }
+        }
+        start = -1;
+      }
+    }
+  }
+
+  /** Starts writing to a new segment file, evicting the oldest segment if there are too many */
+  private void startSegment() throws IOException {
+    File file = FileUtil.createTempFile("logcat", ".segment", true);
+    OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+    if (myOutput != null) {
+      myOutput.close();
+    }
+    myOutput = output;
+    myFlushed = true;
+    mySegments.add(new Segment(file, getRecordCount(), myLength));
+    if (mySegments.size() > myMaxSegments) {
+      evict(mySegments.remove(0));
+    }
+  }
+
+  private void evict(@NotNull Segment segment) {
+    final int firstRecord = mySegments.get(0).myFirstRecord;
+    int count = firstRecord - myFirstRecord;
+    myOffsets.remove(0, count);
+    myMessageStarts.remove(0, count);
+    myGroupStarts.remove(0, count);
+    myLevels.remove(0, count);
+    myTags.remove(0, count);
+    myPids.remove(0, count);
+    myPackages.remove(0, count);
+    myFirstRecord = firstRecord;
+
+    for (TIntArrayList records : myLevelIndex) {
+      if (records != null) {
+        removeRecordsBefore(records, firstRecord);
+      }
+    }
+    myTagIndex.removeRecordsBefore(firstRecord);
+    myPackageIndex.removeRecordsBefore(firstRecord);
+    myPidIndex.retainEntries(new TIntObjectProcedure<TIntArrayList>() {
+      @Override
+      public boolean execute(int pid, TIntArrayList records) {
+        removeRecordsBefore(records, firstRecord);
+        return !records.isEmpty();
+      }
+    });
+    for (Iterator<TIntArrayList> it = myTokenIndex.values().iterator(); it.hasNext(); ) {
+      TIntArrayList records = it.next();
+      removeRecordsBefore(records, firstRecord);
+      if (records.isEmpty()) {
+        it.remove();
+      }
+    }
+    closeSegment(segment);
+  }
+
+  /** Removes the records before the given one from a sorted record list */
+  private static void removeRecordsBefore(@NotNull TIntArrayList records, int record) {
+    int index = records.binarySearch(record);
+    if (index < 0) {
+      index = -index - 1;
+    }
+    if (index > 0) {
+      records.remove(0, index);
+    }
+  }
+
+  /** Closes and deletes the file of a segment; its records can no longer be read */
+  private void closeSegment(@NotNull Segment segment) {
+    synchronized (myReadLock) {
+      segment.myDeleted = true;
+      if (myWindowSegment == segment) {
+        myWindowSegment = null;
+      }
+      if (segment.myInput != null) {
+        try {
+          segment.myInput.close();
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+        segment.myInput = null;
+      }
+    }
+    FileUtil.delete(segment.myFile);
+  }
+
+  /** Returns the number of records added, including evicted ones; this is the number the next record will get */
+  public synchronized int getRecordCount() {
+    return myFirstRecord + myOffsets.size();
+  }
+
+  /** Returns the number of the oldest record which can still be read */
+  public synchronized int getFirstRecord() {
+    return myFirstRecord;
+  }
+
+  /** Returns the level of the given record, or null if it is a continuation line without a message, or if it was evicted */
+  @Nullable
+  public synchronized Log.LogLevel getLevel(int record) {
+    if (record < myFirstRecord) {
+      return null;
+    }
+    int level = myLevels.get(record - myFirstRecord);
+    return level != -1 ? Log.LogLevel.values()[level] : null;
+  }
+
+  /**
+   * Returns the number of the first record of the group of the given record, that is, of the message the record is a line of,
+   * or -1 if the record was evicted. Groups of continuation lines without a message start at their first line.
+   */
+  public synchronized int getGroupStart(int record) {
+    if (record < myFirstRecord) {
+      return -1;
+    }
+    return myGroupStarts.get(record - myFirstRecord);
+  }
+
+  /** Returns the formatted text of the given record, or null if it was evicted or the segment file cannot be read */
+  @Nullable
+  public String getText(int record) {
+    Segment segment;
+    long start;
+    long end;
+    synchronized (this) {
+      if (myClosed || record < myFirstRecord) {
+        return null;
+      }
+      try {
+        flush();
+      }
+      catch (IOException e) {
+        LOG.warn(e);
+        return null;
+      }
+      start = myOffsets.get(record - myFirstRecord);
+      end = getEnd(record);
+      segment = getSegment(record);
+    }
+    try {
+      return readText(segment, start, end);
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the records shown by the given filter, in order. Like {@link AndroidLogFilterModel}, a message with
+   * continuation lines is shown in full if any of its lines is accepted by the filter.
+   *
+   * @param minLevel if not null, only records at this level or above are returned
+   */
+  @NotNull
+  public int[] query(@NotNull ConfiguredFilter filter, @Nullable Log.LogLevel minLevel) throws IOException {
+    Log.LogLevel level = filter.getLogLevel();
+    if (minLevel != null && (level == null || minLevel.getPriority() > level.getPriority())) {
+      level = minLevel;
+    }
+    Pattern messagePattern = filter.getMessagePattern();
+
+    int count;
+    int[] matches;
+    Segment[] segments = null;
+    long[] starts = null;
+    long[] ends = null;
+    int[] messageStarts = null;
+    synchronized (this) {
+      count = getRecordCount();
+
+      // Start from the most selective posting lists, and check the remaining fields against the columns
+      int[] candidates = null;
+      String pid = filter.getPid();
+      if (pid != null && !pid.isEmpty()) {
+        candidates = getPidRecords(pid);
+      }
+      Pattern tagPattern = filter.getTagPattern();
+      if (tagPattern != null) {
+        candidates = intersect(candidates, myTagIndex.getRecords(tagPattern, false));
+      }
+      Pattern pkgPattern = filter.getPkgNamePattern();
+      if (pkgPattern != null) {
+        candidates = intersect(candidates, myPackageIndex.getRecords(pkgPattern, true));
+      }
+      if (messagePattern != null) {
+        int[] tokenCandidates = getTokenCandidates(messagePattern);
+        if (tokenCandidates != null) {
+          candidates = intersect(candidates, tokenCandidates);
+        }
+      }
+
+      TIntArrayList accepted = new TIntArrayList();
+      int size = candidates != null ? candidates.length : count - myFirstRecord;
+      for (int i = 0; i < size; i++) {
+        int record = candidates != null ? candidates[i] : myFirstRecord + i;
+        int recordLevel = myLevels.get(record - myFirstRecord);
+        if (level == null || (recordLevel != -1 && Log.LogLevel.values()[recordLevel].getPriority() >= level.getPriority())) {
+          accepted.add(record);
+        }
+      }
+      matches = accepted.toNativeArray();
+
+      if (messagePattern != null) {
+        // Only the location of the text is looked up here, the text itself is read once the monitor is released
+        flush();
+        segments = new Segment[matches.length];
+        starts = new long[matches.length];
+        ends = new long[matches.length];
+        messageStarts = new int[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+          segments[i] = getSegment(matches[i]);
+          starts[i] = myOffsets.get(matches[i] - myFirstRecord);
+          ends[i] = getEnd(matches[i]);
+          messageStarts[i] = myMessageStarts.get(matches[i] - myFirstRecord);
+        }
+      }
+    }
+
+    if (messagePattern != null) {
+      TIntArrayList accepted = new TIntArrayList();
+      for (int i = 0; i < matches.length; i++) {
+        String text = readText(segments[i], starts[i], ends[i]);
+        // Records evicted meanwhile are left out
+        if (text != null && messagePattern.matcher(text.substring(messageStarts[i])).find()) {
+          accepted.add(matches[i]);
+        }
+      }
+      matches = accepted.toNativeArray();
+    }
+
+    synchronized (this) {
+      // Add the whole group of each record, skipping records already added
+      TIntArrayList result = new TIntArrayList();
+      for (int record : matches) {
+        if (record < myFirstRecord) {
+          continue;
+        }
+        int groupStart = myGroupStarts.get(record - myFirstRecord);
+        int from = Math.max(groupStart, myFirstRecord);
+        if (!result.isEmpty()) {
+          from = Math.max(from, result.get(result.size() - 1) + 1);
+        }
+        for (int r = from; r < count && myGroupStarts.get(r - myFirstRecord) == groupStart; r++) {
+          result.add(r);
+        }
+      }
+      return result.toNativeArray();
+    }
+  }
+
+  private void flush() throws IOException {
+    if (myClosed) {
+      throw new IOException("Logcat history has been closed");
+    }
+    if (!myFlushed) {
+      myOutput.flush();
+      myFlushed = true;
+    }
+  }
+
+  /** Returns the offset just past the text of the given record */
+  private long getEnd(int record) {
+    int index = record - myFirstRecord + 1;
+    return index < myOffsets.size() ? myOffsets.get(index) : myLength;
+  }
+
+  @NotNull
+  private Segment getSegment(int record) {
+    for (int i = mySegments.size() - 1; i > 0; i--) {
+      if (mySegments.get(i).myFirstRecord <= record) {
+        return mySegments.get(i);
+      }
+    }
+    return mySegments.get(0);
+  }
+
+  @NotNull
+  private int[] getPidRecords(@NotNull String pid) {
+    try {
+      TIntArrayList records = myPidIndex.get(Integer.parseInt(pid));
+      return records != null ? records.toNativeArray() : new int[0];
+    }
+    catch (NumberFormatException e) {
+      return new int[0];
+    }
+  }
+
+  /**
+   * Returns the records which may match the given message pattern according to the token index, or null if the index
+   * cannot narrow down the pattern
+   */
+  @Nullable
+  private int[] getTokenCandidates(@NotNull Pattern pattern) {
+    String literal = pattern.pattern();
+    for (int i = 0; i < literal.length(); i++) {
+      if (REGEX_META_CHARACTERS.indexOf(literal.charAt(i)) != -1) {
+        return null;
+      }
+    }
+    literal = literal.toLowerCase(Locale.US);
+
+    int[] candidates = null;
+    int length = literal.length();
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      if (i < length && Character.isLetterOrDigit(literal.charAt(i))) {
+        if (start == -1) {
+          start = i;
+        }
+      }
+      else if (start != -1) {
+        if (i - start >= MIN_TOKEN_LENGTH) {
+          String run = literal.substring(start, i);
+          int[] records;
+          if (start > 0 && i < length) {
+            // Delimited on both sides, so the run must be a complete token
+            TIntArrayList list = myTokenIndex.get(run);
+            records = list != null ? list.toNativeArray() : new int[0];
+          }
+          else {
+            // The run may be part of a longer token
+            TIntArrayList union = new TIntArrayList();
+            for (Map.Entry<String, TIntArrayList> entry : myTokenIndex.entrySet()) {
+              if (entry.getKey().contains(run)) {
+                union.add(entry.getValue().toNativeArray());
+              }
+            }
+            records = sortedUnique(union);
+          }
+          candidates = intersect(candidates, records);
+        }
+        start = -1;
+      }
+    }
+    return candidates;
+  }
+
+  /** Intersects two sorted record lists, where null stands for all records */
+  @Nullable
+  private static int[] intersect(@Nullable int[] a, @Nullable int[] b) {
+    if (a == null) {
+      return b;
+    }
+    if (b == null) {
+      return a;
+    }
+    TIntArrayList result = new TIntArrayList(Math.min(a.length, b.length));
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      }
+      else if (a[i] > b[j]) {
+        j++;
+      }
+      else {
+        result.add(a[i]);
+        i++;
+        j++;
+      }
+    }
+    return result.toNativeArray();
+  }
+
+  @NotNull
+  private static int[] sortedUnique(@NotNull TIntArrayList list) {
+    int[] records = list.toNativeArray();
+    Arrays.sort(records);
+    int size = 0;
+    for (int i = 0; i < records.length; i++) {
+      if (size == 0 || records[size - 1] != records[i]) {
+        records[size++] = records[i];
+      }
+    }
+    return Arrays.copyOf(records, size);
+  }
+
+  /**
+   * Reads the text between the given offsets from a segment, which must have been flushed. Returns null if the segment
+   * has been evicted.
+   */
+  @Nullable
+  private String readText(@NotNull Segment segment, long start, long end) throws IOException {
+    synchronized (myReadLock) {
+      if (segment.myDeleted) {
+        return null;
+      }
+      int length = (int)(end - start);
+      if (myWindowSegment != segment || start < myWindowStart || end > myWindowStart + myWindowLength) {
+        if (segment.myInput == null) {
+          segment.myInput = new RandomAccessFile(segment.myFile, "r");
+        }
+        long position = start - segment.myStart;
+        if (length > myWindow.length) {
+          byte[] bytes = new byte[length];
+          segment.myInput.seek(position);
+          segment.myInput.readFully(bytes);
+          return new String(bytes, Charsets.UTF_8);
+        }
+        myWindowSegment = segment;
+        myWindowStart = start;
+        myWindowLength = (int)Math.min(myWindow.length, segment.myInput.length() - position);
+        segment.myInput.seek(position);
+        segment.myInput.readFully(myWindow, 0, myWindowLength);
+      }
+      return new String(myWindow, (int)(start - myWindowStart), length, Charsets.UTF_8);
+    }
+  }
+
+  /** Closes and deletes the segment files; records can no longer be added or read */
+  public synchronized void close() {
+    if (myClosed) {
+      return;
+    }
+    myClosed = true;
+    try {
+      myOutput.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    for (Segment segment : mySegments) {
+      closeSegment(segment);
+    }
+  }
+
+  /** A segment file, holding the text of a range of records */
+  private static final class Segment {
+    @NotNull final File myFile;
+    final int myFirstRecord;
+    /** Offset of the text of the first record */
+    final long myStart;
+
+    // Guarded by myReadLock
+    @Nullable RandomAccessFile myInput;
+    boolean myDeleted;
+
+    Segment(@NotNull File file, int firstRecord, long start) {
+      myFile = file;
+      myFirstRecord = firstRecord;
+      myStart = start;
+    }
+  }
+
+  /** Maps the distinct values of a header field to ids, and each id to its records */
+  private static final class Dictionary {
+    private final TObjectIntHashMap<String> myIds = new TObjectIntHashMap<String>();
+    private final List<String> myValues = Lists.newArrayList();
+    private final List<TIntArrayList> myRecords = Lists.newArrayList();
+
+    int getId(@NotNull String value) {
+      if (myIds.containsKey(value)) {
+        return myIds.get(value);
+      }
+      int id = myValues.size();
+      myIds.put(value, id);
+      myValues.add(value);
+      myRecords.add(new TIntArrayList());
+      return id;
+    }
+
+    void addRecord(int id, int record) {
+      if (id != -1) {
+        myRecords.get(id).add(record);
+      }
+    }
+
+    void removeRecordsBefore(int record) {
+      for (TIntArrayList records : myRecords) {
+        LogcatHistory.removeRecordsBefore(records, record);
+      }
+    }
+
+    /** Returns the sorted records whose value is matched by the given pattern, which is only evaluated once per value */
+    @NotNull
+    int[] getRecords(@NotNull Pattern pattern, boolean fullMatch) {
+      TIntArrayList union = new TIntArrayList();
+      int matches = 0;
+      for (int id = 0; id < myValues.size(); id++) {
+        String value = myValues.get(id);
+        if (fullMatch ? pattern.matcher(value).matches() : pattern.matcher(value).find()) {
+          union.add(myRecords.get(id).toNativeArray());
+          matches++;
+        }
+      }
+      // A single posting list is already sorted
+      return matches <= 1 ? union.toNativeArray() : sortedUnique(union);
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.logcat;
+
+import com.android.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded buffer of logcat lines between the receiver reading from the device and the console showing them.
+ * <p/>
+ * Lines are stored UTF-8 encoded in a fixed size, off-heap ring. Unlike a pipe, appending never blocks the
+ * device connection: when the console falls behind a chatty device, the oldest unread lines are dropped and a
+ * single notice line reporting the number of dropped lines is shown in their place. The buffer also keeps a
+ * lines per second gauge, which the logcat view shows.
+ */
+public class LogcatRingBuffer {
+  /** Default capacity in bytes */
+  static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+  private static final int RATE_WINDOW_MS = 1000;
+
+  private final ByteBuffer myBuffer;
+  private final int myCapacity;
+  private final byte[] myLengthBytes = new byte[4];
+
+  // All guarded by this
+  /** Total number of bytes ever written; the write position in the ring is this modulo the capacity */
+  private long myHead;
+  /** Total number of bytes ever read or dropped */
+  private long myTail;
+  private boolean myClosed;
+  private long myDroppedLines;
+  /** Lines dropped since the last notice was read */
+  private long myUnreportedDroppedLines;
+  private long myWindowStart;
+  private int myWindowLines;
+  private int myLinesPerSecond;
+
+  public LogcatRingBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  @VisibleForTesting
+  LogcatRingBuffer(int capacity) {
+    myCapacity = capacity;
+    myBuffer = ByteBuffer.allocateDirect(capacity);
+  }
+
+  /** Appends a line (without its line separator), dropping the oldest lines if there is not enough room */
+  public void append(@NotNull String line) {
+    append(line, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  synchronized void append(@NotNull String line, long now) {
+    if (myClosed) {
+      return;
+    }
+    advanceRateWindow(now);
+    myWindowLines++;
+    byte[] bytes = line.getBytes(Charsets.UTF_8);
+    long size = 4 + bytes.length;
+    if (size > myCapacity) {
+      dropped(1);
+      return;
+    }
+    while (myHead + size - myTail > myCapacity) {
+      get(myTail, myLengthBytes, 4);
+      myTail += 4 + getInt(myLengthBytes);
+      dropped(1);
+    }
+    putInt(myLengthBytes, bytes.length);
+    put(myHead, myLengthBytes, 4);
+    put(myHead + 4, bytes, bytes.length);
+    myHead += size;
+    notifyAll();
+  }
+
+  /**
+   * Returns the next line, blocking until one is available if requested. Returns null if no line is available, or
+   * once the buffer has been closed and all lines have been read.
+   */
+  @Nullable
+  public synchronized String poll(boolean block) throws InterruptedException {
+    while (block && !myClosed && myTail == myHead && myUnreportedDroppedLines == 0) {
+      wait();
+    }
+    if (myUnreportedDroppedLines > 0) {
+      advanceRateWindow(System.currentTimeMillis());
+      String notice = getDroppedNotice(myUnreportedDroppedLines, myLinesPerSecond);
+      myUnreportedDroppedLines = 0;
+      return notice;
+    }
+    if (myTail == myHead) {
+      return null;
+    }
+    get(myTail, myLengthBytes, 4);
+    byte[] bytes = new byte[getInt(myLengthBytes)];
+    get(myTail + 4, bytes, bytes.length);
+    myTail += 4 + bytes.length;
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /** Discards the lines which have not been read yet, without counting them as dropped */
+  public synchronized void clear() {
+    myTail = myHead;
+    myUnreportedDroppedLines = 0;
+  }
+
+  public synchronized boolean isEmpty() {
+    return myTail == myHead && myUnreportedDroppedLines == 0;
+  }
+
+  public synchronized void close() {
+    myClosed = true;
+    notifyAll();
+  }
+
+  public synchronized boolean isClosed() {
+    return myClosed;
+  }
+
+  /** Returns the total number of lines dropped because the console could not keep up */
+  public synchronized long getDroppedLines() {
+    return myDroppedLines;
+  }
+
+  /** Returns the number of lines appended during the last full second */
+  public int getLinesPerSecond() {
+    return getLinesPerSecond(System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  synchronized int getLinesPerSecond(long now) {
+    advanceRateWindow(now);
+    return myLinesPerSecond;
+  }
+
+  @NotNull
+  static String getDroppedNotice(long dropped, int linesPerSecond) {
+    return "--------- " + dropped + " lines skipped; logcat is producing " + linesPerSecond + " lines/sec ---------";
+  }
+
+  private void dropped(int lines) {
+    myDroppedLines += lines;
+    myUnreportedDroppedLines += lines;
+  }
+
+  /** Starts a new rate window if the current one is over, without counting a line in it */
+  private void advanceRateWindow(long now) {
+    if (now - myWindowStart >= RATE_WINDOW_MS) {
+      // Windows without any lines count as idle
+      myLinesPerSecond = now - myWindowStart < 2 * RATE_WINDOW_MS ? myWindowLines : 0;
+      myWindowStart = now;
+      myWindowLines = 0;
+    }
+  }
+
+  private void put(long position, @NotNull byte[] bytes, int length) {
+    int offset = (int)(position % myCapacity);
+    int first = Math.min(length, myCapacity - offset);
+    ByteBuffer buffer = myBuffer.duplicate();
+    buffer.position(offset);
+    buffer.put(bytes, 0, first);
+    if (first < length) {
+      buffer.position(0);
+      buffer.put(bytes, first, length - first);
+    }
+  }
+
+  private void get(long position, @NotNull byte[] bytes, int length) {
+    int offset = (int)(position % myCapacity);
+    int first = Math.min(length, myCapacity - offset);
+    ByteBuffer buffer = myBuffer.duplicate();
+    buffer.position(offset);
+    buffer.get(bytes, 0, first);
+    if (first < length) {
+      buffer.position(0);
+      buffer.get(bytes, first, length - first);
+    }
+  }
+
+  private static void putInt(@NotNull byte[] bytes, int value) {
+    bytes[0] = (byte)(value >>> 24);
+    bytes[1] = (byte)(value >>> 16);
+    bytes[2] = (byte)(value >>> 8);
+    bytes[3] = (byte)value;
+  }
+
+  private static int getInt(@NotNull byte[] bytes) {
+    return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+  }
+
+  /** Returns a writer which appends each written line to this buffer; closing the writer closes the buffer */
+  @NotNull
+  public Writer createWriter() {
+    return new Writer() {
+      private final StringBuilder myLine = new StringBuilder();
+
+      @Override
+      public void write(@NotNull char[] cbuf, int off, int len) throws IOException {
+        synchronized (myLine) {
+          for (int i = off; i < off + len; i++) {
+            char c = cbuf[i];
+            if (c == '\n') {
+              LogcatRingBuffer.this.append(myLine.toString());
+              myLine.setLength(0);
+            }
+            else {
+              myLine.append(c);
+            }
+          }
+        }
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+        LogcatRingBuffer.this.close();
+      }
+    };
+  }
+
+  /**
+   * Returns a reader of the lines in this buffer, each terminated by a newline. The reader only blocks when
+   * {@link Reader#ready()} returns false; it reaches end of stream once the buffer is closed and drained.
+   */
+  @NotNull
+  public Reader createReader() {
+    return new Reader() {
+      private String myLine;
+      private int myIndex;
+
+      @Override
+      public int read(@NotNull char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        if (myLine == null || myIndex == myLine.length()) {
+          String line;
+          try {
+            line = poll(true);
+          }
+          catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          if (line == null) {
+            return -1;
+          }
+          myLine = line + '\n';
+          myIndex = 0;
+        }
+        int count = Math.min(len, myLine.length() - myIndex);
+        myLine.getChars(myIndex, myIndex + count, cbuf, off);
+        myIndex += count;
+        return count;
+      }
+
+      @Override
+      public boolean ready() {
+        return myLine != null && myIndex < myLine.length() || !isEmpty();
+      }
+
+      @Override
+      public void close() {
+        LogcatRingBuffer.this.close();
+      }
+    };
+  }
+}
@@ -33,9 +33,9 @@ import com.android.tools.idea.stats.UsageTracker;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
 import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.intellij.CommonBundle;
 import com.intellij.execution.DefaultExecutionResult;
-import com.intellij.execution.ExecutionException;
 import com.intellij.execution.ExecutionResult;
 import com.intellij.execution.Executor;
 import com.intellij.execution.configurations.RunProfileState;
@@ -71,6 +71,7 @@ import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.content.Content;
@@ -99,6 +100,11 @@ import javax.swing.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -121,7 +127,14 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
 
   private static final Pattern FAILURE = Pattern.compile("Failure\\s+\\[(.*)\\]");
   private static final Pattern TYPED_ERROR = Pattern.compile("Error\\s+[Tt]ype\\s+(\\d+).*");
+
+  /** Maximum number of devices deployed to at the same time; deploying is mostly bound by the USB connections */
+  private static final int MAX_PARALLEL_DEPLOYS = Integer.getInteger("android.deploy.max.parallel", 4);
   private static final String ERROR_PREFIX = "Error";
+  /** Maximum number of changed apk entries listed in the console before an upload */
+  private static final int MAX_CHANGED_ENTRIES_SHOWN = 10;
+  /** How long patching the apk on the device may take, see {@link ApkDelta} */
+  private static final long APK_PATCH_TIMEOUT_SECS = 60;
 
   public static final int NO_ERROR = -2;
   public static final int UNTYPED_ERROR = -1;
@@ -136,6 +149,9 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
 
   private final Object myDebugLock = new Object();
 
+  /** Prefix for the messages of the thread deploying to one of several devices, see {@link #prepareAndStartAppInParallel} */
+  private final ThreadLocal<String> myMessagePrefix = new ThreadLocal<String>();
+
   @NotNull
   private volatile IDevice[] myTargetDevices = EMPTY_DEVICE_ARRAY;
 
@@ -189,7 +205,7 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
   }
 
   @Override
-  public ExecutionResult execute(@NotNull Executor executor, @NotNull ProgramRunner runner) throws ExecutionException {
+  public ExecutionResult execute(@NotNull Executor executor, @NotNull ProgramRunner runner) throws com.intellij.execution.ExecutionException {
     Project project = myFacet.getModule().getProject();
     myProcessHandler = new DefaultDebugProcessHandler();
     AndroidProcessText.attach(myProcessHandler);
@@ -670,6 +686,10 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
   }
 
   public void message(@NotNull String message, @NotNull Key outputKey) {
+    String prefix = myMessagePrefix.get();
+    if (prefix != null) {
+      message = prefix + message.replace("\n", "\n" + prefix);
+    }
     getProcessHandler().notifyTextAvailable(message + '\n', outputKey);
   }
 
@@ -766,20 +786,22 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
   private MyDeviceChangeListener prepareAndStartAppWhenDeviceIsOnline() {
     if (myTargetDevices.length > 0) {
       boolean allDevicesOnline = true;
+      List<IDevice> onlineDevices = new ArrayList<IDevice>();
       for (IDevice targetDevice : myTargetDevices) {
         if (targetDevice.isOnline()) {
-          if (!prepareAndStartApp(targetDevice) && !myStopped) {
-            // todo: check: it may be we don't need to assign it directly
-            // TODO: Why stop completely for a problem potentially affecting only a single device?
-            myStopped = true;
-            getProcessHandler().destroyProcess();
-            break;
-          }
+          onlineDevices.add(targetDevice);
         }
         else {
           allDevicesOnline = false;
         }
       }
+      boolean started = onlineDevices.size() > 1 ? prepareAndStartAppInParallel(onlineDevices)
+                                                  : onlineDevices.isEmpty() || prepareAndStartApp(onlineDevices.get(0));
+      if (!started && !myStopped) {
+        // todo: check: it may be we don't need to assign it directly
+        myStopped = true;
+        getProcessHandler().destroyProcess();
+      }
       // If all target devices are online, we are done.
       if (allDevicesOnline) {
         if (!myDebugMode && !myStopped) {
@@ -802,18 +824,95 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
   }
 
   private boolean prepareAndStartApp(IDevice device) {
-    if (myDebugMode && myNonDebuggableOnDevice && !device.isEmulator()) {
-      message(AndroidBundle.message("android.cannot.debug.noDebugPermissions", getPackageName(), device.getName()), STDERR);
-      fireExecutionFailed();
-      return false;
+    if (myClearLogcatBeforeStart) {
+      clearLogcatAndConsole(getModule().getProject(), device);
     }
-    if (!doPrepareAndStart(device)) {
+    if (!doPrepareAndStartIfDebuggable(device)) {
       fireExecutionFailed();
       return false;
     }
     return true;
   }
 
+  private boolean doPrepareAndStartIfDebuggable(@NotNull IDevice device) {
+    if (myDebugMode && myNonDebuggableOnDevice && !device.isEmulator()) {
+      message(AndroidBundle.message("android.cannot.debug.noDebugPermissions", getPackageName(), device.getName()), STDERR);
+      return false;
+    }
+    return doPrepareAndStart(device);
+  }
+
+  /**
+   * Deploys to and starts the app on the given devices concurrently, at most {@link #MAX_PARALLEL_DEPLOYS} at a time.
+   * A failure on one device does not affect the others; messages are prefixed with the name of the device they are about.
+   *
+   * @return false if the app could not be started on any of the devices
+   */
+  private boolean prepareAndStartAppInParallel(@NotNull List<IDevice> devices) {
+    long start = System.currentTimeMillis();
+    int parallelism = Math.max(1, Math.min(devices.size(), MAX_PARALLEL_DEPLOYS));
+    message("Deploying to " + devices.size() + " devices, " + parallelism + " at a time", STDOUT);
+
+    // Clear up front, since clearing while other devices are being deployed to would wipe their output
+    if (myClearLogcatBeforeStart) {
+      for (IDevice device : devices) {
+        clearLogcatAndConsole(getModule().getProject(), device);
+      }
+    }
+
+    final Semaphore slots = new Semaphore(parallelism);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(devices.size());
+    for (final IDevice device : devices) {
+      results.add(ApplicationManager.getApplication().executeOnPooledThread(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          slots.acquire();
+          myMessagePrefix.set("[" + device.getName() + "] ");
+          try {
+            long deviceStart = System.currentTimeMillis();
+            boolean success = !myStopped && doPrepareAndStartIfDebuggable(device);
+            message((success ? "Done in " : "Failed after ") + StringUtil.formatDuration(System.currentTimeMillis() - deviceStart),
+                    success ? STDOUT : STDERR);
+            return success;
+          }
+          finally {
+            myMessagePrefix.remove();
+            slots.release();
+          }
+        }
+      }));
+    }
+
+    List<String> failed = new ArrayList<String>();
+    for (int i = 0; i < devices.size(); i++) {
+      boolean success;
+      try {
+        success = results.get(i).get();
+      }
+      catch (InterruptedException e) {
+        LOG.info(e);
+        success = false;
+      }
+      catch (ExecutionException e) {
+        LOG.error(e.getCause());
+        success = false;
+      }
+      if (!success) {
+        failed.add(devices.get(i).getName());
+      }
+    }
+
+    String summary = "Deployed to " + (devices.size() - failed.size()) + " of " + devices.size() + " devices in " +
+                     StringUtil.formatDuration(System.currentTimeMillis() - start);
+    if (failed.isEmpty()) {
+      message(summary, STDOUT);
+      return true;
+    }
+    message(summary + "; failed: " + StringUtil.join(failed, ", "), STDERR);
+    fireExecutionFailed();
+    return failed.size() < devices.size();
+  }
+
   private void fireExecutionFailed() {
     for (AndroidRunningStateListener listener : myListeners) {
       listener.executionFailed();
@@ -829,10 +928,6 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
   }
 
   private boolean doPrepareAndStart(@NotNull final IDevice device) {
-    if (myClearLogcatBeforeStart) {
-      clearLogcatAndConsole(getModule().getProject(), device);
-    }
-
     message("Target device: " + device.getName(), STDOUT);
     try {
       if (myDeploy) {
@@ -923,7 +1018,7 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
 
   private static int ourInstallationCount = 0;
 
-  private static void trackInstallation(@NotNull IDevice device) {
+  private static synchronized void trackInstallation(@NotNull IDevice device) {
     if (!UsageTracker.getInstance().canTrack()) {
       return;
     }
@@ -1018,12 +1113,27 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
     message("Uploading file\n\tlocal path: " + localFile + "\n\tremote path: " + remotePath, STDOUT);
     try {
       InstalledApks installedApks = ServiceManager.getService(InstalledApks.class);
-      if (installedApks.isInstalled(device, localFile, packageName)) {
+      List<String> changedEntries = installedApks.getChangedEntries(device, localFile, packageName);
+      if (changedEntries != null && changedEntries.isEmpty()) {
         message("No apk changes detected. Skipping file upload, force stopping package instead.", STDOUT);
         forceStopPackageSilently(device, packageName, true);
         return true;
       } else {
-        device.pushFile(localFile.getPath(), remotePath);
+        long start = System.currentTimeMillis();
+        long pushed = -1;
+        if (changedEntries != null) {
+          message(describeChangedEntries(changedEntries), STDOUT);
+          ApkDelta.Layout installedLayout = installedApks.getInstalledLayout(device, packageName);
+          if (installedLayout != null) {
+            pushed = pushApkDelta(device, localFile, remotePath, installedLayout);
+          }
+        }
+        if (pushed < 0) {
+          device.pushFile(localFile.getPath(), remotePath);
+          pushed = localFile.length();
+        }
+        message(String.format("Pushed %1$s of %2$s in %3$d ms", StringUtil.formatFileSize(pushed),
+                              StringUtil.formatFileSize(localFile.length()), System.currentTimeMillis() - start), STDOUT);
         boolean installed = installApp(device, remotePath, packageName);
         if (installed) {
           installedApks.setInstalled(device, localFile, packageName);
@@ -1087,6 +1197,83 @@ public class AndroidRunningState implements RunProfileState, AndroidDebugBridge.
     return false;
   }
 
+  /**
+   * Turns the copy of the apk left on the device by the last install into the given apk by pushing only the parts of the apk
+   * that changed, see {@link ApkDelta}. Returns the number of bytes pushed, or -1 if the whole apk has to be pushed.
+   */
+  private long pushApkDelta(@NotNull IDevice device,
+                            @NotNull File localFile,
+                            @NotNull String remotePath,
+                            @NotNull ApkDelta.Layout installedLayout)
+    throws IOException, AdbCommandRejectedException, TimeoutException, SyncException {
+    ApkDelta delta;
+    try {
+      delta = ApkDelta.create(installedLayout, ApkDelta.readLayout(localFile));
+    }
+    catch (IOException e) {
+      // Not a zip file ApkDelta can read
+      LOG.info(e);
+      return -1;
+    }
+    if (delta == null) {
+      return -1;
+    }
+
+    String remotePatch = remotePath + ".patch";
+    String remoteScript = remotePath + ".sh";
+    String remoteNew = remotePath + ".new";
+    File patch = FileUtil.createTempFile("apk", ".patch");
+    File script = FileUtil.createTempFile("apk", ".sh");
+    try {
+      delta.writePatch(localFile, patch);
+      FileUtil.writeToFile(script, delta.getScript(remotePath, remotePatch, remoteNew));
+      device.pushFile(patch.getPath(), remotePatch);
+      device.pushFile(script.getPath(), remoteScript);
+
+      String md5 = Files.hash(localFile, Hashing.md5()).toString();
+      CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+      try {
+        device.executeShellCommand("sh " + remoteScript, receiver, APK_PATCH_TIMEOUT_SECS, TimeUnit.SECONDS);
+      }
+      catch (ShellCommandUnresponsiveException e) {
+        LOG.info(e);
+      }
+      // md5sum prints the hash followed by the file name
+      boolean applied = receiver.getOutput().trim().startsWith(md5 + " ");
+      String cleanup = applied
+                       ? String.format("mv %1$s %2$s; rm -f %3$s %4$s", remoteNew, remotePath, remotePatch, remoteScript)
+                       : String.format("rm -f %1$s %2$s %3$s", remoteNew, remotePatch, remoteScript);
+      try {
+        device.executeShellCommand(cleanup, new CollectingOutputReceiver(), APK_PATCH_TIMEOUT_SECS, TimeUnit.SECONDS);
+      }
+      catch (ShellCommandUnresponsiveException e) {
+        LOG.info(e);
+        applied = false;
+      }
+      if (!applied) {
+        message("Could not patch the apk on the device, pushing the whole apk instead", STDOUT);
+        return -1;
+      }
+      return patch.length() + script.length();
+    }
+    finally {
+      FileUtil.delete(patch);
+      FileUtil.delete(script);
+    }
+  }
+
+  @NotNull
+  private static String describeChangedEntries(@NotNull List<String> changedEntries) {
+    List<String> names = new ArrayList<String>(changedEntries);
+    Collections.sort(names);
+    int shown = Math.min(names.size(), MAX_CHANGED_ENTRIES_SHOWN);
+    String description = "Apk entries changed since the last install: " + StringUtil.join(names.subList(0, shown), ", ");
+    if (shown < names.size()) {
+      description += String.format(" and %1$d more", names.size() - shown);
+    }
+    return description;
+  }
+
   /** Attempts to force stop package running on given device. */
   private void forceStopPackageSilently(@NotNull IDevice device, @NotNull String packageName, boolean ignoreErrors) {
     try {
@@ -20,13 +20,12 @@ import com.android.SdkConstants;
 import com.android.ide.common.rendering.LayoutLibrary;
 import com.android.ide.common.rendering.RenderSecurityManager;
 import com.android.ide.common.rendering.api.LayoutLog;
-import com.android.ide.common.resources.IntArrayWrapper;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.rendering.AppResourceRepository;
 import com.android.tools.idea.rendering.InconvertibleClassError;
 import com.android.tools.idea.rendering.RenderLogger;
 import com.android.tools.idea.rendering.RenderProblem;
-import com.android.util.Pair;
+import com.android.tools.idea.rendering.ResourceIdTable;
 import com.android.utils.HtmlBuilder;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Maps;
@@ -41,8 +40,6 @@ import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.HashSet;
-import gnu.trove.TIntObjectHashMap;
-import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.android.dom.manifest.Manifest;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.util.AndroidUtils;
@@ -50,8 +47,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.*;
-import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,7 +57,6 @@ import static com.intellij.lang.annotation.HighlightSeverity.WARNING;
  * Handler for loading views for the layout editor on demand, and reporting issues with class
  * loading, instance creation, etc.
  */
-@SuppressWarnings("deprecation") // The Pair class is required by the IProjectCallback
 public class ViewLoader {
   private static final Logger LOG = Logger.getInstance(ViewLoader.class);
   /** Number of instances of a custom view that are allowed to nest inside itself. */
@@ -521,24 +515,18 @@ public class ViewLoader {
     }
 
     if (aClass != null) {
-      final Map<ResourceType, TObjectIntHashMap<String>> res2id =
-        new EnumMap<ResourceType, TObjectIntHashMap<String>>(ResourceType.class);
-      final TIntObjectHashMap<Pair<ResourceType, String>> id2res = new TIntObjectHashMap<Pair<ResourceType, String>>();
-      final Map<IntArrayWrapper, String> styleableId2res = new HashMap<IntArrayWrapper, String>();
+      final ResourceIdTable.Builder compiledIds = new ResourceIdTable.Builder();
 
-      if (parseClass(aClass, id2res, styleableId2res, res2id)) {
+      if (parseClass(aClass, compiledIds)) {
         AppResourceRepository appResources = AppResourceRepository.getAppResources(myModule, true);
         if (appResources != null) {
-          appResources.setCompiledResources(id2res, styleableId2res, res2id);
+          appResources.setCompiledResources(compiledIds);
         }
       }
     }
   }
 
-  private static boolean parseClass(Class<?> rClass,
-                                    TIntObjectHashMap<Pair<ResourceType, String>> id2res,
-                                    Map<IntArrayWrapper, String> styleableId2Res,
-                                    Map<ResourceType, TObjectIntHashMap<String>> res2id) throws ClassNotFoundException {
+  private static boolean parseClass(Class<?> rClass, ResourceIdTable.Builder compiledIds) throws ClassNotFoundException {
     try {
       final Class<?>[] nestedClasses;
       try {
@@ -557,20 +545,15 @@ public class ViewLoader {
         final ResourceType resType = ResourceType.getEnum(resClass.getSimpleName());
 
         if (resType != null) {
-          final TObjectIntHashMap<String> resName2Id = new TObjectIntHashMap<String>();
-          res2id.put(resType, resName2Id);
-
           for (Field field : resClass.getDeclaredFields()) {
             final int modifiers = field.getModifiers();
             if (Modifier.isStatic(modifiers)) { // May not be final in library projects
               final Class<?> type = field.getType();
               if (type.isArray() && type.getComponentType() == int.class) {
-                styleableId2Res.put(new IntArrayWrapper((int[])field.get(null)), field.getName());
+                compiledIds.addStyleable(field.getName(), (int[])field.get(null));
               }
               else if (type == int.class) {
-                final Integer value = (Integer)field.get(null);
-                id2res.put(value, Pair.of(resType, field.getName()));
-                resName2Id.put(field.getName(), value);
+                compiledIds.addId(resType, field.getName(), field.getInt(null));
               }
               else {
                 LOG.error("Unknown field type in R class: " + type);
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.allocations;
+
+import junit.framework.TestCase;
+
+public class AllocationTrieTest extends TestCase {
+  private static final StackTraceElement MAIN = new StackTraceElement("com.example.Main", "main", "Main.java", 10);
+  private static final StackTraceElement LOAD = new StackTraceElement("com.example.Loader", "load", "Loader.java", 20);
+  private static final StackTraceElement PARSE = new StackTraceElement("com.example.Parser", "parse", "Parser.java", 30);
+
+  public void testAggregation() {
+    AllocationTrie trie = new AllocationTrie();
+    // Stacks start with the innermost frame
+    trie.add(new StackTraceElement[]{PARSE, LOAD, MAIN}, 100);
+    trie.add(new StackTraceElement[]{PARSE, LOAD, MAIN}, 50);
+    trie.add(new StackTraceElement[]{LOAD, MAIN}, 10);
+    trie.add(new StackTraceElement[]{PARSE, MAIN}, 1);
+
+    assertEquals(4, trie.getCount(AllocationTrie.ROOT));
+    assertEquals(161, trie.getValue(AllocationTrie.ROOT));
+    assertEquals(3, trie.getMaxDepth());
+    // Root, main, main > load, main > load > parse, main > parse
+    assertEquals(5, trie.getNodeCount());
+
+    int main = trie.getFirstChild(AllocationTrie.ROOT);
+    assertEquals(MAIN, trie.getFrame(main));
+    assertEquals(AllocationTrie.NO_NODE, trie.getNextSibling(main));
+    assertEquals(4, trie.getCount(main));
+    assertEquals(0, trie.getSelfCount(main));
+
+    int load = findChild(trie, main, LOAD);
+    assertEquals(3, trie.getCount(load));
+    assertEquals(160, trie.getValue(load));
+    assertEquals(1, trie.getSelfCount(load));
+    assertEquals(2, trie.getDepth(load));
+
+    int parseUnderLoad = findChild(trie, load, PARSE);
+    assertEquals(150, trie.getValue(parseUnderLoad));
+    assertEquals(load, trie.getParent(parseUnderLoad));
+
+    int parseUnderMain = findChild(trie, main, PARSE);
+    assertTrue(parseUnderMain != parseUnderLoad);
+    assertEquals(1, trie.getValue(parseUnderMain));
+  }
+
+  private static int findChild(AllocationTrie trie, int node, StackTraceElement frame) {
+    for (int child = trie.getFirstChild(node); child != AllocationTrie.NO_NODE; child = trie.getNextSibling(child)) {
+      if (frame.equals(trie.getFrame(child))) {
+        return child;
+      }
+    }
+    fail("No child " + frame);
+    return AllocationTrie.NO_NODE;
+  }
+}
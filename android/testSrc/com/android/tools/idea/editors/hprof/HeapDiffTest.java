@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class HeapDiffTest extends TestCase {
+  public void testCountMissing() {
+    assertEquals(0, HeapDiff.countMissing(new long[0], new long[]{1, 2}));
+    assertEquals(2, HeapDiff.countMissing(new long[]{1, 2}, new long[0]));
+    assertEquals(0, HeapDiff.countMissing(new long[]{2, 4, 8}, new long[]{1, 2, 3, 4, 8}));
+    assertEquals(2, HeapDiff.countMissing(new long[]{1, 5, 8, 9}, new long[]{1, 2, 8}));
+    assertEquals(3, HeapDiff.countMissing(new long[]{10, 20, 30}, new long[]{1, 2, 3}));
+  }
+
+  public void testCompare() {
+    Map<String, HeapDiff.ClassTotals> before = new HashMap<String, HeapDiff.ClassTotals>();
+    before.put("Kept", createTotals(new long[]{0x30, 0x10, 0x20}, 8, 100));
+    before.put("Removed", createTotals(new long[]{0x40}, 16, 16));
+    HeapDiff.Baseline baseline = new HeapDiff.Baseline("baseline.hprof", before);
+
+    Map<String, HeapDiff.ClassTotals> after = new HashMap<String, HeapDiff.ClassTotals>();
+    // 0x20 was collected, 0x50 and 0x60 were allocated
+    after.put("Kept", createTotals(new long[]{0x60, 0x10, 0x50, 0x30}, 8, 100));
+    after.put("Added", createTotals(new long[]{0x40, 0x70}, 4, 12));
+    HeapDiff diff = HeapDiff.compare(baseline, after);
+
+    assertEquals("baseline.hprof", diff.getBaselineName());
+    assertEquals(3, diff.getClassDiffs().size());
+    for (HeapDiff.ClassDiff classDiff : diff.getClassDiffs()) {
+      String name = classDiff.getClassName();
+      if (name.equals("Kept")) {
+        assertEquals(1, classDiff.getCountDelta());
+        assertEquals(2, classDiff.getNewInstanceCount());
+        assertEquals(8, classDiff.getShallowSizeDelta());
+        assertEquals(100, classDiff.getRetainedSizeDelta());
+      }
+      else if (name.equals("Added")) {
+        assertEquals(2, classDiff.getCountDelta());
+        assertEquals(2, classDiff.getNewInstanceCount());
+        assertEquals(8, classDiff.getShallowSizeDelta());
+        assertEquals(24, classDiff.getRetainedSizeDelta());
+      }
+      else {
+        assertEquals("Removed", name);
+        assertEquals(-1, classDiff.getCountDelta());
+        assertEquals(0, classDiff.getNewInstanceCount());
+        assertEquals(-16, classDiff.getShallowSizeDelta());
+        assertEquals(-16, classDiff.getRetainedSizeDelta());
+      }
+    }
+
+    assertFalse(diff.isNew("Kept", 0x10));
+    assertFalse(diff.isNew("Kept", 0x30));
+    assertTrue(diff.isNew("Kept", 0x50));
+    assertTrue(diff.isNew("Kept", 0x60));
+    // Addresses are only matched within the same class
+    assertTrue(diff.isNew("Added", 0x40));
+    assertTrue(diff.isNew("Unknown", 0x10));
+  }
+
+  public void testSummarizeSortsIds() {
+    HeapDiff.ClassTotals totals = new HeapDiff.ClassTotals(4);
+    totals.add(0x30, 8, 10);
+    totals.add(0x10, 8, 20);
+    totals.add(0x20, 16, 30);
+    assertFalse(totals.isFull());
+    totals.sortIds();
+    assertEquals(3, totals.myCount);
+    assertEquals(32, totals.myShallowSize);
+    assertEquals(60, totals.myRetainedSize);
+    assertEquals(3, totals.myIds.length);
+    assertEquals(0x10, totals.myIds[0]);
+    assertEquals(0x20, totals.myIds[1]);
+    assertEquals(0x30, totals.myIds[2]);
+  }
+
+  private static HeapDiff.ClassTotals createTotals(long[] ids, long shallowSize, long retainedSize) {
+    HeapDiff.ClassTotals totals = new HeapDiff.ClassTotals(ids.length);
+    for (long id : ids) {
+      totals.add(id, shallowSize, retainedSize);
+    }
+    totals.sortIds();
+    return totals;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.hprof;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+public class HprofIndexTest extends TestCase {
+  public void testRoundTrip() throws Exception {
+    File file = FileUtil.createTempFile("heap", HprofIndex.EXTENSION, true);
+    try {
+      int size = 1000;
+      LongBuffer ids = LongBuffer.allocate(size);
+      IntBuffer distances = IntBuffer.allocate(size);
+      LongBuffer dominators = LongBuffer.allocate(size);
+      LongBuffer retainedSizes = LongBuffer.allocate(size);
+      for (int i = 0; i < size; i++) {
+        ids.put(0x10000000L + i * 16);
+        distances.put(i == size - 1 ? Integer.MAX_VALUE : i % 7);
+        dominators.put(i == 0 ? -2 : 0x10000000L + (i / 2) * 16);
+        retainedSizes.put(i * 1000L * 1000L * 1000L);
+      }
+      ids.flip();
+      distances.flip();
+      dominators.flip();
+      retainedSizes.flip();
+      new HprofIndex.Columns(ids, distances, dominators, retainedSizes).write(file, 123456, 789);
+
+      HprofIndex.Columns columns = HprofIndex.Columns.read(file, 123456, 789);
+      assertNotNull(columns);
+      assertEquals(size, columns.size());
+      for (int i = 0; i < size; i++) {
+        assertEquals(ids.get(i), columns.myIds.get(i));
+        assertEquals(distances.get(i), columns.myDistances.get(i));
+        assertEquals(dominators.get(i), columns.myDominators.get(i));
+        assertEquals(retainedSizes.get(i), columns.myRetainedSizes.get(i));
+      }
+
+      // An index of another version of the dump is ignored
+      assertNull(HprofIndex.Columns.read(file, 123457, 789));
+      assertNull(HprofIndex.Columns.read(file, 123456, 790));
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+
+  public void testTruncatedIndex() throws Exception {
+    File file = FileUtil.createTempFile("heap", HprofIndex.EXTENSION, true);
+    try {
+      FileUtil.writeToFile(file, new byte[]{0x48, 0x50});
+      assertNull(HprofIndex.Columns.read(file, 0, 0));
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+}
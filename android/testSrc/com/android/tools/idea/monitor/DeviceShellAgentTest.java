@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.android.ddmlib.CollectingOutputReceiver;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.google.common.base.Charsets;
+import junit.framework.TestCase;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.android.tools.idea.monitor.DeviceShellAgent.END_MARKER;
+
+public class DeviceShellAgentTest extends TestCase {
+  public void testCommand() {
+    List<DeviceShellAgent.Request> requests =
+      Arrays.asList(new DeviceShellAgent.Request("cat /proc/stat", new CollectingOutputReceiver(), 1000),
+                    new DeviceShellAgent.Request("dumpsys gfxinfo 42", new CollectingOutputReceiver(), 1000));
+    assertEquals("cat /proc/stat ; echo " + END_MARKER + " ; dumpsys gfxinfo 42 ; echo " + END_MARKER,
+                 DeviceShellAgent.getCommand(requests));
+  }
+
+  public void testDemultiplexing() {
+    CollectingOutputReceiver first = new CollectingOutputReceiver();
+    CollectingOutputReceiver second = new CollectingOutputReceiver();
+    CollectingOutputReceiver third = new CollectingOutputReceiver();
+    DeviceShellAgent.DemultiplexingReceiver receiver =
+      new DeviceShellAgent.DemultiplexingReceiver(Arrays.asList(new DeviceShellAgent.Request("a", first, 1000),
+                                                                new DeviceShellAgent.Request("b", second, 1000),
+                                                                new DeviceShellAgent.Request("c", third, 1000)));
+    // The second command does not end its output with a newline, and the third one never finishes
+    byte[] output = ("one\r\ntwo\r\n" + END_MARKER + "\r\nthree" + END_MARKER + "\r\nfour\r\n").getBytes(Charsets.UTF_8);
+    receiver.addOutput(output, 0, output.length);
+    receiver.flush();
+
+    assertEquals("one\ntwo\n", first.getOutput());
+    assertEquals("three\n", second.getOutput());
+    assertEquals("four\n", third.getOutput());
+  }
+
+  public void testRequestTimeout() throws Exception {
+    CollectingOutputReceiver first = new CollectingOutputReceiver();
+    CollectingOutputReceiver second = new CollectingOutputReceiver();
+    DeviceShellAgent.DemultiplexingReceiver receiver =
+      new DeviceShellAgent.DemultiplexingReceiver(Arrays.asList(new DeviceShellAgent.Request("a", first, 60000),
+                                                                new DeviceShellAgent.Request("b", second, 0)));
+    byte[] output = ("one\r\n" + END_MARKER + "\r\n").getBytes(Charsets.UTF_8);
+    receiver.addOutput(output, 0, output.length);
+    assertFalse(receiver.isTimedOut());
+    Thread.sleep(5);
+
+    // The second request has no time left to produce output, unlike the first one
+    assertTrue(receiver.isCancelled());
+    assertEquals(1, receiver.getIndex());
+    assertEquals("one\n", first.getOutput());
+  }
+
+  public void testFailuresAreReportedPerRequest() throws Exception {
+    IDevice device = Mockito.mock(IDevice.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      private int myCalls;
+
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        IShellOutputReceiver receiver = (IShellOutputReceiver)invocation.getArguments()[1];
+        if (myCalls++ == 0) {
+          // The first command completes, and the second one hangs
+          byte[] output = ("one\r\n" + END_MARKER + "\r\n").getBytes(Charsets.UTF_8);
+          receiver.addOutput(output, 0, output.length);
+          throw new ShellCommandUnresponsiveException();
+        }
+        byte[] output = "three\r\n".getBytes(Charsets.UTF_8);
+        receiver.addOutput(output, 0, output.length);
+        receiver.flush();
+        return null;
+      }
+    }).when(device).executeShellCommand(Matchers.anyString(), Matchers.any(IShellOutputReceiver.class), Matchers.anyLong(),
+                                        Matchers.any(TimeUnit.class));
+
+    CollectingOutputReceiver first = new CollectingOutputReceiver();
+    CollectingOutputReceiver third = new CollectingOutputReceiver();
+    List<DeviceShellAgent.Request> requests = Arrays.asList(new DeviceShellAgent.Request("a", first, 1000),
+                                                            new DeviceShellAgent.Request("b", new CollectingOutputReceiver(), 1000),
+                                                            new DeviceShellAgent.Request("c", third, 1000));
+    assertEquals(2, DeviceShellAgent.runOnce(device, requests));
+    assertNull(requests.get(0).myError);
+    assertTrue(requests.get(1).myError instanceof ShellCommandUnresponsiveException);
+
+    // The request after the one which timed out runs on its own
+    assertEquals(1, DeviceShellAgent.runOnce(device, requests.subList(2, 3)));
+    assertNull(requests.get(2).myError);
+    assertEquals("one\n", first.getOutput());
+    assertEquals("three\n", third.getOutput());
+    Mockito.verify(device).executeShellCommand(Matchers.eq("c"), Matchers.same(third), Matchers.eq(1000L),
+                                               Matchers.eq(TimeUnit.MILLISECONDS));
+  }
+}
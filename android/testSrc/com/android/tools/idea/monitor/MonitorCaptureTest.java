@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import com.android.tools.chartlib.TimelineData;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Consumer;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+public class MonitorCaptureTest extends TestCase {
+  public void testRoundTrip() throws Exception {
+    File file = FileUtil.createTempFile("monitor", MonitorCapture.EXTENSION, true);
+    try {
+      MonitorCapture.Writer writer = new MonitorCapture.Writer(file, "CPU Sampler", new String[]{"Kernel", "User"}, 1000);
+      // More samples than fit in one block
+      for (int i = 0; i < 600; i++) {
+        writer.add(1000 + i * 500, i % 3, new float[]{i, i / 2.0f});
+      }
+      writer.close();
+      // Aligned samples take a few bytes each, besides their values
+      assertTrue(file.length() < 600 * (2 * 4 + 4));
+
+      InputStream input = new FileInputStream(file);
+      MonitorCapture capture;
+      try {
+        capture = MonitorCapture.read(input);
+      }
+      finally {
+        input.close();
+      }
+      assertEquals("CPU Sampler", capture.getName());
+      assertEquals(2, capture.getStreamNames().length);
+      assertEquals("User", capture.getStreamNames()[1]);
+      assertEquals(600, capture.size());
+      for (int i = 0; i < 600; i++) {
+        assertEquals(1000 + i * 500, capture.getTime(i));
+        assertEquals(i % 3, capture.getType(i));
+        assertEquals((float)i, capture.getValue(0, i));
+        assertEquals(i / 2.0f, capture.getValue(1, i));
+      }
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+
+  public void testStoppingSamplerEndsRecording() throws Exception {
+    DeviceSampler sampler = new DeviceSampler(new TimelineData(1, 10), 500) {
+      @NotNull
+      @Override
+      public String getName() {
+        return "Test Sampler";
+      }
+
+      @NotNull
+      @Override
+      public String getDescription() {
+        return "test samples";
+      }
+
+      @Override
+      protected void sample(boolean forced) {
+      }
+    };
+    final File[] recorded = new File[1];
+    File file = FileUtil.createTempFile("monitor", MonitorCapture.EXTENSION, true);
+    try {
+      sampler.startRecording(file, new Consumer<File>() {
+        @Override
+        public void consume(File file) {
+          recorded[0] = file;
+        }
+      }, "Value");
+      assertTrue(sampler.isRecording());
+
+      sampler.stop();
+      assertFalse(sampler.isRecording());
+      assertEquals(file, recorded[0]);
+      // The file has been closed, so it holds a complete capture
+      InputStream input = new FileInputStream(file);
+      try {
+        assertEquals("Test Sampler", MonitorCapture.read(input).getName());
+      }
+      finally {
+        input.close();
+      }
+    }
+    finally {
+      FileUtil.delete(file);
+    }
+  }
+}
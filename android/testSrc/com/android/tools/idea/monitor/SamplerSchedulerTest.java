@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import junit.framework.TestCase;
+
+public class SamplerSchedulerTest extends TestCase {
+  public void testTicksAreAligned() {
+    assertEquals(500, SamplerScheduler.getNextTick(0, 500));
+    assertEquals(1000, SamplerScheduler.getNextTick(500, 500));
+    assertEquals(1000, SamplerScheduler.getNextTick(873, 500));
+    // Samplers with multiple periods tick together
+    assertEquals(SamplerScheduler.getNextTick(1873, 500), SamplerScheduler.getNextTick(1873, 1000));
+  }
+
+  public void testBackoff() {
+    int backoff = 1;
+    for (int i = 0; i < 10; i++) {
+      backoff = SamplerScheduler.getBackoff(backoff, true);
+    }
+    assertEquals(SamplerScheduler.MAX_BACKOFF, backoff);
+    backoff = SamplerScheduler.getBackoff(backoff, false);
+    assertEquals(SamplerScheduler.MAX_BACKOFF / 2, backoff);
+    for (int i = 0; i < 10; i++) {
+      backoff = SamplerScheduler.getBackoff(backoff, false);
+    }
+    assertEquals(1, backoff);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.monitor;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimelineHistoryTest extends TestCase {
+  private static List<float[]> query(TimelineHistory history, long from, long to, int pixels) {
+    final List<float[]> entries = new ArrayList<float[]>();
+    history.query(from, to, pixels, new TimelineHistory.Visitor() {
+      @Override
+      public void visit(long time, long duration, @NotNull float[] min, @NotNull float[] max, @NotNull float[] avg) {
+        entries.add(new float[]{time, duration, min[0], max[0], avg[0]});
+      }
+    });
+    return entries;
+  }
+
+  public void testRawSamples() {
+    TimelineHistory history = new TimelineHistory();
+    assertTrue(history.isEmpty());
+    for (int i = 0; i < 10; i++) {
+      history.add(i * 500, new float[]{i, 0});
+    }
+    assertEquals(0, history.getStartTime());
+    assertEquals(4500, history.getEndTime());
+    assertEquals(9.0f, history.getMaxValue());
+    assertEquals(-1, history.getLevel(0, 4500, 100));
+
+    List<float[]> entries = query(history, 1000, 2000, 100);
+    assertEquals(3, entries.size());
+    assertEquals(1000.0f, entries.get(0)[0]);
+    assertEquals(2.0f, entries.get(0)[4]);
+  }
+
+  public void testRollups() {
+    TimelineHistory history = new TimelineHistory();
+    // Two samples per second, for an hour
+    for (int i = 0; i < 7200; i++) {
+      history.add(i * 500, new float[]{i % 2 == 0 ? 1 : 3, 0});
+    }
+    // The raw samples only cover the end of the hour
+    assertEquals(-1, history.getLevel(3500 * 1000, 3600 * 1000, 1000));
+    // Narrow views fall back to the coarser levels
+    assertEquals(0, history.getLevel(0, 3600 * 1000, 2000));
+    assertEquals(1, history.getLevel(0, 3600 * 1000, 200));
+
+    List<float[]> entries = query(history, 0, 3600 * 1000, 200);
+    assertEquals(360, entries.size());
+    float[] bucket = entries.get(0);
+    assertEquals(0.0f, bucket[0]);
+    assertEquals(10000.0f, bucket[1]);
+    assertEquals(1.0f, bucket[2]);
+    assertEquals(3.0f, bucket[3]);
+    assertEquals(2.0f, bucket[4]);
+  }
+
+  public void testFixedCapacity() {
+    TimelineHistory history = new TimelineHistory(16);
+    for (int i = 0; i < 1000; i++) {
+      history.add(i * 1000, new float[]{i});
+    }
+    // The raw samples and the finer levels have wrapped, the coarsest level still covers everything
+    assertEquals(0, history.getStartTime());
+    assertEquals(TimelineHistory.RESOLUTIONS_MS.length - 1, history.getLevel(0, 999 * 1000, 100));
+    assertEquals(-1, history.getLevel(990 * 1000, 999 * 1000, 100));
+  }
+}
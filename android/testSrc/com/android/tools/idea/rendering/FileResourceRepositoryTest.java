@@ -15,6 +15,10 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.rendering.api.StyleResourceValue;
+import com.android.ide.common.res2.ResourceItem;
+import com.android.resources.ResourceType;
 import com.google.common.io.Files;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.testFramework.PlatformTestUtil;
@@ -24,6 +28,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import static com.intellij.testFramework.UsefulTestCase.assertSameElements;
 import static java.io.File.separatorChar;
@@ -57,6 +62,22 @@ public class FileResourceRepositoryTest extends TestCase {
     assertSameElements(repository.getAllDeclaredIds(), "id1", "id2", "id3");
   }
 
+  public void testIndexedItems() throws IOException {
+    FileResourceRepository repository = getTestRepository();
+    List<ResourceItem> items = repository.getResourceItem(ResourceType.STYLE, "MyTheme.Dark");
+    assertNotNull(items);
+    assertEquals(1, items.size());
+    ResourceItem item = items.get(0);
+    assertTrue(item instanceof AarResourceItem);
+    assertEquals("", item.getQualifiers());
+    assertNotNull(item.getSource());
+    assertEquals("foo.xml", item.getSource().getFile().getName());
+    ResourceValue value = item.getResourceValue(false);
+    assertTrue(value instanceof StyleResourceValue);
+    assertEquals("android:Theme.Light", ((StyleResourceValue)value).getParentStyle());
+    assertEquals("#999999", ((StyleResourceValue)value).getItem("textColor", true).getValue());
+  }
+
   @NotNull
   static FileResourceRepository getTestRepository() throws IOException {
     String aarPath = AndroidTestBase.getTestDataPath() + separatorChar +
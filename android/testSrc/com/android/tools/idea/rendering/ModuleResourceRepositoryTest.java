@@ -399,6 +399,42 @@ public class ModuleResourceRepositoryTest extends AndroidTestCase {
     assertEquals(expected, resourceValue.getValue());
   }
 
+  public void testIncrementalMerge() {
+    VirtualFile values1 = myFixture.copyFileToProject(VALUES, "res/values/values.xml");
+    VirtualFile values2 = myFixture.copyFileToProject(VALUES_OVERLAY1, "res2/values/values.xml");
+    VirtualFile res1 = values1.getParent().getParent();
+    VirtualFile res2 = values2.getParent().getParent();
+    ModuleResourceRepository resources = ModuleResourceRepository.createForTest(myFacet, Arrays.asList(res1, res2));
+    PsiFile psiValues2 = PsiManager.getInstance(getProject()).findFile(values2);
+    assertNotNull(psiValues2);
+
+    // Populate the merged maps
+    assertStringIs(resources, "title_crossfade", "Complex Crossfade"); // Overridden in res2
+    assertTrue(resources.hasResourceItem(ResourceType.STRING, "unique_string"));
+    long idGeneration = resources.getModificationCount(ResourceType.ID);
+    long stringGeneration = resources.getModificationCount(ResourceType.STRING);
+
+    final PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    final Document document = documentManager.getDocument(psiValues2);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(null, new Runnable() {
+      @Override
+      public void run() {
+        int offset = document.getText().indexOf("title_crossfade");
+        document.insertString(offset, "new_");
+        documentManager.commitDocument(document);
+      }
+    });
+
+    // Only the renamed entries are merged again: the base definition is no longer overridden
+    assertTrue(resources.hasResourceItem(ResourceType.STRING, "new_title_crossfade"));
+    assertStringIs(resources, "title_crossfade", "Simple Crossfade");
+    assertStringIs(resources, "new_title_crossfade", "Complex Crossfade");
+    assertTrue(resources.hasResourceItem(ResourceType.STRING, "unique_string"));
+    assertTrue(resources.getModificationCount(ResourceType.STRING) > stringGeneration);
+    assertEquals(idGeneration, resources.getModificationCount(ResourceType.ID));
+  }
+
   public void testAllowEmpty() {
     assertTrue(LintUtils.assertionsEnabled()); // this test should be run with assertions enabled!
     LocalResourceRepository repository = ModuleResourceRepository.createForTest(myFacet, Collections.<VirtualFile>emptyList());
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RenderSchedulerTest extends TestCase {
+  public void testRendersAreSerialized() throws Exception {
+    final RenderScheduler scheduler = new RenderScheduler();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      final boolean background = i % 2 == 0;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            scheduler.run(background, new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                int count = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), count));
+                Thread.sleep(10);
+                running.decrementAndGet();
+                return null;
+              }
+            });
+          }
+          catch (Exception e) {
+            fail(e.toString());
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(5000);
+    }
+    assertEquals(1, maxRunning.get());
+    assertEquals(4, scheduler.getRenderCount());
+  }
+
+  public void testForegroundRendersGoFirst() throws Exception {
+    final RenderScheduler scheduler = new RenderScheduler();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    Thread first = startRender(scheduler, false, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        started.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return null;
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Thread background = startRender(scheduler, true, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        order.add("background");
+        return null;
+      }
+    });
+    Thread.sleep(50);
+    Thread foreground = startRender(scheduler, false, new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        order.add("foreground");
+        return null;
+      }
+    });
+    Thread.sleep(50);
+    release.countDown();
+    first.join(5000);
+    background.join(5000);
+    foreground.join(5000);
+    assertEquals(Arrays.asList("foreground", "background"), order);
+  }
+
+  public void testNestedActionsDoNotDeadlock() throws Exception {
+    final RenderScheduler scheduler = new RenderScheduler();
+    String result = scheduler.run(false, new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return scheduler.run(true, new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return "nested";
+          }
+        });
+      }
+    });
+    assertEquals("nested", result);
+    assertEquals(1, scheduler.getRenderCount());
+    assertTrue(scheduler.getRenderNanos() >= 0);
+    assertTrue(scheduler.getQueueWaitNanos() >= 0);
+  }
+
+  private static Thread startRender(final RenderScheduler scheduler, final boolean background, final Callable<Void> callable) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          scheduler.run(background, callable);
+        }
+        catch (Exception e) {
+          fail(e.toString());
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+}
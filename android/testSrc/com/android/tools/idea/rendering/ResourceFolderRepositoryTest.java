@@ -27,11 +27,13 @@ import com.android.tools.idea.databinding.DataBindingUtil;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import com.intellij.psi.XmlElementFactory;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
@@ -163,6 +165,95 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     assertNotNull(resources.getResourceItem(ResourceType.LAYOUT, "layout2"));
   }
 
+  public void testBatchedRescans() throws Exception {
+    VirtualFile file1 = myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    VirtualFile file2 = myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
+    PsiFile psiFile1 = PsiManager.getInstance(getProject()).findFile(file1);
+    PsiFile psiFile2 = PsiManager.getInstance(getProject()).findFile(file2);
+    assertNotNull(psiFile1);
+    assertNotNull(psiFile2);
+    ResourceFolderRepository resources = createRepository();
+    long generation = resources.getModificationCount();
+
+    resetScanCounter();
+    resources.rescan(psiFile1, ResourceFolderType.VALUES);
+    resources.rescan(psiFile2, ResourceFolderType.LAYOUT);
+    // Rescheduling a pending file is a no-op
+    resources.rescan(psiFile1, ResourceFolderType.VALUES);
+    assertTrue(resources.isScanPending(psiFile1));
+    assertTrue(resources.isScanPending(psiFile2));
+
+    // Both files are handled by the same batch
+    UIUtil.dispatchAllInvocationEvents();
+    assertFalse(resources.isScanPending(psiFile1));
+    assertFalse(resources.isScanPending(psiFile2));
+    assertEquals(2, ourFullRescans);
+    assertTrue(resources.getModificationCount() > generation);
+    assertTrue(resources.hasResourceItem(ResourceType.STRING, "app_name"));
+    assertTrue(resources.hasResourceItem(ResourceType.LAYOUT, "layout1"));
+  }
+
+  public void testParallelPreload() throws Exception {
+    final VirtualFile file1 = myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
+    myFixture.copyFileToProject(LAYOUT1, "res/layout-land/layout1.xml");
+    myFixture.copyFileToProject(DRAWABLE, "res/drawable/logo.png");
+    List<VirtualFile> resourceDirectories = myFacet.getAllResourceDirectories();
+    if (!ResourceFolderPreloader.isEnabled()) {
+      assertEquals(0, ResourceFolderPreloader.preload(getProject(), resourceDirectories, null));
+      return;
+    }
+
+    // Only the values and layout files are parsed
+    assertEquals(3, ResourceFolderPreloader.preload(getProject(), resourceDirectories, null));
+    assertEquals(2, ResourceFolderPreloader.preload(getProject(), resourceDirectories, new Condition<VirtualFile>() {
+      @Override
+      public boolean value(VirtualFile file) {
+        return !file.equals(file1);
+      }
+    }));
+
+    ResourceFolderRepository resources = createRepository();
+    assertTrue(resources.hasResourceItem(ResourceType.STRING, "app_name"));
+    assertEquals(2, resources.getResourceItem(ResourceType.LAYOUT, "layout1").size());
+  }
+
+  public void testSnapshot() throws Exception {
+    myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
+    myFixture.copyFileToProject(VALUES1, "res/values/myvalues.xml");
+    ResourceFolderSnapshot.ourEnabledInTests = true;
+    try {
+      ResourceFolderRepository resources = createRepository();
+      assertNotNull(resources);
+      List<ResourceItem> labelList = resources.getResourceItem(ResourceType.STRING, "title_template_step");
+      assertNotNull(labelList);
+      ResourceValue expected = labelList.get(0).getResourceValue(false);
+      assertNotNull(expected);
+      Collection<String> ids = resources.getItemsOfType(ResourceType.ID);
+      resources.saveSnapshot();
+
+      // Recreate the repository: the items should be restored from the snapshot without parsing the files
+      ResourceFolderRegistry.reset();
+      resources = createRepository();
+      labelList = resources.getResourceItem(ResourceType.STRING, "title_template_step");
+      assertNotNull(labelList);
+      assertEquals(1, labelList.size());
+      ResourceItem label = labelList.get(0);
+      assertTrue(label instanceof PsiResourceItem);
+      assertTrue(((PsiResourceItem)label).isTagPending());
+      ResourceValue resourceValue = label.getResourceValue(false);
+      assertNotNull(resourceValue);
+      assertEquals(expected.getValue(), resourceValue.getValue());
+      assertFalse(((PsiResourceItem)label).isTagPending());
+      assertNotNull(((PsiResourceItem)label).getTag());
+      assertEquals(ids, resources.getItemsOfType(ResourceType.ID));
+      assertNotNull(resources.getResourceItem(ResourceType.LAYOUT, "layout1"));
+    }
+    finally {
+      ResourceFolderSnapshot.ourEnabledInTests = false;
+    }
+  }
+
   public void testAddFile() throws Exception {
     myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
     myFixture.copyFileToProject(LAYOUT1, "res/layout/layout2.xml");
@@ -893,6 +984,43 @@ public class ResourceFolderRepositoryTest extends AndroidTestCase {
     });
   }
 
+  public void testAddTagWithIdsIncrementally() throws Exception {
+    resetScanCounter();
+    VirtualFile file1 = myFixture.copyFileToProject(LAYOUT1, "res/layout/layout1.xml");
+    PsiFile psiFile1 = PsiManager.getInstance(getProject()).findFile(file1);
+    assertNotNull(psiFile1);
+    assert(psiFile1 instanceof XmlFile);
+    final XmlFile xmlFile = (XmlFile)psiFile1;
+    final ResourceFolderRepository resources = createRepository();
+    assertNotNull(resources);
+    assertFalse(resources.hasResourceItem(ResourceType.ID, "newid1"));
+
+    final long generation = resources.getModificationCount();
+    final long idGeneration = resources.getModificationCount(ResourceType.ID);
+    final long layoutGeneration = resources.getModificationCount(ResourceType.LAYOUT);
+
+    // Add a tag declaring an id, and another one only referenced with "@+id/", through PSI
+    WriteCommandAction.runWriteCommandAction(null, new Runnable() {
+      @Override
+      public void run() {
+        XmlTag header = findTagById(xmlFile, "text2");
+        assertNotNull(header);
+        XmlTag parent = header.getParentTag();
+        assertNotNull(parent);
+        XmlTag tag = XmlElementFactory.getInstance(getProject()).createTagFromText(
+          "<Button android:id=\"@+id/newid1\" android:layout_below=\"@+id/newid2\"/>");
+        parent.addSubTag(tag, false);
+      }
+    });
+    ensureIncremental();
+    assertTrue(resources.hasResourceItem(ResourceType.ID, "newid1"));
+    assertTrue(resources.hasResourceItem(ResourceType.ID, "newid2"));
+    assertTrue(generation < resources.getModificationCount());
+    // Clients caching the set of ids, such as the light R classes, must see the new ids
+    assertTrue(idGeneration < resources.getModificationCount(ResourceType.ID));
+    assertEquals(layoutGeneration, resources.getModificationCount(ResourceType.LAYOUT));
+  }
+
   public void testEditIdAttributeValue() throws Exception {
     resetScanCounter();
     // Edit the id attribute value of a layout item to change the set of available ids
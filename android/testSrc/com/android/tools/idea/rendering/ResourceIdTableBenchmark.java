@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the resource id lookups of {@link ResourceIdTable} with the maps {@link AppResourceRepository} used before it.
+ * This is not a test, since its timings depend on the machine; run its main method to print the time per lookup of both
+ * implementations, on one thread and on several concurrent render threads.
+ * <p/>
+ * The lookups are a synthetic mix resembling what layoutlib asks {@link LayoutlibCallbackImpl} for during a render: mostly
+ * reverse lookups of compiled ids, some name lookups, and a few names missing from the R class.
+ */
+@SuppressWarnings({"deprecation", "UseOfSystemOutOrSystemErr"}) // For Pair
+public class ResourceIdTableBenchmark {
+  private static final ResourceType[] TYPES = {ResourceType.ATTR, ResourceType.DRAWABLE, ResourceType.LAYOUT, ResourceType.ID,
+    ResourceType.STRING, ResourceType.STYLE, ResourceType.COLOR, ResourceType.DIMEN};
+  private static final int ENTRIES = 2000;
+  private static final int LOOKUPS = 1000000;
+  private static final int ROUNDS = 10;
+
+  private static final int OP_RESOLVE = 0;
+  private static final int OP_GET_ID = 1;
+  private static final int OP_GET_MISSING_ID = 2;
+
+  /** The lookups made by the benchmark */
+  private interface IdLookup {
+    int getId(@NotNull ResourceType type, @NotNull String name);
+
+    @Nullable
+    Pair<ResourceType, String> resolve(int id);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+    // Precompute the operations so that the timed loops only do lookups
+    Random random = new Random(42);
+    final int[] ops = new int[LOOKUPS];
+    final ResourceType[] types = new ResourceType[LOOKUPS];
+    final String[] names = new String[LOOKUPS];
+    final String[] missingNames = new String[LOOKUPS];
+    final int[] ids = new int[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      int entry = random.nextInt(TYPES.length * ENTRIES);
+      int t = entry / ENTRIES;
+      int e = entry % ENTRIES;
+      types[i] = TYPES[t];
+      names[i] = TYPES[t].getName() + e;
+      missingNames[i] = "missing" + e;
+      ids[i] = getCompiledId(t, e);
+      ops[i] = i % 4 == 0 ? OP_GET_ID : i % 50 == 1 ? OP_GET_MISSING_ID : OP_RESOLVE;
+    }
+    Trace trace = new Trace(ops, types, names, missingNames, ids);
+
+    for (int threadCount : new int[]{1, threads}) {
+      System.out.println(threadCount + (threadCount == 1 ? " thread" : " threads") + ":");
+      System.out.println("  maps:            " + format(run(createMapLookup(), trace, threadCount)));
+      System.out.println("  ResourceIdTable: " + format(run(createTableLookup(), trace, threadCount)));
+    }
+  }
+
+  private static int getCompiledId(int typeIndex, int entry) {
+    return 0x7f000000 | ((typeIndex + 1) << 16) | entry;
+  }
+
+  @NotNull
+  private static String format(double nanosPerLookup) {
+    return String.format("%.1f ns/lookup", nanosPerLookup);
+  }
+
+  /**
+   * Runs the trace on each of the given number of threads for a number of rounds, and returns the wall time of the best round
+   * divided by the number of lookups each thread made
+   */
+  private static double run(@NotNull IdLookup lookup, @NotNull final Trace trace, int threadCount) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      best = Math.min(best, runRound(lookup, trace, threadCount));
+    }
+    return (double)best / LOOKUPS;
+  }
+
+  private static long runRound(@NotNull final IdLookup lookup, @NotNull final Trace trace, int threadCount) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final int[] checksums = new int[threadCount];
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          checksums[index] = trace.replay(lookup);
+        }
+      };
+      threads[i].start();
+    }
+    long startTime = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long time = System.nanoTime() - startTime;
+    for (int checksum : checksums) {
+      if (checksum != checksums[0]) {
+        throw new IllegalStateException("Threads saw different lookup results");
+      }
+    }
+    return time;
+  }
+
+  @NotNull
+  private static IdLookup createTableLookup() {
+    ResourceIdTable.Builder builder = new ResourceIdTable.Builder();
+    for (int t = 0; t < TYPES.length; t++) {
+      for (int e = 0; e < ENTRIES; e++) {
+        builder.addId(TYPES[t], TYPES[t].getName() + e, getCompiledId(t, e));
+      }
+    }
+    final ResourceIdTable table = new ResourceIdTable();
+    table.setCompiledIds(builder);
+    return new IdLookup() {
+      @Override
+      public int getId(@NotNull ResourceType type, @NotNull String name) {
+        return table.getId(type, name);
+      }
+
+      @Nullable
+      @Override
+      public Pair<ResourceType, String> resolve(int id) {
+        return table.resolve(id);
+      }
+    };
+  }
+
+  @NotNull
+  private static IdLookup createMapLookup() {
+    Map<ResourceType, TObjectIntHashMap<String>> nameToId = new EnumMap<ResourceType, TObjectIntHashMap<String>>(ResourceType.class);
+    TIntObjectHashMap<Pair<ResourceType, String>> idToName = new TIntObjectHashMap<Pair<ResourceType, String>>();
+    for (int t = 0; t < TYPES.length; t++) {
+      TObjectIntHashMap<String> map = new TObjectIntHashMap<String>();
+      for (int e = 0; e < ENTRIES; e++) {
+        String name = TYPES[t].getName() + e;
+        map.put(name, getCompiledId(t, e));
+        idToName.put(getCompiledId(t, e), Pair.of(TYPES[t], name));
+      }
+      nameToId.put(TYPES[t], map);
+    }
+    return new MapLookup(nameToId, idToName);
+  }
+
+  /** The lookups of AppResourceRepository before {@link ResourceIdTable}, with the dynamic ids behind a lock */
+  private static class MapLookup implements IdLookup {
+    private final Map<ResourceType, TObjectIntHashMap<String>> myResourceValueMap;
+    private final TIntObjectHashMap<Pair<ResourceType, String>> myResIdValueToNameMap;
+    private final TObjectIntHashMap<Pair<ResourceType, String>> myName2DynamicIdMap = new TObjectIntHashMap<Pair<ResourceType, String>>();
+    private final TIntObjectHashMap<Pair<ResourceType, String>> myDynamicId2ResourceMap =
+      new TIntObjectHashMap<Pair<ResourceType, String>>();
+    private int myDynamicSeed = ResourceIdTable.DYNAMIC_ID_SEED_START;
+
+    MapLookup(@NotNull Map<ResourceType, TObjectIntHashMap<String>> resourceValueMap,
+              @NotNull TIntObjectHashMap<Pair<ResourceType, String>> resIdValueToNameMap) {
+      myResourceValueMap = resourceValueMap;
+      myResIdValueToNameMap = resIdValueToNameMap;
+    }
+
+    @Override
+    public int getId(@NotNull ResourceType type, @NotNull String name) {
+      TObjectIntHashMap<String> map = myResourceValueMap.get(type);
+      if (map == null || !map.containsKey(name)) {
+        return getDynamicId(type, name);
+      }
+      return map.get(name);
+    }
+
+    private int getDynamicId(@NotNull ResourceType type, @NotNull String name) {
+      Pair<ResourceType, String> key = Pair.of(type, name);
+      synchronized (myName2DynamicIdMap) {
+        if (myName2DynamicIdMap.containsKey(key)) {
+          return myName2DynamicIdMap.get(key);
+        }
+        int value = ++myDynamicSeed;
+        myName2DynamicIdMap.put(key, value);
+        myDynamicId2ResourceMap.put(value, key);
+        return value;
+      }
+    }
+
+    @Nullable
+    @Override
+    public Pair<ResourceType, String> resolve(int id) {
+      Pair<ResourceType, String> result = myResIdValueToNameMap.get(id);
+      if (result == null) {
+        synchronized (myName2DynamicIdMap) {
+          result = myDynamicId2ResourceMap.get(id);
+        }
+      }
+      return result;
+    }
+  }
+
+  private static class Trace {
+    private final int[] myOps;
+    private final ResourceType[] myTypes;
+    private final String[] myNames;
+    private final String[] myMissingNames;
+    private final int[] myIds;
+
+    Trace(@NotNull int[] ops, @NotNull ResourceType[] types, @NotNull String[] names, @NotNull String[] missingNames,
+          @NotNull int[] ids) {
+      myOps = ops;
+      myTypes = types;
+      myNames = names;
+      myMissingNames = missingNames;
+      myIds = ids;
+    }
+
+    /** Makes all the lookups of the trace, and returns a checksum of the results so that they cannot be optimized away */
+    int replay(@NotNull IdLookup lookup) {
+      int checksum = 0;
+      for (int i = 0; i < myOps.length; i++) {
+        switch (myOps[i]) {
+          case OP_GET_ID:
+            checksum += lookup.getId(myTypes[i], myNames[i]);
+            break;
+          case OP_GET_MISSING_ID:
+            checksum += lookup.resolve(lookup.getId(myTypes[i], myMissingNames[i])).getSecond().length();
+            break;
+          default:
+            checksum += lookup.resolve(myIds[i]).getSecond().length();
+        }
+      }
+      return checksum;
+    }
+  }
+}
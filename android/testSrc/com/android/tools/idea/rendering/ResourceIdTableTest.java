@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.resources.ResourceType;
+import com.android.util.Pair;
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+@SuppressWarnings("deprecation") // For Pair
+public class ResourceIdTableTest extends TestCase {
+  public void testCompiledIds() {
+    ResourceIdTable table = new ResourceIdTable();
+    table.setCompiledIds(new ResourceIdTable.Builder()
+                           .addId(ResourceType.STRING, "app_name", 0x7f050000)
+                           .addId(ResourceType.STRING, "title", 0x7f050003)
+                           .addId(ResourceType.LAYOUT, "main", 0x7f030000)
+                           .addId(ResourceType.ATTR, "lib_attr", 0x01010000)
+                           .addStyleable("MyView", new int[]{0x7f010000, 0x7f010001}));
+
+    assertEquals(0x7f050000, table.getId(ResourceType.STRING, "app_name"));
+    assertEquals(0x7f050003, table.getId(ResourceType.STRING, "title"));
+    assertEquals(0x7f030000, table.getId(ResourceType.LAYOUT, "main"));
+
+    Pair<ResourceType, String> pair = table.resolve(0x7f050003);
+    assertNotNull(pair);
+    assertEquals(ResourceType.STRING, pair.getFirst());
+    assertEquals("title", pair.getSecond());
+    // Lookups return the same preallocated pair
+    assertSame(pair, table.resolve(0x7f050003));
+    assertNull(table.resolve(0x7f050001));
+    assertNull(table.resolve(0x7f060000));
+    assertEquals("lib_attr", table.resolve(0x01010000).getSecond());
+
+    assertEquals("MyView", table.resolveStyleable(new int[]{0x7f010000, 0x7f010001}));
+    assertNull(table.resolveStyleable(new int[]{0x7f010000}));
+  }
+
+  public void testDynamicIds() {
+    ResourceIdTable table = new ResourceIdTable();
+    table.setCompiledIds(new ResourceIdTable.Builder().addId(ResourceType.STRING, "app_name", 0x7f050000));
+
+    int id = table.getId(ResourceType.STRING, "missing");
+    assertEquals(ResourceIdTable.DYNAMIC_ID_SEED_START + 1, id);
+    assertEquals(id, table.getId(ResourceType.STRING, "missing"));
+    assertTrue(id != table.getId(ResourceType.LAYOUT, "missing"));
+    assertEquals("missing", table.resolve(id).getSecond());
+    assertEquals(ResourceType.STRING, table.resolve(id).getFirst());
+
+    // Replacing the compiled ids keeps the dynamic ids, resetting them does not
+    table.setCompiledIds(new ResourceIdTable.Builder());
+    assertEquals(id, table.getId(ResourceType.STRING, "missing"));
+    table.resetDynamicIds();
+    assertNull(table.resolve(id));
+    assertEquals(ResourceIdTable.DYNAMIC_ID_SEED_START + 1, table.getId(ResourceType.LAYOUT, "other"));
+  }
+
+  public void testConcurrentDynamicIds() throws Exception {
+    final ResourceIdTable table = new ResourceIdTable();
+    final int threadCount = 4;
+    final int names = 3000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final Set<Integer> ids = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < names; j++) {
+            ids.add(table.getId(ResourceType.ID, "id" + j));
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    // Every thread must have seen the same id for each name
+    assertEquals(names, ids.size());
+    for (int j = 0; j < names; j++) {
+      int id = table.getId(ResourceType.ID, "id" + j);
+      assertTrue(ids.contains(id));
+      assertEquals("id" + j, table.resolve(id).getSecond());
+    }
+  }
+
+  /**
+   * Checks a synthetic mix of lookups resembling those layoutlib makes through {@link LayoutlibCallbackImpl} while rendering:
+   * mostly reverse lookups of compiled ids, name lookups, and a few lookups of resources missing from the R class. See
+   * {@link ResourceIdTableBenchmark} for their timings.
+   */
+  public void testLookupTrace() {
+    ResourceIdTable table = new ResourceIdTable();
+    ResourceIdTable.Builder builder = new ResourceIdTable.Builder();
+    ResourceType[] types = {ResourceType.ATTR, ResourceType.DRAWABLE, ResourceType.LAYOUT, ResourceType.ID, ResourceType.STRING,
+      ResourceType.STYLE, ResourceType.COLOR, ResourceType.DIMEN};
+    int entries = 2000;
+    for (int t = 0; t < types.length; t++) {
+      for (int e = 0; e < entries; e++) {
+        builder.addId(types[t], types[t].getName() + e, 0x7f000000 | ((t + 1) << 16) | e);
+      }
+    }
+    table.setCompiledIds(builder);
+
+    Random random = new Random(42);
+    for (int i = 0; i < 200000; i++) {
+      int entry = random.nextInt(types.length * entries);
+      int t = entry / entries;
+      int e = entry % entries;
+      int compiledId = 0x7f000000 | ((t + 1) << 16) | e;
+      if (i % 4 == 0) {
+        assertEquals(compiledId, table.getId(types[t], types[t].getName() + e));
+      }
+      else if (i % 50 == 1) {
+        int id = table.getId(types[t], "missing" + e);
+        assertEquals("missing" + e, table.resolve(id).getSecond());
+      }
+      else {
+        Pair<ResourceType, String> pair = table.resolve(compiledId);
+        assertNotNull(pair);
+        assertEquals(types[t].getName() + e, pair.getSecond());
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.run;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ApkDeltaTest extends TestCase {
+  private static final long TIME = 1430000000000L;
+
+  private File myTempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTempDir = FileUtil.createTempDirectory("apk_delta_test", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myTempDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testUnchangedEntriesAreCopied() throws Exception {
+    File oldApk = new File(myTempDir, "old.apk");
+    File newApk = new File(myTempDir, "new.apk");
+    byte[] dex = randomBytes(1, 100000);
+    writeZip(oldApk, TIME, "classes.dex", dex, "res/layout/main.xml", "layout");
+    writeZip(newApk, TIME, "classes.dex", dex, "res/layout/main.xml", "new layout");
+
+    ApkDelta delta = ApkDelta.create(ApkDelta.readLayout(oldApk), ApkDelta.readLayout(newApk));
+    assertNotNull(delta);
+    assertTrue(delta.getPatchSize() < 1000);
+    // classes.dex, then the changed layout, the directory and the end record
+    assertEquals(2, delta.getSegments().size());
+    assertTrue(delta.getSegments().get(0).myFromOld);
+    checkApply(delta, oldApk, newApk);
+  }
+
+  public void testEntriesWithNewHeaders() throws Exception {
+    File oldApk = new File(myTempDir, "old.apk");
+    File newApk = new File(myTempDir, "new.apk");
+    byte[] dex = randomBytes(1, 100000);
+    byte[] resources = randomBytes(2, 50000);
+    writeZip(oldApk, TIME, "classes.dex", dex, "resources.arsc", resources);
+    // Repackaging changes the timestamps in the local headers, but the data is still copied
+    writeZip(newApk, TIME + 10000, "classes.dex", dex, "resources.arsc", resources, "res/layout/added.xml", "layout");
+
+    ApkDelta delta = ApkDelta.create(ApkDelta.readLayout(oldApk), ApkDelta.readLayout(newApk));
+    assertNotNull(delta);
+    assertTrue(delta.getPatchSize() < 1000);
+    checkApply(delta, oldApk, newApk);
+  }
+
+  public void testNotWorthIt() throws Exception {
+    File oldApk = new File(myTempDir, "old.apk");
+    File newApk = new File(myTempDir, "new.apk");
+    writeZip(oldApk, TIME, "classes.dex", randomBytes(1, 10000), "res/layout/main.xml", "layout");
+    writeZip(newApk, TIME, "classes.dex", randomBytes(2, 10000), "res/layout/main.xml", "layout");
+    assertNull(ApkDelta.create(ApkDelta.readLayout(oldApk), ApkDelta.readLayout(newApk)));
+
+    // Too many segments to run on the device
+    Object[] oldEntries = new Object[4 * ApkDelta.MAX_SEGMENTS];
+    Object[] newEntries = new Object[oldEntries.length];
+    for (int i = 0; i < oldEntries.length; i += 2) {
+      oldEntries[i] = newEntries[i] = "res/raw/r" + i;
+      oldEntries[i + 1] = randomBytes(i, 1000);
+      newEntries[i + 1] = i % 8 == 0 ? randomBytes(-i - 1, 1000) : oldEntries[i + 1];
+    }
+    writeZip(oldApk, TIME, oldEntries);
+    writeZip(newApk, TIME, newEntries);
+    assertNull(ApkDelta.create(ApkDelta.readLayout(oldApk), ApkDelta.readLayout(newApk)));
+  }
+
+  /** Runs the script of the delta with the local shell, which has the same tail and head commands as devices */
+  private void checkApply(@NotNull ApkDelta delta, @NotNull File oldApk, @NotNull File newApk) throws Exception {
+    if (SystemInfo.isWindows) {
+      return;
+    }
+    File patch = new File(myTempDir, "apk.patch");
+    File script = new File(myTempDir, "apk.sh");
+    File result = new File(myTempDir, "result.apk");
+    delta.writePatch(newApk, patch);
+    assertEquals(delta.getPatchSize(), patch.length());
+    FileUtil.writeToFile(script, delta.getScript(oldApk.getPath(), patch.getPath(), result.getPath()));
+
+    Process process = new ProcessBuilder("sh", script.getPath()).redirectErrorStream(true).start();
+    String output = FileUtil.loadTextAndClose(new InputStreamReader(process.getInputStream()));
+    assertEquals(output, 0, process.waitFor());
+    assertTrue(Arrays.equals(FileUtil.loadFileBytes(newApk), FileUtil.loadFileBytes(result)));
+  }
+
+  @NotNull
+  private static byte[] randomBytes(long seed, int size) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Writes a zip of the given entry names, each followed by its contents as a byte array or a string */
+  private static void writeZip(@NotNull File file, long time, @NotNull Object... namesAndContents) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        ZipEntry entry = new ZipEntry((String)namesAndContents[i]);
+        entry.setTime(time);
+        out.putNextEntry(entry);
+        Object contents = namesAndContents[i + 1];
+        out.write(contents instanceof byte[] ? (byte[])contents : ((String)contents).getBytes("UTF-8"));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+}
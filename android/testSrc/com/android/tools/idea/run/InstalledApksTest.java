@@ -25,8 +25,12 @@ import org.easymock.EasyMock;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @SuppressWarnings("StaticMethodReferencedViaSubclass")
 public class InstalledApksTest extends TestCase {
@@ -74,6 +78,8 @@ public class InstalledApksTest extends TestCase {
     assertFalse(myService.isInstalled(myDevice1, myFile, myPkgName));
     myService.setInstalled(myDevice1, myFile, myPkgName);
     assertTrue(myService.isInstalled(myDevice1, myFile, myPkgName));
+    // Not a zip file, so it can only be pushed in full
+    assertNull(myService.getInstalledLayout(myDevice1, myPkgName));
   }
 
   public void testUploadModifiedApk() throws Exception {
@@ -119,4 +125,45 @@ public class InstalledApksTest extends TestCase {
     assertNull(myService.getLastUpdateTime(myDevice1, "com.foo"));
     assertNull(myService.getLastUpdateTime(myDevice1, "xyz"));
   }
-}
\ No newline at end of file
+
+  public void testChangedEntries() throws Exception {
+    File apk = FileUtil.createTempFile("entries", ".apk");
+    writeZip(apk, 1000, "classes.dex", "dex", "res/layout/main.xml", "layout");
+    assertNull(myService.getChangedEntries(myDevice1, apk, myPkgName));
+    assertNull(myService.getInstalledLayout(myDevice1, myPkgName));
+    myService.setInstalled(myDevice1, apk, myPkgName);
+    // What a delta push starts from
+    assertNotNull(myService.getInstalledLayout(myDevice1, myPkgName));
+
+    // Repackaging the same contents with different timestamps doesn't count as a change
+    writeZip(apk, 2000, "classes.dex", "dex", "res/layout/main.xml", "layout");
+    assertEquals(Collections.<String>emptyList(), myService.getChangedEntries(myDevice1, apk, myPkgName));
+    assertTrue(myService.isInstalled(myDevice1, apk, myPkgName));
+
+    writeZip(apk, 3000, "classes.dex", "dex", "res/layout/main.xml", "new layout");
+    assertEquals(Collections.singletonList("res/layout/main.xml"), myService.getChangedEntries(myDevice1, apk, myPkgName));
+    assertFalse(myService.isInstalled(myDevice1, apk, myPkgName));
+
+    writeZip(apk, 4000, "classes.dex", "dex");
+    assertEquals(Collections.singletonList("res/layout/main.xml"), myService.getChangedEntries(myDevice1, apk, myPkgName));
+  }
+
+  private static void writeZip(@NotNull File file, long lastModified, @NotNull String... namesAndContents) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        ZipEntry entry = new ZipEntry(namesAndContents[i]);
+        entry.setTime(lastModified);
+        out.putNextEntry(entry);
+        out.write(namesAndContents[i + 1].getBytes("UTF-8"));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+    // The contents are cached by size and timestamp
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(lastModified);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.augment;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+public class ResourceTypeClassTest extends AndroidTestCase {
+  private PsiFile myValues;
+  private PsiClass myContext;
+  private ResourceTypeClass myStrings;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myValues = myFixture.addFileToProject("res/values/strings.xml",
+                                          "<resources>\n" +
+                                          "  <string name=\"app_name\">App</string>\n" +
+                                          "  <string name=\"hello\">Hello</string>\n" +
+                                          "  <string name=\"world\">World</string>\n" +
+                                          "</resources>\n");
+    myContext = myFixture.addClass("package p1.p2; public class R {}");
+    myStrings = new ResourceTypeClass(myFacet, "string", myContext);
+  }
+
+  public void testFindFieldByNameIsLazy() {
+    final PsiField hello = myStrings.findFieldByName("hello", false);
+    assertNotNull(hello);
+    assertEquals("hello", hello.getName());
+    assertSame(hello, myStrings.findFieldByName("hello", false));
+    assertNull(myStrings.findFieldByName("missing", false));
+    assertEquals(1, myStrings.getResourceFields().getCreatedFieldCount());
+  }
+
+  public void testGetFieldsIsConsistentWithFindFieldByName() {
+    final PsiField hello = myStrings.findFieldByName("hello", false);
+    final PsiField[] fields = myStrings.getFields();
+    assertEquals(3, fields.length);
+    assertEquals("app_name", fields[0].getName());
+    assertSame(hello, fields[1]);
+    assertSame(fields[2], myStrings.findFieldByName("world", false));
+    assertSame(fields, myStrings.getFields());
+
+    // Ids are assigned by position, so they must not depend on the order in which the fields are created
+    final ResourceTypeClass strings = new ResourceTypeClass(myFacet, "string", myContext);
+    final PsiField world = strings.findFieldByName("world", false);
+    assertNotNull(world);
+    assertEquals(((AndroidLightField)fields[2]).computeConstantValue(), ((AndroidLightField)world).computeConstantValue());
+  }
+
+  public void testInvalidation() {
+    final PsiField[] fields = myStrings.getFields();
+
+    // Editing a value doesn't change the fields
+    replace("Hello", "Hi");
+    assertSame(fields, myStrings.getFields());
+
+    // Adding a string does
+    replace("<string name=\"world\">", "<string name=\"new_string\">New</string><string name=\"world\">");
+    assertEquals(4, myStrings.getFields().length);
+    assertNotNull(myStrings.findFieldByName("new_string", false));
+
+    // Recreating the app resources starts their generations over, which must not leave stale fields behind
+    final PsiField[] before = myStrings.getFields();
+    myFacet.refreshResources();
+    assertNotSame(before, myStrings.getFields());
+    assertEquals(4, myStrings.getFields().length);
+  }
+
+  private void replace(@NotNull final String oldText, @NotNull final String newText) {
+    final PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    final Document document = documentManager.getDocument(myValues);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(null, new Runnable() {
+      @Override
+      public void run() {
+        final int offset = document.getText().indexOf(oldText);
+        assertTrue(offset >= 0);
+        document.replaceString(offset, offset + oldText.length(), newText);
+        documentManager.commitDocument(document);
+      }
+    });
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.logcat;
+
+import com.android.ddmlib.Log;
+import org.jetbrains.android.logcat.AndroidLogcatReceiver.LogMessageHeader;
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+public class LogcatHistoryTest extends TestCase {
+  private LogcatHistory myHistory;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myHistory = LogcatHistory.create();
+    assertNotNull(myHistory);
+
+    add(Log.LogLevel.DEBUG, 100, "com.example.app", "MainActivity", "onCreate called");   // 0
+    add(Log.LogLevel.ERROR, 100, "com.example.app", "MainActivity", "Crash in renderer"); // 1
+    myHistory.addContinuation("    at com.example.Renderer.draw(Renderer.java:42)");     // 2
+    add(Log.LogLevel.INFO, 200, "com.example.other", "Network", "Connected to host");    // 3
+    add(Log.LogLevel.WARN, 200, "com.example.other", "NetworkStats", "Slow response");   // 4
+    add(Log.LogLevel.VERBOSE, 300, "", "dalvikvm", "GC freed 1024 objects");             // 5
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    myHistory.close();
+    super.tearDown();
+  }
+
+  private void add(Log.LogLevel level, int pid, String pkg, String tag, String message) {
+    add(myHistory, level, pid, pkg, tag, message);
+  }
+
+  private static void add(LogcatHistory history, Log.LogLevel level, int pid, String pkg, String tag, String message) {
+    LogMessageHeader header = new LogMessageHeader();
+    header.myTime = "01-01 00:00:00.000";
+    header.myLogLevel = level;
+    header.myPid = pid;
+    header.myTid = Integer.toString(pid);
+    header.myAppPackage = pkg;
+    header.myTag = tag;
+    history.addMessage(header, message, AndroidLogcatFormatter.formatMessage(message, header));
+  }
+
+  private int[] query(String level, String pid, String pkg, String tag, String message) throws Exception {
+    return query(myHistory, level, pid, pkg, tag, message);
+  }
+
+  private static int[] query(LogcatHistory history, String level, String pid, String pkg, String tag, String message)
+    throws Exception {
+    AndroidConfiguredLogFilters.MyFilterEntry entry = new AndroidConfiguredLogFilters.MyFilterEntry();
+    entry.setLogLevel(level);
+    entry.setPid(pid);
+    entry.setPackageNamePattern(pkg);
+    entry.setLogTagPattern(tag);
+    entry.setLogMessagePattern(message);
+    return history.query(ConfiguredFilter.compile(entry, "test"), null);
+  }
+
+  private static void assertRecords(int[] actual, int... expected) {
+    assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+  }
+
+  public void testText() {
+    assertEquals(6, myHistory.getRecordCount());
+    String text = myHistory.getText(1);
+    assertNotNull(text);
+    assertTrue(text, text.endsWith("MainActivity" + AndroidLogcatFormatter.TAG_SEPARATOR + " Crash in renderer"));
+    assertEquals("    at com.example.Renderer.draw(Renderer.java:42)", myHistory.getText(2));
+    assertEquals(Log.LogLevel.ERROR, myHistory.getLevel(2));
+    assertEquals(1, myHistory.getGroupStart(2));
+    assertEquals(3, myHistory.getGroupStart(3));
+  }
+
+  public void testHeaderFields() throws Exception {
+    assertRecords(query(null, null, null, null, null), 0, 1, 2, 3, 4, 5);
+    assertRecords(query("WARN", null, null, null, null), 1, 2, 4);
+    assertRecords(query(null, "200", null, null, null), 3, 4);
+    assertRecords(query(null, "oops", null, null, null));
+    assertRecords(query(null, null, "com\\.example\\.app", null, null), 0, 1, 2);
+    // Package patterns have to match the whole name, tag patterns any part of it
+    assertRecords(query(null, null, "com\\.example", null, null));
+    assertRecords(query(null, null, null, "Network", null), 3, 4);
+    assertRecords(query(null, null, null, "^Network$", null), 3);
+    assertRecords(query("INFO", "200", "com.example.other", "Net", null), 3, 4);
+  }
+
+  public void testMessages() throws Exception {
+    // Literal patterns are narrowed down by the token index, including partial tokens
+    assertRecords(query(null, null, null, null, "freed 1024"), 5);
+    assertRecords(query(null, null, null, null, "onCre"), 0);
+    assertRecords(query(null, null, null, null, "ected to"), 3);
+    assertRecords(query(null, null, null, null, "nothing like this"));
+    // Patterns without upper case are case insensitive
+    assertRecords(query(null, null, null, null, "crash"), 1, 2);
+    assertRecords(query(null, null, null, null, "Slow|GC"), 4, 5);
+    // Matching a continuation line shows the whole message
+    assertRecords(query(null, null, null, null, "Renderer.java"), 1, 2);
+    assertRecords(query(null, null, null, "dalvik", "Renderer"));
+  }
+
+  public void testMinLevel() throws Exception {
+    AndroidConfiguredLogFilters.MyFilterEntry entry = new AndroidConfiguredLogFilters.MyFilterEntry();
+    entry.setLogLevel("INFO");
+    ConfiguredFilter filter = ConfiguredFilter.compile(entry, "test");
+    assertRecords(myHistory.query(filter, Log.LogLevel.ERROR), 1, 2);
+    assertRecords(myHistory.query(filter, Log.LogLevel.DEBUG), 1, 2, 3, 4);
+  }
+
+  public void testReceiver() throws Exception {
+    LogcatHistory history = LogcatHistory.create();
+    assertNotNull(history);
+    try {
+      StringWriter writer = new StringWriter();
+      AndroidLogcatReceiver receiver = new AndroidLogcatReceiver(null, writer, history);
+      receiver.processNewLine("[ 02-11 16:41:10.621 17945:17995 W/GAV2     ]");
+      receiver.processNewLine("Connection to service failed");
+      receiver.processNewLine("");
+      receiver.processNewLine("[ 02-11 16:41:10.622 17945:17995 I/Other ]");
+      receiver.processNewLine("Done");
+
+      assertEquals(2, history.getRecordCount());
+      assertEquals(writer.toString(), history.getText(0) + "\n" + history.getText(1) + "\n");
+
+      AndroidConfiguredLogFilters.MyFilterEntry entry = new AndroidConfiguredLogFilters.MyFilterEntry();
+      entry.setLogTagPattern("GAV2");
+      assertRecords(history.query(ConfiguredFilter.compile(entry, "test"), null), 0);
+    }
+    finally {
+      history.close();
+    }
+  }
+
+  public void testEviction() throws Exception {
+    // Segments of two records, of which two are kept
+    LogcatHistory history = LogcatHistory.create(2, 2);
+    assertNotNull(history);
+    try {
+      for (int i = 0; i < 7; i++) {
+        add(history, Log.LogLevel.INFO, 100 + i % 2, "com.example.app", "Tag" + i % 2, "message " + i);
+      }
+      assertEquals(7, history.getRecordCount());
+      assertEquals(4, history.getFirstRecord());
+      assertNull(history.getText(3));
+      assertNull(history.getLevel(3));
+      String text = history.getText(4);
+      assertNotNull(text);
+      assertTrue(text, text.endsWith("message 4"));
+
+      assertRecords(query(history, null, null, null, null, null), 4, 5, 6);
+      assertRecords(query(history, null, null, null, null, "message"), 4, 5, 6);
+      assertRecords(query(history, null, null, null, null, "message 1"));
+      assertRecords(query(history, null, "101", null, null, null), 5);
+      assertRecords(query(history, null, null, null, "Tag0", null), 4, 6);
+
+      // Continuation lines keep the header of their message after it has been evicted
+      add(history, Log.LogLevel.ERROR, 100, "com.example.app", "Crash", "Crash in renderer"); // 7
+      for (int i = 0; i < 4; i++) {
+        history.addContinuation("    at frame " + i);                                        // 8 - 11
+      }
+      assertEquals(8, history.getFirstRecord());
+      assertEquals(Log.LogLevel.ERROR, history.getLevel(11));
+      assertRecords(query(history, "ERROR", null, null, null, null), 8, 9, 10, 11);
+      assertRecords(query(history, null, null, null, "Crash", "frame 3"), 8, 9, 10, 11);
+    }
+    finally {
+      history.close();
+    }
+    assertNull(history.getText(11));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.logcat;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.Writer;
+
+public class LogcatRingBufferTest extends TestCase {
+  public void testLines() throws Exception {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(64);
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.poll(false));
+
+    buffer.append("first");
+    buffer.append("sec\u00f6nd");
+    assertFalse(buffer.isEmpty());
+    assertEquals("first", buffer.poll(false));
+    assertEquals("sec\u00f6nd", buffer.poll(false));
+    assertNull(buffer.poll(false));
+    assertEquals(0, buffer.getDroppedLines());
+  }
+
+  public void testWrapAround() throws Exception {
+    // Records are 4 length bytes plus the line, so the ring wraps many times
+    LogcatRingBuffer buffer = new LogcatRingBuffer(30);
+    for (int i = 0; i < 100; i++) {
+      buffer.append("line " + i);
+      assertEquals("line " + i, buffer.poll(false));
+    }
+    assertEquals(0, buffer.getDroppedLines());
+  }
+
+  public void testDropOldest() throws Exception {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(30);
+    // Each record takes 10 bytes, so only the last three fit
+    for (int i = 0; i < 5; i++) {
+      buffer.append("line-" + i);
+    }
+    assertEquals(2, buffer.getDroppedLines());
+    String notice = buffer.poll(false);
+    assertNotNull(notice);
+    assertTrue(notice, notice.contains("2 lines skipped"));
+    assertEquals("line-2", buffer.poll(false));
+    assertEquals("line-3", buffer.poll(false));
+    assertEquals("line-4", buffer.poll(false));
+    assertNull(buffer.poll(false));
+
+    // Lines which do not fit at all are dropped as well
+    buffer.append("a line which is longer than the whole buffer");
+    assertEquals(3, buffer.getDroppedLines());
+    assertTrue(buffer.poll(false).contains("1 lines skipped"));
+  }
+
+  public void testClear() throws Exception {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(30);
+    for (int i = 0; i < 5; i++) {
+      buffer.append("line-" + i);
+    }
+    buffer.clear();
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.poll(false));
+    buffer.append("after");
+    assertEquals("after", buffer.poll(false));
+  }
+
+  public void testLinesPerSecond() {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(1024);
+    long start = 10000;
+    for (int i = 0; i < 5; i++) {
+      buffer.append("line", start + i);
+    }
+    assertEquals(0, buffer.getLinesPerSecond(start + 500));
+    // Reading the gauge does not count as a line
+    assertEquals(0, buffer.getLinesPerSecond(start + 600));
+    assertEquals(5, buffer.getLinesPerSecond(start + 1000));
+    assertEquals(5, buffer.getLinesPerSecond(start + 1500));
+    // No lines were appended in the last window
+    assertEquals(0, buffer.getLinesPerSecond(start + 2000));
+  }
+
+  public void testWriterAndReader() throws Exception {
+    LogcatRingBuffer buffer = new LogcatRingBuffer(1024);
+    Writer writer = buffer.createWriter();
+    BufferedReader reader = new BufferedReader(buffer.createReader());
+    assertFalse(reader.ready());
+
+    writer.write("one\ntw");
+    assertTrue(reader.ready());
+    assertEquals("one", reader.readLine());
+    assertFalse(reader.ready());
+    writer.write("o\nthree\n");
+    assertEquals("two", reader.readLine());
+    assertEquals("three", reader.readLine());
+
+    writer.close();
+    assertNull(reader.readLine());
+    assertTrue(buffer.isClosed());
+  }
+
+  public void testReaderBlocksUntilLine() throws Exception {
+    final LogcatRingBuffer buffer = new LogcatRingBuffer(1024);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        }
+        catch (InterruptedException ignore) {
+        }
+        buffer.append("late");
+        buffer.close();
+      }
+    };
+    producer.start();
+    BufferedReader reader = new BufferedReader(buffer.createReader());
+    assertEquals("late", reader.readLine());
+    assertNull(reader.readLine());
+    producer.join();
+  }
+}
@@ -247,7 +247,11 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
 
   private final Object myRenderingQueueLock = new Object();
   private MergingUpdateQueue myRenderingQueue;
-  private static final Object RENDERING_LOCK = new Object();
+  /**
+   * Serializes renders of this model; renders of different models are run one at a time by the
+   * {@link com.android.tools.idea.rendering.RenderScheduler}
+   */
+  private final Object myRenderingLock = new Object();
 
 
   private void doRender() {
@@ -271,7 +275,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     LayoutPullParserFactory.saveFileIfNecessary(myFile);
 
     RenderResult result = null;
-    synchronized (RENDERING_LOCK) {
+    synchronized (myRenderingLock) {
       RenderService renderService = RenderService.get(myFacet);
       RenderLogger logger = renderService.createLogger();
       final RenderTask task = renderService.createTask(myFile, configuration, logger, null);